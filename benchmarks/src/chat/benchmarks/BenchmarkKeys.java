@@ -0,0 +1,46 @@
+package chat.benchmarks;
+
+import chat.encryption.CryptoManager;
+import chat.encryption.EncryptionException;
+
+import javax.crypto.KeyGenerator;
+import java.security.NoSuchAlgorithmException;
+import java.util.Random;
+
+/**
+ * Keys and payloads shared by the benchmarks.
+ */
+public final class BenchmarkKeys {
+    private BenchmarkKeys() {
+    }
+
+    /**
+     * Create a crypto manager like the one loaded from a key file generated by KeyGeneratorMain
+     *
+     * @param algorithm "AES" for the AEAD suites or "DES" for the legacy suite
+     * @return The crypto manager instance
+     * @throws EncryptionException Throws when the keys can't be used
+     * @throws NoSuchAlgorithmException Throws when the algorithm isn't available
+     */
+    public static CryptoManager cryptoManager(String algorithm) throws EncryptionException, NoSuchAlgorithmException {
+        KeyGenerator keyGen = KeyGenerator.getInstance(algorithm);
+        if (algorithm.equals("AES")) keyGen.init(256);
+
+        return new CryptoManager(keyGen.generateKey(), KeyGenerator.getInstance("HmacSHA512").generateKey());
+    }
+
+    /**
+     * Create chat text of the given length
+     *
+     * @param length The number of characters
+     * @return The text, always the same for the same length
+     */
+    public static String text(int length) {
+        Random random = new Random(length);
+        StringBuilder builder = new StringBuilder(length);
+        for (int i = 0; i < length; i++) {
+            builder.append((char) ('a' + random.nextInt(26)));
+        }
+        return builder.toString();
+    }
+}
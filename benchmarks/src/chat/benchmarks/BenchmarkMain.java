@@ -0,0 +1,40 @@
+package chat.benchmarks;
+
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Runs the benchmarks once for every thread count.
+ *
+ * JMH takes a single thread count per run, this sweeps them so that contention on shared
+ * state (the crypto manager, the prepared message) shows up in the results. The results of
+ * every run are written to build/results/jmh/threads-N.json.
+ *
+ * System properties:
+ * - chat.benchmarks.threads: comma separated thread counts, defaults to 1,2,4,8
+ * - chat.benchmarks.include: regular expression of the benchmarks to run, defaults to all of them
+ */
+public class BenchmarkMain {
+    public static void main(String[] args) throws RunnerException {
+        String include = System.getProperty("chat.benchmarks.include", "chat\\..*Benchmark");
+        String[] threadCounts = System.getProperty("chat.benchmarks.threads", "1,2,4,8").split(",");
+
+        for (String threadCount : threadCounts) {
+            int threads = Integer.parseInt(threadCount.trim());
+            Options options = new OptionsBuilder()
+                    .include(include)
+                    .threads(threads)
+                    .forks(1)
+                    .warmupIterations(3)
+                    .measurementIterations(5)
+                    .resultFormat(ResultFormatType.JSON)
+                    .result("benchmarks/build/results/jmh/threads-" + threads + ".json")
+                    .build();
+
+            new Runner(options).run();
+        }
+    }
+}
@@ -0,0 +1,80 @@
+package chat.benchmarks;
+
+import chat.encryption.CipherSuite;
+import chat.encryption.CryptoManager;
+import chat.encryption.EncryptionException;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.NoSuchAlgorithmException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Encrypting and decrypting a message with every cipher suite.
+ *
+ * The crypto manager is shared by all benchmark threads, like the server shares it between
+ * all clients, while every thread has its own buffers.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class CryptoBenchmark {
+    @Param({"AES_GCM", "CHACHA20_POLY1305", "DES_HMAC_SHA512"})
+    public CipherSuite suite;
+
+    @Param({"64", "1024", "16384"})
+    public int payloadSize;
+
+    private CryptoManager cryptoManager;
+    private byte[] plaintext;
+    private ByteBuffer encrypted;
+    private ByteBuffer ciphertext;
+    private ByteBuffer decrypted;
+
+    @Setup
+    public void setup(SharedKeys keys) throws EncryptionException {
+        cryptoManager = suite.isAead() ? keys.aead : keys.legacy;
+        plaintext = BenchmarkKeys.text(payloadSize).getBytes(StandardCharsets.UTF_8);
+        encrypted = ByteBuffer.allocate(cryptoManager.getEncryptedLength(suite, plaintext.length));
+
+        ciphertext = ByteBuffer.allocate(encrypted.capacity());
+        cryptoManager.encrypt(suite, ByteBuffer.wrap(plaintext), ciphertext);
+        ciphertext.flip();
+        decrypted = ByteBuffer.allocate(cryptoManager.getDecryptedLength(ciphertext));
+    }
+
+    @Benchmark
+    public int encrypt() throws EncryptionException {
+        encrypted.clear();
+        return cryptoManager.encrypt(suite, ByteBuffer.wrap(plaintext), encrypted);
+    }
+
+    @Benchmark
+    public int decrypt() throws EncryptionException {
+        decrypted.clear();
+        return cryptoManager.decrypt(ciphertext.duplicate(), decrypted);
+    }
+
+    /**
+     * One crypto manager for every thread
+     */
+    @State(Scope.Benchmark)
+    public static class SharedKeys {
+        CryptoManager aead;
+        CryptoManager legacy;
+
+        @Setup
+        public void setup() throws EncryptionException, NoSuchAlgorithmException {
+            aead = BenchmarkKeys.cryptoManager("AES");
+            legacy = BenchmarkKeys.cryptoManager("DES");
+        }
+    }
+}
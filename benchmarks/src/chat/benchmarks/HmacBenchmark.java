@@ -0,0 +1,48 @@
+package chat.benchmarks;
+
+import chat.encryption.CryptoManager;
+import chat.encryption.EncryptionException;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.nio.charset.StandardCharsets;
+import java.security.NoSuchAlgorithmException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Generating and checking the HMAC the legacy suite sends with every message.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class HmacBenchmark {
+    @Param({"64", "1024", "16384"})
+    public int payloadSize;
+
+    private CryptoManager cryptoManager;
+    private byte[] ciphertext;
+    private byte[] hmac;
+
+    @Setup
+    public void setup() throws EncryptionException, NoSuchAlgorithmException {
+        cryptoManager = BenchmarkKeys.cryptoManager("DES");
+        ciphertext = cryptoManager.encrypt(BenchmarkKeys.text(payloadSize).getBytes(StandardCharsets.UTF_8));
+        hmac = cryptoManager.generateHmac(ciphertext);
+    }
+
+    @Benchmark
+    public byte[] generateHmac() throws EncryptionException {
+        return cryptoManager.generateHmac(ciphertext);
+    }
+
+    @Benchmark
+    public boolean checkIntegrity() throws EncryptionException {
+        return cryptoManager.checkIntegrity(ciphertext, hmac);
+    }
+}
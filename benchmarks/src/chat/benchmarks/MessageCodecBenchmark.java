@@ -0,0 +1,60 @@
+package chat.benchmarks;
+
+import chat.messages.MalformedMessageException;
+import chat.messages.Message;
+import chat.messages.MessageCodec;
+import chat.messages.MessageCodecs;
+import chat.messages.TextMessage;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Converting a TextMessage to and from bytes, with Gson (the json codec) and the binary codec.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class MessageCodecBenchmark {
+    @Param({"json", "binary"})
+    public String codecName;
+
+    @Param({"64", "1024", "16384"})
+    public int payloadSize;
+
+    private MessageCodec codec;
+    private Message message;
+    private byte[] encoded;
+
+    @Setup
+    public void setup() {
+        codec = codecName.equals(MessageCodecs.BINARY.getName()) ? MessageCodecs.BINARY : MessageCodecs.JSON;
+        message = TextMessage.make(BenchmarkKeys.text(payloadSize));
+        message.putData(TextMessage.DATA_SENDER_ID, UUID.randomUUID().toString());
+        message.putData(TextMessage.DATA_SENDER_NAME, "benchmark");
+        encoded = codec.encode(message);
+    }
+
+    @Benchmark
+    public byte[] encode() {
+        return codec.encode(message);
+    }
+
+    @Benchmark
+    public Message decode() throws MalformedMessageException {
+        return codec.decode(encoded);
+    }
+
+    @Benchmark
+    public Message roundTrip() throws MalformedMessageException {
+        return codec.decode(codec.encode(message));
+    }
+}
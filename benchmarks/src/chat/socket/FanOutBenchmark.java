@@ -0,0 +1,99 @@
+package chat.socket;
+
+import chat.benchmarks.BenchmarkKeys;
+import chat.encryption.CryptoManager;
+import chat.encryption.EncryptionException;
+import chat.messages.Message;
+import chat.messages.TextMessage;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Sending one chat message to N connected clients the way the Server does: one PreparedMessage
+ * handed to every client's socket. The sockets write to in-memory sinks, so only the
+ * serialization, encryption and queueing is measured.
+ *
+ * With shared keys every client uses the keys from the key file and the frame is sealed
+ * once. With session keys every client did the handshake first and the frame is sealed once
+ * per client.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class FanOutBenchmark {
+    @Param({"1", "10", "100", "1000"})
+    public int recipients;
+
+    @Param({"64", "1024", "16384"})
+    public int payloadSize;
+
+    @Param({"SHARED", "SESSION"})
+    public String keys;
+
+    private final List<ThreadedSocket> sockets = new ArrayList<>();
+    private String text;
+    private String senderId;
+
+    @Setup
+    public void setup() throws EncryptionException, NoSuchAlgorithmException {
+        CryptoManager cryptoManager = BenchmarkKeys.cryptoManager("AES");
+        for (int i = 0; i < recipients; i++) {
+            MemoryTransport sink = new MemoryTransport();
+            ThreadedSocket socket = new ThreadedSocket(sink, cryptoManager, null);
+            socket.setOnMessageListener((message, s) -> { });
+            socket.setOnDisconnectListener(s -> { });
+            socket.start();
+
+            if (keys.equals("SESSION")) {
+                // Run the handshake with a client socket on the other end, then cut it loose
+                MemoryTransport toServer = new MemoryTransport();
+                ThreadedSocket client = new ThreadedSocket(toServer, cryptoManager, "memory");
+                client.setOnMessageListener((message, s) -> { });
+                client.setOnDisconnectListener(s -> { });
+                toServer.connect(socket);
+                sink.connect(client);
+                client.start();
+
+                sink.connect(null);
+                client.disconnect();
+                if (!socket.hasSessionKeys()) throw new IllegalStateException("The handshake did not complete");
+            }
+            sockets.add(socket);
+        }
+
+        text = BenchmarkKeys.text(payloadSize);
+        senderId = UUID.randomUUID().toString();
+    }
+
+    @TearDown
+    public void tearDown() {
+        sockets.forEach(ThreadedSocket::disconnect);
+        sockets.clear();
+    }
+
+    @Benchmark
+    public PreparedMessage broadcast() {
+        Message message = TextMessage.make(text);
+        message.putData(TextMessage.DATA_SENDER_ID, senderId);
+        message.putData(TextMessage.DATA_SENDER_NAME, "benchmark");
+
+        PreparedMessage prepared = new PreparedMessage(message);
+        for (ThreadedSocket socket : sockets) {
+            socket.sendMessage(prepared);
+        }
+        return prepared;
+    }
+}
@@ -0,0 +1,70 @@
+package chat.socket;
+
+import chat.benchmarks.BenchmarkKeys;
+import chat.encryption.CipherSuite;
+import chat.encryption.CryptoManager;
+import chat.encryption.EncryptionException;
+import chat.messages.MalformedMessageException;
+import chat.messages.Message;
+import chat.messages.MessageCodec;
+import chat.messages.MessageCodecs;
+import chat.messages.TextMessage;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.nio.ByteBuffer;
+import java.security.NoSuchAlgorithmException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Building and opening a complete frame the way ThreadedSocket does: encode and seal when
+ * sending, open and decode when receiving.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class FrameBenchmark {
+    @Param({"AES_GCM", "CHACHA20_POLY1305", "DES_HMAC_SHA512"})
+    public CipherSuite suite;
+
+    @Param({"json", "binary"})
+    public String codecName;
+
+    @Param({"64", "1024", "16384"})
+    public int payloadSize;
+
+    private CryptoManager cryptoManager;
+    private MessageCodec codec;
+    private Message message;
+    private ByteBuffer raw;
+    private ByteBuffer hmac;
+
+    @Setup
+    public void setup() throws EncryptionException, NoSuchAlgorithmException {
+        cryptoManager = BenchmarkKeys.cryptoManager(suite.isAead() ? "AES" : "DES");
+        codec = codecName.equals(MessageCodecs.BINARY.getName()) ? MessageCodecs.BINARY : MessageCodecs.JSON;
+        message = TextMessage.make(BenchmarkKeys.text(payloadSize));
+
+        ByteBuffer frame = Frames.seal(cryptoManager, suite, codec.encode(message));
+        int length = frame.getInt();
+        int lengthHmac = frame.getInt();
+        raw = frame.slice().limit(length);
+        hmac = frame.position(Frames.HEADER_LENGTH + length).slice().limit(lengthHmac);
+    }
+
+    @Benchmark
+    public ByteBuffer encode() throws EncryptionException {
+        return Frames.seal(cryptoManager, suite, codec.encode(message));
+    }
+
+    @Benchmark
+    public Message decode() throws EncryptionException, MalformedMessageException {
+        return MessageCodecs.decode(Frames.open(cryptoManager, raw.duplicate(), hmac.duplicate()));
+    }
+}
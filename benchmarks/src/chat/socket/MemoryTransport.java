@@ -0,0 +1,60 @@
+package chat.socket;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A transport that hands frames straight to another socket in the same process, or counts
+ * and drops them once it is used as a sink.
+ *
+ * Lives in the chat.socket package so that it can implement the package-private Transport.
+ */
+class MemoryTransport implements Transport {
+    private final LongAdder bytesWritten = new LongAdder();
+    private volatile ThreadedSocket peer;
+
+    /**
+     * Deliver written frames to the given socket, or drop them if null
+     *
+     * @param peer The socket on the other end
+     */
+    void connect(ThreadedSocket peer) {
+        this.peer = peer;
+    }
+
+    long getBytesWritten() {
+        return bytesWritten.sum();
+    }
+
+    @Override
+    public void start(ThreadedSocket owner, Executor executor) {
+    }
+
+    @Override
+    public void write(ByteBuffer frame) {
+        bytesWritten.add(frame.remaining());
+
+        ThreadedSocket peer = this.peer;
+        if (peer == null) return;
+
+        int length = frame.getInt(frame.position());
+        int lengthHmac = frame.getInt(frame.position() + 4);
+        ByteBuffer raw = frame.duplicate();
+        raw.position(frame.position() + Frames.HEADER_LENGTH).limit(frame.position() + Frames.HEADER_LENGTH + length);
+        ByteBuffer hmac = frame.duplicate();
+        hmac.position(raw.limit()).limit(raw.limit() + lengthHmac);
+
+        peer.onFrame(raw, hmac);
+    }
+
+    @Override
+    public int getQueuedFrames() {
+        return 0;
+    }
+
+    @Override
+    public void close() {
+        peer = null;
+    }
+}
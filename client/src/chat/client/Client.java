@@ -2,21 +2,50 @@ package chat.client;
 
 import chat.encryption.CryptoManager;
 import chat.encryption.EncryptionException;
+import chat.encryption.TicketCache;
+import chat.messages.AuthMessage;
+import chat.messages.HistoryEndMessage;
+import chat.messages.HistoryRequestMessage;
 import chat.messages.Message;
 import chat.messages.TextMessage;
+import chat.socket.EventLoopGroup;
+import chat.socket.SharedScheduler;
 import chat.socket.ThreadedSocket;
+import chat.socket.TransportType;
 import org.yaml.snakeyaml.Yaml;
 
 import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.FileReader;
 import java.io.IOException;
+import java.util.Locale;
+import java.util.Map;
 import java.util.Scanner;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
 
 public class Client implements Runnable {
-    private ThreadedSocket socket;
+    private static final int RECONNECT_ATTEMPTS = 5;
+    private static final long RECONNECT_DELAY = 1;
+    private static final int HISTORY_PAGE_SIZE = 20;
+    private static final long NO_OLDER_MESSAGES = -1;
+    private static final String LOBBY = "";
+    private static final String LOBBY_NAME = "lobby";
+
+    private volatile ThreadedSocket socket;
     private volatile boolean connected = false;
+    private volatile boolean closing = false;
+    private volatile boolean quitting = false;
     private ClientConfig config;
+    private final CryptoManager cryptoManager;
+    private final TicketCache ticketCache = new TicketCache();
+    private EventLoopGroup eventLoopGroup;
+    // The room messages typed in the console are sent to
+    private volatile String room = LOBBY;
+    // Where the next /history page of each room starts, the server sends it after every page
+    private final Map<String, Long> historyCursors = new ConcurrentHashMap<>();
+    // Sent again after reconnecting, null until the user logs in
+    private volatile AuthMessage login;
 
     Client() throws IOException, EncryptionException {
         try {
@@ -28,28 +57,142 @@ public class Client implements Runnable {
             System.exit(1);
         }
 
-        socket = new ThreadedSocket(config.getHost(), config.getPort(), CryptoManager.loadFromFile(config.getKeyFile()));
+        cryptoManager = CryptoManager.loadFromFile(config.getKeyFile());
+        if (config.getTransport() == TransportType.NIO)
+            eventLoopGroup = new EventLoopGroup(1);
+
+        socket = connect();
+    }
+
+    /**
+     * Open a new connection to the server
+     *
+     * Connections share the ticket cache, so a new connection resumes the session of the
+     * previous one rather than doing a full key exchange.
+     *
+     * @return The socket, not started yet
+     * @throws IOException Throws when the server can't be reached
+     */
+    private ThreadedSocket connect() throws IOException {
+        ThreadedSocket socket;
+        if (eventLoopGroup != null) {
+            socket = new ThreadedSocket(config.getHost(), config.getPort(), eventLoopGroup, cryptoManager);
+        } else {
+            socket = new ThreadedSocket(config.getHost(), config.getPort(), cryptoManager);
+        }
+        socket.setTicketCache(ticketCache);
         socket.setOnDisconnectListener(this::handleDisconnected);
         socket.setOnMessageListener(this::handleMessage);
+        return socket;
     }
 
     private void handleDisconnected(ThreadedSocket socket) {
+        if (socket != this.socket) return; // A connection that was already replaced
+
         this.connected = false;
+        if (quitting) closing = true;
+        if (!closing) {
+            System.out.println("Lost the connection to the server, reconnecting...");
+            SharedScheduler.get().schedule(() -> reconnect(1), RECONNECT_DELAY, TimeUnit.SECONDS);
+        }
+    }
+
+    /**
+     * Try to connect to the server again after the connection was lost
+     *
+     * @param attempt The number of the attempt, starting at 1
+     */
+    private void reconnect(int attempt) {
+        if (closing) return;
+
+        try {
+            ThreadedSocket socket = connect();
+            this.socket = socket;
+            socket.start();
+            this.connected = true;
+            System.out.println("Reconnected to the server.");
+            // The new connection starts out logged out and in the lobby, the server handles the join after the login
+            if (login != null) socket.sendMessage(login);
+            if (!room.equals(LOBBY)) socket.sendMessage("/join " + room);
+        } catch (IOException e) {
+            if (attempt >= RECONNECT_ATTEMPTS) {
+                System.out.println("Could not reconnect to the server.");
+                disconnect();
+                return;
+            }
+            SharedScheduler.get().schedule(() -> reconnect(attempt + 1), RECONNECT_DELAY << attempt, TimeUnit.SECONDS);
+        }
     }
 
     private void handleMessage(Message message, ThreadedSocket socket) {
         if (message.getCommand().equals(TextMessage.COMMAND)) {
             String sender = message.getDataOrDefault(TextMessage.DATA_SENDER_NAME, null);
             String raw = message.getData(TextMessage.DATA_RAW_TEXT);
+            String room = message.getDataOrDefault(TextMessage.DATA_ROOM, LOBBY);
+            String prefix = room.equals(LOBBY) ? "" : "[#" + room + "] ";
             if (sender == null) { // Message from the server
-                System.out.println(raw);
+                System.out.println(prefix + raw);
             } else {
-                System.out.println(sender + "> " + raw);
+                System.out.println(prefix + sender + "> " + raw);
             }
+        } else if (message.getCommand().equals(HistoryEndMessage.COMMAND)) {
+            String before = message.getData(HistoryEndMessage.DATA_BEFORE);
+            historyCursors.put(message.getDataOrDefault(HistoryEndMessage.DATA_ROOM, LOBBY),
+                    before == null ? NO_OLDER_MESSAGES : Long.parseLong(before));
+        }
+    }
+
+    /**
+     * Ask the server for the page of messages of the current room before the oldest one received so far
+     */
+    private void requestHistory() {
+        String room = this.room;
+        long before = historyCursors.getOrDefault(room, Long.MAX_VALUE);
+        if (before == NO_OLDER_MESSAGES) {
+            System.out.println("There are no older messages.");
+            return;
+        }
+        socket.sendMessage(new HistoryRequestMessage(room, before, HISTORY_PAGE_SIZE));
+    }
+
+    /**
+     * Log in to an account, or create it if the server allows it
+     *
+     * @param line The line typed in the console, /login followed by the username and password
+     */
+    private void login(String line) {
+        String[] parts = line.trim().split(" +");
+        if (parts.length != 3) {
+            System.out.println("Usage: /login <name> <password>");
+            return;
+        }
+
+        login = new AuthMessage(parts[1], parts[2]);
+        socket.sendMessage(login);
+    }
+
+    /**
+     * Keep track of the room to send messages to when the user joins or leaves one
+     *
+     * The server answers if the room can't be joined, messages sent to it are then refused.
+     *
+     * @param line The line typed in the console
+     */
+    private void updateRoom(String line) {
+        String[] parts = line.trim().split(" ");
+        if (parts.length < 2) return;
+
+        String room = parts[1].toLowerCase(Locale.ROOT);
+        if (room.equals(LOBBY_NAME)) room = LOBBY;
+        if (parts[0].equalsIgnoreCase("/join")) {
+            this.room = room;
+        } else if (parts[0].equalsIgnoreCase("/part") && room.equals(this.room)) {
+            this.room = LOBBY;
         }
     }
 
     public void disconnect() {
+        this.closing = true;
         this.connected = false;
         socket.disconnect();
         System.exit(1); // Force the console reading thread to stop
@@ -58,15 +201,35 @@ public class Client implements Runnable {
     @Override
     public void run() {
         socket.start();
+        connected = true;
 
         new Thread(() -> {
-            connected = true;
-
             Scanner scanner = new Scanner(System.in);
-            while (connected) {
+            while (!closing) {
                 String line = scanner.nextLine();
+                if (!connected) {
+                    System.out.println("Not connected to the server, the message was not sent.");
+                    continue;
+                }
+
+                // Older messages are asked for with a message of their own rather than a command
+                if (line.trim().equalsIgnoreCase("/history")) {
+                    requestHistory();
+                    continue;
+                }
+
+                // The password is sent in a message of its own so it never shows up as chat text
+                if (line.trim().split(" +")[0].equalsIgnoreCase("/login")) {
+                    login(line);
+                    continue;
+                }
+
+                // The server closes the connection, which shouldn't be taken as a network blip
+                if (line.trim().equalsIgnoreCase("/quit")) quitting = true;
+                updateRoom(line);
+
                 try {
-                    this.socket.sendMessage(line);
+                    this.socket.sendMessage(TextMessage.make(room, line));
                 } catch (Exception e) {
                     e.printStackTrace();
                     System.out.flush();
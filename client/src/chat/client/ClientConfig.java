@@ -1,9 +1,12 @@
 package chat.client;
 
+import chat.socket.TransportType;
+
 public class ClientConfig {
     private String host;
     private int port;
     private String keyFile;
+    private TransportType transport = TransportType.BLOCKING;
 
     public String getHost() {
         return host;
@@ -28,4 +31,12 @@ public class ClientConfig {
     public void setKeyFile(String keyFile) {
         this.keyFile = keyFile;
     }
+
+    public TransportType getTransport() {
+        return transport;
+    }
+
+    public void setTransport(TransportType transport) {
+        this.transport = transport;
+    }
 }
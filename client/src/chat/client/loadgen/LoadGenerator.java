@@ -0,0 +1,362 @@
+package chat.client.loadgen;
+
+import chat.encryption.CryptoManager;
+import chat.encryption.EncryptionException;
+import chat.encryption.TicketCache;
+import chat.messages.Message;
+import chat.messages.TextMessage;
+import chat.socket.EventLoopGroup;
+import chat.socket.ThreadedSocket;
+import chat.socket.TransportType;
+import org.HdrHistogram.Histogram;
+import org.HdrHistogram.Recorder;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * The LoadGenerator class.
+ *
+ * Opens many connections to a server on loopback and sends text messages from them at a fixed
+ * overall rate. Every message carries the time it was meant to be sent, the connections that
+ * receive the broadcast record the end-to-end latency from it. Measuring from the intended time
+ * rather than the actual one keeps a stalled sender from hiding the stall (coordinated omission).
+ * Latencies are recorded in microseconds.
+ */
+public class LoadGenerator {
+    static final String PREFIX = "lg ";
+    private static final long SEND_TICK_MICROS = 1000;
+    private static final int SIGNIFICANT_DIGITS = 3;
+
+    private final LoadGeneratorConfig config;
+    private final CryptoManager cryptoManager;
+    private final TicketCache ticketCache;
+    private final int[] sizes;
+    private final int[] cumulativeWeights;
+    private final AtomicReferenceArray<ThreadedSocket> sockets;
+
+    private final Recorder recorder = new Recorder(SIGNIFICANT_DIGITS);
+    private final Histogram total = new Histogram(SIGNIFICANT_DIGITS);
+    private final LongAdder sent = new LongAdder();
+    private final LongAdder received = new LongAdder();
+    private final LongAdder disconnects = new LongAdder();
+    private final LongAdder connectFailures = new LongAdder();
+
+    private EventLoopGroup eventLoopGroup;
+    private ExecutorService readExecutor;
+    private volatile boolean stopping = false;
+
+    private long sendStart;
+    private long scheduled = 0;
+    private int nextSocket = 0;
+
+    private long measureStart;
+    private long sentAtMeasureStart;
+    private long receivedAtMeasureStart;
+    private long lastReport;
+    private long sentAtLastReport;
+    private long receivedAtLastReport;
+
+    /**
+     * Create a load generator
+     *
+     * @param config The settings of the run
+     * @throws IOException Throws when the host can't be resolved or the key file can't be read
+     * @throws EncryptionException Throws when the key file doesn't contain valid keys
+     * @throws IllegalArgumentException Throws when the host is not a loopback address or the settings are invalid
+     */
+    public LoadGenerator(LoadGeneratorConfig config) throws IOException, EncryptionException {
+        this.config = config;
+
+        InetAddress address = InetAddress.getByName(config.getHost());
+        if (!address.isLoopbackAddress())
+            throw new IllegalArgumentException("The load generator only runs against a local server, " + config.getHost() + " is not a loopback address.");
+        if (config.getConnections() < 2)
+            throw new IllegalArgumentException("At least two connections are needed, one to send and one to receive.");
+        if (config.getMessageRate() <= 0 || config.getConnectRate() <= 0)
+            throw new IllegalArgumentException("The message and connect rates must be positive.");
+
+        List<LoadGeneratorConfig.MessageSize> distribution = config.getMessageSizes();
+        if (distribution == null || distribution.isEmpty())
+            throw new IllegalArgumentException("At least one message size is needed.");
+        sizes = new int[distribution.size()];
+        cumulativeWeights = new int[distribution.size()];
+        int weights = 0;
+        for (int i = 0; i < sizes.length; i++) {
+            LoadGeneratorConfig.MessageSize entry = distribution.get(i);
+            if (entry.getSize() < 0 || entry.getWeight() <= 0)
+                throw new IllegalArgumentException("Message sizes can't be negative and weights must be positive.");
+            sizes[i] = entry.getSize();
+            weights += entry.getWeight();
+            cumulativeWeights[i] = weights;
+        }
+
+        cryptoManager = CryptoManager.loadFromFile(config.getKeyFile());
+        ticketCache = config.isResumeSessions() ? new TicketCache() : null;
+        sockets = new AtomicReferenceArray<>(config.getConnections());
+    }
+
+    /**
+     * Run the load test and print the results
+     *
+     * Connects, sends for the warm-up and the measured duration, waits for in-flight messages
+     * and disconnects again. Progress is reported every report interval.
+     *
+     * @throws IOException Throws when the event loops can't be created
+     * @throws InterruptedException Throws when interrupted while waiting for the run to finish
+     */
+    public void run() throws IOException, InterruptedException {
+        if (config.getTransport() == TransportType.NIO) {
+            eventLoopGroup = new EventLoopGroup(config.getEventLoopThreads());
+        } else {
+            readExecutor = config.getThreadMode().newExecutor();
+        }
+
+        try {
+            connectAll();
+            if (connected() < 2) {
+                System.out.println("Not enough connections to the server, stopping.");
+                return;
+            }
+
+            ScheduledExecutorService sender = Executors.newSingleThreadScheduledExecutor(runnable -> daemon(runnable, "loadgen-sender"));
+            ScheduledExecutorService reporter = Executors.newSingleThreadScheduledExecutor(runnable -> daemon(runnable, "loadgen-reporter"));
+
+            sendStart = System.nanoTime();
+            lastReport = sendStart;
+            measureStart = sendStart + TimeUnit.SECONDS.toNanos(config.getWarmupSeconds());
+            sender.scheduleAtFixedRate(this::sendDue, 0, SEND_TICK_MICROS, TimeUnit.MICROSECONDS);
+            reporter.scheduleAtFixedRate(this::report, config.getReportInterval(), config.getReportInterval(), TimeUnit.SECONDS);
+            // Runs on the reporter thread so it never interleaves with a report
+            reporter.schedule(this::startMeasuring, config.getWarmupSeconds(), TimeUnit.SECONDS);
+
+            System.out.println("Sending " + config.getMessageRate() + " messages/s, warming up for " + config.getWarmupSeconds() + "s");
+            TimeUnit.SECONDS.sleep(config.getWarmupSeconds() + config.getDurationSeconds());
+
+            sender.shutdownNow();
+            sender.awaitTermination(1, TimeUnit.SECONDS);
+            long sendEnd = System.nanoTime();
+            long sentTotal = sent.sum() - sentAtMeasureStart;
+
+            // Give the broadcasts that are still on their way a chance to arrive
+            TimeUnit.SECONDS.sleep(config.getDrainSeconds());
+            reporter.shutdownNow();
+            reporter.awaitTermination(1, TimeUnit.SECONDS);
+            stopping = true;
+
+            total.add(recorder.getIntervalHistogram());
+            printSummary(sendEnd - measureStart, sentTotal, received.sum() - receivedAtMeasureStart);
+        } finally {
+            stopping = true;
+            for (int i = 0; i < sockets.length(); i++) {
+                ThreadedSocket socket = sockets.getAndSet(i, null);
+                if (socket != null) socket.disconnect();
+            }
+            if (eventLoopGroup != null) eventLoopGroup.shutdown();
+            if (readExecutor != null) readExecutor.shutdownNow();
+        }
+    }
+
+    /**
+     * Open all of the connections, paced to the connect rate so the accept backlog of the
+     * server doesn't overflow
+     *
+     * @throws InterruptedException Throws when interrupted while pacing
+     */
+    private void connectAll() throws InterruptedException {
+        long start = System.nanoTime();
+        long nanosPerConnect = TimeUnit.SECONDS.toNanos(1) / config.getConnectRate();
+        int progressStep = Math.max(1, config.getConnections() / 10);
+
+        for (int i = 0; i < config.getConnections(); i++) {
+            long wait = start + i * nanosPerConnect - System.nanoTime();
+            if (wait > 0) TimeUnit.NANOSECONDS.sleep(wait);
+
+            try {
+                sockets.set(i, connect(i));
+            } catch (IOException e) {
+                if (connectFailures.sum() == 0) System.out.println("Failed to connect: " + e);
+                connectFailures.increment();
+            }
+
+            if ((i + 1) % progressStep == 0)
+                System.out.println("Opened " + connected() + " of " + config.getConnections() + " connections");
+        }
+    }
+
+    private ThreadedSocket connect(int index) throws IOException {
+        ThreadedSocket socket;
+        if (eventLoopGroup != null) {
+            socket = new ThreadedSocket(config.getHost(), config.getPort(), eventLoopGroup, cryptoManager);
+        } else {
+            socket = new ThreadedSocket(config.getHost(), config.getPort(), cryptoManager);
+        }
+        if (ticketCache != null) socket.setTicketCache(ticketCache);
+        socket.setOnMessageListener(this::handleMessage);
+        socket.setOnDisconnectListener(disconnected -> {
+            if (sockets.compareAndSet(index, disconnected, null) && !stopping) disconnects.increment();
+        });
+
+        if (readExecutor != null) {
+            socket.start(readExecutor);
+        } else {
+            socket.start();
+        }
+        return socket;
+    }
+
+    /**
+     * Send every message that is due by now
+     *
+     * The n-th message is due n / rate seconds after the start. A tick that runs late sends
+     * the backlog at once, stamped with the times the messages should have gone out.
+     */
+    private void sendDue() {
+        long now = System.nanoTime();
+        long due = (long) ((now - sendStart) * config.getMessageRate() / TimeUnit.SECONDS.toNanos(1));
+        while (scheduled < due) {
+            long intended = sendStart + (long) (scheduled * TimeUnit.SECONDS.toNanos(1) / config.getMessageRate());
+            scheduled++;
+
+            ThreadedSocket socket = nextSocket();
+            if (socket == null) return;
+            socket.sendMessage(TextMessage.make(text(intended, nextSize())));
+            sent.increment();
+        }
+    }
+
+    private ThreadedSocket nextSocket() {
+        for (int tries = 0; tries < sockets.length(); tries++) {
+            ThreadedSocket socket = sockets.get(nextSocket);
+            nextSocket = (nextSocket + 1) % sockets.length();
+            if (socket != null) return socket;
+        }
+        return null;
+    }
+
+    private int nextSize() {
+        int pick = ThreadLocalRandom.current().nextInt(cumulativeWeights[cumulativeWeights.length - 1]);
+        for (int i = 0; i < cumulativeWeights.length; i++) {
+            if (pick < cumulativeWeights[i]) return sizes[i];
+        }
+        return sizes[sizes.length - 1];
+    }
+
+    /**
+     * Build the text of a message
+     *
+     * @param intended The System.nanoTime at which the message should have been sent
+     * @param size The length of the text, never shorter than the timestamp header
+     * @return The text
+     */
+    static String text(long intended, int size) {
+        StringBuilder builder = new StringBuilder(Math.max(size, 32));
+        builder.append(PREFIX).append(intended).append(' ');
+        while (builder.length() < size) builder.append('x');
+        return builder.toString();
+    }
+
+    /**
+     * Record the latency of a broadcast that was sent by this generator
+     *
+     * Runs on the read threads of the connections.
+     */
+    private void handleMessage(Message message, ThreadedSocket socket) {
+        if (!message.getCommand().equals(TextMessage.COMMAND)) return;
+
+        String raw = message.getData(TextMessage.DATA_RAW_TEXT);
+        if (raw == null || !raw.startsWith(PREFIX)) return;
+        int end = raw.indexOf(' ', PREFIX.length());
+        if (end < 0) return;
+
+        long intended;
+        try {
+            intended = Long.parseLong(raw, PREFIX.length(), end, 10);
+        } catch (NumberFormatException e) {
+            return;
+        }
+
+        recorder.recordValue(Math.max(0, TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - intended)));
+        received.increment();
+    }
+
+    private void startMeasuring() {
+        recorder.getIntervalHistogram(); // Drop the warm-up latencies
+        sentAtMeasureStart = sent.sum();
+        receivedAtMeasureStart = received.sum();
+        System.out.println("Warm-up done, measuring for " + config.getDurationSeconds() + "s");
+    }
+
+    private void report() {
+        long now = System.nanoTime();
+        long sentNow = sent.sum();
+        long receivedNow = received.sum();
+        double seconds = (now - lastReport) / (double) TimeUnit.SECONDS.toNanos(1);
+
+        Histogram interval = recorder.getIntervalHistogram();
+        if (now >= measureStart) total.add(interval);
+
+        System.out.println(String.format(
+                "%5ds %s conns %6d  sent %9.1f/s  received %11.1f/s  p50 %8.3f  p99 %8.3f  p99.9 %8.3f  max %8.3f ms  disconnects %d",
+                TimeUnit.NANOSECONDS.toSeconds(now - sendStart),
+                now >= measureStart ? "     " : "warm ",
+                connected(),
+                (sentNow - sentAtLastReport) / seconds,
+                (receivedNow - receivedAtLastReport) / seconds,
+                millis(interval.getValueAtPercentile(50)),
+                millis(interval.getValueAtPercentile(99)),
+                millis(interval.getValueAtPercentile(99.9)),
+                millis(interval.getMaxValue()),
+                disconnects.sum()));
+
+        lastReport = now;
+        sentAtLastReport = sentNow;
+        receivedAtLastReport = receivedNow;
+    }
+
+    private void printSummary(long nanos, long sentTotal, long receivedTotal) {
+        double seconds = nanos / (double) TimeUnit.SECONDS.toNanos(1);
+
+        System.out.println();
+        System.out.println("Summary of the measured " + String.format("%.1f", seconds) + "s");
+        System.out.println(String.format("  Connections:      %d open, %d failed to connect, %d disconnected", connected(), connectFailures.sum(), disconnects.sum()));
+        System.out.println(String.format("  Sent:             %d messages, %.1f/s", sentTotal, sentTotal / seconds));
+        System.out.println(String.format("  Received:         %d messages, %.1f/s", receivedTotal, receivedTotal / seconds));
+        System.out.println(String.format("  Latency (ms):     p50 %.3f  p90 %.3f  p99 %.3f  p99.9 %.3f  p99.99 %.3f  max %.3f",
+                millis(total.getValueAtPercentile(50)),
+                millis(total.getValueAtPercentile(90)),
+                millis(total.getValueAtPercentile(99)),
+                millis(total.getValueAtPercentile(99.9)),
+                millis(total.getValueAtPercentile(99.99)),
+                millis(total.getMaxValue())));
+        System.out.println();
+        System.out.println("Latency distribution (ms):");
+        total.outputPercentileDistribution(System.out, 1000.0);
+    }
+
+    private int connected() {
+        int count = 0;
+        for (int i = 0; i < sockets.length(); i++) {
+            if (sockets.get(i) != null) count++;
+        }
+        return count;
+    }
+
+    private static double millis(long micros) {
+        return micros / 1000.0;
+    }
+
+    private static Thread daemon(Runnable runnable, String name) {
+        Thread thread = new Thread(runnable, name);
+        thread.setDaemon(true);
+        return thread;
+    }
+}
@@ -0,0 +1,184 @@
+package chat.client.loadgen;
+
+import chat.socket.ThreadMode;
+import chat.socket.TransportType;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The LoadGeneratorConfig class.
+ *
+ * Settings for a load generator run, loaded from loadgen.yml. Every setting has a default
+ * so a missing file runs a small smoke test against a server on localhost.
+ */
+public class LoadGeneratorConfig {
+    private String host = "localhost";
+    private int port = 9000;
+    private String keyFile = "./SECRET_KEY";
+    private TransportType transport = TransportType.NIO;
+    private int eventLoopThreads = Runtime.getRuntime().availableProcessors();
+    private ThreadMode threadMode = ThreadMode.PLATFORM;
+    private int connections = 100;
+    private int connectRate = 500;
+    private boolean resumeSessions = false;
+    private double messageRate = 100;
+    private List<MessageSize> messageSizes = new ArrayList<>(List.of(new MessageSize(64, 1)));
+    private long warmupSeconds = 5;
+    private long durationSeconds = 60;
+    private long reportInterval = 5;
+    private long drainSeconds = 2;
+
+    public String getHost() {
+        return host;
+    }
+
+    public void setHost(String host) {
+        this.host = host;
+    }
+
+    public int getPort() {
+        return port;
+    }
+
+    public void setPort(int port) {
+        this.port = port;
+    }
+
+    public String getKeyFile() {
+        return keyFile;
+    }
+
+    public void setKeyFile(String keyFile) {
+        this.keyFile = keyFile;
+    }
+
+    public TransportType getTransport() {
+        return transport;
+    }
+
+    public void setTransport(TransportType transport) {
+        this.transport = transport;
+    }
+
+    public int getEventLoopThreads() {
+        return eventLoopThreads;
+    }
+
+    public void setEventLoopThreads(int eventLoopThreads) {
+        this.eventLoopThreads = eventLoopThreads;
+    }
+
+    public ThreadMode getThreadMode() {
+        return threadMode;
+    }
+
+    public void setThreadMode(ThreadMode threadMode) {
+        this.threadMode = threadMode;
+    }
+
+    public int getConnections() {
+        return connections;
+    }
+
+    public void setConnections(int connections) {
+        this.connections = connections;
+    }
+
+    public int getConnectRate() {
+        return connectRate;
+    }
+
+    public void setConnectRate(int connectRate) {
+        this.connectRate = connectRate;
+    }
+
+    public boolean isResumeSessions() {
+        return resumeSessions;
+    }
+
+    public void setResumeSessions(boolean resumeSessions) {
+        this.resumeSessions = resumeSessions;
+    }
+
+    public double getMessageRate() {
+        return messageRate;
+    }
+
+    public void setMessageRate(double messageRate) {
+        this.messageRate = messageRate;
+    }
+
+    public List<MessageSize> getMessageSizes() {
+        return messageSizes;
+    }
+
+    public void setMessageSizes(List<MessageSize> messageSizes) {
+        this.messageSizes = messageSizes;
+    }
+
+    public long getWarmupSeconds() {
+        return warmupSeconds;
+    }
+
+    public void setWarmupSeconds(long warmupSeconds) {
+        this.warmupSeconds = warmupSeconds;
+    }
+
+    public long getDurationSeconds() {
+        return durationSeconds;
+    }
+
+    public void setDurationSeconds(long durationSeconds) {
+        this.durationSeconds = durationSeconds;
+    }
+
+    public long getReportInterval() {
+        return reportInterval;
+    }
+
+    public void setReportInterval(long reportInterval) {
+        this.reportInterval = reportInterval;
+    }
+
+    public long getDrainSeconds() {
+        return drainSeconds;
+    }
+
+    public void setDrainSeconds(long drainSeconds) {
+        this.drainSeconds = drainSeconds;
+    }
+
+    /**
+     * One entry of the message size distribution, a size is picked with a probability
+     * proportional to its weight.
+     */
+    public static class MessageSize {
+        private int size;
+        private int weight = 1;
+
+        public MessageSize() {
+        }
+
+        public MessageSize(int size, int weight) {
+            this.size = size;
+            this.weight = weight;
+        }
+
+        public int getSize() {
+            return size;
+        }
+
+        public void setSize(int size) {
+            this.size = size;
+        }
+
+        public int getWeight() {
+            return weight;
+        }
+
+        public void setWeight(int weight) {
+            this.weight = weight;
+        }
+    }
+}
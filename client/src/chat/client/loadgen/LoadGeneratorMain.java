@@ -0,0 +1,36 @@
+package chat.client.loadgen;
+
+import org.yaml.snakeyaml.Yaml;
+
+import java.io.File;
+import java.io.FileReader;
+
+/**
+ * Headless load generator for soak and throughput tests against a local server
+ *
+ * Usage: LoadGeneratorMain [config file], the config file defaults to loadgen.yml and the
+ * defaults of LoadGeneratorConfig are used if it doesn't exist.
+ */
+public class LoadGeneratorMain {
+    public static void main(String[] args) throws Exception {
+        File configFile = new File(args.length > 0 ? args[0] : "loadgen.yml");
+        LoadGeneratorConfig config = new LoadGeneratorConfig();
+        if (configFile.exists()) {
+            try (FileReader reader = new FileReader(configFile)) {
+                config = new Yaml().loadAs(reader, LoadGeneratorConfig.class);
+            }
+        } else {
+            System.out.println(configFile + " not found, using the default settings.");
+        }
+
+        try {
+            new LoadGenerator(config).run();
+        } catch (IllegalArgumentException e) {
+            System.out.println(e.getMessage());
+            System.exit(1);
+        }
+
+        // Blocking read loops don't always notice their socket was closed right away
+        System.exit(0);
+    }
+}
@@ -0,0 +1,79 @@
+package chat.server;
+
+/**
+ * The settings of account authentication.
+ */
+public class AuthConfig {
+    private boolean enabled = false;
+    private boolean required = false;
+    private boolean registration = false;
+    private int hashThreads = 2;
+    private int queueSize = 256;
+    private int iterations = 210000;
+    private long cacheSeconds = 300;
+    private int cacheSize = 100000;
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public void setEnabled(boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    public boolean isRequired() {
+        return required;
+    }
+
+    public void setRequired(boolean required) {
+        this.required = required;
+    }
+
+    public boolean isRegistration() {
+        return registration;
+    }
+
+    public void setRegistration(boolean registration) {
+        this.registration = registration;
+    }
+
+    public int getHashThreads() {
+        return hashThreads;
+    }
+
+    public void setHashThreads(int hashThreads) {
+        this.hashThreads = hashThreads;
+    }
+
+    public int getQueueSize() {
+        return queueSize;
+    }
+
+    public void setQueueSize(int queueSize) {
+        this.queueSize = queueSize;
+    }
+
+    public int getIterations() {
+        return iterations;
+    }
+
+    public void setIterations(int iterations) {
+        this.iterations = iterations;
+    }
+
+    public long getCacheSeconds() {
+        return cacheSeconds;
+    }
+
+    public void setCacheSeconds(long cacheSeconds) {
+        this.cacheSeconds = cacheSeconds;
+    }
+
+    public int getCacheSize() {
+        return cacheSize;
+    }
+
+    public void setCacheSize(int cacheSize) {
+        this.cacheSize = cacheSize;
+    }
+}
@@ -1,20 +1,39 @@
 package chat.server;
 
 import chat.encryption.CryptoManager;
+import chat.socket.EventLoopGroup;
+import chat.socket.SocketOptions;
 import chat.socket.ThreadedSocket;
 
 import java.io.IOException;
 import java.net.Socket;
+import java.nio.channels.SocketChannel;
+import java.util.Collections;
+import java.util.Set;
 import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
 
 public class ClientHandler extends ThreadedSocket {
     private final UUID id;
-    private String name;
+    private final ClientRegistry registry;
+    private final Set<String> rooms = ConcurrentHashMap.newKeySet();
+    private volatile String name;
+    // The account the client logged in to, null until it does
+    private volatile String account;
 
-    ClientHandler(UUID id, Socket socket, CryptoManager cryptoManager) throws IOException {
-        super(socket, cryptoManager);
+    ClientHandler(UUID id, ClientRegistry registry, Socket socket, CryptoManager cryptoManager, SocketOptions options) throws IOException {
+        super(socket, cryptoManager, options);
 
         this.id = id;
+        this.registry = registry;
+        this.name = id.toString();
+    }
+
+    ClientHandler(UUID id, ClientRegistry registry, SocketChannel channel, EventLoopGroup eventLoopGroup, CryptoManager cryptoManager, SocketOptions options) throws IOException {
+        super(channel, eventLoopGroup, cryptoManager, options);
+
+        this.id = id;
+        this.registry = registry;
         this.name = id.toString();
     }
 
@@ -26,7 +45,70 @@ public class ClientHandler extends ThreadedSocket {
         return name;
     }
 
-    public void setClientName(String name) {
+    /**
+     * Change the name of the client
+     *
+     * The name is reserved in the client registry atomically, so two clients can never end up
+     * with the same name (ignoring case) even if they ask for it at the same time.
+     *
+     * @param name The new name
+     * @return False if the name is already in use by another client
+     */
+    public boolean setClientName(String name) {
+        return registry.rename(this, name);
+    }
+
+    /**
+     * Set the name field once the registry has reserved the name
+     *
+     * @param name The new name
+     */
+    void updateName(String name) {
         this.name = name;
     }
+
+    /**
+     * Get the account the client logged in to
+     *
+     * @return The display name of the account or null if the client didn't log in
+     */
+    public String getAccount() {
+        return account;
+    }
+
+    /**
+     * Remember the account once the client logged in
+     *
+     * @param account The display name of the account
+     */
+    void loggedIn(String account) {
+        this.account = account;
+    }
+
+    /**
+     * Get the rooms the client joined
+     *
+     * @return A live view of the names of the rooms
+     */
+    public Set<String> getRooms() {
+        return Collections.unmodifiableSet(rooms);
+    }
+
+    /**
+     * Remember a room once the room registry added the client to it
+     *
+     * @param room The name of the room
+     */
+    void joined(String room) {
+        rooms.add(room);
+    }
+
+    /**
+     * Forget a room once the room registry removed the client from it
+     *
+     * @param room The name of the room
+     */
+    void parted(String room) {
+        rooms.remove(room);
+    }
 }
@@ -0,0 +1,113 @@
+package chat.server;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Locale;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * The ClientRegistry class.
+ *
+ * Keeps track of the connected clients, indexed by their id and by their lowercased name.
+ * The name index doubles as the set of reserved names, a name belongs to exactly one client
+ * until that client renames or disconnects.
+ * It is safe to use from the accept thread, the read loops and the event loops at the same
+ * time, and iterating over the clients never copies the registry or throws a
+ * ConcurrentModificationException, clients added or removed during an iteration may or may
+ * not be seen by it.
+ */
+public class ClientRegistry {
+    private final ConcurrentMap<UUID, ClientHandler> byId = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, ClientHandler> byName = new ConcurrentHashMap<>();
+
+    /**
+     * Add a newly connected client, its initial name is its id so it is always free
+     *
+     * @param client The client
+     */
+    void add(ClientHandler client) {
+        byId.put(client.getClientId(), client);
+        byName.put(key(client.getClientName()), client);
+    }
+
+    /**
+     * Remove a client that disconnected, releasing its name
+     *
+     * @param client The client
+     * @return If the client was still registered
+     */
+    boolean remove(ClientHandler client) {
+        if (!byId.remove(client.getClientId(), client)) return false;
+
+        byName.remove(key(client.getClientName()), client);
+        return true;
+    }
+
+    /**
+     * Atomically reserve a name for a client and release its old name
+     *
+     * Names are compared ignoring case, a client may always take a different casing of its own name.
+     *
+     * @param client The client
+     * @param name The new name
+     * @return False if another client already holds the name
+     */
+    boolean rename(ClientHandler client, String name) {
+        String newKey = key(name);
+        ClientHandler holder = byName.putIfAbsent(newKey, client);
+        if (holder != null && holder != client) return false;
+
+        String oldKey = key(client.getClientName());
+        client.updateName(name);
+        if (!oldKey.equals(newKey)) byName.remove(oldKey, client);
+
+        // The client disconnected while renaming, remove may have missed the new name
+        if (!byId.containsKey(client.getClientId())) byName.remove(newKey, client);
+
+        return true;
+    }
+
+    /**
+     * Get a connected client by id
+     *
+     * @param id The id of the client
+     * @return The client or null if there is no client with that id
+     */
+    public ClientHandler get(UUID id) {
+        return byId.get(id);
+    }
+
+    /**
+     * Get a connected client by name, ignoring case
+     *
+     * @param name The name of the client
+     * @return The client or null if no client has that name
+     */
+    public ClientHandler findByName(String name) {
+        return byName.get(key(name));
+    }
+
+    /**
+     * Get a live view of the connected clients
+     *
+     * @return The clients
+     */
+    public Collection<ClientHandler> getClients() {
+        return Collections.unmodifiableCollection(byId.values());
+    }
+
+    /**
+     * Get the number of connected clients
+     *
+     * @return The number of clients
+     */
+    public int size() {
+        return byId.size();
+    }
+
+    private static String key(String name) {
+        return name.toLowerCase(Locale.ROOT);
+    }
+}
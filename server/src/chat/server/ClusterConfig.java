@@ -0,0 +1,91 @@
+package chat.server;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The settings of the connections to the other servers of a cluster.
+ */
+public class ClusterConfig {
+    private boolean enabled = false;
+    private String nodeId = "";
+    private String bindAddress = "127.0.0.1";
+    private int port = 9001;
+    private String keyFile = "./CLUSTER_KEY";
+    private List<String> peers = new ArrayList<>();
+    private int relayBatchSize = 256;
+    private long relayIntervalMillis = 2;
+    private long reconnectIntervalMillis = 1000;
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public void setEnabled(boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    public String getNodeId() {
+        return nodeId;
+    }
+
+    public void setNodeId(String nodeId) {
+        this.nodeId = nodeId;
+    }
+
+    public String getBindAddress() {
+        return bindAddress;
+    }
+
+    public void setBindAddress(String bindAddress) {
+        this.bindAddress = bindAddress;
+    }
+
+    public int getPort() {
+        return port;
+    }
+
+    public void setPort(int port) {
+        this.port = port;
+    }
+
+    public String getKeyFile() {
+        return keyFile;
+    }
+
+    public void setKeyFile(String keyFile) {
+        this.keyFile = keyFile;
+    }
+
+    public List<String> getPeers() {
+        return peers;
+    }
+
+    public void setPeers(List<String> peers) {
+        this.peers = peers;
+    }
+
+    public int getRelayBatchSize() {
+        return relayBatchSize;
+    }
+
+    public void setRelayBatchSize(int relayBatchSize) {
+        this.relayBatchSize = relayBatchSize;
+    }
+
+    public long getRelayIntervalMillis() {
+        return relayIntervalMillis;
+    }
+
+    public void setRelayIntervalMillis(long relayIntervalMillis) {
+        this.relayIntervalMillis = relayIntervalMillis;
+    }
+
+    public long getReconnectIntervalMillis() {
+        return reconnectIntervalMillis;
+    }
+
+    public void setReconnectIntervalMillis(long reconnectIntervalMillis) {
+        this.reconnectIntervalMillis = reconnectIntervalMillis;
+    }
+}
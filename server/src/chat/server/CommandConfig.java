@@ -0,0 +1,52 @@
+package chat.server;
+
+/**
+ * The settings of the command engine.
+ */
+public class CommandConfig {
+    private int threads = 4;
+    private int queueSize = 1024;
+    private long timeoutMillis = 5000;
+    private int maxPendingPerClient = 256;
+    private long graceMillis = 5000;
+
+    public int getThreads() {
+        return threads;
+    }
+
+    public void setThreads(int threads) {
+        this.threads = threads;
+    }
+
+    public int getQueueSize() {
+        return queueSize;
+    }
+
+    public void setQueueSize(int queueSize) {
+        this.queueSize = queueSize;
+    }
+
+    public long getTimeoutMillis() {
+        return timeoutMillis;
+    }
+
+    public void setTimeoutMillis(long timeoutMillis) {
+        this.timeoutMillis = timeoutMillis;
+    }
+
+    public int getMaxPendingPerClient() {
+        return maxPendingPerClient;
+    }
+
+    public void setMaxPendingPerClient(int maxPendingPerClient) {
+        this.maxPendingPerClient = maxPendingPerClient;
+    }
+
+    public long getGraceMillis() {
+        return graceMillis;
+    }
+
+    public void setGraceMillis(long graceMillis) {
+        this.graceMillis = graceMillis;
+    }
+}
@@ -0,0 +1,133 @@
+package chat.server;
+
+/**
+ * The settings of the message history store.
+ */
+public class HistoryConfig {
+    private int recentMessages = 50;
+    private int maxPageSize = 100;
+    private int readerThreads = 2;
+    private int readerQueueSize = 1024;
+    private boolean enabled = true;
+    private String directory = "./history";
+    private int segmentSize = 64 * 1024 * 1024;
+    private int maxSegments = 16;
+    private int queueSize = 65536;
+    private int maxBatchSize = 4096;
+    private long commitIntervalMillis = 10;
+    private boolean mirrorToDatabase = false;
+    private int mirrorBatchSize = 500;
+    private long mirrorIntervalMillis = 1000;
+
+    public int getRecentMessages() {
+        return recentMessages;
+    }
+
+    public void setRecentMessages(int recentMessages) {
+        this.recentMessages = recentMessages;
+    }
+
+    public int getMaxPageSize() {
+        return maxPageSize;
+    }
+
+    public void setMaxPageSize(int maxPageSize) {
+        this.maxPageSize = maxPageSize;
+    }
+
+    public int getReaderThreads() {
+        return readerThreads;
+    }
+
+    public void setReaderThreads(int readerThreads) {
+        this.readerThreads = readerThreads;
+    }
+
+    public int getReaderQueueSize() {
+        return readerQueueSize;
+    }
+
+    public void setReaderQueueSize(int readerQueueSize) {
+        this.readerQueueSize = readerQueueSize;
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public void setEnabled(boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    public String getDirectory() {
+        return directory;
+    }
+
+    public void setDirectory(String directory) {
+        this.directory = directory;
+    }
+
+    public int getSegmentSize() {
+        return segmentSize;
+    }
+
+    public void setSegmentSize(int segmentSize) {
+        this.segmentSize = segmentSize;
+    }
+
+    public int getMaxSegments() {
+        return maxSegments;
+    }
+
+    public void setMaxSegments(int maxSegments) {
+        this.maxSegments = maxSegments;
+    }
+
+    public int getQueueSize() {
+        return queueSize;
+    }
+
+    public void setQueueSize(int queueSize) {
+        this.queueSize = queueSize;
+    }
+
+    public int getMaxBatchSize() {
+        return maxBatchSize;
+    }
+
+    public void setMaxBatchSize(int maxBatchSize) {
+        this.maxBatchSize = maxBatchSize;
+    }
+
+    public long getCommitIntervalMillis() {
+        return commitIntervalMillis;
+    }
+
+    public void setCommitIntervalMillis(long commitIntervalMillis) {
+        this.commitIntervalMillis = commitIntervalMillis;
+    }
+
+    public boolean isMirrorToDatabase() {
+        return mirrorToDatabase;
+    }
+
+    public void setMirrorToDatabase(boolean mirrorToDatabase) {
+        this.mirrorToDatabase = mirrorToDatabase;
+    }
+
+    public int getMirrorBatchSize() {
+        return mirrorBatchSize;
+    }
+
+    public void setMirrorBatchSize(int mirrorBatchSize) {
+        this.mirrorBatchSize = mirrorBatchSize;
+    }
+
+    public long getMirrorIntervalMillis() {
+        return mirrorIntervalMillis;
+    }
+
+    public void setMirrorIntervalMillis(long mirrorIntervalMillis) {
+        this.mirrorIntervalMillis = mirrorIntervalMillis;
+    }
+}
@@ -0,0 +1,5 @@
+package chat.server;
+
+interface OnRoomChangeListener {
+    void onRoomChange(String room);
+}
@@ -0,0 +1,166 @@
+package chat.server;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Locale;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.regex.Pattern;
+
+/**
+ * The RoomRegistry class.
+ *
+ * Keeps track of the rooms and the clients that joined them, so a message only goes to the
+ * members of its room. Every room has its own concurrent set of members, sending to a room
+ * iterates over that set without locking or copying it, joins and parts only lock the entry
+ * of their room in the registry. A room exists as long as it has members, except for the
+ * lobby which every client joins when it connects.
+ */
+public class RoomRegistry {
+    /**
+     * The name of the lobby on the wire, messages without a room belong to it
+     */
+    public static final String LOBBY = "";
+
+    /**
+     * The name of the lobby in commands and messages to the clients
+     */
+    public static final String LOBBY_NAME = "lobby";
+
+    private static final Pattern NAME = Pattern.compile("[A-Za-z0-9_-]{1,32}");
+
+    private final ConcurrentMap<String, Set<ClientHandler>> rooms = new ConcurrentHashMap<>();
+    private OnRoomChangeListener onRoomChangeListener = room -> { };
+
+    /**
+     * Set the listener that is called when a room gets its first member or loses its last one
+     *
+     * The listener may be called for a room from several threads at once and in any order,
+     * it should check the members of the room itself.
+     *
+     * @param onRoomChangeListener The listener
+     */
+    void setOnRoomChangeListener(OnRoomChangeListener onRoomChangeListener) {
+        this.onRoomChangeListener = onRoomChangeListener;
+    }
+
+    /**
+     * Add a client to a room, creating the room if it doesn't exist yet
+     *
+     * @param client The client
+     * @param room The name of the room
+     * @return False if the client already was a member of the room
+     */
+    boolean join(ClientHandler client, String room) {
+        String key = key(room);
+        // If the client was added, and if it is the first member
+        boolean[] added = new boolean[2];
+        rooms.compute(key, (k, members) -> {
+            if (members == null) members = ConcurrentHashMap.newKeySet();
+            added[1] = members.isEmpty();
+            added[0] = members.add(client);
+            return members;
+        });
+        if (added[0]) client.joined(key);
+        if (added[0] && added[1]) onRoomChangeListener.onRoomChange(key);
+
+        return added[0];
+    }
+
+    /**
+     * Remove a client from a room, removing the room once it is empty
+     *
+     * @param client The client
+     * @param room The name of the room
+     * @return False if the client wasn't a member of the room
+     */
+    boolean part(ClientHandler client, String room) {
+        String key = key(room);
+        // If the client was removed, and if it was the last member
+        boolean[] removed = new boolean[2];
+        rooms.computeIfPresent(key, (k, members) -> {
+            removed[0] = members.remove(client);
+            removed[1] = members.isEmpty();
+            return removed[1] && !key.equals(LOBBY) ? null : members;
+        });
+        if (removed[0]) client.parted(key);
+        if (removed[0] && removed[1]) onRoomChangeListener.onRoomChange(key);
+
+        return removed[0];
+    }
+
+    /**
+     * Remove a client that disconnected from all of its rooms
+     *
+     * @param client The client
+     */
+    void partAll(ClientHandler client) {
+        for (String room : client.getRooms()) part(client, room);
+    }
+
+    /**
+     * Get a live view of the members of a room
+     *
+     * @param room The name of the room
+     * @return The members, empty if the room doesn't exist
+     */
+    public Collection<ClientHandler> getMembers(String room) {
+        Set<ClientHandler> members = rooms.get(key(room));
+        return members == null ? Collections.emptySet() : Collections.unmodifiableSet(members);
+    }
+
+    /**
+     * Check if a client is a member of a room
+     *
+     * @param client The client
+     * @param room The name of the room
+     * @return If the client joined the room
+     */
+    public boolean isMember(ClientHandler client, String room) {
+        Set<ClientHandler> members = rooms.get(key(room));
+        return members != null && members.contains(client);
+    }
+
+    /**
+     * Get the number of rooms
+     *
+     * @return The number of rooms, including the lobby
+     */
+    public int size() {
+        return rooms.size();
+    }
+
+    /**
+     * Check if a room name from a command is valid
+     *
+     * @param room The name of the room
+     * @return If clients may join a room with that name
+     */
+    public static boolean isValidName(String room) {
+        return room.equalsIgnoreCase(LOBBY_NAME) || NAME.matcher(room).matches();
+    }
+
+    /**
+     * Get the name of a room to show to the clients
+     *
+     * @param room The name of the room
+     * @return The name prefixed with a hash sign
+     */
+    public static String displayName(String room) {
+        return "#" + (key(room).equals(LOBBY) ? LOBBY_NAME : key(room));
+    }
+
+    /**
+     * Get the name a room is known by on the wire
+     *
+     * Room names are compared ignoring case, and the lobby may be called by its name.
+     *
+     * @param room The name of the room
+     * @return The name of the room on the wire
+     */
+    public static String key(String room) {
+        String key = room.toLowerCase(Locale.ROOT);
+        return key.equals(LOBBY_NAME) ? LOBBY : key;
+    }
+}
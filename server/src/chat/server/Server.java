@@ -2,10 +2,25 @@ package chat.server;
 
 import chat.encryption.CryptoManager;
 import chat.encryption.EncryptionException;
+import chat.encryption.SessionTickets;
+import chat.messages.AuthMessage;
+import chat.messages.HistoryRequestMessage;
 import chat.messages.Message;
 import chat.messages.TextMessage;
+import chat.server.auth.Authenticator;
+import chat.server.auth.EbeanAccountStore;
+import chat.server.cluster.Cluster;
 import chat.server.commands.CommandExecutor;
+import chat.server.commands.CommandLine;
+import chat.server.history.DatabaseMirror;
+import chat.server.history.MessageHistory;
+import chat.server.history.MessageLog;
+import chat.server.metrics.ServerMetrics;
+import chat.socket.EventLoopGroup;
+import chat.socket.PreparedMessage;
+import chat.socket.ThreadMode;
 import chat.socket.ThreadedSocket;
+import chat.socket.TransportType;
 import org.yaml.snakeyaml.Yaml;
 
 import java.io.File;
@@ -13,9 +28,18 @@ import java.io.FileNotFoundException;
 import java.io.FileReader;
 import java.io.IOException;
 import java.net.BindException;
+import java.net.InetSocketAddress;
 import java.net.ServerSocket;
 import java.net.Socket;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeoutException;
 
 /**
  * The Server class.
@@ -23,15 +47,25 @@ import java.util.*;
  * Handles all the operations of the server aspect of the chat system including:
  *     - Messages
  *     - Commands
+ *     - Logins
  *     - Accepting connections
  *     - etc.
  */
 public class Server {
-    private final List<ClientHandler> clients;
+    private final ClientRegistry clients;
+    private final RoomRegistry rooms;
     private ServerSocket socket;
+    private ServerSocketChannel serverChannel;
+    private EventLoopGroup eventLoopGroup;
+    private ExecutorService readerExecutor;
     private CryptoManager cryptoManager;
+    private SessionTickets sessionTickets;
     private ServerConfig config;
     private CommandExecutor commandExecutor;
+    private final ServerMetrics metrics;
+    private final MessageHistory history;
+    private final Cluster cluster;
+    private final Authenticator authenticator;
 
     /**
      * The constructor of the Server class
@@ -48,29 +82,121 @@ public class Server {
             System.exit(1);
         }
 
-        clients = new ArrayList<>();
+        clients = new ClientRegistry();
+        rooms = new RoomRegistry();
+        metrics = new ServerMetrics(clients);
         try {
             cryptoManager = CryptoManager.loadFromFile(config.getKeyFile());
+            sessionTickets = new SessionTickets(config.getSessionTicketLifetime());
         } catch (EncryptionException e) {
             e.printStackTrace();
             System.exit(1);
         }
 
-        this.commandExecutor = new CommandExecutor(this);
+        this.commandExecutor = new CommandExecutor(this, config.getCommands());
+        this.history = new MessageHistory(config.getHistory(), config.getHistory().isEnabled() ? openLog() : null);
+        // Writes out the messages that are still queued
+        Runtime.getRuntime().addShutdownHook(new Thread(history::close));
+
+        CryptoManager clusterKey = config.getCluster().isEnabled() ? loadClusterKey() : null;
+        if (clusterKey != null) {
+            this.cluster = new Cluster(config.getCluster(), clusterKey, room -> !rooms.getMembers(room).isEmpty(), this::handleRelayedMessage);
+        } else {
+            this.cluster = null;
+        }
+        rooms.setOnRoomChangeListener(this::handleRoomChange);
+
+        this.authenticator = config.getAuth().isEnabled() ? connectAccounts() : null;
+    }
+
+    /**
+     * Load the key the servers of the cluster connect to each other with
+     *
+     * It has to be a key file of its own, anyone with the clients' key file could otherwise
+     * connect to the peer port and pose as a server. The server keeps running without the
+     * cluster if the key can't be loaded.
+     *
+     * @return The cluster key or null if it is missing or the same file as the clients' key
+     */
+    private CryptoManager loadClusterKey() {
+        String keyFile = config.getCluster().getKeyFile();
+        try {
+            if (keyFile == null || keyFile.isEmpty()
+                    || new File(keyFile).getCanonicalFile().equals(new File(config.getKeyFile()).getCanonicalFile())) {
+                System.out.println("The cluster needs a cluster.keyFile of its own, apart from the clients' keyFile. Running without the cluster.");
+                return null;
+            }
+            return CryptoManager.loadFromFile(keyFile);
+        } catch (IOException | EncryptionException e) {
+            System.out.println("Failed to load the cluster key, running without the cluster: " + e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * Connect to the accounts in the database
+     *
+     * Logins fail if the database can't be reached, the server keeps running without them.
+     *
+     * @return The authenticator or null if the database could not be reached
+     */
+    private Authenticator connectAccounts() {
+        try {
+            return new Authenticator(config.getAuth(), EbeanAccountStore.connect(config.getDatabase()));
+        } catch (RuntimeException e) {
+            System.out.println("Failed to connect to the database, clients won't be able to log in: " + e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * Open the persistent message history and the database mirror if it is enabled
+     *
+     * The server keeps running without a persistent history, or without the mirror, if they can't be opened.
+     *
+     * @return The log or null if it could not be opened
+     */
+    private MessageLog openLog() {
+        HistoryConfig historyConfig = config.getHistory();
+        DatabaseMirror mirror = null;
+        if (historyConfig.isMirrorToDatabase()) {
+            try {
+                mirror = DatabaseMirror.connect(config.getDatabase(), historyConfig);
+            } catch (RuntimeException e) {
+                System.out.println("Failed to connect to the database, the history won't be mirrored: " + e.getMessage());
+            }
+        }
+
+        try {
+            return MessageLog.open(historyConfig, mirror);
+        } catch (IOException e) {
+            System.out.println("Failed to open the message history: " + e.getMessage());
+            if (mirror != null) mirror.close();
+            return null;
+        }
     }
 
     /**
      * The main loop of the server.
      *
-     * This method accepts connections with clients and starts a
-     * worker thread to handle receiving data from the connection.
-     * Also sends a welcome message to the client when they connect.
+     * This method accepts connections with clients and either starts a worker thread or
+     * registers the connection with the event loops to handle receiving data from it,
+     * depending on the configured transport.
+     * Also sends a welcome message to the client when they connect, then adds them to the lobby
+     * and sends them its recent messages, or waits until they logged in if logging in is required.
      *
-     * @throws IOException Throws when trying to instantiate a ClientHandler instance
+     * @throws IOException Throws when the event loops could not be started
      */
     void run() throws IOException {
         try {
-            socket = new ServerSocket(config.getPort());
+            if (config.getTransport() == TransportType.NIO) {
+                eventLoopGroup = new EventLoopGroup(config.getEventLoopThreads());
+                serverChannel = ServerSocketChannel.open();
+                serverChannel.bind(new InetSocketAddress(config.getPort()));
+            } else {
+                readerExecutor = createReaderExecutor();
+                socket = new ServerSocket(config.getPort());
+            }
         } catch (BindException e) {
             System.out.println("Failed to bind on port " + config.getPort() + " as it is already in use.");
             return;
@@ -78,31 +204,105 @@ public class Server {
             e.printStackTrace();
         }
 
-        System.out.println("Now listening on port " + config.getPort());
+        System.out.println("Now listening on port " + config.getPort() + " (" + config.getTransport() + " transport)");
+        startMetrics();
+        startCluster();
 
-        Socket clientSocket;
         while (true) {
+            UUID clientId = UUID.randomUUID();
+            ClientHandler client;
             try {
-                clientSocket = socket.accept();
+                client = acceptClient(clientId);
             } catch (IOException e) {
                 System.out.println("I/O error: " + e);
                 continue;
             }
 
-            if (clientSocket == null) continue;
+            if (client == null) continue;
 
-            UUID clientId = UUID.randomUUID();
-            ClientHandler client = new ClientHandler(clientId, clientSocket, cryptoManager);
+            metrics.accepted();
             clients.add(client);
+            client.setSessionTickets(sessionTickets);
             client.setOnMessageListener(this::handleMessage);
             client.setOnDisconnectListener(this::handleClientDisconnect);
-            client.start();
+            client.start(readerExecutor);
             client.sendMessage("Welcome to the encrypted chat.");
             client.sendMessage("You are: " + clientId.toString());
+            if (isLoginRequired()) {
+                client.sendMessage("Log in with /login <name> <password> to start chatting.");
+            } else if (joinRoom(client, RoomRegistry.LOBBY)) {
+                history.replay(client, RoomRegistry.LOBBY);
+            }
             System.out.println("Client " + clientId.toString() + " connected.");
         }
     }
 
+    /**
+     * Start collecting metrics and serve them on the configured local port
+     *
+     * A port that is already in use only disables the text endpoint, JMX still works.
+     */
+    private void startMetrics() {
+        try {
+            if (metrics.start(config.getMetricsPort()) != null)
+                System.out.println("Serving metrics on http://127.0.0.1:" + config.getMetricsPort() + "/metrics");
+        } catch (IOException e) {
+            System.out.println("Failed to serve metrics on port " + config.getMetricsPort() + ": " + e.getMessage());
+        }
+    }
+
+    /**
+     * Start listening for and connecting to the other servers of the cluster if it is enabled
+     *
+     * The server keeps running on its own if the peer port can't be bound.
+     */
+    private void startCluster() {
+        if (cluster == null) return;
+
+        try {
+            cluster.start();
+            System.out.println("Cluster node " + cluster.getNodeId() + " listening for peers on port " + config.getCluster().getPort());
+        } catch (IOException e) {
+            System.out.println("Failed to listen for peers on port " + config.getCluster().getPort() + ": " + e.getMessage());
+        }
+    }
+
+    /**
+     * Create the executor that runs the read loops of blocking clients
+     *
+     * Falls back to platform threads if virtual threads were configured but the JVM doesn't
+     * support them.
+     *
+     * @return The executor for the configured thread mode
+     */
+    private ExecutorService createReaderExecutor() {
+        ThreadMode mode = config.getThreadMode();
+        if (!mode.isSupported()) {
+            System.out.println(mode + " threads are not supported by this JVM, falling back to " + ThreadMode.PLATFORM + " threads.");
+            mode = ThreadMode.PLATFORM;
+        }
+
+        System.out.println("Client read loops run on " + mode + " threads");
+        return mode.newExecutor();
+    }
+
+    /**
+     * Wait for the next connection and wrap it in a ClientHandler for the configured transport
+     *
+     * @param clientId The id to give the new client
+     * @return The new client or null if no connection was accepted
+     * @throws IOException Throws when accepting the connection fails
+     */
+    private ClientHandler acceptClient(UUID clientId) throws IOException {
+        if (eventLoopGroup != null) {
+            SocketChannel clientChannel = serverChannel.accept();
+            return clientChannel == null ? null : new ClientHandler(clientId, clients, clientChannel, eventLoopGroup, cryptoManager, config.getSocket());
+        }
+
+        Socket clientSocket = socket.accept();
+        return clientSocket == null ? null : new ClientHandler(clientId, clients, clientSocket, cryptoManager, config.getSocket());
+    }
+
     /**
      * Handles messages set from the client
      *
@@ -120,14 +320,85 @@ public class Server {
             case TextMessage.COMMAND:
                 handleTextMessage(msg, client);
                 break;
+            case HistoryRequestMessage.COMMAND:
+                commandExecutor.runInOrder(client, () -> handleHistoryRequest(msg, client));
+                break;
+            case AuthMessage.COMMAND:
+                commandExecutor.runInOrderAsync(client, () -> handleAuth(msg, client));
+                break;
         }
     }
 
+    /**
+     * Handles AuthMessage messages.
+     *
+     * The login is checked on the authenticator's pool, the client's later messages wait for
+     * the result so a message sent right after logging in is already sent as the account.
+     * The client takes the name of the account unless another client is using it. If logging in
+     * is required the client joins the lobby once it first logged in.
+     *
+     * @param msg The message from the client
+     * @param client The client that wants to log in
+     * @return Completes once the client was told the result
+     */
+    private CompletionStage<Void> handleAuth(Message msg, ClientHandler client) {
+        if (authenticator == null) {
+            client.sendMessage("Logging in is not available on this server.");
+            return CompletableFuture.completedFuture(null);
+        }
+
+        String username = msg.getData(AuthMessage.DATA_USERNAME);
+        return authenticator.login(username, msg.getData(AuthMessage.DATA_PASSWORD)).handle((login, error) -> {
+            if (error instanceof CompletionException) error = error.getCause();
+
+            if (error instanceof RejectedExecutionException) {
+                client.sendMessage("The server is busy, try logging in again later.");
+            } else if (error != null) {
+                error.printStackTrace();
+                client.sendMessage("Logging in failed.");
+            } else if (login.getOutcome() == Authenticator.Outcome.REJECTED) {
+                metrics.loginFailed();
+                System.out.println("Client " + client.getClientId() + " failed to log in as " + username);
+                client.sendMessage("Wrong username or password.");
+            } else {
+                metrics.loggedIn(login.isCached());
+                boolean first = client.getAccount() == null;
+                client.loggedIn(login.getDisplayName());
+                String verb = login.getOutcome() == Authenticator.Outcome.REGISTERED ? "Registered and logged in" : "Logged in";
+                if (login.getDisplayName().equals(client.getClientName()) || client.setClientName(login.getDisplayName())) {
+                    client.sendMessage(verb + " as " + login.getDisplayName() + ".");
+                } else {
+                    client.sendMessage(verb + " as " + login.getDisplayName() + ", but another client is using the name.");
+                }
+                if (first && isLoginRequired() && joinRoom(client, RoomRegistry.LOBBY)) history.replay(client, RoomRegistry.LOBBY);
+            }
+            return null;
+        });
+    }
+
+    private boolean isLoginRequired() {
+        return config.getAuth().isEnabled() && config.getAuth().isRequired();
+    }
+
+    /**
+     * Check if a client may chat, telling it to log in first if it may not
+     *
+     * @param client The client
+     * @return False if logging in is required and the client didn't
+     */
+    public boolean checkLoggedIn(ClientHandler client) {
+        if (!isLoginRequired() || client.getAccount() != null) return true;
+
+        client.sendMessage("Log in first with /login <name> <password>.");
+        return false;
+    }
+
     /**
      * Handles TextMessage messages.
      *
-     * All messages starting with a forward slash are considered commands otherwise the server
-     * just attaches the sender's id and name and forwards the message to the other clients.
+     * All messages starting with a forward slash are considered commands, they run on the
+     * command executor's pool and the client's later messages wait until they are done. Otherwise
+     * the message goes to the client's room.
      *
      * @param msg The message from the client
      * @param client The client that sent the message
@@ -136,53 +407,252 @@ public class Server {
         String raw = msg.getData(TextMessage.DATA_RAW_TEXT);
         System.out.println(client.getClientName() + "> " + raw);
         if (raw.startsWith("/")) {
-            // Handle commands
-            String[] parts = raw.split(" ");
-            String command = parts[0].toLowerCase().substring(1);
-            String[] args = Arrays.copyOfRange(parts, 1, parts.length);
+            commandExecutor.execute(raw, msg, client).whenComplete((found, error) -> {
+                if (error instanceof CompletionException) error = error.getCause();
 
-            if (!commandExecutor.execute(command, args, msg, client))
-                client.sendMessage("Unknown command: " + command);
+                if (error instanceof TimeoutException) {
+                    // Timeouts complete on the shared timer, sending from it could block it
+                    String reply = "The command " + CommandLine.parse(raw).getLabel() + " took too long and was cancelled.";
+                    try {
+                        commandExecutor.getExecutor().execute(() -> client.sendMessage(reply));
+                    } catch (RejectedExecutionException e) {
+                        System.out.println("The command pool is full, dropped a reply to " + client.getClientName() + ".");
+                    }
+                } else if (error instanceof RejectedExecutionException) {
+                    client.sendMessage("The server is busy, try " + CommandLine.parse(raw).getLabel() + " again later.");
+                } else if (error != null) {
+                    error.printStackTrace();
+                    client.sendMessage("The command " + CommandLine.parse(raw).getLabel() + " failed.");
+                } else if (!found) {
+                    client.sendMessage("Unknown command: " + CommandLine.parse(raw).getLabel());
+                }
+            });
         } else {
-            // Regular message
-            msg.putData(TextMessage.DATA_SENDER_ID, client.getClientId().toString());
-            msg.putData(TextMessage.DATA_SENDER_NAME, client.getClientName());
-            for (Iterator<ClientHandler> iter = this.clients.iterator(); iter.hasNext(); ) {
-                ClientHandler other = iter.next();
-                if (other.getClientId() != client.getClientId())
-                    other.sendMessage(msg, socket -> {
-                        iter.remove();
-                        System.out.println(String.format("Client %s has disconnected.", client.getClientId()));
-                    });
-            }
+            commandExecutor.runInOrder(client, () -> handleRoomMessage(msg, client));
         }
     }
 
+    /**
+     * Handles a message to a room.
+     *
+     * The server just attaches the sender's id and name and forwards the message to the other
+     * members of its room, so the cost of a message depends on the size of its room rather than
+     * the number of clients. Clients can only send messages to the rooms they joined.
+     * The forwarded message is encoded and encrypted once and the same frame is sent to every member.
+     * It is then queued to be relayed to the other servers of the cluster with members in the room,
+     * added to the room's recent messages and queued to be stored, none of which blocks.
+     *
+     * @param msg The message from the client
+     * @param client The client that sent the message
+     */
+    private void handleRoomMessage(Message msg, ClientHandler client) {
+        if (!checkLoggedIn(client)) return;
+
+        String room = RoomRegistry.key(msg.getDataOrDefault(TextMessage.DATA_ROOM, RoomRegistry.LOBBY));
+        if (!rooms.isMember(client, room)) {
+            client.sendMessage("You are not in " + RoomRegistry.displayName(room) + ", join it with /join first.");
+            return;
+        }
+
+        long start = System.nanoTime();
+        long timestamp = System.currentTimeMillis();
+        msg.putData(TextMessage.DATA_SENDER_ID, client.getClientId().toString());
+        msg.putData(TextMessage.DATA_SENDER_NAME, client.getClientName());
+        msg.putData(TextMessage.DATA_TIMESTAMP, Long.toString(timestamp));
+        msg.putData(TextMessage.DATA_ROOM, room);
+        PreparedMessage prepared = new PreparedMessage(msg);
+        for (ClientHandler other : this.rooms.getMembers(room)) {
+            if (!other.getClientId().equals(client.getClientId()))
+                other.sendMessage(prepared, this::handleClientDisconnect);
+        }
+        metrics.fanOutSince(start);
+
+        if (cluster != null) cluster.relay(room, msg);
+        history.record(room, timestamp, prepared);
+    }
+
+    /**
+     * Called when a room gets its first member or loses its last one
+     *
+     * An empty room's recent messages are dropped, otherwise every room anyone ever posted in
+     * would stay in memory. The log still has them.
+     *
+     * @param room The room that changed
+     */
+    private void handleRoomChange(String room) {
+        if (rooms.getMembers(room).isEmpty()) history.forget(room);
+        if (cluster != null) cluster.roomChanged(room);
+    }
+
+    /**
+     * Handles the messages relayed by the other servers of the cluster
+     *
+     * The message is sent to the local members of its room and stored like the messages of
+     * local clients, but never relayed again.
+     *
+     * @param msg The relayed message
+     */
+    private void handleRelayedMessage(Message msg) {
+        if (!msg.getCommand().equals(TextMessage.COMMAND)) return;
+
+        String room = RoomRegistry.key(msg.getDataOrDefault(TextMessage.DATA_ROOM, RoomRegistry.LOBBY));
+        long timestamp;
+        try {
+            timestamp = Long.parseLong(msg.getDataOrDefault(TextMessage.DATA_TIMESTAMP, ""));
+        } catch (NumberFormatException e) {
+            timestamp = System.currentTimeMillis();
+        }
+
+        long start = System.nanoTime();
+        PreparedMessage prepared = new PreparedMessage(msg);
+        for (ClientHandler client : this.rooms.getMembers(room)) {
+            client.sendMessage(prepared, this::handleClientDisconnect);
+        }
+        metrics.fanOutSince(start);
+
+        // Notices from the other servers aren't stored, like the local ones
+        if (msg.getData(TextMessage.DATA_SENDER_ID) != null) history.record(room, timestamp, prepared);
+    }
+
     /**
      * Broadcast a message to all clients connected to the server
      *
+     * The message is encoded and encrypted once for all of the clients.
+     *
      * @param msg The message to broadcast
      */
     public void broadcast(String msg) {
-        Message message = TextMessage.make(msg);
-        for (Iterator<ClientHandler> iter = this.clients.iterator(); iter.hasNext(); ) {
-            ClientHandler client = iter.next();
-            client.sendMessage(message, socket -> {
-                iter.remove();
-                System.out.println(String.format("Client %s has disconnected.", client.getClientId()));
-            });
+        long start = System.nanoTime();
+        PreparedMessage message = new PreparedMessage(TextMessage.make(msg));
+        for (ClientHandler client : this.clients.getClients()) {
+            client.sendMessage(message, this::handleClientDisconnect);
         }
+        metrics.fanOutSince(start);
     }
 
     /**
-     * Get the list of currently connected clients
+     * Handles HistoryRequestMessage messages.
+     *
+     * Clients can only read the history of the rooms they joined.
      *
-     * @return A list of connected clients
+     * @param msg The message from the client
+     * @param client The client that sent the message
      */
-    public List<ClientHandler> getConnectedClients() {
+    private void handleHistoryRequest(Message msg, ClientHandler client) {
+        if (!checkLoggedIn(client)) return;
+
+        String room = RoomRegistry.key(msg.getDataOrDefault(HistoryRequestMessage.DATA_ROOM, RoomRegistry.LOBBY));
+        if (!rooms.isMember(client, room)) {
+            client.sendMessage("You are not in " + RoomRegistry.displayName(room) + ".");
+            return;
+        }
+
+        msg.putData(HistoryRequestMessage.DATA_ROOM, room);
+        history.request(client, msg);
+    }
+
+    /**
+     * Send a message from the server to the members of a room, on every server of the cluster
+     *
+     * @param room The name of the room
+     * @param msg The message to send
+     */
+    public void broadcast(String room, String msg) {
+        long start = System.nanoTime();
+        TextMessage text = TextMessage.make(RoomRegistry.key(room), msg);
+        PreparedMessage message = new PreparedMessage(text);
+        for (ClientHandler client : this.rooms.getMembers(room)) {
+            client.sendMessage(message, this::handleClientDisconnect);
+        }
+        metrics.fanOutSince(start);
+
+        if (cluster != null) cluster.relay(RoomRegistry.key(room), text);
+    }
+
+    /**
+     * Add a client to a room
+     *
+     * @param client The client
+     * @param room The name of the room
+     * @return False if the client already was a member of the room or disconnected
+     */
+    public boolean joinRoom(ClientHandler client, String room) {
+        if (!rooms.join(client, room)) return false;
+
+        // The client disconnected while joining, partAll may have missed the new room
+        if (clients.get(client.getClientId()) != client) {
+            rooms.part(client, room);
+            return false;
+        }
+
+        return true;
+    }
+
+    /**
+     * Remove a client from a room
+     *
+     * @param client The client
+     * @param room The name of the room
+     * @return False if the client wasn't a member of the room
+     */
+    public boolean partRoom(ClientHandler client, String room) {
+        return rooms.part(client, room);
+    }
+
+    /**
+     * Get the currently connected clients
+     *
+     * @return A live view of the connected clients
+     */
+    public Collection<ClientHandler> getConnectedClients() {
+        return clients.getClients();
+    }
+
+    /**
+     * Get the server metrics
+     *
+     * @return The metrics
+     */
+    public ServerMetrics getMetrics() {
+        return metrics;
+    }
+
+    /**
+     * Get the message history
+     *
+     * @return The history
+     */
+    public MessageHistory getHistory() {
+        return history;
+    }
+
+    /**
+     * Get the registry of connected clients, for looking clients up by id or name
+     *
+     * @return The client registry
+     */
+    public ClientRegistry getClientRegistry() {
         return clients;
     }
 
+    /**
+     * Get the connections to the other servers of the cluster
+     *
+     * @return The cluster or null if it is disabled
+     */
+    public Cluster getCluster() {
+        return cluster;
+    }
+
+    /**
+     * Get the registry of rooms, for looking up the members of a room
+     *
+     * @return The room registry
+     */
+    public RoomRegistry getRoomRegistry() {
+        return rooms;
+    }
+
     /**
      * Handles a client disconnecting from the server
      *
@@ -194,7 +664,11 @@ public class Server {
     private void handleClientDisconnect(ThreadedSocket socket) {
         if (!(socket instanceof ClientHandler)) return;
         ClientHandler client = (ClientHandler) socket;
-        clients.remove(client);
-        System.out.println(String.format("Client %s has disconnected.", client.getClientId()));
+
+        // Both the read loop and a failed send may report the same disconnect
+        if (clients.remove(client)) {
+            rooms.partAll(client);
+            System.out.println(String.format("Client %s has disconnected.", client.getClientId()));
+        }
     }
 }
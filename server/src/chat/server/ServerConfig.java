@@ -1,9 +1,23 @@
 package chat.server;
 
+import chat.socket.SocketOptions;
+import chat.socket.ThreadMode;
+import chat.socket.TransportType;
+
 public class ServerConfig {
     private int port;
     private DatabaseConfig database;
     private String keyFile;
+    private TransportType transport = TransportType.BLOCKING;
+    private int eventLoopThreads = Runtime.getRuntime().availableProcessors();
+    private ThreadMode threadMode = ThreadMode.PLATFORM;
+    private SocketOptions socket = new SocketOptions();
+    private long sessionTicketLifetime = 3600;
+    private int metricsPort = 9100;
+    private HistoryConfig history = new HistoryConfig();
+    private ClusterConfig cluster = new ClusterConfig();
+    private CommandConfig commands = new CommandConfig();
+    private AuthConfig auth = new AuthConfig();
 
     public int getPort() {
         return port;
@@ -28,4 +42,84 @@ public class ServerConfig {
     public void setKeyFile(String keyFile) {
         this.keyFile = keyFile;
     }
+
+    public TransportType getTransport() {
+        return transport;
+    }
+
+    public void setTransport(TransportType transport) {
+        this.transport = transport;
+    }
+
+    public int getEventLoopThreads() {
+        return eventLoopThreads;
+    }
+
+    public void setEventLoopThreads(int eventLoopThreads) {
+        this.eventLoopThreads = eventLoopThreads;
+    }
+
+    public ThreadMode getThreadMode() {
+        return threadMode;
+    }
+
+    public void setThreadMode(ThreadMode threadMode) {
+        this.threadMode = threadMode;
+    }
+
+    public SocketOptions getSocket() {
+        return socket;
+    }
+
+    public void setSocket(SocketOptions socket) {
+        this.socket = socket;
+    }
+
+    public long getSessionTicketLifetime() {
+        return sessionTicketLifetime;
+    }
+
+    public void setSessionTicketLifetime(long sessionTicketLifetime) {
+        this.sessionTicketLifetime = sessionTicketLifetime;
+    }
+
+    public int getMetricsPort() {
+        return metricsPort;
+    }
+
+    public void setMetricsPort(int metricsPort) {
+        this.metricsPort = metricsPort;
+    }
+
+    public HistoryConfig getHistory() {
+        return history;
+    }
+
+    public void setHistory(HistoryConfig history) {
+        this.history = history;
+    }
+
+    public ClusterConfig getCluster() {
+        return cluster;
+    }
+
+    public void setCluster(ClusterConfig cluster) {
+        this.cluster = cluster;
+    }
+
+    public CommandConfig getCommands() {
+        return commands;
+    }
+
+    public void setCommands(CommandConfig commands) {
+        this.commands = commands;
+    }
+
+    public AuthConfig getAuth() {
+        return auth;
+    }
+
+    public void setAuth(AuthConfig auth) {
+        this.auth = auth;
+    }
 }
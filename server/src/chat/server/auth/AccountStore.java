@@ -0,0 +1,24 @@
+package chat.server.auth;
+
+/**
+ * Where the accounts are kept.
+ *
+ * Both methods may block on the database, they are only called from the Authenticator's pool.
+ */
+public interface AccountStore {
+    /**
+     * Look up an account
+     *
+     * @param username The username in lower case
+     * @return The account or null if there is none
+     */
+    Account find(String username);
+
+    /**
+     * Save a new account
+     *
+     * @param account The account
+     * @return False if an account with the same username already exists
+     */
+    boolean create(Account account);
+}
@@ -0,0 +1,181 @@
+package chat.server.auth;
+
+import chat.server.AuthConfig;
+
+import java.util.Locale;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * The Authenticator class.
+ *
+ * Checks the usernames and passwords clients log in with against the accounts in the
+ * AccountStore, creating the account on the first login if registration is enabled. Looking
+ * up the account and hashing the password run on a bounded pool of their own, so neither the
+ * database nor the slow password hash ever hold up a thread reading from the clients. When
+ * the pool's queue is full a login fails right away instead of waiting.
+ *
+ * Logins verified in the last few minutes are accepted from the LoginCache without touching
+ * the pool, which keeps the flood of logins after a server restart cheap.
+ */
+public class Authenticator {
+    private static final AtomicInteger COUNTER = new AtomicInteger();
+    private static final int MAX_USERNAME_LENGTH = 32;
+    private static final int MAX_PASSWORD_LENGTH = 1024;
+
+    private final AccountStore store;
+    private final PasswordHasher hasher;
+    private final LoginCache cache;
+    private final boolean registration;
+    private final ThreadPoolExecutor executor;
+    // Checked for unknown usernames, so they take as long as wrong passwords
+    private final String unknownAccountHash;
+
+    /**
+     * The Authenticator constructor.
+     *
+     * @param config The authentication settings
+     * @param store Where the accounts are kept
+     */
+    public Authenticator(AuthConfig config, AccountStore store) {
+        this.store = store;
+        this.hasher = new PasswordHasher(config.getIterations());
+        this.cache = new LoginCache(TimeUnit.SECONDS.toMillis(config.getCacheSeconds()), config.getCacheSize());
+        this.registration = config.isRegistration();
+        this.executor = new ThreadPoolExecutor(config.getHashThreads(), config.getHashThreads(), 0, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(config.getQueueSize()), runnable -> {
+                    Thread thread = new Thread(runnable, "auth-" + COUNTER.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                });
+        this.unknownAccountHash = hasher.hash("");
+    }
+
+    /**
+     * Check a login
+     *
+     * @param username The username
+     * @param password The password
+     * @return Completes with the result, or exceptionally with a RejectedExecutionException if
+     *     too many logins are waiting or whatever the store threw
+     */
+    public CompletableFuture<Login> login(String username, String password) {
+        if (!isValidUsername(username) || password == null || password.isEmpty() || password.length() > MAX_PASSWORD_LENGTH)
+            return CompletableFuture.completedFuture(Login.REJECTED);
+
+        String key = username.toLowerCase(Locale.ROOT);
+        String cached = cache.get(key, password);
+        if (cached != null) return CompletableFuture.completedFuture(new Login(Outcome.LOGGED_IN, cached, true));
+
+        try {
+            return CompletableFuture.supplyAsync(() -> verify(key, username, password), executor);
+        } catch (RejectedExecutionException e) {
+            return CompletableFuture.failedFuture(e);
+        }
+    }
+
+    private Login verify(String key, String username, String password) {
+        Account account = store.find(key);
+        if (account == null) {
+            if (registration) {
+                Login registered = register(key, username, password);
+                if (registered != null) return registered;
+                // Someone else registered the name in the meantime
+                account = store.find(key);
+            }
+            if (account == null) {
+                hasher.verify(password, unknownAccountHash);
+                return Login.REJECTED;
+            }
+        }
+
+        if (!hasher.verify(password, account.getPasswordHash())) return Login.REJECTED;
+
+        cache.put(key, password, account.getDisplayName());
+        return new Login(Outcome.LOGGED_IN, account.getDisplayName(), false);
+    }
+
+    private Login register(String key, String username, String password) {
+        Account account = new Account();
+        account.setUsername(key);
+        account.setDisplayName(username);
+        account.setPasswordHash(hasher.hash(password));
+        account.setCreatedAt(System.currentTimeMillis());
+        if (!store.create(account)) return null;
+
+        cache.put(key, password, username);
+        return new Login(Outcome.REGISTERED, username, false);
+    }
+
+    private static boolean isValidUsername(String username) {
+        if (username == null || username.isEmpty() || username.length() > MAX_USERNAME_LENGTH) return false;
+        for (int i = 0; i < username.length(); i++) {
+            if (Character.isWhitespace(username.charAt(i)) || Character.isISOControl(username.charAt(i))) return false;
+        }
+        return true;
+    }
+
+    /**
+     * Get the number of logins waiting for a thread
+     *
+     * @return The queue depth
+     */
+    public int getQueuedLogins() {
+        return executor.getQueue().size();
+    }
+
+    /**
+     * Stop the pool, logins that are still queued are dropped
+     */
+    public void close() {
+        executor.shutdownNow();
+    }
+
+    /**
+     * What a login attempt came to.
+     */
+    public enum Outcome {
+        LOGGED_IN,
+        REGISTERED,
+        REJECTED
+    }
+
+    /**
+     * The result of a login attempt.
+     */
+    public static final class Login {
+        static final Login REJECTED = new Login(Outcome.REJECTED, null, false);
+
+        private final Outcome outcome;
+        private final String displayName;
+        private final boolean cached;
+
+        Login(Outcome outcome, String displayName, boolean cached) {
+            this.outcome = outcome;
+            this.displayName = displayName;
+            this.cached = cached;
+        }
+
+        public Outcome getOutcome() {
+            return outcome;
+        }
+
+        /**
+         * @return The name of the account as it was registered, null if the login was rejected
+         */
+        public String getDisplayName() {
+            return displayName;
+        }
+
+        /**
+         * @return If the login was accepted from the cache of recent logins
+         */
+        public boolean isCached() {
+            return cached;
+        }
+    }
+}
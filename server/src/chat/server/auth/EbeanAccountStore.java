@@ -0,0 +1,68 @@
+package chat.server.auth;
+
+import chat.server.DatabaseConfig;
+import io.ebean.Database;
+import io.ebean.DatabaseFactory;
+import io.ebean.DuplicateKeyException;
+import io.ebean.datasource.DataSourceConfig;
+
+/**
+ * The EbeanAccountStore class.
+ *
+ * Keeps the accounts in the database configured in config.yml, using Ebean.
+ */
+public class EbeanAccountStore implements AccountStore {
+    private final Database database;
+
+    private EbeanAccountStore(Database database) {
+        this.database = database;
+    }
+
+    /**
+     * Connect to the database
+     *
+     * The chat_account table must already exist, see Account.
+     *
+     * @param databaseConfig The database connection settings
+     * @return The store
+     */
+    public static EbeanAccountStore connect(DatabaseConfig databaseConfig) {
+        DataSourceConfig dataSource = new DataSourceConfig();
+        dataSource.setUsername(databaseConfig.getUsername());
+        dataSource.setPassword(databaseConfig.getPassword());
+        dataSource.setUrl(databaseConfig.getUrl());
+        dataSource.setDriver(databaseConfig.getDriver());
+
+        // Clashes with the imported chat.server.DatabaseConfig
+        io.ebean.config.DatabaseConfig ebeanConfig = new io.ebean.config.DatabaseConfig();
+        ebeanConfig.setName("accounts");
+        ebeanConfig.setDefaultServer(false);
+        ebeanConfig.setRegister(false);
+        ebeanConfig.setDataSourceConfig(dataSource);
+        ebeanConfig.addClass(Account.class);
+
+        return new EbeanAccountStore(DatabaseFactory.create(ebeanConfig));
+    }
+
+    @Override
+    public Account find(String username) {
+        return database.find(Account.class).where().eq("username", username).findOne();
+    }
+
+    @Override
+    public boolean create(Account account) {
+        try {
+            database.insert(account);
+            return true;
+        } catch (DuplicateKeyException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Disconnect from the database
+     */
+    public void close() {
+        database.shutdown(true, false);
+    }
+}
@@ -0,0 +1,136 @@
+package chat.server.auth;
+
+import javax.crypto.KeyGenerator;
+import javax.crypto.Mac;
+import javax.crypto.SecretKey;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Remembers the logins that were verified recently.
+ *
+ * When a server restarts all of its clients reconnect and log in again at once, checking each
+ * of them against the database and with a slow password hash would keep the hashing pool busy
+ * for minutes. The cache keeps an HMAC of every verified password, under a key that is made up
+ * when the server starts and never leaves memory, for a short time. A login with the same
+ * username and password is then accepted with a single HMAC, on the calling thread.
+ *
+ * The cache holds up to maxSize logins, once it is full new logins aren't remembered until
+ * old ones expire.
+ */
+final class LoginCache {
+    private static final String ALGORITHM = "HmacSHA256";
+
+    private final long ttlNanos;
+    private final int maxSize;
+    private final SecretKey key;
+    private final ConcurrentLinkedQueue<Mac> macs = new ConcurrentLinkedQueue<>();
+    private final Map<String, Entry> entries = new ConcurrentHashMap<>();
+
+    /**
+     * The LoginCache constructor.
+     *
+     * @param ttlMillis How long a verified login is remembered
+     * @param maxSize The most logins remembered at once
+     */
+    LoginCache(long ttlMillis, int maxSize) {
+        this.ttlNanos = TimeUnit.MILLISECONDS.toNanos(ttlMillis);
+        this.maxSize = maxSize;
+        try {
+            this.key = KeyGenerator.getInstance(ALGORITHM).generateKey();
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException(ALGORITHM + " is not available", e);
+        }
+    }
+
+    /**
+     * Look up a login that was verified recently
+     *
+     * @param username The username in lower case
+     * @param password The password
+     * @return The display name of the account or null if the login isn't remembered
+     */
+    String get(String username, String password) {
+        Entry entry = entries.get(username);
+        if (entry == null) return null;
+        if (System.nanoTime() - entry.expiresAt > 0) {
+            entries.remove(username, entry);
+            return null;
+        }
+
+        return MessageDigest.isEqual(entry.digest, digest(username, password)) ? entry.displayName : null;
+    }
+
+    /**
+     * Remember a verified login
+     *
+     * @param username The username in lower case
+     * @param password The password
+     * @param displayName The display name of the account
+     */
+    void put(String username, String password, String displayName) {
+        if (ttlNanos <= 0) return;
+        if (entries.size() >= maxSize && !entries.containsKey(username)) {
+            evictExpired();
+            if (entries.size() >= maxSize) return;
+        }
+
+        entries.put(username, new Entry(digest(username, password), displayName, System.nanoTime() + ttlNanos));
+    }
+
+    /**
+     * Forget the login of an account, so its next login is verified again
+     *
+     * @param username The username in lower case
+     */
+    void invalidate(String username) {
+        entries.remove(username);
+    }
+
+    /**
+     * @return The number of logins remembered, including expired ones that weren't removed yet
+     */
+    int size() {
+        return entries.size();
+    }
+
+    private void evictExpired() {
+        long now = System.nanoTime();
+        entries.values().removeIf(entry -> now - entry.expiresAt > 0);
+    }
+
+    private byte[] digest(String username, String password) {
+        Mac mac = macs.poll();
+        try {
+            if (mac == null) {
+                mac = Mac.getInstance(ALGORITHM);
+                mac.init(key);
+            }
+            // The username is part of the digest so an entry can't be moved to another account
+            mac.update(username.getBytes(StandardCharsets.UTF_8));
+            mac.update((byte) 0);
+            return mac.doFinal(password.getBytes(StandardCharsets.UTF_8));
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException(ALGORITHM + " is not available", e);
+        } finally {
+            if (mac != null) macs.offer(mac);
+        }
+    }
+
+    private static final class Entry {
+        private final byte[] digest;
+        private final String displayName;
+        private final long expiresAt;
+
+        private Entry(byte[] digest, String displayName, long expiresAt) {
+            this.digest = digest;
+            this.displayName = displayName;
+            this.expiresAt = expiresAt;
+        }
+    }
+}
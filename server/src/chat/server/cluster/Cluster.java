@@ -0,0 +1,434 @@
+package chat.server.cluster;
+
+import chat.encryption.CryptoManager;
+import chat.encryption.EncryptionException;
+import chat.messages.InterestMessage;
+import chat.messages.MalformedMessageException;
+import chat.messages.Message;
+import chat.messages.PeerMessage;
+import chat.messages.RelayMessage;
+import chat.server.ClusterConfig;
+import chat.socket.SocketOptions;
+import chat.socket.ThreadedSocket;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * The Cluster class.
+ *
+ * Connects the server to the other servers of a cluster so clients connected to one server
+ * get the messages of clients connected to the others. Every server listens for peer
+ * connections on a port of its own, dials the peers in its configuration and keeps one
+ * connection to every other server, the cluster is a full mesh so messages are relayed once
+ * and never forwarded.
+ *
+ * Peer connections are ThreadedSockets encrypted with a cluster key of their own, kept apart
+ * from the key file the clients have. Both ends introduce themselves with a PeerMessage holding
+ * a challenge, and answer the other end's challenge with an HMAC of it under the cluster key.
+ * A connection is only used once the other server's answer checks out, anything else it sends
+ * before that closes it. The answer covers the node id it is sent for, so at most it could be
+ * reflected back at the server that made it, which refuses connections to itself.
+ *
+ * Once connected both ends tell each other which rooms they have local members in with
+ * InterestMessages whenever that changes, so messages are only relayed to the servers that
+ * have someone listening. Relayed messages are sent in batches, see PeerLink.
+ */
+public class Cluster implements Closeable {
+    // A connection whose challenges weren't both answered by then is closed
+    private static final long AUTHENTICATION_TIMEOUT_MILLIS = 10000;
+
+    private final ClusterConfig config;
+    private final String nodeId;
+    private final CryptoManager cryptoManager;
+    private final LocalRooms localRooms;
+    private final OnRelayListener onRelayListener;
+    private final SocketOptions options = new SocketOptions();
+    private final Map<String, PeerLink> links = new ConcurrentHashMap<>();
+    private final Map<String, PeerLink> dialed = new ConcurrentHashMap<>();
+    private final Map<String, String> addressNodes = new ConcurrentHashMap<>();
+    private final Set<String> unreachable = ConcurrentHashMap.newKeySet();
+    private final Set<String> ownAddresses = ConcurrentHashMap.newKeySet();
+    // The rooms the other servers were told about, guarded by itself
+    private final Set<String> advertised = new HashSet<>();
+    private final LongAdder relayed = new LongAdder();
+    private final LongAdder received = new LongAdder();
+    private final ScheduledExecutorService dialer;
+    private ServerSocket serverSocket;
+    private volatile boolean closed;
+
+    /**
+     * The Cluster constructor.
+     *
+     * @param config The cluster settings
+     * @param cryptoManager The cluster key shared by the servers of the cluster, not the clients' key file
+     * @param localRooms Tells which rooms have local members
+     * @param onRelayListener Receives the messages relayed by the other servers
+     */
+    public Cluster(ClusterConfig config, CryptoManager cryptoManager, LocalRooms localRooms, OnRelayListener onRelayListener) {
+        this.config = config;
+        this.nodeId = config.getNodeId() == null || config.getNodeId().isEmpty() ? UUID.randomUUID().toString() : config.getNodeId();
+        this.cryptoManager = cryptoManager;
+        this.localRooms = localRooms;
+        this.onRelayListener = onRelayListener;
+        // Connecting to a peer blocks, so it can't be done on the shared scheduler
+        this.dialer = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "cluster-dialer");
+            thread.setDaemon(true);
+            return thread;
+        });
+        // A peer connection carries the messages of many clients, in large batches
+        this.options.setOutboundQueueSize(16 * 1024);
+        this.options.setMaxFrameSize(64 * 1024 * 1024);
+    }
+
+    /**
+     * Start listening for peer connections and dialing the configured peers
+     *
+     * @throws IOException Throws when the peer port can't be bound
+     */
+    public void start() throws IOException {
+        serverSocket = new ServerSocket(config.getPort(), 50, InetAddress.getByName(config.getBindAddress()));
+        Thread acceptor = new Thread(this::accept, "cluster-acceptor");
+        acceptor.setDaemon(true);
+        acceptor.start();
+
+        dialer.scheduleWithFixedDelay(this::dialPeers, 0, config.getReconnectIntervalMillis(), TimeUnit.MILLISECONDS);
+    }
+
+    private void accept() {
+        while (!closed) {
+            try {
+                Socket socket = serverSocket.accept();
+                open(new ThreadedSocket(socket, cryptoManager, options), null);
+            } catch (IOException e) {
+                if (!closed) System.out.println("Failed to accept a peer connection: " + e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Connect to the configured peers that there is no connection to
+     *
+     * A peer that dialed this server first is not dialed again.
+     */
+    private void dialPeers() {
+        for (String address : config.getPeers()) {
+            if (closed) return;
+            if (ownAddresses.contains(address)) continue;
+
+            PeerLink link = dialed.get(address);
+            if (link != null && !link.isClosed()) continue;
+
+            String node = addressNodes.get(address);
+            if (node != null && links.containsKey(node)) continue;
+
+            int separator = address.lastIndexOf(':');
+            try {
+                String host = address.substring(0, separator);
+                int port = Integer.parseInt(address.substring(separator + 1));
+                ThreadedSocket socket = new ThreadedSocket(host, port, cryptoManager, options);
+                if (unreachable.remove(address)) System.out.println("Reached peer " + address + " again.");
+                open(socket, address);
+            } catch (IOException e) {
+                if (unreachable.add(address)) System.out.println("Could not reach peer " + address + ": " + e.getMessage());
+            } catch (RuntimeException e) {
+                if (unreachable.add(address)) System.out.println("Invalid peer address " + address + ", expected host:port");
+            }
+        }
+    }
+
+    /**
+     * Start a new peer connection and introduce this server to the other one
+     *
+     * @param socket The connection
+     * @param address The address that was dialed, or null for an accepted connection
+     */
+    private void open(ThreadedSocket socket, String address) {
+        PeerLink link = new PeerLink(socket, address, config.getRelayBatchSize(), config.getRelayIntervalMillis());
+        if (address != null) dialed.put(address, link);
+        socket.setOnMessageListener((message, s) -> handleMessage(message, link));
+        socket.setOnDisconnectListener(s -> handleDisconnect(link));
+        socket.start();
+
+        PeerMessage hello = new PeerMessage(nodeId);
+        hello.putData(PeerMessage.DATA_CHALLENGE, link.getChallenge());
+        socket.sendMessage(hello);
+        dialer.schedule(() -> {
+            if (!(link.isAuthenticated() && link.isAnswered()) && !link.isClosed()) {
+                System.out.println("Closing a peer connection that didn't finish introducing itself in time.");
+                link.close();
+            }
+        }, AUTHENTICATION_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
+    }
+
+    private void handleMessage(Message message, PeerLink link) {
+        if (message.getCommand().equals(PeerMessage.COMMAND)) {
+            handleHello(message, link);
+            return;
+        }
+        if (!link.isAuthenticated()) {
+            System.out.println("Closing a peer connection that sent " + message.getCommand() + " before proving it has the cluster key.");
+            link.close();
+            return;
+        }
+
+        switch (message.getCommand()) {
+            case InterestMessage.COMMAND:
+                link.getInterest().addAll(InterestMessage.rooms(message.getData(InterestMessage.DATA_JOINED)));
+                link.getInterest().removeAll(InterestMessage.rooms(message.getData(InterestMessage.DATA_LEFT)));
+                break;
+            case RelayMessage.COMMAND:
+                handleRelay(message);
+                break;
+        }
+    }
+
+    /**
+     * Answer the other server's challenge, or check its answer to ours
+     *
+     * Either can come first, the other server may answer before its own challenge went out.
+     * The connection is registered once both happened, so this server's answer is always
+     * sent before anything else.
+     *
+     * @param hello The PeerMessage
+     * @param link The connection
+     */
+    private void handleHello(Message hello, PeerLink link) {
+        String node = hello.getData(PeerMessage.DATA_NODE);
+        String challenge = hello.getData(PeerMessage.DATA_CHALLENGE);
+        String proof = hello.getData(PeerMessage.DATA_PROOF);
+        try {
+            if (challenge != null) {
+                if (link.isAnswered()) return;
+
+                PeerMessage answer = new PeerMessage(nodeId);
+                answer.putData(PeerMessage.DATA_PROOF, prove(nodeId, challenge));
+                link.getSocket().sendMessage(answer);
+                link.setAnswered();
+            } else {
+                if (node == null || proof == null || link.isAuthenticated()
+                        || !cryptoManager.checkIntegrity(proofData(node, link.getChallenge()), Base64.getDecoder().decode(proof))) {
+                    System.out.println("Closing a peer connection that failed to prove it has the cluster key.");
+                    link.close();
+                    return;
+                }
+                link.setNodeId(node);
+                link.setAuthenticated();
+            }
+        } catch (EncryptionException | IllegalArgumentException e) {
+            System.out.println("Closing a peer connection, its proof could not be checked: " + e.getMessage());
+            link.close();
+            return;
+        }
+
+        if (link.isAuthenticated() && link.isAnswered()) handlePeer(link.getNodeId(), link);
+    }
+
+    private String prove(String node, String challenge) throws EncryptionException {
+        return Base64.getEncoder().encodeToString(cryptoManager.generateHmac(proofData(node, challenge)));
+    }
+
+    private static byte[] proofData(String node, String challenge) {
+        return (PeerMessage.COMMAND + " " + node + " " + challenge).getBytes(StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Register a peer connection once the other server proved it holds the cluster key
+     *
+     * If both servers dialed each other the connection dialed by the server with the lower id
+     * is kept, both ends come to the same decision without having to talk about it. A new
+     * connection dialed by the same server replaces the old one, which is likely dead.
+     *
+     * @param node The id of the other server
+     * @param link The connection
+     */
+    private void handlePeer(String node, PeerLink link) {
+        if (node.equals(nodeId)) {
+            if (link.isOutbound()) ownAddresses.add(link.getAddress());
+            System.out.println("Closing a peer connection to this server itself.");
+            link.close();
+            return;
+        }
+
+        link.setNodeId(node);
+        if (link.isOutbound()) addressNodes.put(link.getAddress(), node);
+
+        synchronized (advertised) {
+            PeerLink existing = links.get(node);
+            if (existing != null && !existing.isClosed() && dialer(existing, node).compareTo(dialer(link, node)) < 0) {
+                link.close();
+                return;
+            }
+
+            links.put(node, link);
+            if (existing != null) {
+                existing.close();
+            } else {
+                System.out.println("Connected to peer " + node + ".");
+            }
+            // Sent under the same lock as the changes, so the other server never misses one
+            if (!advertised.isEmpty())
+                link.getSocket().sendMessage(new InterestMessage(advertised, Collections.emptySet()));
+        }
+    }
+
+    private String dialer(PeerLink link, String node) {
+        return link.isOutbound() ? nodeId : node;
+    }
+
+    private void handleRelay(Message message) {
+        List<Message> messages;
+        try {
+            messages = RelayMessage.unpack(message);
+        } catch (MalformedMessageException e) {
+            e.printStackTrace();
+            return;
+        }
+
+        received.add(messages.size());
+        for (Message relayedMessage : messages) onRelayListener.onRelay(relayedMessage);
+    }
+
+    private void handleDisconnect(PeerLink link) {
+        link.close();
+        String node = link.getNodeId();
+        if (node != null && links.remove(node, link)) System.out.println("Lost the connection to peer " + node + ".");
+        if (link.isOutbound()) dialed.remove(link.getAddress(), link);
+    }
+
+    /**
+     * Relay a message to the servers that have members in its room
+     *
+     * @param room The room of the message
+     * @param message The message, it must not be modified afterwards
+     */
+    public void relay(String room, Message message) {
+        for (PeerLink link : links.values()) {
+            if (link.getInterest().contains(room)) {
+                link.relay(message);
+                relayed.increment();
+            }
+        }
+    }
+
+    /**
+     * Tell the other servers if a room gained its first or lost its last local member
+     *
+     * The room is checked again rather than trusting the caller, so changes reported out of
+     * order by different threads still leave the other servers with the right rooms.
+     *
+     * @param room The room that changed
+     */
+    public void roomChanged(String room) {
+        synchronized (advertised) {
+            boolean members = localRooms.hasMembers(room);
+            if (members == advertised.contains(room)) return;
+
+            Collection<String> changed = Collections.singleton(room);
+            Message message;
+            if (members) {
+                advertised.add(room);
+                message = new InterestMessage(changed, Collections.emptySet());
+            } else {
+                advertised.remove(room);
+                message = new InterestMessage(Collections.emptySet(), changed);
+            }
+            for (PeerLink link : links.values()) link.getSocket().sendMessage(message);
+        }
+    }
+
+    /**
+     * Get the id of this server in the cluster
+     *
+     * @return The node id
+     */
+    public String getNodeId() {
+        return nodeId;
+    }
+
+    /**
+     * Get the ids of the servers this server is connected to
+     *
+     * @return The node ids
+     */
+    public Collection<String> getPeers() {
+        return new ArrayList<>(links.keySet());
+    }
+
+    /**
+     * Check if a connected server has members in a room
+     *
+     * @param room The room
+     * @return If messages to the room are relayed to at least one server
+     */
+    public boolean isRelayed(String room) {
+        for (PeerLink link : links.values()) {
+            if (link.getInterest().contains(room)) return true;
+        }
+        return false;
+    }
+
+    /**
+     * Get the number of messages queued to be relayed, counted once per server
+     *
+     * @return The number of relayed messages
+     */
+    public long getRelayed() {
+        return relayed.sum();
+    }
+
+    /**
+     * Get the number of messages relayed to this server
+     *
+     * @return The number of received messages
+     */
+    public long getReceived() {
+        return received.sum();
+    }
+
+    /**
+     * Get the number of batches sent to the connected servers
+     *
+     * @return The number of relay frames
+     */
+    public long getRelayBatches() {
+        long total = 0;
+        for (PeerLink link : links.values()) total += link.getBatches();
+        return total;
+    }
+
+    /**
+     * Stop accepting and dialing peers and close the peer connections
+     */
+    @Override
+    public void close() {
+        closed = true;
+        dialer.shutdownNow();
+        try {
+            if (serverSocket != null) serverSocket.close();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        for (PeerLink link : links.values()) link.close();
+        for (PeerLink link : dialed.values()) link.close();
+    }
+}
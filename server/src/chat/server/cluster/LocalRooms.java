@@ -0,0 +1,8 @@
+package chat.server.cluster;
+
+/**
+ * Tells the cluster which rooms have members connected to this server.
+ */
+public interface LocalRooms {
+    boolean hasMembers(String room);
+}
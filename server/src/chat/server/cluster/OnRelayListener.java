@@ -0,0 +1,10 @@
+package chat.server.cluster;
+
+import chat.messages.Message;
+
+/**
+ * Receives the messages another server of the cluster relayed to this one.
+ */
+public interface OnRelayListener {
+    void onRelay(Message message);
+}
@@ -0,0 +1,202 @@
+package chat.server.cluster;
+
+import chat.encryption.KeyExchange;
+import chat.messages.Message;
+import chat.messages.RelayMessage;
+import chat.socket.ThreadedSocket;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A connection to another server of the cluster.
+ *
+ * Messages to relay are queued and sent in batches by a writer thread of the link's own, a
+ * batch goes out once it is full or once the first message in it has waited for the relay
+ * interval, whichever comes first. Building and encrypting a batch never runs on the threads
+ * that queue the messages or on a shared timer. Batches are sent one at a time so the messages
+ * arrive in the order they were queued.
+ */
+final class PeerLink {
+    private static final AtomicInteger COUNTER = new AtomicInteger();
+    private static final long IDLE_POLL_MILLIS = 100;
+
+    private final ThreadedSocket socket;
+    private final String address;
+    private final int batchSize;
+    private final long intervalMillis;
+    private final Set<String> interest = ConcurrentHashMap.newKeySet();
+    private final BlockingQueue<Message> pending = new LinkedBlockingQueue<>();
+    private final Thread writer;
+    // The other server has to answer it with the cluster key before the link is used
+    private final String challenge = KeyExchange.newNonce();
+    private volatile String nodeId;
+    private volatile boolean authenticated;
+    private volatile boolean answered;
+    private volatile boolean closed;
+    private volatile long batches;
+
+    /**
+     * The PeerLink constructor.
+     *
+     * @param socket The connection
+     * @param address The address this server dialed, or null if the other server dialed this one
+     * @param batchSize The maximum number of messages in a batch
+     * @param intervalMillis The longest a message waits for its batch to fill up
+     */
+    PeerLink(ThreadedSocket socket, String address, int batchSize, long intervalMillis) {
+        this.socket = socket;
+        this.address = address;
+        this.batchSize = Math.max(1, batchSize);
+        this.intervalMillis = intervalMillis;
+        this.writer = new Thread(this::writeLoop, "peer-writer-" + COUNTER.incrementAndGet());
+        this.writer.setDaemon(true);
+        this.writer.start();
+    }
+
+    /**
+     * Queue a message to relay to the other server
+     *
+     * @param message The message, it must not be modified afterwards
+     */
+    void relay(Message message) {
+        pending.add(message);
+    }
+
+    /**
+     * Send the queued messages in batches until the link is closed
+     */
+    private void writeLoop() {
+        List<Message> batch = new ArrayList<>();
+        while (!closed) {
+            try {
+                if (!collect(batch)) continue;
+            } catch (InterruptedException e) {
+                break;
+            }
+
+            socket.sendMessage(new RelayMessage(batch));
+            batches++;
+            batch = new ArrayList<>();
+        }
+    }
+
+    /**
+     * Wait for a message and then gather more for up to the relay interval
+     *
+     * @param batch The list to add the messages to
+     * @return False if nothing was queued
+     * @throws InterruptedException Throws when interrupted while waiting
+     */
+    private boolean collect(List<Message> batch) throws InterruptedException {
+        Message first = pending.poll(IDLE_POLL_MILLIS, TimeUnit.MILLISECONDS);
+        if (first == null) return false;
+
+        batch.add(first);
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(intervalMillis);
+        while (batch.size() < batchSize) {
+            pending.drainTo(batch, batchSize - batch.size());
+            long wait = deadline - System.nanoTime();
+            if (wait <= 0 || batch.size() >= batchSize) break;
+
+            Message next = pending.poll(wait, TimeUnit.NANOSECONDS);
+            if (next == null) break;
+            batch.add(next);
+        }
+        return true;
+    }
+
+    ThreadedSocket getSocket() {
+        return socket;
+    }
+
+    /**
+     * Get the address this server dialed
+     *
+     * @return The address or null if the other server dialed this one
+     */
+    String getAddress() {
+        return address;
+    }
+
+    boolean isOutbound() {
+        return address != null;
+    }
+
+    /**
+     * Get the id of the other server
+     *
+     * @return The id or null if it hasn't introduced itself yet
+     */
+    String getNodeId() {
+        return nodeId;
+    }
+
+    void setNodeId(String nodeId) {
+        this.nodeId = nodeId;
+    }
+
+    /**
+     * Get the challenge sent to the other server
+     *
+     * @return The encoded nonce
+     */
+    String getChallenge() {
+        return challenge;
+    }
+
+    /**
+     * Check if the other server proved it holds the cluster key
+     *
+     * @return False until its proof arrived
+     */
+    boolean isAuthenticated() {
+        return authenticated;
+    }
+
+    void setAuthenticated() {
+        this.authenticated = true;
+    }
+
+    /**
+     * Check if this server answered the other server's challenge
+     *
+     * @return False until the answer was sent
+     */
+    boolean isAnswered() {
+        return answered;
+    }
+
+    void setAnswered() {
+        this.answered = true;
+    }
+
+    /**
+     * Get the rooms the other server has members in
+     *
+     * @return A live set of room names
+     */
+    Set<String> getInterest() {
+        return interest;
+    }
+
+    long getBatches() {
+        return batches;
+    }
+
+    boolean isClosed() {
+        return closed;
+    }
+
+    void close() {
+        closed = true;
+        writer.interrupt();
+        socket.disconnect();
+    }
+}
@@ -7,19 +7,37 @@ import chat.server.Server;
 abstract class AbstractCommand {
     private String label;
     private Server server;
+    private long timeoutMillis;
 
     protected AbstractCommand(String label, Server server) {
+        this(label, server, -1);
+    }
+
+    /**
+     * The AbstractCommand constructor.
+     *
+     * @param label The label the command is typed with, in lower case
+     * @param server The server
+     * @param timeoutMillis How long the command may run before it is interrupted, 0 for no
+     *     limit and -1 for the limit from the configuration file
+     */
+    protected AbstractCommand(String label, Server server, long timeoutMillis) {
         this.label = label;
         this.server = server;
+        this.timeoutMillis = timeoutMillis;
     }
 
     public String getLabel() {
         return label;
     }
 
+    public long getTimeoutMillis() {
+        return timeoutMillis;
+    }
+
     protected Server getServer() {
         return server;
     }
 
-    abstract void onExecute(String[] args, Message message, ClientHandler client);
+    abstract void onExecute(CommandLine line, Message message, ClientHandler client);
 }
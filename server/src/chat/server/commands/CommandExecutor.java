@@ -2,29 +2,154 @@ package chat.server.commands;
 
 import chat.messages.Message;
 import chat.server.ClientHandler;
+import chat.server.CommandConfig;
 import chat.server.Server;
 
-import java.util.HashMap;
-import java.util.Map;
+import java.util.Arrays;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.function.Supplier;
 
+/**
+ * The CommandExecutor class.
+ *
+ * Looks up the commands typed by the clients and runs them on a bounded pool, so a slow
+ * command doesn't hold up the thread that reads from the client. The commands of a client
+ * still run one after the other in the order they were typed, and the client's other
+ * messages wait for them, see runInOrder.
+ *
+ * Commands are looked up by the length of their label first, then compared to the typed
+ * label ignoring case, so finding a command doesn't create any strings.
+ */
 public class CommandExecutor {
-    private Map<String, AbstractCommand> commands;
+    // The commands by the length of their label
+    private AbstractCommand[][] commands = new AbstractCommand[0][];
+    private final CommandScheduler scheduler;
+    private final long defaultTimeoutMillis;
 
-    public CommandExecutor(Server server) {
-        this.commands = new HashMap<>();
+    public CommandExecutor(Server server, CommandConfig config) {
+        this(config);
         this.registerCommand(new QuitCommand(server));
         this.registerCommand(new NickCommand(server));
+        this.registerCommand(new JoinCommand(server));
+        this.registerCommand(new PartCommand(server));
     }
 
-    private void registerCommand(AbstractCommand command) {
-        this.commands.put(command.getLabel().toLowerCase(), command);
+    CommandExecutor(CommandConfig config) {
+        this.scheduler = new CommandScheduler(config, client -> ((ClientHandler) client).disconnect());
+        this.defaultTimeoutMillis = config.getTimeoutMillis();
     }
 
-    public boolean execute(String label, String[] args, Message message, ClientHandler client) {
-        if (!this.commands.containsKey(label.toLowerCase())) return false;
+    void registerCommand(AbstractCommand command) {
+        int length = command.getLabel().length();
+        if (commands.length <= length) commands = Arrays.copyOf(commands, length + 1);
 
-        this.commands.get(label.toLowerCase()).onExecute(args, message, client);
+        AbstractCommand[] sameLength = commands[length] == null ? new AbstractCommand[0] : commands[length];
+        sameLength = Arrays.copyOf(sameLength, sameLength.length + 1);
+        sameLength[sameLength.length - 1] = command;
+        commands[length] = sameLength;
+    }
+
+    private AbstractCommand find(CommandLine line) {
+        int length = line.getLabelLength();
+        if (length >= commands.length || commands[length] == null) return null;
+
+        for (AbstractCommand command : commands[length]) {
+            if (line.isLabel(command.getLabel())) return command;
+        }
+        return null;
+    }
+
+    /**
+     * Run a command typed by a client
+     *
+     * Must be called in the order the client's messages arrive, from the thread that handles them.
+     *
+     * @param text The text of the message, starting with a forward slash
+     * @param message The message
+     * @param client The client that typed the command
+     * @return Completes with false if there is no such command, with true once the command is
+     *     done, or exceptionally with a TimeoutException if it ran too long, a
+     *     RejectedExecutionException if too many commands are waiting or whatever the command threw
+     */
+    public CompletionStage<Boolean> execute(String text, Message message, ClientHandler client) {
+        CommandLine line = CommandLine.parse(text);
+        AbstractCommand command = find(line);
+        if (command == null) {
+            CompletableFuture<Boolean> unknown = new CompletableFuture<>();
+            try {
+                scheduler.afterPending(client, () -> unknown.complete(false));
+            } catch (RejectedExecutionException e) {
+                unknown.completeExceptionally(e);
+            }
+            return unknown;
+        }
+
+        long timeoutMillis = command.getTimeoutMillis() < 0 ? defaultTimeoutMillis : command.getTimeoutMillis();
+        return scheduler.submit(client, () -> command.onExecute(line, message, client), timeoutMillis)
+                .thenApply(v -> true);
+    }
+
+    /**
+     * Handle a message that isn't a command once the client's earlier commands are done
+     *
+     * Runs right away on the calling thread if the client has no commands running. Must be
+     * called in the order the client's messages arrive, from the thread that handles them.
+     * A client with too many messages waiting is disconnected.
+     *
+     * @param client The client that sent the message
+     * @param handler Handles the message, must not block
+     */
+    public void runInOrder(ClientHandler client, Runnable handler) {
+        try {
+            scheduler.afterPending(client, handler);
+        } catch (RejectedExecutionException e) {
+            refuse(client);
+        }
+    }
+
+    /**
+     * Handle a message that finishes later, such as a login, once the client's earlier commands are done
+     *
+     * The client's later messages wait until the returned stage completes. Must be called in
+     * the order the client's messages arrive, from the thread that handles them.
+     *
+     * @param client The client that sent the message
+     * @param handler Starts handling the message, must not block
+     */
+    public void runInOrderAsync(ClientHandler client, Supplier<? extends CompletionStage<?>> handler) {
+        try {
+            scheduler.afterPendingAsync(client, handler);
+        } catch (RejectedExecutionException e) {
+            refuse(client);
+        }
+    }
+
+    private void refuse(ClientHandler client) {
+        System.out.println("Too many messages of " + client.getClientName() + " are waiting for its commands, disconnecting it.");
+        client.disconnect();
+    }
+
+    /**
+     * Get the pool the commands run on
+     *
+     * Replies to a command that timed out should be sent from here, the timeout fires on the
+     * shared timer which must never block.
+     *
+     * @return The pool
+     */
+    public Executor getExecutor() {
+        return scheduler.getExecutor();
+    }
 
-        return true;
+    /**
+     * Get the number of commands waiting for a thread
+     *
+     * @return The number of queued commands
+     */
+    public int getQueuedCommands() {
+        return scheduler.getQueued();
     }
 }
@@ -0,0 +1,113 @@
+package chat.server.commands;
+
+/**
+ * A command typed by a client, such as "/join dev".
+ *
+ * The text is never split, lowered or copied: the label and arguments are found by scanning
+ * the text for spaces, labels are compared ignoring case in place and an argument only
+ * becomes a string of its own when a command asks for it. Runs of spaces count as one.
+ */
+public final class CommandLine {
+    private final String text;
+    private final int labelEnd;
+
+    private CommandLine(String text, int labelEnd) {
+        this.text = text;
+        this.labelEnd = labelEnd;
+    }
+
+    /**
+     * Read a command from the text of a message
+     *
+     * @param text The text, starting with a forward slash
+     * @return The command line
+     */
+    public static CommandLine parse(String text) {
+        return new CommandLine(text, tokenEnd(text, 1));
+    }
+
+    private static int tokenEnd(String text, int start) {
+        int end = start;
+        while (end < text.length() && text.charAt(end) != ' ') end++;
+        return end;
+    }
+
+    private static int skipSpaces(String text, int start) {
+        int index = start;
+        while (index < text.length() && text.charAt(index) == ' ') index++;
+        return index;
+    }
+
+    /**
+     * Get the length of the label, without the slash
+     *
+     * @return The number of characters in the label
+     */
+    int getLabelLength() {
+        return labelEnd - 1;
+    }
+
+    /**
+     * Check if the command has the given label, ignoring case
+     *
+     * @param label The label in lower case
+     * @return If the label matches
+     */
+    boolean isLabel(String label) {
+        return label.length() == getLabelLength() && text.regionMatches(true, 1, label, 0, label.length());
+    }
+
+    /**
+     * Get the label as it was typed
+     *
+     * @return The label, without the slash
+     */
+    public String getLabel() {
+        return text.substring(1, labelEnd);
+    }
+
+    /**
+     * Get the number of arguments after the label
+     *
+     * @return The number of arguments
+     */
+    public int getArgumentCount() {
+        int count = 0;
+        for (int start = skipSpaces(text, labelEnd); start < text.length(); start = skipSpaces(text, tokenEnd(text, start)))
+            count++;
+        return count;
+    }
+
+    /**
+     * Get an argument
+     *
+     * @param index The index of the argument, 0 is the first one after the label
+     * @return The argument or null if there are not that many
+     */
+    public String getArgument(int index) {
+        int start = argumentStart(index);
+        return start < 0 ? null : text.substring(start, tokenEnd(text, start));
+    }
+
+    /**
+     * Get an argument and everything after it, for arguments that may contain spaces
+     *
+     * @param index The index of the first argument
+     * @return The rest of the text or null if there are not that many arguments
+     */
+    public String getRemaining(int index) {
+        int start = argumentStart(index);
+        return start < 0 ? null : text.substring(start);
+    }
+
+    private int argumentStart(int index) {
+        int start = skipSpaces(text, labelEnd);
+        for (int i = 0; i < index && start < text.length(); i++) start = skipSpaces(text, tokenEnd(text, start));
+        return start < text.length() ? start : -1;
+    }
+
+    @Override
+    public String toString() {
+        return text;
+    }
+}
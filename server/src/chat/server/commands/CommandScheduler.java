@@ -0,0 +1,282 @@
+package chat.server.commands;
+
+import chat.server.CommandConfig;
+import chat.socket.SharedScheduler;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+
+/**
+ * Runs the commands of the clients on a bounded pool.
+ *
+ * The tasks of one client run one after the other in the order they were submitted, the
+ * tasks of different clients run in parallel. Every client has a chain of futures, a new
+ * task is added to the end of its client's chain and the chain is forgotten once its last
+ * task is done. A task that runs past its timeout fails right away and is interrupted, the
+ * next task of the client starts once the interrupted one has really ended so the two never
+ * overlap. Chains only move on from the pool's threads, never from the timer's. When the queue
+ * is full the task fails right away rather than blocking the thread reading from the client.
+ *
+ * A client can only have so many tasks waiting in its chain, past that new ones are refused. A
+ * task that is still running some time after its interrupt is given up on: its chain is dropped
+ * with the tasks waiting behind it and the client is handed to the stuck listener.
+ */
+final class CommandScheduler {
+    private static final AtomicInteger COUNTER = new AtomicInteger();
+
+    private final ThreadPoolExecutor executor;
+    private final Map<Object, Chain> chains = new ConcurrentHashMap<>();
+    private final int maxPending;
+    private final long graceMillis;
+    private final Consumer<Object> onStuck;
+
+    /**
+     * The CommandScheduler constructor.
+     *
+     * @param config The size of the pool and its queue, and the limits of the chains
+     * @param onStuck Called with the client of a task that didn't stop after its interrupt
+     */
+    CommandScheduler(CommandConfig config, Consumer<Object> onStuck) {
+        this.maxPending = config.getMaxPendingPerClient();
+        this.graceMillis = config.getGraceMillis();
+        this.onStuck = onStuck;
+        this.executor = new ThreadPoolExecutor(config.getThreads(), config.getThreads(), 0, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(config.getQueueSize()), runnable -> {
+                    Thread thread = new Thread(runnable, "command-" + COUNTER.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                });
+    }
+
+    /**
+     * Run a task on the pool once the earlier tasks of the same client are done
+     *
+     * @param client The client the task belongs to
+     * @param task The task
+     * @param timeoutMillis How long the task may run, 0 for no limit
+     * @return Completes when the task is done, or exceptionally with a TimeoutException or
+     *     RejectedExecutionException, or whatever the task threw
+     */
+    CompletableFuture<Void> submit(Object client, Runnable task, long timeoutMillis) {
+        CompletableFuture<Void> result = new CompletableFuture<>();
+        CompletableFuture<Void> ended = new CompletableFuture<>();
+        try {
+            chain(client, () -> start(client, task, timeoutMillis, result, ended), ended);
+        } catch (RejectedExecutionException e) {
+            result.completeExceptionally(e);
+        }
+        return result;
+    }
+
+    /**
+     * Run a short task once the earlier tasks of the same client are done
+     *
+     * The task runs on the calling thread if the client has no tasks waiting, otherwise on
+     * the thread that finishes the last of them. It must not block.
+     *
+     * @param client The client the task belongs to
+     * @param task The task
+     * @throws RejectedExecutionException Throws when the client has too many tasks waiting
+     */
+    void afterPending(Object client, Runnable task) {
+        if (!chains.containsKey(client)) {
+            task.run();
+            return;
+        }
+
+        CompletableFuture<Void> result = new CompletableFuture<>();
+        chain(client, () -> {
+            try {
+                task.run();
+            } finally {
+                result.complete(null);
+            }
+        }, result);
+    }
+
+    /**
+     * Start a task that finishes later once the earlier tasks of the same client are done
+     *
+     * The task starts like the ones of afterPending and must not block, the client's later
+     * tasks wait until the stage it returns completes.
+     *
+     * @param client The client the task belongs to
+     * @param task Starts the task
+     * @throws RejectedExecutionException Throws when the client has too many tasks waiting
+     */
+    void afterPendingAsync(Object client, Supplier<? extends CompletionStage<?>> task) {
+        CompletableFuture<Void> result = new CompletableFuture<>();
+        chain(client, () -> {
+            try {
+                task.get().whenComplete((v, e) -> result.complete(null));
+            } catch (RuntimeException e) {
+                result.complete(null);
+                throw e;
+            }
+        }, result);
+    }
+
+    /**
+     * Add a step to the end of the client's chain
+     *
+     * @param client The client
+     * @param step Starts the step, once the step before it is done
+     * @param done Completes when the step is done
+     * @throws RejectedExecutionException Throws when the client has too many steps waiting
+     */
+    private void chain(Object client, Runnable step, CompletableFuture<Void> done) {
+        // A failed step must not stop the ones after it
+        CompletableFuture<Void> end = done.handle((v, e) -> null);
+        List<CompletableFuture<Void>> previous = new ArrayList<>(1);
+        Chain chain = chains.compute(client, (c, current) -> {
+            if (current == null) current = new Chain();
+            if (current.steps >= maxPending)
+                throw new RejectedExecutionException("More than " + maxPending + " tasks are waiting.");
+            previous.add(current.tail);
+            current.tail = end;
+            current.steps++;
+            return current;
+        });
+        if (previous.get(0) == null) {
+            step.run();
+        } else {
+            previous.get(0).thenRun(() -> {
+                if (!chain.dropped) step.run();
+            });
+        }
+        // A dropped chain isn't touched anymore, the client may have a new one by now
+        end.thenRun(() -> chains.computeIfPresent(client, (c, current) ->
+                current != chain || --current.steps > 0 ? current : null));
+    }
+
+    /**
+     * Give up on a task that didn't stop after its interrupt
+     *
+     * The client's chain is dropped, the tasks waiting behind the stuck one never run.
+     *
+     * @param client The client the task belongs to
+     */
+    private void abandon(Object client) {
+        System.out.println("A command is still running " + graceMillis + "ms after it was interrupted, giving up on its client.");
+        Chain chain = chains.remove(client);
+        if (chain != null) chain.dropped = true;
+        onStuck.accept(client);
+    }
+
+    /**
+     * Queue a task on the pool and start its timeout
+     *
+     * @param client The client the task belongs to
+     * @param task The task
+     * @param timeoutMillis How long the task may run, 0 for no limit
+     * @param result Completes when the task is done or timed out
+     * @param ended Completes once the task really stopped running, or will never run
+     */
+    private void start(Object client, Runnable task, long timeoutMillis, CompletableFuture<Void> result, CompletableFuture<Void> ended) {
+        Attempt attempt = new Attempt(task, result, ended);
+        try {
+            executor.execute(attempt);
+        } catch (RejectedExecutionException e) {
+            result.completeExceptionally(e);
+            ended.complete(null);
+            return;
+        }
+        if (timeoutMillis <= 0) return;
+
+        ScheduledFuture<?> timeout = SharedScheduler.get().schedule(() -> {
+            if (!result.completeExceptionally(new TimeoutException("Took longer than " + timeoutMillis + "ms."))) return;
+            attempt.interrupt();
+            if (graceMillis > 0) SharedScheduler.get().schedule(() -> {
+                if (!ended.isDone()) abandon(client);
+            }, graceMillis, TimeUnit.MILLISECONDS);
+        }, timeoutMillis, TimeUnit.MILLISECONDS);
+        result.whenComplete((v, e) -> timeout.cancel(false));
+    }
+
+    /**
+     * Get the pool the tasks run on
+     *
+     * @return The pool
+     */
+    Executor getExecutor() {
+        return executor;
+    }
+
+    /**
+     * Get the number of tasks waiting for a thread of the pool
+     *
+     * @return The queue depth
+     */
+    int getQueued() {
+        return executor.getQueue().size();
+    }
+
+    /**
+     * The tasks of a client that haven't finished yet, guarded by the chains map.
+     */
+    private static final class Chain {
+        // Completes once the last task of the chain is done
+        private CompletableFuture<Void> tail;
+        private int steps;
+        // Set once the chain is given up on, its waiting tasks are skipped
+        private volatile boolean dropped;
+    }
+
+    /**
+     * A task on the pool, its timeout can interrupt it without reaching whatever the thread runs next.
+     */
+    private static final class Attempt implements Runnable {
+        private final Runnable task;
+        private final CompletableFuture<Void> result;
+        private final CompletableFuture<Void> ended;
+        // The thread running the task, guarded by this
+        private Thread runner;
+
+        private Attempt(Runnable task, CompletableFuture<Void> result, CompletableFuture<Void> ended) {
+            this.task = task;
+            this.result = result;
+            this.ended = ended;
+        }
+
+        @Override
+        public void run() {
+            synchronized (this) {
+                runner = Thread.currentThread();
+            }
+            try {
+                // Timed out while it was still queued
+                if (!result.isDone()) {
+                    task.run();
+                    result.complete(null);
+                }
+            } catch (RuntimeException e) {
+                result.completeExceptionally(e);
+            } finally {
+                synchronized (this) {
+                    runner = null;
+                }
+                // An interrupt that came in late must not reach the client's next task
+                Thread.interrupted();
+                ended.complete(null);
+            }
+        }
+
+        synchronized void interrupt() {
+            if (runner != null) runner.interrupt();
+        }
+    }
+}
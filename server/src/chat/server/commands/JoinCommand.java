@@ -0,0 +1,36 @@
+package chat.server.commands;
+
+import chat.messages.Message;
+import chat.server.ClientHandler;
+import chat.server.RoomRegistry;
+import chat.server.Server;
+
+class JoinCommand extends AbstractCommand {
+    JoinCommand(Server server) {
+        super("join", server);
+    }
+
+    @Override
+    void onExecute(CommandLine line, Message message, ClientHandler client) {
+        if (!getServer().checkLoggedIn(client)) return;
+
+        String room = line.getArgument(0);
+        if (room == null) {
+            client.sendMessage("Missing argument room, usage: /join <room>");
+            return;
+        }
+
+        if (!RoomRegistry.isValidName(room)) {
+            client.sendMessage("Room names can only contain letters, digits, dashes and underscores, up to 32 of them.");
+            return;
+        }
+
+        if (!getServer().joinRoom(client, room)) {
+            client.sendMessage("You are already in " + RoomRegistry.displayName(room) + ".");
+            return;
+        }
+
+        getServer().broadcast(room, client.getClientName() + " joined " + RoomRegistry.displayName(room));
+        getServer().getHistory().replay(client, RoomRegistry.key(room));
+    }
+}
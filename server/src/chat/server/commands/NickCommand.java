@@ -10,25 +10,21 @@ class NickCommand extends AbstractCommand {
     }
 
     @Override
-    void onExecute(String[] args, Message message, ClientHandler client) {
-        if (args.length < 1) {
+    void onExecute(CommandLine line, Message message, ClientHandler client) {
+        if (!getServer().checkLoggedIn(client)) return;
+
+        String nickname = line.getArgument(0);
+        if (nickname == null) {
             client.sendMessage("Missing argument name, usage: /nick <name>");
             return;
         }
 
-        boolean matches = false;
-        String nickname = args[0];
-        for (ClientHandler other : getServer().getConnectedClients()) {
-            if (other.getClientName().equalsIgnoreCase(nickname)) {
-                client.sendMessage("That nickname is already in use.");
-                matches = true;
-                break;
-            }
+        String oldName = client.getClientName();
+        if (!client.setClientName(nickname)) {
+            client.sendMessage("That nickname is already in use.");
+            return;
         }
-        if (matches) return;
 
-        String oldName = client.getClientName();
-        client.setClientName(nickname);
         getServer().broadcast(oldName + " is now known as " + nickname);
     }
 }
@@ -0,0 +1,31 @@
+package chat.server.commands;
+
+import chat.messages.Message;
+import chat.server.ClientHandler;
+import chat.server.RoomRegistry;
+import chat.server.Server;
+
+class PartCommand extends AbstractCommand {
+    PartCommand(Server server) {
+        super("part", server);
+    }
+
+    @Override
+    void onExecute(CommandLine line, Message message, ClientHandler client) {
+        if (!getServer().checkLoggedIn(client)) return;
+
+        String room = line.getArgument(0);
+        if (room == null) {
+            client.sendMessage("Missing argument room, usage: /part <room>");
+            return;
+        }
+
+        if (!getServer().partRoom(client, room)) {
+            client.sendMessage("You are not in " + RoomRegistry.displayName(room) + ".");
+            return;
+        }
+
+        client.sendMessage("You left " + RoomRegistry.displayName(room) + ".");
+        getServer().broadcast(room, client.getClientName() + " left " + RoomRegistry.displayName(room));
+    }
+}
@@ -10,7 +10,7 @@ class QuitCommand extends AbstractCommand {
     }
 
     @Override
-    void onExecute(String[] args, Message message, ClientHandler client) {
+    void onExecute(CommandLine line, Message message, ClientHandler client) {
         client.disconnect();
     }
 }
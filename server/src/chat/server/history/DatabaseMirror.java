@@ -0,0 +1,175 @@
+package chat.server.history;
+
+import chat.messages.TextMessage;
+import chat.server.DatabaseConfig;
+import chat.server.HistoryConfig;
+import io.ebean.Database;
+import io.ebean.DatabaseFactory;
+import io.ebean.Transaction;
+import io.ebean.datasource.DataSourceConfig;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * The DatabaseMirror class.
+ *
+ * Copies the messages committed to the MessageLog into the database configured in config.yml,
+ * using Ebean. The log hands over its batches without waiting, a worker thread inserts them
+ * in batched transactions of up to the mirror batch size every mirror interval. The log stays
+ * the source of truth: when the database can't keep up or is unavailable, messages are
+ * dropped from the mirror only.
+ */
+public class DatabaseMirror {
+    private static final long IDLE_POLL_MILLIS = 100;
+
+    private final Database database;
+    private final HistoryConfig config;
+    private final BlockingQueue<StoredMessage> queue;
+    private final Thread worker;
+    private final LongAdder mirrored = new LongAdder();
+    private final LongAdder dropped = new LongAdder();
+    private volatile boolean running = true;
+
+    private DatabaseMirror(Database database, HistoryConfig config) {
+        this.database = database;
+        this.config = config;
+        this.queue = new ArrayBlockingQueue<>(config.getQueueSize());
+        this.worker = new Thread(this::run, "history-mirror");
+        this.worker.setDaemon(true);
+    }
+
+    /**
+     * Connect to the database and start mirroring
+     *
+     * The chat_message table must already exist, see StoredMessage.
+     *
+     * @param databaseConfig The database connection settings
+     * @param config The history settings
+     * @return The running mirror
+     */
+    public static DatabaseMirror connect(DatabaseConfig databaseConfig, HistoryConfig config) {
+        DataSourceConfig dataSource = new DataSourceConfig();
+        dataSource.setUsername(databaseConfig.getUsername());
+        dataSource.setPassword(databaseConfig.getPassword());
+        dataSource.setUrl(databaseConfig.getUrl());
+        dataSource.setDriver(databaseConfig.getDriver());
+
+        // Named like our own DatabaseConfig, so this one stays qualified
+        io.ebean.config.DatabaseConfig ebeanConfig = new io.ebean.config.DatabaseConfig();
+        ebeanConfig.setName("history");
+        ebeanConfig.setDefaultServer(false);
+        ebeanConfig.setRegister(false);
+        ebeanConfig.setDataSourceConfig(dataSource);
+        ebeanConfig.addClass(StoredMessage.class);
+
+        DatabaseMirror mirror = new DatabaseMirror(DatabaseFactory.create(ebeanConfig), config);
+        mirror.worker.start();
+        return mirror;
+    }
+
+    /**
+     * Queue committed messages to be copied to the database
+     *
+     * Never blocks, messages that don't fit in the queue are not mirrored.
+     *
+     * @param entries The messages
+     */
+    void offer(List<HistoryEntry> entries) {
+        for (HistoryEntry entry : entries) {
+            StoredMessage stored = new StoredMessage();
+            stored.setRoom(entry.getRoom());
+            stored.setTimestamp(entry.getTimestamp());
+            stored.setSenderId(entry.getMessage().getData(TextMessage.DATA_SENDER_ID));
+            stored.setSenderName(entry.getMessage().getData(TextMessage.DATA_SENDER_NAME));
+            stored.setText(entry.getMessage().getData(TextMessage.DATA_RAW_TEXT));
+
+            if (!running || !queue.offer(stored)) dropped.increment();
+        }
+    }
+
+    private void run() {
+        List<StoredMessage> batch = new ArrayList<>(config.getMirrorBatchSize());
+        while (running || !queue.isEmpty()) {
+            try {
+                if (!collect(batch)) continue;
+            } catch (InterruptedException e) {
+                break;
+            }
+
+            try {
+                save(batch);
+                mirrored.add(batch.size());
+            } catch (RuntimeException e) {
+                System.out.println("Failed to mirror " + batch.size() + " messages to the database: " + e.getMessage());
+                dropped.add(batch.size());
+            }
+            batch.clear();
+        }
+    }
+
+    /**
+     * Wait for a message and then gather more until the batch is full or the interval has passed
+     *
+     * @param batch The list to add the messages to
+     * @return False if nothing was queued
+     * @throws InterruptedException Throws when interrupted while waiting
+     */
+    private boolean collect(List<StoredMessage> batch) throws InterruptedException {
+        StoredMessage first = queue.poll(IDLE_POLL_MILLIS, TimeUnit.MILLISECONDS);
+        if (first == null) return false;
+
+        batch.add(first);
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(config.getMirrorIntervalMillis());
+        while (running && batch.size() < config.getMirrorBatchSize()) {
+            queue.drainTo(batch, config.getMirrorBatchSize() - batch.size());
+            long wait = deadline - System.nanoTime();
+            if (wait <= 0 || batch.size() >= config.getMirrorBatchSize()) break;
+
+            StoredMessage next = queue.poll(wait, TimeUnit.NANOSECONDS);
+            if (next == null) break;
+            batch.add(next);
+        }
+        return true;
+    }
+
+    private void save(List<StoredMessage> batch) {
+        try (Transaction transaction = database.beginTransaction()) {
+            transaction.setBatchMode(true);
+            transaction.setBatchSize(batch.size());
+            database.saveAll(batch);
+            transaction.commit();
+        }
+    }
+
+    /**
+     * @return The number of messages copied to the database
+     */
+    public long getMirrored() {
+        return mirrored.sum();
+    }
+
+    /**
+     * @return The number of messages that could not be copied to the database
+     */
+    public long getDropped() {
+        return dropped.sum();
+    }
+
+    /**
+     * Copy the queued messages and disconnect from the database
+     */
+    public void close() {
+        running = false;
+        try {
+            worker.join(TimeUnit.SECONDS.toMillis(10));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        database.shutdown(true, false);
+    }
+}
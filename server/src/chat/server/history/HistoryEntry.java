@@ -0,0 +1,33 @@
+package chat.server.history;
+
+import chat.messages.Message;
+
+/**
+ * A message read back from the history, with the room it was sent to and when it was stored.
+ */
+public class HistoryEntry {
+    private final String room;
+    private final long timestamp;
+    private final Message message;
+
+    HistoryEntry(String room, long timestamp, Message message) {
+        this.room = room;
+        this.timestamp = timestamp;
+        this.message = message;
+    }
+
+    public String getRoom() {
+        return room;
+    }
+
+    /**
+     * @return The time the message was stored in milliseconds since the epoch
+     */
+    public long getTimestamp() {
+        return timestamp;
+    }
+
+    public Message getMessage() {
+        return message;
+    }
+}
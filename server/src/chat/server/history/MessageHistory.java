@@ -0,0 +1,206 @@
+package chat.server.history;
+
+import chat.messages.HistoryEndMessage;
+import chat.messages.HistoryRequestMessage;
+import chat.messages.Message;
+import chat.messages.TextMessage;
+import chat.server.HistoryConfig;
+import chat.socket.PreparedMessage;
+import chat.socket.ThreadedSocket;
+
+import java.io.Closeable;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * The MessageHistory class.
+ *
+ * Keeps the last messages of every room in memory and stores all of them in the MessageLog
+ * if it is enabled. The recent messages are replayed to clients straight from memory, older
+ * pages asked for with a HistoryRequestMessage are read from the log on a bounded pool of
+ * reader threads so the read loops and event loops never wait for the disk.
+ *
+ * Each client has at most one page waiting for the pool, a newer request takes the place of
+ * the one still waiting. When the pool's queue is full the client is told to try again.
+ */
+public class MessageHistory implements Closeable {
+    private static final AtomicInteger COUNTER = new AtomicInteger();
+
+    private final HistoryConfig config;
+    private final MessageLog log;
+    private final ConcurrentMap<String, RoomBuffer> rooms = new ConcurrentHashMap<>();
+    private final ThreadPoolExecutor reader;
+    // The page each client is waiting for
+    private final ConcurrentMap<ThreadedSocket, Page> waiting = new ConcurrentHashMap<>();
+
+    /**
+     * The MessageHistory constructor.
+     *
+     * @param config The history settings
+     * @param log The persistent history or null to only keep the recent messages
+     */
+    public MessageHistory(HistoryConfig config, MessageLog log) {
+        this.config = config;
+        this.log = log;
+        this.reader = log == null ? null : new ThreadPoolExecutor(config.getReaderThreads(), config.getReaderThreads(),
+                0, TimeUnit.MILLISECONDS, new ArrayBlockingQueue<>(config.getReaderQueueSize()), runnable -> {
+                    Thread thread = new Thread(runnable, "history-reader-" + COUNTER.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                });
+    }
+
+    /**
+     * Remember a message that was sent to a room
+     *
+     * @param room The room
+     * @param timestamp The time the message was received in milliseconds since the epoch
+     * @param message The message as it was sent, it must not be modified afterwards
+     */
+    public void record(String room, long timestamp, PreparedMessage message) {
+        if (config.getRecentMessages() > 0)
+            rooms.computeIfAbsent(room, r -> new RoomBuffer(config.getRecentMessages())).add(timestamp, message);
+        if (log != null) log.append(room, timestamp, message.getMessage());
+    }
+
+    /**
+     * Drop the recent messages of a room that has no members anymore
+     *
+     * Clients pick the room names, so the buffers only live as long as their room. The
+     * messages stay in the log if it is enabled.
+     *
+     * @param room The room
+     */
+    public void forget(String room) {
+        rooms.remove(room);
+    }
+
+    /**
+     * Send the recent messages of a room to a client that just joined it, followed by a
+     * HistoryEndMessage
+     *
+     * @param client The client
+     * @param room The room
+     */
+    public void replay(ThreadedSocket client, String room) {
+        List<RoomBuffer.Entry> entries = recent(room, Long.MAX_VALUE, config.getRecentMessages());
+        for (RoomBuffer.Entry entry : entries) client.sendMessage(entry.getMessage());
+
+        // Older messages may be in the log even if the ring isn't full, it outlives restarts
+        Long cursor;
+        if (!entries.isEmpty() && (log != null || entries.size() == config.getRecentMessages())) {
+            cursor = entries.get(0).getTimestamp();
+        } else {
+            cursor = log != null ? System.currentTimeMillis() : null;
+        }
+        client.sendMessage(new HistoryEndMessage(room, cursor, entries.size()));
+    }
+
+    /**
+     * Answer a HistoryRequestMessage
+     *
+     * Pages the recent messages can answer are sent right away, others are read from the log
+     * on the reader pool.
+     *
+     * @param client The client that asked
+     * @param request The request
+     */
+    public void request(ThreadedSocket client, Message request) {
+        String room = request.getDataOrDefault(HistoryRequestMessage.DATA_ROOM, "");
+        long before = parse(request.getData(HistoryRequestMessage.DATA_BEFORE), Long.MAX_VALUE);
+        int limit = (int) Math.max(1, Math.min(config.getMaxPageSize(),
+                parse(request.getData(HistoryRequestMessage.DATA_LIMIT), config.getMaxPageSize())));
+
+        List<RoomBuffer.Entry> entries = recent(room, before, limit);
+        if (entries.size() == limit || log == null) {
+            for (RoomBuffer.Entry entry : entries) client.sendMessage(entry.getMessage());
+            Long cursor = entries.size() == limit ? entries.get(0).getTimestamp() : null;
+            client.sendMessage(new HistoryEndMessage(room, cursor, entries.size()));
+            return;
+        }
+
+        // Already queued for this client, the read picks up the newer page instead
+        if (waiting.put(client, new Page(room, before, limit)) != null) return;
+
+        try {
+            reader.execute(() -> read(client));
+        } catch (RejectedExecutionException e) {
+            waiting.remove(client);
+            client.sendMessage("The server is busy, try /history again later.");
+        }
+    }
+
+    /**
+     * Read the page a client is waiting for from the log and send it
+     *
+     * @param client The client
+     */
+    private void read(ThreadedSocket client) {
+        Page page = waiting.remove(client);
+        if (page == null) return;
+
+        List<HistoryEntry> stored = log.readBefore(page.room, page.before, page.limit);
+        for (HistoryEntry entry : stored) {
+            Message message = entry.getMessage();
+            if (message.getData(TextMessage.DATA_TIMESTAMP) == null)
+                message.putData(TextMessage.DATA_TIMESTAMP, Long.toString(entry.getTimestamp()));
+            client.sendMessage(message);
+        }
+        Long cursor = stored.size() == page.limit ? stored.get(0).getTimestamp() : null;
+        client.sendMessage(new HistoryEndMessage(page.room, cursor, stored.size()));
+    }
+
+    private List<RoomBuffer.Entry> recent(String room, long before, int limit) {
+        RoomBuffer buffer = rooms.get(room);
+        if (buffer == null || limit <= 0) return Collections.emptyList();
+
+        return buffer.before(before, limit);
+    }
+
+    private static long parse(String value, long defaultValue) {
+        if (value == null) return defaultValue;
+
+        try {
+            return Long.parseLong(value);
+        } catch (NumberFormatException e) {
+            return defaultValue;
+        }
+    }
+
+    /**
+     * Get the persistent history
+     *
+     * @return The log or null if it is disabled
+     */
+    public MessageLog getLog() {
+        return log;
+    }
+
+    /**
+     * Stop reading pages and close the log, writing out the messages that are still queued
+     */
+    @Override
+    public void close() {
+        if (reader != null) reader.shutdownNow();
+        if (log != null) log.close();
+    }
+
+    private static final class Page {
+        private final String room;
+        private final long before;
+        private final int limit;
+
+        private Page(String room, long before, int limit) {
+            this.room = room;
+            this.before = before;
+            this.limit = limit;
+        }
+    }
+}
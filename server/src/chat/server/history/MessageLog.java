@@ -0,0 +1,454 @@
+package chat.server.history;
+
+import chat.messages.MalformedMessageException;
+import chat.messages.Message;
+import chat.messages.MessageCodecs;
+import chat.server.HistoryConfig;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ConcurrentNavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * The MessageLog class.
+ *
+ * An append-only message history, stored as a directory of memory-mapped segment files. A
+ * record holds the room, the timestamp and the binary encoding of a message. Every room has
+ * an in-memory index of the timestamps and locations of its records, rebuilt from the
+ * segments when the log is opened, so reading a room's history never scans other rooms.
+ *
+ * Appending only puts the message in a bounded queue, it never waits for the disk: a full
+ * queue drops the message. A single writer thread takes the queued messages in batches,
+ * writes them and forces them to disk once per batch (group commit). Records are only
+ * visible to readers once they have been forced.
+ *
+ * Once there are more than maxSegments segments the oldest one is deleted along with its
+ * records in the room indexes, so the disk, the mappings and the indexes stay bounded.
+ *
+ * The log can also hand every committed batch to a DatabaseMirror.
+ */
+public class MessageLog implements Closeable {
+    private static final long IDLE_POLL_MILLIS = 100;
+
+    private final Path directory;
+    private final HistoryConfig config;
+    private final DatabaseMirror mirror;
+    // By segment number, the oldest ones are removed as the log grows
+    private final ConcurrentNavigableMap<Integer, Segment> segments = new ConcurrentSkipListMap<>();
+    private final ConcurrentMap<String, RoomIndex> rooms = new ConcurrentHashMap<>();
+    private final BlockingQueue<Pending> queue;
+    private final Thread writer;
+    private final LongAdder dropped = new LongAdder();
+    private volatile long committed = 0;
+    private volatile boolean running = true;
+
+    // Only used by the writer thread once the log is open
+    private Segment active;
+    private long lastTimestamp;
+    private ByteBuffer scratch = ByteBuffer.allocate(1024);
+
+    private MessageLog(Path directory, HistoryConfig config, DatabaseMirror mirror) {
+        this.directory = directory;
+        this.config = config;
+        this.mirror = mirror;
+        this.queue = new ArrayBlockingQueue<>(config.getQueueSize());
+        this.writer = new Thread(this::writeLoop, "history-writer");
+    }
+
+    /**
+     * Open the log in the configured directory, creating it if it doesn't exist
+     *
+     * @param config The history settings
+     * @param mirror Receives every committed batch, null to not mirror the log
+     * @return The log, ready to append to
+     * @throws IOException Throws when the segments can't be opened or a segment is missing
+     */
+    public static MessageLog open(HistoryConfig config, DatabaseMirror mirror) throws IOException {
+        Path directory = Paths.get(config.getDirectory());
+        Files.createDirectories(directory);
+
+        MessageLog log = new MessageLog(directory, config, mirror);
+        log.recover();
+        log.writer.start();
+        return log;
+    }
+
+    /**
+     * Map the existing segments and index their records
+     *
+     * @throws IOException Throws when a segment can't be opened or the segment numbers have a gap
+     */
+    private void recover() throws IOException {
+        List<Integer> indexes;
+        try (Stream<Path> files = Files.list(directory)) {
+            indexes = files.map(Segment::indexOf).filter(index -> index >= 0).sorted().collect(Collectors.toList());
+        }
+        if (indexes.isEmpty()) indexes = Collections.singletonList(0);
+
+        int firstSegment = indexes.get(0);
+        for (int i = 0; i < indexes.size(); i++) {
+            if (indexes.get(i) != firstSegment + i)
+                throw new IOException("Segment " + (firstSegment + i) + " of the message log is missing.");
+
+            Segment segment = Segment.open(directory, indexes.get(i), config.getSegmentSize());
+            segments.put(segment.getIndex(), segment);
+
+            int offset = 0;
+            int length;
+            while ((length = segment.validRecordAt(offset)) > 0) {
+                ByteBuffer body = segment.body(offset);
+                long timestamp = body.getLong();
+                lastTimestamp = Math.max(lastTimestamp, timestamp);
+                rooms.computeIfAbsent(readRoom(body), room -> new RoomIndex())
+                        .add(timestamp, RoomIndex.location(segment.getIndex(), offset));
+                offset += Segment.RECORD_HEADER_LENGTH + length;
+            }
+
+            if (i == indexes.size() - 1) {
+                segment.truncate(offset);
+                active = segment;
+            }
+        }
+
+        long records = 0;
+        for (RoomIndex index : rooms.values()) records += index.entries().size();
+        committed = records;
+        expire();
+    }
+
+    /**
+     * Delete the oldest segments beyond maxSegments, dropping their records from the room indexes first
+     *
+     * Readers that already looked up a record of a deleted segment skip it. Only called from
+     * the writer thread after a commit, or while the log is opened.
+     */
+    private void expire() {
+        if (config.getMaxSegments() <= 0) return;
+
+        while (segments.size() > config.getMaxSegments()) {
+            Segment oldest = segments.firstEntry().getValue();
+            long removed = 0;
+            for (Map.Entry<String, RoomIndex> room : rooms.entrySet()) {
+                removed += room.getValue().removeBefore(oldest.getIndex() + 1);
+                if (room.getValue().entries().size() == 0) rooms.remove(room.getKey(), room.getValue());
+            }
+            committed -= removed;
+
+            segments.remove(oldest.getIndex());
+            try {
+                oldest.delete(directory);
+            } catch (IOException e) {
+                System.out.println("Failed to delete segment " + oldest.getIndex() + " of the message history: " + e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Queue a message to be stored
+     *
+     * Never blocks, the message is dropped if the writer can't keep up. The message must not
+     * be modified afterwards.
+     *
+     * @param room The room the message was sent to
+     * @param timestamp The time the message was received in milliseconds since the epoch
+     * @param message The message
+     * @return False if the message was dropped
+     */
+    public boolean append(String room, long timestamp, Message message) {
+        if (!running || !queue.offer(new Pending(room, timestamp, message))) {
+            dropped.increment();
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Read the messages of a room from a point in time onwards
+     *
+     * @param room The room
+     * @param from The earliest timestamp to include
+     * @param limit The maximum number of messages
+     * @return The messages, oldest first
+     */
+    public List<HistoryEntry> readFrom(String room, long from, int limit) {
+        RoomIndex index = rooms.get(room);
+        if (index == null || limit <= 0) return Collections.emptyList();
+
+        RoomIndex.Entries entries = index.entries();
+        int start = entries.firstAtOrAfter(from);
+        return read(room, entries, start, start + Math.min(entries.size() - start, limit));
+    }
+
+    /**
+     * Read the latest messages of a room from before a point in time, used to page backwards
+     * through the history
+     *
+     * @param room The room
+     * @param before The timestamp to read up to, excluding it
+     * @param limit The maximum number of messages
+     * @return The messages, oldest first
+     */
+    public List<HistoryEntry> readBefore(String room, long before, int limit) {
+        RoomIndex index = rooms.get(room);
+        if (index == null || limit <= 0) return Collections.emptyList();
+
+        RoomIndex.Entries entries = index.entries();
+        int end = entries.firstAtOrAfter(before);
+        return read(room, entries, Math.max(0, end - limit), end);
+    }
+
+    private List<HistoryEntry> read(String room, RoomIndex.Entries entries, int start, int end) {
+        List<HistoryEntry> result = new ArrayList<>(Math.max(0, end - start));
+        for (int i = start; i < end; i++) {
+            long location = entries.location(i);
+            Segment segment = segments.get(RoomIndex.segmentOf(location));
+            if (segment == null) continue; // Deleted since the entries were looked up
+
+            ByteBuffer body = segment.body(RoomIndex.offsetOf(location));
+            body.getLong();
+            readRoom(body);
+
+            byte[] payload = new byte[body.remaining()];
+            body.get(payload);
+            try {
+                result.add(new HistoryEntry(room, entries.timestamp(i), MessageCodecs.decode(payload)));
+            } catch (MalformedMessageException e) {
+                e.printStackTrace();
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Take queued messages in batches and commit them until the log is closed
+     */
+    private void writeLoop() {
+        List<Pending> batch = new ArrayList<>();
+        while (running || !queue.isEmpty()) {
+            try {
+                if (!collect(batch)) continue;
+            } catch (InterruptedException e) {
+                break;
+            }
+
+            try {
+                commit(batch);
+            } catch (IOException | RuntimeException e) {
+                System.out.println("Failed to write " + batch.size() + " messages to the history: " + e);
+            }
+            batch.clear();
+        }
+    }
+
+    /**
+     * Wait for a message and then gather more for up to the commit interval
+     *
+     * @param batch The list to add the messages to
+     * @return False if nothing was queued
+     * @throws InterruptedException Throws when interrupted while waiting
+     */
+    private boolean collect(List<Pending> batch) throws InterruptedException {
+        Pending first = queue.poll(IDLE_POLL_MILLIS, TimeUnit.MILLISECONDS);
+        if (first == null) return false;
+
+        batch.add(first);
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(config.getCommitIntervalMillis());
+        while (batch.size() < config.getMaxBatchSize()) {
+            queue.drainTo(batch, config.getMaxBatchSize() - batch.size());
+            long wait = deadline - System.nanoTime();
+            if (wait <= 0 || batch.size() >= config.getMaxBatchSize()) break;
+
+            Pending next = queue.poll(wait, TimeUnit.NANOSECONDS);
+            if (next == null) break;
+            batch.add(next);
+        }
+        return true;
+    }
+
+    /**
+     * Write a batch, force it to disk and publish it to the readers and the mirror
+     *
+     * If a new segment can't be created the messages written before it are still published,
+     * the rest of the batch is dropped.
+     *
+     * @param batch The messages
+     * @throws IOException Throws when a new segment can't be created
+     */
+    private void commit(List<Pending> batch) throws IOException {
+        long[] locations = new long[batch.size()];
+        long[] timestamps = new long[batch.size()];
+        int appended = 0;
+        try {
+            for (; appended < batch.size(); appended++) append(batch.get(appended), appended, locations, timestamps);
+        } catch (IOException e) {
+            dropped.add(batch.size() - appended);
+            throw e;
+        } finally {
+            active.force();
+            publish(batch, appended, locations, timestamps);
+            expire();
+        }
+    }
+
+    /**
+     * Write a message of a batch to the active segment, moving on to a new segment when it is full
+     *
+     * @param pending The message
+     * @param i The position of the message in the batch
+     * @param locations Where the location of the record goes, -1 if the message was dropped
+     * @param timestamps Where the timestamp of the record goes
+     * @throws IOException Throws when a new segment can't be created
+     */
+    private void append(Pending pending, int i, long[] locations, long[] timestamps) throws IOException {
+        long timestamp = Math.max(pending.timestamp, lastTimestamp);
+        ByteBuffer body = encode(pending, timestamp);
+        if (body == null || !active.canHold(body.remaining())) {
+            System.out.println("Dropping a message that is too large for the history.");
+            locations[i] = -1;
+            dropped.increment();
+            return;
+        }
+
+        if (!active.fits(body.remaining())) {
+            active.force();
+            Segment next = Segment.open(directory, active.getIndex() + 1, config.getSegmentSize());
+            segments.put(next.getIndex(), next);
+            active = next;
+        }
+
+        // Keeps the records of every room sorted by timestamp even if the clock goes back
+        timestamps[i] = timestamp;
+        lastTimestamp = timestamp;
+        locations[i] = RoomIndex.location(active.getIndex(), active.append(body));
+    }
+
+    /**
+     * Make the first messages of a batch visible to the readers and hand them to the mirror
+     *
+     * @param batch The messages
+     * @param count The number of messages that were written
+     * @param locations The locations of the records, -1 for the dropped messages
+     * @param timestamps The timestamps of the records
+     */
+    private void publish(List<Pending> batch, int count, long[] locations, long[] timestamps) {
+        List<HistoryEntry> entries = mirror != null ? new ArrayList<>(count) : null;
+        int written = 0;
+        for (int i = 0; i < count; i++) {
+            if (locations[i] < 0) continue;
+
+            Pending pending = batch.get(i);
+            rooms.computeIfAbsent(pending.room, room -> new RoomIndex()).add(timestamps[i], locations[i]);
+            if (entries != null) entries.add(new HistoryEntry(pending.room, timestamps[i], pending.message));
+            written++;
+        }
+        committed += written;
+
+        if (entries != null) mirror.offer(entries);
+    }
+
+    /**
+     * Build the body of a record in the writer's scratch buffer
+     *
+     * @param pending The queued message
+     * @param timestamp The timestamp to store
+     * @return The body or null if the room name is too long
+     */
+    private ByteBuffer encode(Pending pending, long timestamp) {
+        byte[] room = pending.room.getBytes(StandardCharsets.UTF_8);
+        if (room.length > 0xFFFF) return null;
+        byte[] payload = MessageCodecs.BINARY.encode(pending.message);
+
+        int length = Long.BYTES + Short.BYTES + room.length + payload.length;
+        if (scratch.capacity() < length) scratch = ByteBuffer.allocate(Math.max(length, scratch.capacity() * 2));
+
+        scratch.clear();
+        scratch.putLong(timestamp);
+        scratch.putShort((short) room.length);
+        scratch.put(room);
+        scratch.put(payload);
+        scratch.flip();
+        return scratch;
+    }
+
+    private static String readRoom(ByteBuffer body) {
+        byte[] room = new byte[body.getShort() & 0xFFFF];
+        body.get(room);
+        return new String(room, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * @return The number of messages in the log
+     */
+    public long getCommitted() {
+        return committed;
+    }
+
+    /**
+     * @return The number of messages that were dropped because the queue was full or they were too large
+     */
+    public long getDropped() {
+        return dropped.sum();
+    }
+
+    /**
+     * @return The number of messages waiting to be written
+     */
+    public int getQueued() {
+        return queue.size();
+    }
+
+    /**
+     * Write the queued messages and close the segments and the mirror
+     */
+    @Override
+    public void close() {
+        running = false;
+        try {
+            writer.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+
+        for (Segment segment : segments.values()) {
+            try {
+                segment.close();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+        if (mirror != null) mirror.close();
+    }
+
+    /**
+     * A message waiting to be written
+     */
+    private static final class Pending {
+        private final String room;
+        private final long timestamp;
+        private final Message message;
+
+        Pending(String room, long timestamp, Message message) {
+            this.room = room;
+            this.timestamp = timestamp;
+            this.message = message;
+        }
+    }
+}
@@ -0,0 +1,75 @@
+package chat.server.history;
+
+import chat.socket.PreparedMessage;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * The last messages sent to a room, kept in a fixed-size ring.
+ *
+ * The messages are kept as the PreparedMessages that were sent to the room, so replaying them
+ * reuses their encoding, and their frames for clients that share keys. Adding a message claims
+ * the next sequence number and overwrites the oldest slot, readers skip slots that have been
+ * overwritten or not filled yet, so neither side ever takes a lock.
+ */
+final class RoomBuffer {
+    private final AtomicReferenceArray<Entry> slots;
+    private final AtomicLong next = new AtomicLong();
+
+    RoomBuffer(int capacity) {
+        this.slots = new AtomicReferenceArray<>(capacity);
+    }
+
+    void add(long timestamp, PreparedMessage message) {
+        long sequence = next.getAndIncrement();
+        slots.set(slot(sequence), new Entry(sequence, timestamp, message));
+    }
+
+    /**
+     * Get the latest messages sent before a timestamp
+     *
+     * @param before The timestamp to read up to, excluding it
+     * @param limit The maximum number of messages
+     * @return The messages, oldest first
+     */
+    List<Entry> before(long before, int limit) {
+        long end = next.get();
+        List<Entry> entries = new ArrayList<>(Math.min(limit, slots.length()));
+        for (long sequence = Math.max(0, end - slots.length()); sequence < end; sequence++) {
+            Entry entry = slots.get(slot(sequence));
+            if (entry != null && entry.sequence == sequence && entry.timestamp < before) entries.add(entry);
+        }
+
+        return entries.size() <= limit ? entries : entries.subList(entries.size() - limit, entries.size());
+    }
+
+    private int slot(long sequence) {
+        return (int) (sequence % slots.length());
+    }
+
+    /**
+     * A message in the ring.
+     */
+    static final class Entry {
+        private final long sequence;
+        private final long timestamp;
+        private final PreparedMessage message;
+
+        private Entry(long sequence, long timestamp, PreparedMessage message) {
+            this.sequence = sequence;
+            this.timestamp = timestamp;
+            this.message = message;
+        }
+
+        long getTimestamp() {
+            return timestamp;
+        }
+
+        PreparedMessage getMessage() {
+            return message;
+        }
+    }
+}
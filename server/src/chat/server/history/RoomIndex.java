@@ -0,0 +1,140 @@
+package chat.server.history;
+
+import java.util.Arrays;
+
+/**
+ * The timestamps and locations of the records of one room, in the order they were written.
+ *
+ * A location is the segment number in the upper and the offset in the lower 32 bits. The
+ * log's writer thread is the only one that adds entries, any thread may search them: entries
+ * are written before the size is published, and grown arrays are published along with it.
+ */
+final class RoomIndex {
+    private static final int INITIAL_CAPACITY = 64;
+
+    private volatile Entries entries = new Entries(new long[INITIAL_CAPACITY], new long[INITIAL_CAPACITY], 0);
+
+    /**
+     * Add a record, its timestamp must not be before the last one
+     *
+     * Only called from the writer thread.
+     *
+     * @param timestamp The timestamp of the record
+     * @param location The location of the record
+     */
+    void add(long timestamp, long location) {
+        Entries current = entries;
+        long[] timestamps = current.timestamps;
+        long[] locations = current.locations;
+        if (current.size == timestamps.length) {
+            timestamps = Arrays.copyOf(timestamps, timestamps.length * 2);
+            locations = Arrays.copyOf(locations, locations.length * 2);
+        }
+
+        timestamps[current.size] = timestamp;
+        locations[current.size] = location;
+        entries = new Entries(timestamps, locations, current.size + 1);
+    }
+
+    /**
+     * Drop the records of the segments before a segment
+     *
+     * Only called from the writer thread. Readers that already got the entries keep their view.
+     *
+     * @param segment The oldest segment to keep
+     * @return The number of records dropped
+     */
+    int removeBefore(int segment) {
+        Entries current = entries;
+        int keep = current.firstAtOrAfterLocation(location(segment, 0));
+        if (keep == 0) return 0;
+
+        int remaining = current.size - keep;
+        int capacity = Math.max(INITIAL_CAPACITY, remaining);
+        entries = new Entries(Arrays.copyOfRange(current.timestamps, keep, keep + capacity),
+                Arrays.copyOfRange(current.locations, keep, keep + capacity), remaining);
+        return keep;
+    }
+
+    /**
+     * Get the records published so far
+     *
+     * @return A consistent view of the entries
+     */
+    Entries entries() {
+        return entries;
+    }
+
+    static long location(int segment, int offset) {
+        return ((long) segment << 32) | (offset & 0xFFFFFFFFL);
+    }
+
+    static int segmentOf(long location) {
+        return (int) (location >>> 32);
+    }
+
+    static int offsetOf(long location) {
+        return (int) location;
+    }
+
+    /**
+     * The entries of a room up to some size.
+     */
+    static final class Entries {
+        private final long[] timestamps;
+        private final long[] locations;
+        private final int size;
+
+        private Entries(long[] timestamps, long[] locations, int size) {
+            this.timestamps = timestamps;
+            this.locations = locations;
+            this.size = size;
+        }
+
+        int size() {
+            return size;
+        }
+
+        long timestamp(int i) {
+            return timestamps[i];
+        }
+
+        long location(int i) {
+            return locations[i];
+        }
+
+        /**
+         * Find the first entry at or after a timestamp
+         *
+         * @param timestamp The timestamp
+         * @return The position of the entry, size if every entry is before the timestamp
+         */
+        int firstAtOrAfter(long timestamp) {
+            return search(timestamps, timestamp);
+        }
+
+        /**
+         * Find the first entry at or after a location, locations grow in the order they were written
+         *
+         * @param location The location
+         * @return The position of the entry, size if every entry is before the location
+         */
+        int firstAtOrAfterLocation(long location) {
+            return search(locations, location);
+        }
+
+        private int search(long[] values, long value) {
+            int low = 0;
+            int high = size;
+            while (low < high) {
+                int middle = (low + high) >>> 1;
+                if (values[middle] < value) {
+                    low = middle + 1;
+                } else {
+                    high = middle;
+                }
+            }
+            return low;
+        }
+    }
+}
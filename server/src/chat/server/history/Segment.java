@@ -0,0 +1,217 @@
+package chat.server.history;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.zip.CRC32;
+
+/**
+ * One memory-mapped file of the message log.
+ *
+ * A segment is a sequence of records, each one is the length of its body, the CRC32 of its
+ * body and the body itself. A length of 0 marks the end of the written records, the mapped
+ * file is zero filled so a fresh segment has no records. Only the log's writer thread writes
+ * to a segment, readers use their own views of the mapping and only read records the writer
+ * has published.
+ */
+final class Segment {
+    static final int RECORD_HEADER_LENGTH = 8;
+    private static final String SUFFIX = ".log";
+
+    private final int index;
+    private final FileChannel channel;
+    private final MappedByteBuffer buffer;
+    private int writePosition;
+    private int forcedPosition;
+
+    private Segment(int index, FileChannel channel, MappedByteBuffer buffer) {
+        this.index = index;
+        this.channel = channel;
+        this.buffer = buffer;
+    }
+
+    /**
+     * Open or create a segment and map it
+     *
+     * The file is grown to the segment size if it is smaller, a segment that was written with
+     * a larger segment size keeps its size.
+     *
+     * @param directory The directory of the log
+     * @param index The number of the segment
+     * @param size The size of the mapping
+     * @return The segment, positioned at its start
+     * @throws IOException Throws when the file can't be opened or mapped
+     */
+    static Segment open(Path directory, int index, int size) throws IOException {
+        FileChannel channel = FileChannel.open(fileOf(directory, index),
+                StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        try {
+            long length = Math.max(size, channel.size());
+            if (length > Integer.MAX_VALUE) throw new IOException("Segment " + index + " is larger than 2GB.");
+
+            return new Segment(index, channel, channel.map(FileChannel.MapMode.READ_WRITE, 0, length));
+        } catch (IOException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    static Path fileOf(Path directory, int index) {
+        return directory.resolve(String.format("%010d%s", index, SUFFIX));
+    }
+
+    /**
+     * Get the segment number of a log file
+     *
+     * @param file The file
+     * @return The number or -1 if the file is not a segment
+     */
+    static int indexOf(Path file) {
+        String name = file.getFileName().toString();
+        if (!name.endsWith(SUFFIX)) return -1;
+
+        try {
+            return Integer.parseInt(name.substring(0, name.length() - SUFFIX.length()));
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    int getIndex() {
+        return index;
+    }
+
+    int getWritePosition() {
+        return writePosition;
+    }
+
+    /**
+     * Check if a record with a body of the given length still fits
+     *
+     * @param bodyLength The length of the body
+     * @return If the record fits
+     */
+    boolean fits(int bodyLength) {
+        return buffer.capacity() - writePosition >= RECORD_HEADER_LENGTH + bodyLength;
+    }
+
+    /**
+     * Check if a record with a body of the given length fits in an empty segment of this size
+     *
+     * @param bodyLength The length of the body
+     * @return If the record could ever be written
+     */
+    boolean canHold(int bodyLength) {
+        return buffer.capacity() >= RECORD_HEADER_LENGTH + bodyLength;
+    }
+
+    /**
+     * Write a record at the end of the segment
+     *
+     * @param body The body of the record, written from its position to its limit
+     * @return The offset of the record
+     */
+    int append(ByteBuffer body) {
+        int offset = writePosition;
+        int length = body.remaining();
+
+        CRC32 crc = new CRC32();
+        crc.update(body.duplicate());
+
+        buffer.putInt(offset + 4, (int) crc.getValue());
+        ByteBuffer target = buffer.duplicate();
+        target.position(offset + RECORD_HEADER_LENGTH);
+        target.put(body.duplicate());
+        // The length goes last, a torn write leaves a 0 length which ends the segment
+        buffer.putInt(offset, length);
+
+        writePosition = offset + RECORD_HEADER_LENGTH + length;
+        return offset;
+    }
+
+    /**
+     * Read the body of the record at the given offset
+     *
+     * Safe to call from any thread for records that have been published.
+     *
+     * @param offset The offset of the record
+     * @return A read-only view of the body
+     */
+    ByteBuffer body(int offset) {
+        int length = buffer.getInt(offset);
+        ByteBuffer view = buffer.asReadOnlyBuffer();
+        view.position(offset + RECORD_HEADER_LENGTH).limit(offset + RECORD_HEADER_LENGTH + length);
+        return view.slice();
+    }
+
+    /**
+     * Find the next record after the given offset while recovering the segment
+     *
+     * A record that is cut short or fails its checksum ends the segment, it was being written
+     * when the server stopped.
+     *
+     * @param offset The offset to read from
+     * @return The length of the body of the record at the offset or -1 if there is none
+     */
+    int validRecordAt(int offset) {
+        if (buffer.capacity() - offset < RECORD_HEADER_LENGTH) return -1;
+
+        int length = buffer.getInt(offset);
+        if (length <= 0 || length > buffer.capacity() - offset - RECORD_HEADER_LENGTH) return -1;
+
+        CRC32 crc = new CRC32();
+        ByteBuffer body = buffer.duplicate();
+        body.position(offset + RECORD_HEADER_LENGTH).limit(offset + RECORD_HEADER_LENGTH + length);
+        crc.update(body);
+        return (int) crc.getValue() == buffer.getInt(offset + 4) ? length : -1;
+    }
+
+    /**
+     * Continue writing at the given offset, clearing whatever a torn write left behind
+     *
+     * @param offset The end of the last valid record
+     */
+    void truncate(int offset) {
+        writePosition = offset;
+        forcedPosition = offset;
+
+        int dirty = offset;
+        while (dirty < buffer.capacity() && buffer.get(dirty) == 0) dirty++;
+        if (dirty == buffer.capacity()) return;
+
+        for (int i = offset; i < buffer.capacity(); i++) buffer.put(i, (byte) 0);
+        buffer.force();
+    }
+
+    /**
+     * Write the records appended since the last call to disk
+     */
+    void force() {
+        if (writePosition > forcedPosition) {
+            buffer.force(forcedPosition, writePosition - forcedPosition);
+            forcedPosition = writePosition;
+        }
+    }
+
+    void close() throws IOException {
+        force();
+        channel.close();
+    }
+
+    /**
+     * Close the segment and delete its file
+     *
+     * The mapping itself goes away once no reader holds a view of it anymore.
+     *
+     * @param directory The directory of the log
+     * @throws IOException Throws when the file can't be deleted
+     */
+    void delete(Path directory) throws IOException {
+        channel.close();
+        Files.deleteIfExists(fileOf(directory, index));
+    }
+}
@@ -0,0 +1,152 @@
+package chat.server.metrics;
+
+import chat.socket.LatencyHistogram;
+import chat.socket.SocketMetrics;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * The MetricsEndpoint class.
+ *
+ * Serves the server metrics as plain text on http://127.0.0.1:port/metrics, in the Prometheus
+ * text format so any scraper can read them. The endpoint only listens on the loopback
+ * interface, the metrics are not meant to be reachable from other machines.
+ */
+public class MetricsEndpoint {
+    private final ServerMetrics metrics;
+    private final HttpServer server;
+
+    private MetricsEndpoint(ServerMetrics metrics, HttpServer server) {
+        this.metrics = metrics;
+        this.server = server;
+    }
+
+    /**
+     * Start serving the metrics
+     *
+     * @param metrics The metrics to serve
+     * @param port The local port to listen on
+     * @return The running endpoint
+     * @throws IOException Throws when the port can't be bound
+     */
+    static MetricsEndpoint start(ServerMetrics metrics, int port) throws IOException {
+        HttpServer server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 0);
+        MetricsEndpoint endpoint = new MetricsEndpoint(metrics, server);
+        server.createContext("/metrics", endpoint::handle);
+        server.start();
+        return endpoint;
+    }
+
+    /**
+     * Stop serving the metrics
+     */
+    public void stop() {
+        server.stop(0);
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        try {
+            if (!exchange.getRequestMethod().equals("GET")) {
+                exchange.sendResponseHeaders(405, -1);
+                return;
+            }
+
+            byte[] body = render().getBytes(StandardCharsets.UTF_8);
+            exchange.getResponseHeaders().set("Content-Type", "text/plain; version=0.0.4; charset=utf-8");
+            exchange.sendResponseHeaders(200, body.length);
+            try (OutputStream os = exchange.getResponseBody()) {
+                os.write(body);
+            }
+        } finally {
+            exchange.close();
+        }
+    }
+
+    /**
+     * Write all of the metrics in the Prometheus text format
+     *
+     * @return The text
+     */
+    String render() {
+        SocketMetrics socket = metrics.getSocketMetrics();
+        StringBuilder out = new StringBuilder(4096);
+
+        gauge(out, "chat_connections_active", "Connected clients", metrics.getActiveConnections());
+        counter(out, "chat_accepts_total", "Accepted connections", metrics.getAccepts());
+        gauge(out, "chat_accepts_per_second", "Accepted connections per second over the last sample interval", metrics.getAcceptsPerSecond());
+        counter(out, "chat_logins_total", "Successful logins", metrics.getLogins());
+        counter(out, "chat_cached_logins_total", "Logins accepted from the cache of recent logins", metrics.getCachedLogins());
+        counter(out, "chat_failed_logins_total", "Logins with a wrong username or password", metrics.getFailedLogins());
+
+        counter(out, "chat_messages_in_total", "Frames read from clients", socket.getFramesIn());
+        gauge(out, "chat_messages_in_per_second", "Frames read per second over the last sample interval", metrics.getMessagesInPerSecond());
+        counter(out, "chat_messages_out_total", "Frames written to clients", socket.getFramesOut());
+        gauge(out, "chat_messages_out_per_second", "Frames written per second over the last sample interval", metrics.getMessagesOutPerSecond());
+        counter(out, "chat_bytes_in_total", "Bytes read from clients", socket.getBytesIn());
+        counter(out, "chat_bytes_out_total", "Bytes written to clients", socket.getBytesOut());
+
+        counter(out, "chat_crypto_seconds_total", "Time spent sealing and opening frames", seconds(socket.getCryptoNanos()));
+        counter(out, "chat_crypto_operations_total", "Frames sealed and opened", socket.getCryptoOperations());
+        counter(out, "chat_serialization_seconds_total", "Time spent encoding and decoding messages", seconds(socket.getSerializationNanos()));
+        counter(out, "chat_serialization_operations_total", "Messages encoded and decoded", socket.getSerializationOperations());
+        counter(out, "chat_write_seconds_total", "Time spent writing to sockets", seconds(socket.getWriteNanos()));
+        counter(out, "chat_write_operations_total", "Socket writes", socket.getWriteOperations());
+
+        counter(out, "chat_integrity_failures_total", "Frames that failed their HMAC or AEAD tag check", socket.getIntegrityFailures());
+        counter(out, "chat_slow_consumers_total", "Clients disconnected because their outbound queue was full", socket.getSlowConsumers());
+        counter(out, "chat_oversized_frames_total", "Clients disconnected for announcing a frame over the maximum frame size", socket.getOversizedFrames());
+        counter(out, "chat_compressed_frames_total", "Messages compressed before they were encrypted", socket.getCompressedFrames());
+        counter(out, "chat_compression_saved_bytes_total", "Bytes compression took off the compressed messages", socket.getCompressionSavedBytes());
+        counter(out, "chat_read_pauses_total", "Times reading from a client was paused for going over its rate limit", socket.getReadPauses());
+        counter(out, "chat_read_pause_milliseconds_total", "Milliseconds clients were paused for going over their rate limit", socket.getReadPauseMillis());
+        gauge(out, "chat_buffer_pool_bytes", "Direct memory taken by the read buffer pool", metrics.getBufferPoolBytes());
+        gauge(out, "chat_buffers_in_use", "Read buffers holding a partial or unprocessed frame", metrics.getBuffersInUse());
+        gauge(out, "chat_outbound_queue_depth", "Frames waiting to be written to all clients", metrics.getOutboundQueueDepthTotal());
+        gauge(out, "chat_outbound_queue_depth_max", "Frames waiting to be written to the slowest client", metrics.getOutboundQueueDepthMax());
+
+        // Quantiles over the last sample interval, the sum and count over the lifetime of the server
+        LatencyHistogram.Snapshot interval = metrics.getFanOutInterval();
+        LatencyHistogram.Snapshot total = metrics.getFanOutTotal();
+        String name = "chat_fanout_seconds";
+        header(out, name, "Time to queue a broadcast for all of its recipients", "summary");
+        for (double quantile : new double[]{0.5, 0.9, 0.99, 0.999}) {
+            out.append(name).append("{quantile=\"").append(quantile).append("\"} ")
+                    .append(format(seconds(interval.getValueAtPercentile(quantile * 100)))).append('\n');
+        }
+        out.append(name).append("_sum ").append(format(seconds(total.getSum()))).append('\n');
+        out.append(name).append("_count ").append(total.getCount()).append('\n');
+        gauge(out, "chat_fanout_max_seconds", "Longest broadcast fan-out", seconds(total.getMax()));
+
+        return out.toString();
+    }
+
+    private static void counter(StringBuilder out, String name, String help, double value) {
+        header(out, name, help, "counter");
+        out.append(name).append(' ').append(format(value)).append('\n');
+    }
+
+    private static void gauge(StringBuilder out, String name, String help, double value) {
+        header(out, name, help, "gauge");
+        out.append(name).append(' ').append(format(value)).append('\n');
+    }
+
+    private static void header(StringBuilder out, String name, String help, String type) {
+        out.append("# HELP ").append(name).append(' ').append(help).append('\n');
+        out.append("# TYPE ").append(name).append(' ').append(type).append('\n');
+    }
+
+    private static String format(double value) {
+        if (value == Math.rint(value) && Math.abs(value) < 1e15) return Long.toString((long) value);
+        return Double.toString(value);
+    }
+
+    private static double seconds(long nanos) {
+        return nanos / 1e9;
+    }
+}
@@ -0,0 +1,357 @@
+package chat.server.metrics;
+
+import chat.server.ClientHandler;
+import chat.server.ClientRegistry;
+import chat.socket.BufferPool;
+import chat.socket.LatencyHistogram;
+import chat.socket.SharedScheduler;
+import chat.socket.SocketMetrics;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * The ServerMetrics class.
+ *
+ * Collects the server's own counters (accepted connections, logins and broadcast fan-out latency) and
+ * combines them with the socket counters. Recording only touches LongAdders, so it can stay
+ * on in production. Every sample interval the totals are sampled on the shared scheduler to
+ * turn them into rates, reading the metrics never blocks the server.
+ *
+ * The metrics are registered with JMX as chat.server:type=ServerMetrics and can be served as
+ * text by a MetricsEndpoint.
+ */
+public class ServerMetrics implements ServerMetricsMBean {
+    public static final long SAMPLE_INTERVAL = 10;
+    private static final String OBJECT_NAME = "chat.server:type=ServerMetrics";
+
+    private final ClientRegistry clients;
+    private final SocketMetrics socketMetrics = SocketMetrics.get();
+    private final LongAdder accepts = new LongAdder();
+    private final LongAdder logins = new LongAdder();
+    private final LongAdder cachedLogins = new LongAdder();
+    private final LongAdder failedLogins = new LongAdder();
+    private final LatencyHistogram fanOut = new LatencyHistogram();
+    private volatile Window window;
+
+    /**
+     * The ServerMetrics constructor.
+     *
+     * @param clients The connected clients, used for the connection count and queue depths
+     */
+    public ServerMetrics(ClientRegistry clients) {
+        this.clients = clients;
+        Sample first = sample();
+        this.window = new Window(first, first);
+    }
+
+    /**
+     * Start sampling the rates, register the JMX bean and serve the metrics as text
+     *
+     * @param port The local port of the text endpoint, 0 to not serve it
+     * @return The endpoint or null if it wasn't started
+     * @throws IOException Throws when the endpoint can't bind its port
+     */
+    public MetricsEndpoint start(int port) throws IOException {
+        SharedScheduler.get().scheduleAtFixedRate(() -> window = new Window(window.to, sample()),
+                SAMPLE_INTERVAL, SAMPLE_INTERVAL, TimeUnit.SECONDS);
+
+        try {
+            ManagementFactory.getPlatformMBeanServer().registerMBean(this, new ObjectName(OBJECT_NAME));
+        } catch (JMException e) {
+            e.printStackTrace();
+        }
+
+        if (port <= 0) return null;
+        return MetricsEndpoint.start(this, port);
+    }
+
+    /**
+     * Count a newly accepted connection
+     */
+    public void accepted() {
+        accepts.increment();
+    }
+
+    /**
+     * Count a successful login
+     *
+     * @param cached If the login was accepted from the cache of recent logins
+     */
+    public void loggedIn(boolean cached) {
+        logins.increment();
+        if (cached) cachedLogins.increment();
+    }
+
+    /**
+     * Count a login with a wrong username or password
+     */
+    public void loginFailed() {
+        failedLogins.increment();
+    }
+
+    /**
+     * Record the time a broadcast took to be queued for all of its recipients
+     *
+     * @param startNanos The System.nanoTime at which the broadcast started
+     */
+    public void fanOutSince(long startNanos) {
+        fanOut.recordSince(startNanos);
+    }
+
+    private Sample sample() {
+        return new Sample(System.nanoTime(), accepts.sum(), socketMetrics.getFramesIn(), socketMetrics.getFramesOut(),
+                socketMetrics.getBytesIn(), socketMetrics.getBytesOut(), fanOut.snapshot());
+    }
+
+    /**
+     * Get the socket counters the totals are read from
+     *
+     * @return The socket counters
+     */
+    public SocketMetrics getSocketMetrics() {
+        return socketMetrics;
+    }
+
+    /**
+     * Get all of the fan-out latencies recorded since the server started
+     *
+     * @return The snapshot
+     */
+    public LatencyHistogram.Snapshot getFanOutTotal() {
+        return fanOut.snapshot();
+    }
+
+    /**
+     * Get the fan-out latencies of the last sample interval
+     *
+     * @return The snapshot
+     */
+    public LatencyHistogram.Snapshot getFanOutInterval() {
+        Window window = this.window;
+        return window.to.fanOut.since(window.from.fanOut);
+    }
+
+    @Override
+    public int getActiveConnections() {
+        return clients.size();
+    }
+
+    @Override
+    public long getAccepts() {
+        return accepts.sum();
+    }
+
+    @Override
+    public double getAcceptsPerSecond() {
+        Window window = this.window;
+        return window.rate(window.to.accepts - window.from.accepts);
+    }
+
+    @Override
+    public long getLogins() {
+        return logins.sum();
+    }
+
+    @Override
+    public long getCachedLogins() {
+        return cachedLogins.sum();
+    }
+
+    @Override
+    public long getFailedLogins() {
+        return failedLogins.sum();
+    }
+
+    @Override
+    public long getMessagesIn() {
+        return socketMetrics.getFramesIn();
+    }
+
+    @Override
+    public double getMessagesInPerSecond() {
+        Window window = this.window;
+        return window.rate(window.to.framesIn - window.from.framesIn);
+    }
+
+    @Override
+    public long getMessagesOut() {
+        return socketMetrics.getFramesOut();
+    }
+
+    @Override
+    public double getMessagesOutPerSecond() {
+        Window window = this.window;
+        return window.rate(window.to.framesOut - window.from.framesOut);
+    }
+
+    @Override
+    public long getBytesIn() {
+        return socketMetrics.getBytesIn();
+    }
+
+    @Override
+    public double getBytesInPerSecond() {
+        Window window = this.window;
+        return window.rate(window.to.bytesIn - window.from.bytesIn);
+    }
+
+    @Override
+    public long getBytesOut() {
+        return socketMetrics.getBytesOut();
+    }
+
+    @Override
+    public double getBytesOutPerSecond() {
+        Window window = this.window;
+        return window.rate(window.to.bytesOut - window.from.bytesOut);
+    }
+
+    @Override
+    public long getCryptoMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(socketMetrics.getCryptoNanos());
+    }
+
+    @Override
+    public long getSerializationMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(socketMetrics.getSerializationNanos());
+    }
+
+    @Override
+    public long getWriteMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(socketMetrics.getWriteNanos());
+    }
+
+    @Override
+    public long getIntegrityFailures() {
+        return socketMetrics.getIntegrityFailures();
+    }
+
+    @Override
+    public long getSlowConsumers() {
+        return socketMetrics.getSlowConsumers();
+    }
+
+    @Override
+    public long getOversizedFrames() {
+        return socketMetrics.getOversizedFrames();
+    }
+
+    @Override
+    public long getCompressedFrames() {
+        return socketMetrics.getCompressedFrames();
+    }
+
+    @Override
+    public long getCompressionSavedBytes() {
+        return socketMetrics.getCompressionSavedBytes();
+    }
+
+    @Override
+    public long getReadPauses() {
+        return socketMetrics.getReadPauses();
+    }
+
+    @Override
+    public long getReadPauseMillis() {
+        return socketMetrics.getReadPauseMillis();
+    }
+
+    @Override
+    public long getBufferPoolBytes() {
+        return BufferPool.get().getSlabBytes();
+    }
+
+    @Override
+    public int getBuffersInUse() {
+        return BufferPool.get().getBuffersInUse();
+    }
+
+    @Override
+    public long getOutboundQueueDepthTotal() {
+        long total = 0;
+        for (ClientHandler client : clients.getClients()) total += client.getOutboundQueueDepth();
+        return total;
+    }
+
+    @Override
+    public int getOutboundQueueDepthMax() {
+        int max = 0;
+        for (ClientHandler client : clients.getClients()) max = Math.max(max, client.getOutboundQueueDepth());
+        return max;
+    }
+
+    @Override
+    public long getFanOuts() {
+        return fanOut.snapshot().getCount();
+    }
+
+    @Override
+    public double getFanOutP50Micros() {
+        return micros(getFanOutInterval().getValueAtPercentile(50));
+    }
+
+    @Override
+    public double getFanOutP99Micros() {
+        return micros(getFanOutInterval().getValueAtPercentile(99));
+    }
+
+    @Override
+    public double getFanOutP999Micros() {
+        return micros(getFanOutInterval().getValueAtPercentile(99.9));
+    }
+
+    @Override
+    public double getFanOutMaxMicros() {
+        return micros(getFanOutTotal().getMax());
+    }
+
+    private static double micros(long nanos) {
+        return nanos / 1000.0;
+    }
+
+    /**
+     * The totals at one point in time
+     */
+    private static final class Sample {
+        private final long nanos;
+        private final long accepts;
+        private final long framesIn;
+        private final long framesOut;
+        private final long bytesIn;
+        private final long bytesOut;
+        private final LatencyHistogram.Snapshot fanOut;
+
+        Sample(long nanos, long accepts, long framesIn, long framesOut, long bytesIn, long bytesOut, LatencyHistogram.Snapshot fanOut) {
+            this.nanos = nanos;
+            this.accepts = accepts;
+            this.framesIn = framesIn;
+            this.framesOut = framesOut;
+            this.bytesIn = bytesIn;
+            this.bytesOut = bytesOut;
+            this.fanOut = fanOut;
+        }
+    }
+
+    /**
+     * The last two samples, replaced as a whole so readers always see a matching pair
+     */
+    private static final class Window {
+        private final Sample from;
+        private final Sample to;
+
+        Window(Sample from, Sample to) {
+            this.from = from;
+            this.to = to;
+        }
+
+        double rate(long delta) {
+            long nanos = to.nanos - from.nanos;
+            return nanos <= 0 ? 0 : delta * (double) TimeUnit.SECONDS.toNanos(1) / nanos;
+        }
+    }
+}
@@ -0,0 +1,75 @@
+package chat.server.metrics;
+
+/**
+ * The JMX view of the server metrics.
+ *
+ * Totals count from the start of the server, rates and fan-out percentiles cover the last
+ * sample interval.
+ */
+public interface ServerMetricsMBean {
+    int getActiveConnections();
+
+    long getAccepts();
+
+    double getAcceptsPerSecond();
+
+    long getLogins();
+
+    long getCachedLogins();
+
+    long getFailedLogins();
+
+    long getMessagesIn();
+
+    double getMessagesInPerSecond();
+
+    long getMessagesOut();
+
+    double getMessagesOutPerSecond();
+
+    long getBytesIn();
+
+    double getBytesInPerSecond();
+
+    long getBytesOut();
+
+    double getBytesOutPerSecond();
+
+    long getCryptoMillis();
+
+    long getSerializationMillis();
+
+    long getWriteMillis();
+
+    long getIntegrityFailures();
+
+    long getSlowConsumers();
+
+    long getOversizedFrames();
+
+    long getCompressedFrames();
+
+    long getCompressionSavedBytes();
+
+    long getReadPauses();
+
+    long getReadPauseMillis();
+
+    long getBufferPoolBytes();
+
+    int getBuffersInUse();
+
+    long getOutboundQueueDepthTotal();
+
+    int getOutboundQueueDepthMax();
+
+    long getFanOuts();
+
+    double getFanOutP50Micros();
+
+    double getFanOutP99Micros();
+
+    double getFanOutP999Micros();
+
+    double getFanOutMaxMicros();
+}
@@ -0,0 +1,162 @@
+package chat.server;
+
+import chat.encryption.CryptoManager;
+import chat.socket.EventLoopGroup;
+import chat.socket.SocketOptions;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.TestInstance;
+
+import javax.crypto.KeyGenerator;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+@TestInstance(TestInstance.Lifecycle.PER_CLASS)
+class ClientRegistryTest {
+    private CryptoManager cryptoManager;
+    private EventLoopGroup group;
+
+    @BeforeAll
+    void setup() throws Exception {
+        KeyGenerator keyGen = KeyGenerator.getInstance("AES");
+        keyGen.init(256);
+        this.cryptoManager = new CryptoManager(keyGen.generateKey(), KeyGenerator.getInstance("HmacSHA512").generateKey());
+        this.group = new EventLoopGroup(1);
+    }
+
+    @AfterAll
+    void tearDown() {
+        group.shutdown();
+    }
+
+    /**
+     * A client that is never started, so it needs no connection
+     */
+    private ClientHandler client(ClientRegistry registry) throws Exception {
+        return new ClientHandler(UUID.randomUUID(), registry, SocketChannel.open(), group, cryptoManager, new SocketOptions());
+    }
+
+    @Test
+    void clientsShouldBeFoundByIdAndName() throws Exception {
+        ClientRegistry registry = new ClientRegistry();
+        ClientHandler client = client(registry);
+        registry.add(client);
+
+        assertSame(client, registry.get(client.getClientId()));
+        assertSame(client, registry.findByName(client.getClientId().toString()));
+        assertTrue(registry.rename(client, "Alice"));
+        assertSame(client, registry.findByName("aLiCe"));
+        assertNull(registry.findByName(client.getClientId().toString()));
+        assertEquals(1, registry.size());
+    }
+
+    @Test
+    void namesShouldBeUniqueIgnoringCase() throws Exception {
+        ClientRegistry registry = new ClientRegistry();
+        ClientHandler alice = client(registry);
+        ClientHandler other = client(registry);
+        registry.add(alice);
+        registry.add(other);
+
+        assertTrue(registry.rename(alice, "Alice"));
+        assertFalse(registry.rename(other, "alice"));
+        assertNotEquals("alice", other.getClientName());
+
+        // A client may change the casing of its own name
+        assertTrue(registry.rename(alice, "ALICE"));
+        assertEquals("ALICE", alice.getClientName());
+        assertSame(alice, registry.findByName("alice"));
+    }
+
+    @Test
+    void removingAClientShouldReleaseItsName() throws Exception {
+        ClientRegistry registry = new ClientRegistry();
+        ClientHandler first = client(registry);
+        ClientHandler second = client(registry);
+        registry.add(first);
+        registry.add(second);
+        registry.rename(first, "bob");
+
+        assertTrue(registry.remove(first));
+        assertFalse(registry.remove(first));
+        assertNull(registry.get(first.getClientId()));
+        assertTrue(registry.rename(second, "bob"));
+    }
+
+    @Test
+    void onlyOneOfManyClientsShouldGetAName() throws Exception {
+        ClientRegistry registry = new ClientRegistry();
+        List<ClientHandler> clients = new ArrayList<>();
+        for (int i = 0; i < 16; i++) {
+            ClientHandler client = client(registry);
+            registry.add(client);
+            clients.add(client);
+        }
+
+        ExecutorService executor = Executors.newFixedThreadPool(clients.size());
+        try {
+            CountDownLatch start = new CountDownLatch(1);
+            List<Future<Boolean>> results = new ArrayList<>();
+            for (ClientHandler client : clients) {
+                results.add(executor.submit(() -> {
+                    start.await();
+                    return registry.rename(client, "taken");
+                }));
+            }
+            start.countDown();
+
+            ClientHandler winner = null;
+            for (int i = 0; i < clients.size(); i++) {
+                if (!results.get(i).get(5, TimeUnit.SECONDS)) continue;
+                assertNull(winner, "two clients got the same name");
+                winner = clients.get(i);
+            }
+            assertNotNull(winner);
+            assertSame(winner, registry.findByName("taken"));
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    void renamingWhileDisconnectingShouldNotKeepTheName() throws Exception {
+        ClientRegistry registry = new ClientRegistry();
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        try {
+            for (int i = 0; i < 500; i++) {
+                ClientHandler client = client(registry);
+                registry.add(client);
+                String name = "racer" + i;
+
+                CountDownLatch start = new CountDownLatch(1);
+                Future<?> rename = executor.submit(() -> {
+                    start.await();
+                    return registry.rename(client, name);
+                });
+                Future<?> remove = executor.submit(() -> {
+                    start.await();
+                    return registry.remove(client);
+                });
+                start.countDown();
+                rename.get(5, TimeUnit.SECONDS);
+                remove.get(5, TimeUnit.SECONDS);
+
+                assertNull(registry.findByName(name), "the name of a removed client is still reserved");
+                assertNull(registry.findByName(client.getClientId().toString()));
+                assertEquals(0, registry.size());
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+}
@@ -0,0 +1,130 @@
+package chat.server;
+
+import chat.encryption.CryptoManager;
+import chat.socket.EventLoopGroup;
+import chat.socket.SocketOptions;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.TestInstance;
+
+import javax.crypto.KeyGenerator;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+@TestInstance(TestInstance.Lifecycle.PER_CLASS)
+class RoomRegistryTest {
+    private CryptoManager cryptoManager;
+    private EventLoopGroup group;
+
+    @BeforeAll
+    void setup() throws Exception {
+        KeyGenerator keyGen = KeyGenerator.getInstance("AES");
+        keyGen.init(256);
+        this.cryptoManager = new CryptoManager(keyGen.generateKey(), KeyGenerator.getInstance("HmacSHA512").generateKey());
+        this.group = new EventLoopGroup(1);
+    }
+
+    @AfterAll
+    void tearDown() {
+        group.shutdown();
+    }
+
+    /**
+     * A client that is never started, so it needs no connection
+     */
+    private ClientHandler client() throws Exception {
+        return new ClientHandler(UUID.randomUUID(), new ClientRegistry(), SocketChannel.open(), group, cryptoManager, new SocketOptions());
+    }
+
+    @Test
+    void membersShouldOnlyBeInTheRoomsTheyJoined() throws Exception {
+        RoomRegistry rooms = new RoomRegistry();
+        ClientHandler client = client();
+
+        assertTrue(rooms.join(client, "Dev"));
+        assertFalse(rooms.join(client, "dev"));
+        assertTrue(rooms.isMember(client, "DEV"));
+        assertFalse(rooms.isMember(client, "ops"));
+        assertTrue(client.getRooms().contains("dev"));
+
+        assertTrue(rooms.part(client, "dev"));
+        assertFalse(rooms.part(client, "dev"));
+        assertFalse(client.getRooms().contains("dev"));
+    }
+
+    @Test
+    void emptyRoomsShouldBeRemovedButNotTheLobby() throws Exception {
+        RoomRegistry rooms = new RoomRegistry();
+        List<String> changes = new ArrayList<>();
+        rooms.setOnRoomChangeListener(changes::add);
+        ClientHandler first = client();
+        ClientHandler second = client();
+
+        rooms.join(first, RoomRegistry.LOBBY);
+        rooms.join(first, "dev");
+        rooms.join(second, "dev");
+        assertEquals(2, rooms.size());
+
+        rooms.part(first, "dev");
+        assertEquals(2, rooms.size());
+        rooms.part(second, "dev");
+        assertEquals(1, rooms.size());
+        assertTrue(rooms.getMembers("dev").isEmpty());
+
+        rooms.partAll(first);
+        assertEquals(1, rooms.size());
+        assertTrue(rooms.getMembers(RoomRegistry.LOBBY_NAME).isEmpty());
+        // First member and last member of each room
+        assertEquals(List.of("", "dev", "dev", ""), changes);
+    }
+
+    @Test
+    void concurrentJoinsAndPartsShouldKeepTheMembersConsistent() throws Exception {
+        RoomRegistry rooms = new RoomRegistry();
+        AtomicInteger changes = new AtomicInteger();
+        rooms.setOnRoomChangeListener(room -> changes.incrementAndGet());
+        List<ClientHandler> clients = new ArrayList<>();
+        for (int i = 0; i < 8; i++) clients.add(client());
+
+        ExecutorService executor = Executors.newFixedThreadPool(clients.size());
+        try {
+            CountDownLatch start = new CountDownLatch(1);
+            List<Future<?>> results = new ArrayList<>();
+            for (ClientHandler client : clients) {
+                results.add(executor.submit(() -> {
+                    start.await();
+                    for (int i = 0; i < 2000; i++) {
+                        String room = "room" + (i % 4);
+                        assertTrue(rooms.join(client, room));
+                        assertTrue(rooms.isMember(client, room));
+                        assertTrue(rooms.part(client, room));
+                    }
+                    rooms.join(client, "stay");
+                    return null;
+                }));
+            }
+            start.countDown();
+            for (Future<?> result : results) result.get(30, TimeUnit.SECONDS);
+        } finally {
+            executor.shutdownNow();
+        }
+
+        // Only the room everyone stayed in is left, with every client in it
+        assertEquals(1, rooms.size());
+        assertEquals(clients.size(), rooms.getMembers("stay").size());
+        for (ClientHandler client : clients) assertEquals(1, client.getRooms().size());
+        // Every room that got a first member lost its last one, except the one left
+        assertEquals(1, changes.get() % 2);
+    }
+}
@@ -0,0 +1,121 @@
+package chat.server.auth;
+
+import chat.server.AuthConfig;
+import org.junit.jupiter.api.Test;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class AuthenticatorTest {
+    /**
+     * Keeps the accounts in memory and counts the lookups
+     */
+    private static class MemoryStore implements AccountStore {
+        private final Map<String, Account> accounts = new ConcurrentHashMap<>();
+        private final AtomicInteger finds = new AtomicInteger();
+        private volatile CountDownLatch blocked;
+
+        @Override
+        public Account find(String username) {
+            finds.incrementAndGet();
+            if (blocked != null) {
+                try {
+                    blocked.await();
+                } catch (InterruptedException ignored) {
+                }
+            }
+            return accounts.get(username);
+        }
+
+        @Override
+        public boolean create(Account account) {
+            return accounts.putIfAbsent(account.getUsername(), account) == null;
+        }
+    }
+
+    private static AuthConfig config(boolean registration) {
+        AuthConfig config = new AuthConfig();
+        config.setRegistration(registration);
+        config.setIterations(1000);
+        config.setHashThreads(1);
+        config.setQueueSize(1);
+        return config;
+    }
+
+    private static Authenticator.Login login(Authenticator authenticator, String username, String password) throws Exception {
+        return authenticator.login(username, password).get(5, TimeUnit.SECONDS);
+    }
+
+    @Test
+    void firstLoginShouldRegisterTheAccount() throws Exception {
+        MemoryStore store = new MemoryStore();
+        Authenticator authenticator = new Authenticator(config(true), store);
+
+        Authenticator.Login login = login(authenticator, "Alice", "secret");
+        assertEquals(Authenticator.Outcome.REGISTERED, login.getOutcome());
+        assertEquals("Alice", login.getDisplayName());
+
+        Account account = store.accounts.get("alice");
+        assertNotNull(account);
+        assertNotEquals("secret", account.getPasswordHash());
+        assertTrue(new PasswordHasher(1000).verify("secret", account.getPasswordHash()));
+    }
+
+    @Test
+    void wrongPasswordsAndUnknownAccountsShouldBeRejected() throws Exception {
+        MemoryStore store = new MemoryStore();
+        new Authenticator(config(true), store).login("alice", "secret").get(5, TimeUnit.SECONDS);
+        Authenticator authenticator = new Authenticator(config(false), store);
+
+        assertEquals(Authenticator.Outcome.REJECTED, login(authenticator, "alice", "guess").getOutcome());
+        assertEquals(Authenticator.Outcome.REJECTED, login(authenticator, "bob", "secret").getOutcome());
+        assertEquals(Authenticator.Outcome.REJECTED, login(authenticator, "has space", "secret").getOutcome());
+        assertNull(store.accounts.get("bob"));
+
+        Authenticator.Login login = login(authenticator, "ALICE", "secret");
+        assertEquals(Authenticator.Outcome.LOGGED_IN, login.getOutcome());
+        assertEquals("alice", login.getDisplayName());
+    }
+
+    @Test
+    void repeatedLoginShouldComeFromTheCache() throws Exception {
+        MemoryStore store = new MemoryStore();
+        Authenticator authenticator = new Authenticator(config(true), store);
+        login(authenticator, "alice", "secret");
+        int finds = store.finds.get();
+
+        // Completes right away, without the store or the pool
+        Authenticator.Login login = authenticator.login("alice", "secret").getNow(null);
+        assertNotNull(login);
+        assertEquals(Authenticator.Outcome.LOGGED_IN, login.getOutcome());
+        assertTrue(login.isCached());
+        assertEquals(finds, store.finds.get());
+
+        // A wrong password is still checked properly
+        assertEquals(Authenticator.Outcome.REJECTED, login(authenticator, "alice", "guess").getOutcome());
+        assertEquals(finds + 1, store.finds.get());
+    }
+
+    @Test
+    void loginsShouldBeRefusedWhenThePoolIsFull() throws Exception {
+        MemoryStore store = new MemoryStore();
+        Authenticator authenticator = new Authenticator(config(true), store);
+        store.blocked = new CountDownLatch(1);
+
+        // One running, one queued
+        authenticator.login("a", "secret");
+        authenticator.login("b", "secret");
+        ExecutionException e = assertThrows(ExecutionException.class, () -> login(authenticator, "c", "secret"));
+        assertTrue(e.getCause() instanceof RejectedExecutionException);
+
+        store.blocked.countDown();
+        authenticator.close();
+    }
+}
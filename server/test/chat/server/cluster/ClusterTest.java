@@ -0,0 +1,225 @@
+package chat.server.cluster;
+
+import chat.encryption.CryptoManager;
+import chat.encryption.EncryptionException;
+import chat.messages.InterestMessage;
+import chat.messages.Message;
+import chat.messages.PeerMessage;
+import chat.messages.TextMessage;
+import chat.server.ClusterConfig;
+import chat.socket.ThreadedSocket;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import javax.crypto.KeyGenerator;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BooleanSupplier;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ClusterTest {
+    private CryptoManager cryptoManager;
+    private final List<Node> nodes = new ArrayList<>();
+
+    /**
+     * A server of the test cluster, with its local rooms and the messages relayed to it
+     */
+    private final class Node {
+        final Set<String> rooms = ConcurrentHashMap.newKeySet();
+        final BlockingQueue<Message> received = new LinkedBlockingQueue<>();
+        final Cluster cluster;
+
+        Node(String id, int port, List<String> peers) throws IOException {
+            this(id, port, peers, cryptoManager);
+        }
+
+        Node(String id, int port, List<String> peers, CryptoManager clusterKey) throws IOException {
+            ClusterConfig config = new ClusterConfig();
+            config.setEnabled(true);
+            config.setNodeId(id);
+            config.setPort(port);
+            config.setPeers(peers);
+            config.setReconnectIntervalMillis(100);
+            cluster = new Cluster(config, clusterKey, rooms::contains, received::add);
+            cluster.start();
+        }
+
+        void join(String room) {
+            rooms.add(room);
+            cluster.roomChanged(room);
+        }
+
+        void part(String room) {
+            rooms.remove(room);
+            cluster.roomChanged(room);
+        }
+    }
+
+    @BeforeEach
+    void setup() throws EncryptionException, NoSuchAlgorithmException {
+        this.cryptoManager = newKey();
+    }
+
+    private static CryptoManager newKey() throws EncryptionException, NoSuchAlgorithmException {
+        KeyGenerator keyGen = KeyGenerator.getInstance("AES");
+        keyGen.init(256);
+        return new CryptoManager(keyGen.generateKey(), KeyGenerator.getInstance("HmacSHA512").generateKey());
+    }
+
+    @AfterEach
+    void tearDown() {
+        for (Node node : nodes) node.cluster.close();
+        nodes.clear();
+    }
+
+    private static int freePort() throws IOException {
+        try (ServerSocket socket = new ServerSocket(0, 1, InetAddress.getLoopbackAddress())) {
+            return socket.getLocalPort();
+        }
+    }
+
+    /**
+     * Start a full mesh where every server dials all of the others, so every pair dials each other
+     */
+    private void startCluster(int size) throws IOException {
+        List<Integer> ports = new ArrayList<>();
+        for (int i = 0; i < size; i++) ports.add(freePort());
+        for (int i = 0; i < size; i++) {
+            List<String> peers = new ArrayList<>();
+            for (int j = 0; j < size; j++) {
+                if (j != i) peers.add("127.0.0.1:" + ports.get(j));
+            }
+            nodes.add(new Node("node-" + i, ports.get(i), peers));
+        }
+    }
+
+    private static void await(BooleanSupplier condition, String description) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 10000;
+        while (!condition.getAsBoolean()) {
+            if (System.currentTimeMillis() > deadline) fail("Timed out waiting until " + description);
+            Thread.sleep(10);
+        }
+    }
+
+    private void awaitMesh() throws InterruptedException {
+        for (Node node : nodes) await(() -> node.cluster.getPeers().size() == nodes.size() - 1, "every server is connected to every other one");
+    }
+
+    @Test
+    void messagesShouldOnlyBeRelayedToServersWithMembersInTheRoom() throws IOException, InterruptedException {
+        startCluster(3);
+        awaitMesh();
+        Node a = nodes.get(0), b = nodes.get(1), c = nodes.get(2);
+
+        b.join("dev");
+        await(() -> a.cluster.isRelayed("dev"), "a knows b is in #dev");
+        a.cluster.relay("dev", TextMessage.make("dev", "hello"));
+        a.cluster.relay("ops", TextMessage.make("ops", "nobody listens"));
+
+        Message message = b.received.poll(5, TimeUnit.SECONDS);
+        assertNotNull(message);
+        assertEquals("hello", message.getData(TextMessage.DATA_RAW_TEXT));
+        assertEquals("dev", message.getData(TextMessage.DATA_ROOM));
+        assertNull(c.received.poll(200, TimeUnit.MILLISECONDS));
+        assertTrue(b.received.isEmpty());
+        assertEquals(1, a.cluster.getRelayed());
+
+        b.part("dev");
+        await(() -> !a.cluster.isRelayed("dev"), "a knows b left #dev");
+    }
+
+    @Test
+    void batchesShouldKeepTheOrderOfTheMessages() throws IOException, InterruptedException {
+        startCluster(2);
+        awaitMesh();
+        Node a = nodes.get(0), b = nodes.get(1);
+
+        b.join("");
+        await(() -> a.cluster.isRelayed(""), "a knows b is in the lobby");
+        int count = 2000;
+        for (int i = 0; i < count; i++) a.cluster.relay("", TextMessage.make("message " + i));
+
+        for (int i = 0; i < count; i++) {
+            Message message = b.received.poll(5, TimeUnit.SECONDS);
+            assertNotNull(message, "message " + i + " was not relayed");
+            assertEquals("message " + i, message.getData(TextMessage.DATA_RAW_TEXT));
+        }
+        assertEquals(count, b.cluster.getReceived());
+        assertTrue(a.cluster.getRelayBatches() < count, "the messages should have been batched");
+    }
+
+    @Test
+    void interestShouldBeSentToServersThatConnectLater() throws IOException, InterruptedException {
+        int portA = freePort(), portB = freePort();
+        Node a = new Node("node-a", portA, Collections.emptyList());
+        nodes.add(a);
+        a.join("dev");
+
+        Node b = new Node("node-b", portB, Collections.singletonList("127.0.0.1:" + portA));
+        nodes.add(b);
+        awaitMesh();
+        await(() -> b.cluster.isRelayed("dev"), "b learned a is in #dev");
+
+        b.cluster.relay("dev", TextMessage.make("dev", "late"));
+        Message message = a.received.poll(5, TimeUnit.SECONDS);
+        assertNotNull(message);
+        assertEquals("late", message.getData(TextMessage.DATA_RAW_TEXT));
+    }
+
+    @Test
+    void serversWithAnotherKeyShouldNotJoinTheCluster() throws Exception {
+        int portA = freePort(), portB = freePort();
+        Node a = new Node("node-a", portA, Collections.emptyList());
+        nodes.add(a);
+        Node b = new Node("node-b", portB, Collections.singletonList("127.0.0.1:" + portA), newKey());
+        nodes.add(b);
+
+        Thread.sleep(500);
+        assertTrue(a.cluster.getPeers().isEmpty());
+        assertTrue(b.cluster.getPeers().isEmpty());
+    }
+
+    @Test
+    void connectionsThatDontAnswerTheChallengeShouldBeClosed() throws IOException, InterruptedException {
+        int port = freePort();
+        Node a = new Node("node-a", port, Collections.emptyList());
+        nodes.add(a);
+        a.join("dev");
+
+        ThreadedSocket intruder = connect(port);
+        CountDownLatch closed = new CountDownLatch(1);
+        intruder.setOnDisconnectListener(s -> closed.countDown());
+        PeerMessage hello = new PeerMessage("node-x");
+        hello.putData(PeerMessage.DATA_PROOF, "AAAA");
+        intruder.sendMessage(hello);
+        assertTrue(closed.await(5, TimeUnit.SECONDS), "a wrong proof should close the connection");
+
+        intruder = connect(port);
+        CountDownLatch closedToo = new CountDownLatch(1);
+        intruder.setOnDisconnectListener(s -> closedToo.countDown());
+        intruder.sendMessage(new InterestMessage(Collections.singleton("dev"), Collections.emptySet()));
+        assertTrue(closedToo.await(5, TimeUnit.SECONDS), "messages before the proof should close the connection");
+        assertTrue(a.cluster.getPeers().isEmpty());
+    }
+
+    private ThreadedSocket connect(int port) throws IOException {
+        ThreadedSocket socket = new ThreadedSocket("127.0.0.1", port, cryptoManager);
+        socket.setOnMessageListener((message, s) -> { });
+        socket.setOnDisconnectListener(s -> { });
+        socket.start();
+        return socket;
+    }
+}
@@ -0,0 +1,40 @@
+package chat.server.commands;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class CommandLineTest {
+    @Test
+    void labelShouldMatchIgnoringCase() {
+        CommandLine line = CommandLine.parse("/JoIn dev");
+        assertTrue(line.isLabel("join"));
+        assertFalse(line.isLabel("joi"));
+        assertFalse(line.isLabel("nick"));
+        assertEquals(4, line.getLabelLength());
+        assertEquals("JoIn", line.getLabel());
+    }
+
+    @Test
+    void argumentsShouldBeSeparatedByRunsOfSpaces() {
+        CommandLine line = CommandLine.parse("/msg  bob   hello there ");
+        assertEquals(3, line.getArgumentCount());
+        assertEquals("bob", line.getArgument(0));
+        assertEquals("hello", line.getArgument(1));
+        assertEquals("there", line.getArgument(2));
+        assertNull(line.getArgument(3));
+        assertEquals("hello there ", line.getRemaining(1));
+    }
+
+    @Test
+    void commandsWithoutArgumentsShouldHaveNone() {
+        CommandLine line = CommandLine.parse("/quit");
+        assertTrue(line.isLabel("quit"));
+        assertEquals(0, line.getArgumentCount());
+        assertNull(line.getArgument(0));
+        assertNull(line.getRemaining(0));
+
+        assertEquals(0, CommandLine.parse("/quit   ").getArgumentCount());
+        assertEquals(0, CommandLine.parse("/").getLabelLength());
+    }
+}
@@ -0,0 +1,231 @@
+package chat.server.commands;
+
+import chat.server.CommandConfig;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class CommandSchedulerTest {
+    private static CommandScheduler scheduler(int threads, int queueSize) {
+        CommandConfig config = new CommandConfig();
+        config.setThreads(threads);
+        config.setQueueSize(queueSize);
+        return new CommandScheduler(config, client -> { });
+    }
+
+    private static void sleep(long millis) {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    @Test
+    void tasksOfAClientShouldRunInOrder() throws Exception {
+        CommandScheduler scheduler = scheduler(4, 100);
+        List<Integer> order = Collections.synchronizedList(new ArrayList<>());
+
+        CompletableFuture<Void> last = null;
+        for (int i = 0; i < 20; i++) {
+            int index = i;
+            // Earlier tasks take longer, they would finish last if they ran in parallel
+            last = scheduler.submit("client", () -> {
+                sleep(20 - index);
+                order.add(index);
+            }, 0);
+        }
+        last.get(5, TimeUnit.SECONDS);
+
+        List<Integer> expected = new ArrayList<>();
+        for (int i = 0; i < 20; i++) expected.add(i);
+        assertEquals(expected, order);
+    }
+
+    @Test
+    void clientsShouldNotWaitForEachOther() throws Exception {
+        CommandScheduler scheduler = scheduler(2, 100);
+        CountDownLatch release = new CountDownLatch(1);
+        CompletableFuture<Void> slow = scheduler.submit("slow", () -> {
+            try {
+                release.await();
+            } catch (InterruptedException ignored) {
+            }
+        }, 0);
+
+        scheduler.submit("fast", () -> { }, 0).get(5, TimeUnit.SECONDS);
+        assertFalse(slow.isDone());
+        release.countDown();
+        slow.get(5, TimeUnit.SECONDS);
+    }
+
+    @Test
+    void messagesShouldWaitForTheCommandsBeforeThem() throws Exception {
+        CommandScheduler scheduler = scheduler(2, 100);
+        List<String> order = Collections.synchronizedList(new ArrayList<>());
+        CountDownLatch done = new CountDownLatch(1);
+
+        scheduler.afterPending("client", () -> order.add("idle"));
+        assertEquals(List.of("idle"), order);
+
+        scheduler.submit("client", () -> {
+            sleep(50);
+            order.add("command");
+        }, 0);
+        scheduler.afterPending("client", () -> {
+            order.add("message");
+            done.countDown();
+        });
+
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+        assertEquals(List.of("idle", "command", "message"), order);
+    }
+
+    @Test
+    void slowTasksShouldBeInterruptedAndNotHoldUpTheNextOne() throws Exception {
+        CommandScheduler scheduler = scheduler(2, 100);
+        CountDownLatch interrupted = new CountDownLatch(1);
+        CompletableFuture<Void> stuck = scheduler.submit("client", () -> {
+            try {
+                Thread.sleep(10000);
+            } catch (InterruptedException e) {
+                interrupted.countDown();
+            }
+        }, 50);
+        CompletableFuture<Void> next = scheduler.submit("client", () -> { }, 0);
+
+        ExecutionException e = assertThrows(ExecutionException.class, () -> stuck.get(5, TimeUnit.SECONDS));
+        assertTrue(e.getCause() instanceof TimeoutException);
+        assertTrue(interrupted.await(5, TimeUnit.SECONDS));
+        next.get(5, TimeUnit.SECONDS);
+    }
+
+    @Test
+    void theNextTaskShouldWaitUntilATimedOutTaskReallyEnds() throws Exception {
+        CommandScheduler scheduler = scheduler(2, 100);
+        CountDownLatch ended = new CountDownLatch(1);
+        CompletableFuture<Void> stubborn = scheduler.submit("client", () -> {
+            // Ignores the interrupt for a while
+            long deadline = System.currentTimeMillis() + 200;
+            while (System.currentTimeMillis() < deadline) {
+                try {
+                    Thread.sleep(10);
+                } catch (InterruptedException ignored) {
+                }
+            }
+            ended.countDown();
+        }, 20);
+        List<String> next = Collections.synchronizedList(new ArrayList<>());
+        CompletableFuture<Void> after = scheduler.submit("client", () -> {
+            next.add(ended.getCount() == 0 ? "after the timed out task" : "overlapping");
+            next.add(Thread.currentThread().getName());
+        }, 0);
+
+        ExecutionException e = assertThrows(ExecutionException.class, () -> stubborn.get(5, TimeUnit.SECONDS));
+        assertTrue(e.getCause() instanceof TimeoutException);
+        after.get(5, TimeUnit.SECONDS);
+        assertEquals("after the timed out task", next.get(0));
+        assertTrue(next.get(1).startsWith("command-"), next.get(1));
+    }
+
+    @Test
+    void aTaskThatIgnoresItsInterruptShouldGiveUpOnTheClient() throws Exception {
+        CommandConfig config = new CommandConfig();
+        config.setGraceMillis(50);
+        CompletableFuture<Object> stuckClient = new CompletableFuture<>();
+        CommandScheduler scheduler = new CommandScheduler(config, stuckClient::complete);
+        CountDownLatch release = new CountDownLatch(1);
+        scheduler.submit("client", () -> {
+            while (true) {
+                try {
+                    release.await();
+                    return;
+                } catch (InterruptedException ignored) {
+                }
+            }
+        }, 20);
+        List<String> order = Collections.synchronizedList(new ArrayList<>());
+        scheduler.afterPending("client", () -> order.add("behind the stuck task"));
+
+        assertEquals("client", stuckClient.get(5, TimeUnit.SECONDS));
+        // The dropped chain doesn't hold up the client's next tasks
+        scheduler.afterPending("client", () -> order.add("new chain"));
+        release.countDown();
+        sleep(50);
+        assertEquals(List.of("new chain"), order);
+    }
+
+    @Test
+    void aClientShouldOnlyHaveSoManyTasksWaiting() throws Exception {
+        CommandConfig config = new CommandConfig();
+        config.setMaxPendingPerClient(3);
+        CommandScheduler scheduler = new CommandScheduler(config, client -> { });
+        CountDownLatch release = new CountDownLatch(1);
+        CompletableFuture<Void> first = scheduler.submit("client", () -> {
+            try {
+                release.await();
+            } catch (InterruptedException ignored) {
+            }
+        }, 0);
+        scheduler.afterPending("client", () -> { });
+        scheduler.afterPending("client", () -> { });
+
+        assertThrows(RejectedExecutionException.class, () -> scheduler.afterPending("client", () -> { }));
+        CompletableFuture<Void> rejected = scheduler.submit("client", () -> { }, 0);
+        ExecutionException e = assertThrows(ExecutionException.class, () -> rejected.get(5, TimeUnit.SECONDS));
+        assertTrue(e.getCause() instanceof RejectedExecutionException);
+        scheduler.submit("other", () -> { }, 0).get(5, TimeUnit.SECONDS);
+
+        release.countDown();
+        first.get(5, TimeUnit.SECONDS);
+        sleep(50);
+        scheduler.submit("client", () -> { }, 0).get(5, TimeUnit.SECONDS);
+    }
+
+    @Test
+    void tasksShouldBeRejectedWhenTheQueueIsFull() throws Exception {
+        CommandScheduler scheduler = scheduler(1, 1);
+        CountDownLatch release = new CountDownLatch(1);
+        Runnable blocked = () -> {
+            try {
+                release.await();
+            } catch (InterruptedException ignored) {
+            }
+        };
+        scheduler.submit("a", blocked, 0);
+        scheduler.submit("b", blocked, 0);
+
+        CompletableFuture<Void> rejected = scheduler.submit("c", () -> { }, 0);
+        ExecutionException e = assertThrows(ExecutionException.class, () -> rejected.get(5, TimeUnit.SECONDS));
+        assertTrue(e.getCause() instanceof RejectedExecutionException);
+        release.countDown();
+    }
+
+    @Test
+    void laterTasksShouldWaitForAnAsyncTaskToFinish() {
+        CommandScheduler scheduler = scheduler(1, 10);
+        List<String> order = Collections.synchronizedList(new ArrayList<>());
+        CompletableFuture<Void> login = new CompletableFuture<>();
+
+        scheduler.afterPendingAsync("client", () -> {
+            order.add("login started");
+            return login;
+        });
+        scheduler.afterPending("client", () -> order.add("message"));
+        assertEquals(List.of("login started"), order);
+
+        order.add("login done");
+        login.complete(null);
+        assertEquals(List.of("login started", "login done", "message"), order);
+    }
+}
@@ -0,0 +1,168 @@
+package chat.server.history;
+
+import chat.messages.Message;
+import chat.messages.TextMessage;
+import chat.server.HistoryConfig;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class MessageLogTest {
+    private static HistoryConfig config(Path directory) {
+        HistoryConfig config = new HistoryConfig();
+        config.setDirectory(directory.toString());
+        config.setSegmentSize(4096);
+        config.setCommitIntervalMillis(1);
+        return config;
+    }
+
+    private static void awaitCommitted(MessageLog log, long count) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5000;
+        while (log.getCommitted() < count && System.currentTimeMillis() < deadline) Thread.sleep(5);
+        assertEquals(count, log.getCommitted());
+    }
+
+    private static void fill(MessageLog log, int count) throws InterruptedException {
+        for (int i = 0; i < count; i++) {
+            assertTrue(log.append(i % 2 == 0 ? "even" : "odd", 1000 + i, TextMessage.make("message " + i)));
+        }
+        awaitCommitted(log, count);
+    }
+
+    @Test
+    void appendedMessagesShouldBeReadBackPerRoom() throws IOException, InterruptedException {
+        Path directory = Files.createTempDirectory("history");
+        MessageLog log = MessageLog.open(config(directory), null);
+        fill(log, 10);
+
+        List<HistoryEntry> even = log.readFrom("even", 0, 100);
+        assertEquals(5, even.size());
+        assertEquals("message 0", even.get(0).getMessage().getData(TextMessage.DATA_RAW_TEXT));
+        assertEquals(1000, even.get(0).getTimestamp());
+        assertEquals("even", even.get(0).getRoom());
+        assertTrue(log.readFrom("nobody", 0, 100).isEmpty());
+        log.close();
+    }
+
+    @Test
+    void readBeforeShouldPageBackwards() throws IOException, InterruptedException {
+        Path directory = Files.createTempDirectory("history");
+        MessageLog log = MessageLog.open(config(directory), null);
+        fill(log, 20);
+
+        List<HistoryEntry> latest = log.readBefore("odd", Long.MAX_VALUE, 3);
+        assertEquals(3, latest.size());
+        assertEquals(1015, latest.get(0).getTimestamp());
+        assertEquals(1019, latest.get(2).getTimestamp());
+
+        List<HistoryEntry> previous = log.readBefore("odd", latest.get(0).getTimestamp(), 3);
+        assertEquals(1009, previous.get(0).getTimestamp());
+        assertEquals(1013, previous.get(2).getTimestamp());
+
+        List<HistoryEntry> from = log.readFrom("odd", 1010, 2);
+        assertEquals(1011, from.get(0).getTimestamp());
+        assertEquals(1013, from.get(1).getTimestamp());
+        log.close();
+    }
+
+    @Test
+    void reopenedLogShouldKeepItsMessagesAcrossSegments() throws IOException, InterruptedException {
+        Path directory = Files.createTempDirectory("history");
+        MessageLog log = MessageLog.open(config(directory), null);
+        fill(log, 200);
+        log.close();
+
+        try (Stream<Path> files = Files.list(directory)) {
+            assertTrue(files.count() > 1, "the messages should not fit in a single segment");
+        }
+
+        MessageLog reopened = MessageLog.open(config(directory), null);
+        assertEquals(200, reopened.getCommitted());
+        List<HistoryEntry> odd = reopened.readFrom("odd", 0, 1000);
+        assertEquals(100, odd.size());
+        for (int i = 0; i < odd.size(); i++) {
+            Message message = odd.get(i).getMessage();
+            assertEquals("message " + (i * 2 + 1), message.getData(TextMessage.DATA_RAW_TEXT));
+        }
+
+        assertTrue(reopened.append("odd", 5000, TextMessage.make("after reopening")));
+        awaitCommitted(reopened, 201);
+        assertEquals("after reopening", reopened.readBefore("odd", Long.MAX_VALUE, 1).get(0).getMessage().getData(TextMessage.DATA_RAW_TEXT));
+        reopened.close();
+    }
+
+    @Test
+    void oldSegmentsShouldBeDeletedWithTheirRecords() throws IOException, InterruptedException {
+        Path directory = Files.createTempDirectory("history");
+        HistoryConfig config = config(directory);
+        config.setMaxSegments(2);
+        MessageLog log = MessageLog.open(config, null);
+        for (int i = 0; i < 400; i++) assertTrue(log.append(i % 2 == 0 ? "even" : "odd", 1000 + i, TextMessage.make("message " + i)));
+
+        long deadline = System.currentTimeMillis() + 5000;
+        while (log.readBefore("odd", Long.MAX_VALUE, 1).isEmpty() || log.readBefore("odd", Long.MAX_VALUE, 1).get(0).getTimestamp() != 1399) {
+            assertTrue(System.currentTimeMillis() < deadline, "the last message was never committed");
+            Thread.sleep(5);
+        }
+        long committed = log.getCommitted();
+        assertTrue(committed < 400, committed + " messages kept");
+        List<HistoryEntry> even = log.readFrom("even", 0, 1000);
+        List<HistoryEntry> odd = log.readFrom("odd", 0, 1000);
+        assertEquals(committed, even.size() + odd.size());
+        assertTrue(even.get(0).getTimestamp() > 1000);
+        log.close();
+
+        try (Stream<Path> files = Files.list(directory)) {
+            assertEquals(2, files.count());
+        }
+
+        MessageLog reopened = MessageLog.open(config, null);
+        assertEquals(committed, reopened.getCommitted());
+        assertEquals(even.get(0).getTimestamp(), reopened.readFrom("even", 0, 1).get(0).getTimestamp());
+        reopened.close();
+    }
+
+    @Test
+    void tornRecordShouldBeDiscardedOnRecovery() throws IOException, InterruptedException {
+        Path directory = Files.createTempDirectory("history");
+        MessageLog log = MessageLog.open(config(directory), null);
+        fill(log, 3);
+        log.close();
+
+        // A record whose checksum doesn't match, as if the server died while writing it
+        Path segment = Segment.fileOf(directory, 0);
+        int end;
+        try (FileChannel channel = FileChannel.open(segment, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            ByteBuffer header = ByteBuffer.allocate(Segment.RECORD_HEADER_LENGTH);
+            end = 0;
+            while (true) {
+                header.clear();
+                channel.read(header, end);
+                int length = header.getInt(0);
+                if (length == 0) break;
+                end += Segment.RECORD_HEADER_LENGTH + length;
+            }
+            channel.write(ByteBuffer.wrap(new byte[]{0, 0, 0, 20, 1, 2, 3, 4, 9, 9, 9}), end);
+        }
+
+        MessageLog reopened = MessageLog.open(config(directory), null);
+        assertEquals(3, reopened.getCommitted());
+        assertTrue(reopened.append("even", 2000, TextMessage.make("after the crash")));
+        awaitCommitted(reopened, 4);
+        reopened.close();
+
+        MessageLog again = MessageLog.open(config(directory), null);
+        assertEquals(4, again.getCommitted());
+        assertEquals("after the crash", again.readBefore("even", Long.MAX_VALUE, 1).get(0).getMessage().getData(TextMessage.DATA_RAW_TEXT));
+        again.close();
+    }
+}
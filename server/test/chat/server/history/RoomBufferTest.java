@@ -0,0 +1,63 @@
+package chat.server.history;
+
+import chat.messages.TextMessage;
+import chat.socket.PreparedMessage;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class RoomBufferTest {
+    private static RoomBuffer filled(int capacity, int count) {
+        RoomBuffer buffer = new RoomBuffer(capacity);
+        for (int i = 0; i < count; i++) buffer.add(1000 + i, new PreparedMessage(TextMessage.make("message " + i)));
+        return buffer;
+    }
+
+    @Test
+    void shouldKeepTheLatestMessagesInOrder() {
+        List<RoomBuffer.Entry> entries = filled(5, 12).before(Long.MAX_VALUE, 10);
+
+        assertEquals(5, entries.size());
+        for (int i = 0; i < entries.size(); i++) {
+            assertEquals(1007 + i, entries.get(i).getTimestamp());
+            assertEquals("message " + (7 + i), entries.get(i).getMessage().getMessage().getData(TextMessage.DATA_RAW_TEXT));
+        }
+    }
+
+    @Test
+    void shouldOnlyReturnMessagesBeforeTheTimestamp() {
+        List<RoomBuffer.Entry> entries = filled(10, 10).before(1006, 3);
+
+        assertEquals(3, entries.size());
+        assertEquals(1003, entries.get(0).getTimestamp());
+        assertEquals(1005, entries.get(2).getTimestamp());
+    }
+
+    @Test
+    void shouldReplayTheSamePreparedMessage() {
+        RoomBuffer buffer = new RoomBuffer(4);
+        PreparedMessage message = new PreparedMessage(TextMessage.make("hello"));
+        buffer.add(1, message);
+
+        assertSame(message, buffer.before(Long.MAX_VALUE, 1).get(0).getMessage());
+    }
+
+    @Test
+    void concurrentAddsShouldNotCorruptTheRing() throws InterruptedException {
+        RoomBuffer buffer = new RoomBuffer(64);
+        List<Thread> threads = new ArrayList<>();
+        for (int t = 0; t < 4; t++) {
+            Thread thread = new Thread(() -> {
+                for (int i = 0; i < 10000; i++) buffer.add(i, new PreparedMessage(TextMessage.make("x")));
+            });
+            threads.add(thread);
+            thread.start();
+        }
+        for (Thread thread : threads) thread.join();
+
+        assertEquals(64, buffer.before(Long.MAX_VALUE, 100).size());
+    }
+}
@@ -0,0 +1,130 @@
+package chat.encryption;
+
+import javax.crypto.Cipher;
+import javax.crypto.spec.GCMParameterSpec;
+import javax.crypto.spec.IvParameterSpec;
+import java.security.spec.AlgorithmParameterSpec;
+
+/**
+ * The ciphers that can protect a frame.
+ *
+ * The AEAD suites encrypt and authenticate in a single pass and use a fresh random nonce for
+ * every frame, their output starts with the suite id so a frame can be opened without knowing
+ * which suite the peer picked. The legacy suite is kept for key files generated before the
+ * AEAD suites existed and needs the separate HMAC.
+ */
+public enum CipherSuite {
+    AES_GCM((byte) 1, "aes-gcm", "AES/GCM/NoPadding", "AES", 32, 12),
+    CHACHA20_POLY1305((byte) 2, "chacha20-poly1305", "ChaCha20-Poly1305", "ChaCha20", 32, 12),
+    DES_HMAC_SHA512((byte) 0, "des-hmac-sha512", "DES/ECB/PKCS5Padding", "DES", 8, 0);
+
+    /**
+     * The length of the authentication tag appended by the AEAD suites in bytes
+     */
+    public static final int TAG_LENGTH = 16;
+
+    private final byte id;
+    private final String suiteName;
+    private final String transformation;
+    private final String keyAlgorithm;
+    private final int keyLength;
+    private final int nonceLength;
+
+    CipherSuite(byte id, String suiteName, String transformation, String keyAlgorithm, int keyLength, int nonceLength) {
+        this.id = id;
+        this.suiteName = suiteName;
+        this.transformation = transformation;
+        this.keyAlgorithm = keyAlgorithm;
+        this.keyLength = keyLength;
+        this.nonceLength = nonceLength;
+    }
+
+    public byte getId() {
+        return id;
+    }
+
+    /**
+     * Get the name used for the suite when negotiating it in the handshake
+     *
+     * @return The name of the suite
+     */
+    public String getSuiteName() {
+        return suiteName;
+    }
+
+    String getTransformation() {
+        return transformation;
+    }
+
+    String getKeyAlgorithm() {
+        return keyAlgorithm;
+    }
+
+    int getKeyLength() {
+        return keyLength;
+    }
+
+    int getNonceLength() {
+        return nonceLength;
+    }
+
+    /**
+     * Check if the suite authenticates the data itself
+     *
+     * @return False if the suite needs a separate HMAC
+     */
+    public boolean isAead() {
+        return nonceLength > 0;
+    }
+
+    /**
+     * Check if the running JVM provides the cipher, ChaCha20-Poly1305 needs Java 11
+     *
+     * @return If the suite can be used
+     */
+    public boolean isAvailable() {
+        try {
+            Cipher.getInstance(transformation);
+            return true;
+        } catch (Exception e) {
+            return false;
+        }
+    }
+
+    /**
+     * Get the cipher parameters for a nonce
+     *
+     * @param nonce The nonce
+     * @return The parameters
+     */
+    AlgorithmParameterSpec parameters(byte[] nonce) {
+        if (this == AES_GCM) return new GCMParameterSpec(TAG_LENGTH * 8, nonce);
+        return new IvParameterSpec(nonce);
+    }
+
+    /**
+     * Get the suite with the given id
+     *
+     * @param id The id written at the start of the frame
+     * @return The suite or null if the id is unknown
+     */
+    public static CipherSuite fromId(byte id) {
+        for (CipherSuite suite : values()) {
+            if (suite.id == id) return suite;
+        }
+        return null;
+    }
+
+    /**
+     * Get the suite with the given name
+     *
+     * @param name The name of the suite
+     * @return The suite or null if the name is unknown
+     */
+    public static CipherSuite fromName(String name) {
+        for (CipherSuite suite : values()) {
+            if (suite.suiteName.equalsIgnoreCase(name.trim())) return suite;
+        }
+        return null;
+    }
+}
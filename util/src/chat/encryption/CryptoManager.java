@@ -1,12 +1,23 @@
 package chat.encryption;
 
+import javax.crypto.AEADBadTagException;
 import javax.crypto.Cipher;
 import javax.crypto.Mac;
 import javax.crypto.SecretKey;
+import javax.crypto.spec.SecretKeySpec;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.ObjectInputStream;
+import java.nio.ByteBuffer;
+import java.security.InvalidKeyException;
 import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
 
 /**
  * The cryptography management class.
@@ -14,60 +25,381 @@ import java.security.MessageDigest;
  * This class handles all of the functionality used to ensure the
  * confidentiality and integrity of data sent between the server
  * and the clients.
+ *
+ * The manager is shared by every connection, so it is safe to use from many threads at once:
+ * the Cipher and Mac instances are pooled and borrowed for each operation.
+ *
+ * A key file holding a DES key only supports the legacy DES + HMAC suite. A key file holding
+ * an AES key supports the AEAD suites, each of which gets its own key derived from the file's key.
  */
 public class CryptoManager {
-    private Cipher encrypt;
-    private Cipher decrypt;
-    private Mac mac;
+    /**
+     * Set on the suite id of data sealed with session keys, so the receiver knows which keys to open it with
+     */
+    private static final byte SESSION_FLAG = (byte) 0x80;
+
+    private final Map<CipherSuite, SecretKey> keys = new EnumMap<>(CipherSuite.class);
+    private final Map<CipherSuite, InstancePool<Cipher>> sealers = new EnumMap<>(CipherSuite.class);
+    private final Map<CipherSuite, InstancePool<Cipher>> openers = new EnumMap<>(CipherSuite.class);
+    private final List<CipherSuite> suites;
+    private final SecureRandom random = new SecureRandom();
+    private final InstancePool<Cipher> encrypt;
+    private final InstancePool<Cipher> decrypt;
+    private final InstancePool<Mac> mac;
+    private final byte flag;
 
     /**
      * Constructor for the CryptoManager class.
      *
+     * @param encKey The encryption key, a DES key for the legacy suite or an AES key for the AEAD suites
+     * @param macKey The HMAC-SHA512 key
      * @throws EncryptionException Thrown to simplify all other exceptions into just one exception, caught exceptions are
      *     used as the cause for the thrown EncryptionException.
      */
     public CryptoManager(SecretKey encKey, SecretKey macKey) throws EncryptionException {
+        this(encKey, macKey, (byte) 0);
+    }
+
+    private CryptoManager(SecretKey encKey, SecretKey macKey, byte flag) throws EncryptionException {
+        this.flag = flag;
+        if (encKey.getAlgorithm().equalsIgnoreCase("DES")) {
+            String transformation = CipherSuite.DES_HMAC_SHA512.getTransformation();
+            keys.put(CipherSuite.DES_HMAC_SHA512, encKey);
+
+            encrypt = new InstancePool<>(() -> {
+                Cipher cipher = Cipher.getInstance(transformation);
+                cipher.init(Cipher.ENCRYPT_MODE, encKey);
+                return cipher;
+            });
+            decrypt = new InstancePool<>(() -> {
+                Cipher cipher = Cipher.getInstance(transformation);
+                cipher.init(Cipher.DECRYPT_MODE, encKey);
+                return cipher;
+            });
+        } else {
+            encrypt = null;
+            decrypt = null;
+
+            byte[] prk = Hkdf.extract(null, encKey.getEncoded());
+            for (CipherSuite suite : CipherSuite.values()) {
+                if (!suite.isAead() || !suite.isAvailable()) continue;
+
+                byte[] key = Hkdf.expand(prk, "EncryptedChat " + suite.getSuiteName(), suite.getKeyLength());
+                keys.put(suite, new SecretKeySpec(key, suite.getKeyAlgorithm()));
+                sealers.put(suite, new InstancePool<>(() -> Cipher.getInstance(suite.getTransformation())));
+                openers.put(suite, new InstancePool<>(() -> Cipher.getInstance(suite.getTransformation())));
+            }
+        }
+
+        mac = new InstancePool<>(() -> {
+            Mac instance = Mac.getInstance("HmacSHA512");
+            instance.init(macKey);
+            return instance;
+        });
+
+        if (keys.isEmpty())
+            throw new EncryptionException("None of the cipher suites are available for a " + encKey.getAlgorithm() + " key.");
+
+        this.suites = Collections.unmodifiableList(new ArrayList<>(keys.keySet()));
+    }
+
+    /**
+     * Check if this manager holds the keys of a single connection
+     *
+     * @return True if created by forSession, false for keys from a key file
+     */
+    public boolean isSession() {
+        return flag == SESSION_FLAG;
+    }
+
+    /**
+     * Get the suites this manager has keys for, most preferred first
+     *
+     * @return The supported suites
+     */
+    public List<CipherSuite> getSupportedSuites() {
+        return suites;
+    }
+
+    /**
+     * Get the suite used until the handshake has picked one
+     *
+     * @return The most preferred supported suite
+     */
+    public CipherSuite getDefaultSuite() {
+        return suites.get(0);
+    }
+
+    /**
+     * Get the names of the supported suites, as sent in the handshake
+     *
+     * @return A comma separated list of suite names, most preferred first
+     */
+    public String getSupportedSuiteNames() {
+        StringBuilder builder = new StringBuilder();
+        for (CipherSuite suite : suites) {
+            if (builder.length() > 0) builder.append(',');
+            builder.append(suite.getSuiteName());
+        }
+        return builder.toString();
+    }
+
+    /**
+     * Pick the most preferred supported suite that is in the given list
+     *
+     * @param names A comma separated list of suite names, may be null
+     * @return The suite or null if none of the names are supported
+     */
+    public CipherSuite negotiate(String names) {
+        if (names == null) return null;
+
+        for (CipherSuite suite : suites) {
+            for (String name : names.split(",")) {
+                if (suite == CipherSuite.fromName(name.trim())) return suite;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Get the length of the cipher text for a message
+     *
+     * @param suite The suite the message will be encrypted with
+     * @param length The length of the message
+     * @return The number of bytes encrypt writes
+     */
+    public int getEncryptedLength(CipherSuite suite, int length) {
+        if (suite.isAead()) return 1 + suite.getNonceLength() + length + CipherSuite.TAG_LENGTH;
+
+        // PKCS5 always adds between 1 and 8 bytes of padding
+        return (length / 8 + 1) * 8;
+    }
+
+    /**
+     * Get the largest possible length of the decrypted message
+     *
+     * @param in The cipher text, from its position to its limit, isn't moved
+     * @return The number of bytes decrypt may write, at most
+     */
+    public int getDecryptedLength(ByteBuffer in) {
+        int length = in.remaining();
+        if (decrypt != null || length == 0) return length;
+
+        // The nonce is as long as the suite the data was sealed with needs, like in decrypt
+        CipherSuite suite = CipherSuite.fromId((byte) (in.get(in.position()) & ~SESSION_FLAG));
+        if (suite == null) return length;
+
+        return Math.max(0, length - 1 - suite.getNonceLength() - CipherSuite.TAG_LENGTH);
+    }
+
+    /**
+     * Encrypt the message with the default suite
+     *
+     * @param in The message, read from its position to its limit
+     * @param out The buffer the cipher text is written to, needs getEncryptedLength bytes remaining
+     * @return The number of bytes written
+     * @throws EncryptionException Throws when it fails to encrypt, meant to simplify catching exceptions
+     */
+    public int encrypt(ByteBuffer in, ByteBuffer out) throws EncryptionException {
+        return encrypt(getDefaultSuite(), in, out);
+    }
+
+    /**
+     * Encrypt the message into a caller provided buffer
+     *
+     * The AEAD suites write the suite id, a fresh random nonce and the cipher text followed by
+     * the authentication tag, the suite id is authenticated as additional data. The legacy
+     * suite only writes the cipher text, it has to be sent with an HMAC.
+     *
+     * @param suite The suite to use
+     * @param in The message, read from its position to its limit
+     * @param out The buffer the cipher text is written to, needs getEncryptedLength bytes remaining
+     * @return The number of bytes written
+     * @throws EncryptionException Throws when the suite isn't supported or it fails to encrypt
+     */
+    public int encrypt(CipherSuite suite, ByteBuffer in, ByteBuffer out) throws EncryptionException {
+        if (!keys.containsKey(suite))
+            throw new EncryptionException("The " + suite.getSuiteName() + " suite is not supported by this key.");
+        if (!suite.isAead()) return run(encrypt, in, out);
+
+        InstancePool<Cipher> pool = sealers.get(suite);
+        Cipher cipher = pool.borrow();
         try {
-            encrypt = Cipher.getInstance("DES/ECB/PKCS5Padding");
-            encrypt.init(Cipher.ENCRYPT_MODE, encKey);
+            byte[] nonce = new byte[suite.getNonceLength()];
+            random.nextBytes(nonce);
+            byte id = (byte) (suite.getId() | flag);
+            cipher.init(Cipher.ENCRYPT_MODE, keys.get(suite), suite.parameters(nonce));
+            cipher.updateAAD(new byte[]{id});
 
-            decrypt = Cipher.getInstance("DES/ECB/PKCS5Padding");
-            decrypt.init(Cipher.DECRYPT_MODE, encKey);
+            out.put(id);
+            out.put(nonce);
+            int written = 1 + nonce.length + cipher.doFinal(in, out);
+            pool.release(cipher);
+            return written;
+        } catch (Exception e) {
+            throw new EncryptionException("Failed to encrypt the data.", e);
+        }
+    }
+
+    /**
+     * Decrypt the cipher text into a caller provided buffer
+     *
+     * Data sealed with an AEAD suite is verified before any of it is written.
+     *
+     * @param in The cipher text, read from its position to its limit
+     * @param out The buffer the message is written to, needs getDecryptedLength bytes remaining
+     * @return The number of bytes written or -1 if the data failed authentication
+     * @throws EncryptionException Throws when the suite isn't supported or it fails to decrypt
+     */
+    public int decrypt(ByteBuffer in, ByteBuffer out) throws EncryptionException {
+        if (decrypt != null) return run(decrypt, in, out);
 
-            mac = Mac.getInstance("HmacSHA512");
-            mac.init(macKey);
+        if (!in.hasRemaining()) return -1;
+
+        // Data sealed with the other kind of keys can't have come from the peer these keys are shared with
+        byte id = in.get(in.position());
+        if ((id & SESSION_FLAG) != flag) return -1;
+
+        CipherSuite suite = CipherSuite.fromId((byte) (id & ~SESSION_FLAG));
+        InstancePool<Cipher> pool = suite == null ? null : openers.get(suite);
+        if (pool == null)
+            throw new EncryptionException("The data was sealed with an unsupported cipher suite.");
+        if (in.remaining() < 1 + suite.getNonceLength() + CipherSuite.TAG_LENGTH) return -1;
+
+        Cipher cipher = pool.borrow();
+        try {
+            byte[] nonce = new byte[suite.getNonceLength()];
+            in.get();
+            in.get(nonce);
+            try {
+                cipher.init(Cipher.DECRYPT_MODE, keys.get(suite), suite.parameters(nonce));
+            } catch (InvalidKeyException e) {
+                // The key or nonce was rejected, treated like any other frame that fails authentication
+                pool.release(cipher);
+                return -1;
+            }
+            cipher.updateAAD(new byte[]{id});
+
+            int written = cipher.doFinal(in, out);
+            pool.release(cipher);
+            return written;
+        } catch (AEADBadTagException e) {
+            pool.release(cipher);
+            return -1;
         } catch (Exception e) {
-            throw new EncryptionException(e);
+            throw new EncryptionException("Failed to decrypt the data.", e);
         }
     }
 
     /**
-     * Encrypt the message
+     * Encrypt and authenticate the message with an AEAD suite
+     *
+     * @param suite The AEAD suite to use
+     * @param plaintext The message to be encrypted
+     * @return The sealed message
+     * @throws EncryptionException Throws when the suite isn't supported or it fails to encrypt
+     * @see #encrypt(CipherSuite, ByteBuffer, ByteBuffer)
+     */
+    public byte[] seal(CipherSuite suite, byte[] plaintext) throws EncryptionException {
+        if (!suite.isAead())
+            throw new EncryptionException("The " + suite.getSuiteName() + " suite does not authenticate the data.");
+
+        byte[] sealed = new byte[getEncryptedLength(suite, plaintext.length)];
+        encrypt(suite, ByteBuffer.wrap(plaintext), ByteBuffer.wrap(sealed));
+        return sealed;
+    }
+
+    /**
+     * Verify and decrypt a message sealed with an AEAD suite
+     *
+     * @param sealed The sealed message
+     * @return The decrypted message or null if the data failed authentication
+     * @throws EncryptionException Throws when the suite isn't supported or it fails to decrypt
+     */
+    public byte[] open(byte[] sealed) throws EncryptionException {
+        if (decrypt != null)
+            throw new EncryptionException("The legacy suite does not authenticate the data.");
+
+        ByteBuffer in = ByteBuffer.wrap(sealed);
+        byte[] plaintext = new byte[getDecryptedLength(in)];
+        int length = decrypt(in, ByteBuffer.wrap(plaintext));
+        if (length < 0) return null;
+
+        return length == plaintext.length ? plaintext : Arrays.copyOf(plaintext, length);
+    }
+
+    /**
+     * Encrypt the message with the legacy suite
      *
      * @param string The message to be encrypted
      * @return The cipher text
      * @throws EncryptionException Throws when it fails to encrypt, meant to simplify catching exceptions
      */
     public byte[] encrypt(String string) throws EncryptionException {
-        try {
-            return encrypt.doFinal(string.getBytes());
-        } catch (Exception e) {
-            throw new EncryptionException("Failed to encrypt the data.", e);
-        }
+        return encrypt(string.getBytes());
+    }
+
+    /**
+     * Encrypt the message with the legacy suite
+     *
+     * @param bytes The message to be encrypted
+     * @return The cipher text
+     * @throws EncryptionException Throws when it fails to encrypt, meant to simplify catching exceptions
+     */
+    public byte[] encrypt(byte[] bytes) throws EncryptionException {
+        if (encrypt == null)
+            throw new EncryptionException("The legacy suite needs a DES key.");
+
+        ByteBuffer out = ByteBuffer.allocate(getEncryptedLength(CipherSuite.DES_HMAC_SHA512, bytes.length));
+        run(encrypt, ByteBuffer.wrap(bytes), out);
+        return out.array();
     }
 
     /**
-     * Decrypt the cipher text
+     * Decrypt the cipher text of the legacy suite
      *
      * @param bytes The cipher text
      * @return The decrypted message
      * @throws EncryptionException Throws when it fails to decrypt, meant to simplify catching exceptions
      */
     public String decrypt(byte[] bytes) throws EncryptionException {
+        return new String(decryptBytes(bytes));
+    }
+
+    /**
+     * Decrypt the cipher text of the legacy suite without converting it to a string
+     *
+     * @param bytes The cipher text
+     * @return The decrypted message
+     * @throws EncryptionException Throws when it fails to decrypt, meant to simplify catching exceptions
+     */
+    public byte[] decryptBytes(byte[] bytes) throws EncryptionException {
+        if (decrypt == null)
+            throw new EncryptionException("The legacy suite needs a DES key.");
+
+        byte[] plaintext = new byte[bytes.length];
+        int length = run(decrypt, ByteBuffer.wrap(bytes), ByteBuffer.wrap(plaintext));
+        return Arrays.copyOf(plaintext, length);
+    }
+
+    /**
+     * Run a legacy cipher that was initialized when it was created
+     *
+     * @param pool The pool of encrypting or decrypting ciphers
+     * @param in The input
+     * @param out The output
+     * @return The number of bytes written
+     * @throws EncryptionException Throws when the cipher fails
+     */
+    private int run(InstancePool<Cipher> pool, ByteBuffer in, ByteBuffer out) throws EncryptionException {
+        Cipher cipher = pool.borrow();
         try {
-            return new String(decrypt.doFinal(bytes));
+            int written = cipher.doFinal(in, out);
+            pool.release(cipher);
+            return written;
         } catch (Exception e) {
-            throw new EncryptionException("Failed to encrypt the data.", e);
+            // A cipher that failed may be left mid operation, so it isn't given back
+            throw new EncryptionException(pool == encrypt ? "Failed to encrypt the data." : "Failed to decrypt the data.", e);
         }
     }
 
@@ -79,8 +411,11 @@ public class CryptoManager {
      * @throws EncryptionException Throws when it fails to generate an HMAC, meant to simplify catching exceptions
      */
     public byte[] generateHmac(byte[] bytes) throws EncryptionException {
+        Mac instance = mac.borrow();
         try {
-            return mac.doFinal(bytes);
+            byte[] hmac = instance.doFinal(bytes);
+            mac.release(instance);
+            return hmac;
         } catch (Exception e) {
             throw new EncryptionException("Failed to generate hmac for the data.", e);
         }
@@ -95,14 +430,43 @@ public class CryptoManager {
      * @throws EncryptionException Throws when it fails to generate an HMAC, meant to simplify catching exceptions
      */
     public boolean checkIntegrity(byte[] bytes, byte[] hmac) throws EncryptionException {
+        Mac instance = mac.borrow();
         try {
-            return MessageDigest.isEqual(mac.doFinal(bytes), hmac);
+            boolean valid = MessageDigest.isEqual(instance.doFinal(bytes), hmac);
+            mac.release(instance);
+            return valid;
         } catch (Exception e) {
             throw new EncryptionException("Failed to verify the integrity of the data.", e);
         }
     }
 
 
+    /**
+     * Check if data was sealed with session keys rather than the keys from the key file
+     *
+     * @param sealed The sealed data, only the first byte is looked at
+     * @return If the data should be opened with session keys
+     */
+    public static boolean isSessionData(ByteBuffer sealed) {
+        return sealed.hasRemaining() && (sealed.get(sealed.position()) & SESSION_FLAG) != 0;
+    }
+
+    /**
+     * Create the crypto manager of a single connection
+     *
+     * The AEAD suites get their own keys derived from the session secret, same as for a key file.
+     *
+     * @param secret The session secret, at least 32 bytes
+     * @return The crypto manager instance
+     * @throws EncryptionException Throws when the keys can't be derived
+     */
+    public static CryptoManager forSession(byte[] secret) throws EncryptionException {
+        SecretKey encKey = new SecretKeySpec(secret, "AES");
+        SecretKey macKey = new SecretKeySpec(Hkdf.expand(secret, "EncryptedChat hmac", 64), "HmacSHA512");
+
+        return new CryptoManager(encKey, macKey, SESSION_FLAG);
+    }
+
     /**
      * Loads the secret keys from the given key file
      *
@@ -118,6 +482,8 @@ public class CryptoManager {
             is.close();
 
             return new CryptoManager(key, macKey);
+        } catch (EncryptionException e) {
+            throw e;
         } catch (Exception e) {
             throw new EncryptionException(e);
         }
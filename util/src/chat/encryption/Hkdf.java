@@ -0,0 +1,74 @@
+package chat.encryption;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * HMAC-based key derivation (RFC 5869) using HMAC-SHA256.
+ *
+ * Used to turn one secret into independent keys for different purposes.
+ */
+public final class Hkdf {
+    private static final String ALGORITHM = "HmacSHA256";
+    private static final int HASH_LENGTH = 32;
+
+    private Hkdf() {
+    }
+
+    /**
+     * Extract a pseudorandom key from the input key material
+     *
+     * @param salt An optional, non-secret random value, may be null
+     * @param ikm The input key material
+     * @return The pseudorandom key
+     * @throws EncryptionException Throws when HMAC-SHA256 is not available
+     */
+    public static byte[] extract(byte[] salt, byte[] ikm) throws EncryptionException {
+        if (salt == null || salt.length == 0) salt = new byte[HASH_LENGTH];
+
+        try {
+            Mac mac = Mac.getInstance(ALGORITHM);
+            mac.init(new SecretKeySpec(salt, ALGORITHM));
+            return mac.doFinal(ikm);
+        } catch (Exception e) {
+            throw new EncryptionException("Failed to extract the key.", e);
+        }
+    }
+
+    /**
+     * Expand a pseudorandom key into output key material bound to the given context
+     *
+     * @param prk The pseudorandom key from extract
+     * @param info The context, different contexts give independent keys
+     * @param length The number of bytes to derive, at most 255 * 32
+     * @return The output key material
+     * @throws EncryptionException Throws when HMAC-SHA256 is not available
+     */
+    public static byte[] expand(byte[] prk, String info, int length) throws EncryptionException {
+        if (length > 255 * HASH_LENGTH)
+            throw new EncryptionException("Can not derive more than " + 255 * HASH_LENGTH + " bytes.");
+
+        try {
+            Mac mac = Mac.getInstance(ALGORITHM);
+            mac.init(new SecretKeySpec(prk, ALGORITHM));
+
+            byte[] infoBytes = info.getBytes(StandardCharsets.UTF_8);
+            byte[] okm = new byte[length];
+            byte[] block = new byte[0];
+            for (int offset = 0, counter = 1; offset < length; counter++) {
+                mac.update(block);
+                mac.update(infoBytes);
+                mac.update((byte) counter);
+                block = mac.doFinal();
+
+                int n = Math.min(block.length, length - offset);
+                System.arraycopy(block, 0, okm, offset, n);
+                offset += n;
+            }
+            return okm;
+        } catch (Exception e) {
+            throw new EncryptionException("Failed to expand the key.", e);
+        }
+    }
+}
@@ -0,0 +1,60 @@
+package chat.encryption;
+
+import java.security.GeneralSecurityException;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * A pool of Cipher or Mac instances.
+ *
+ * JCE engines are not thread-safe, so every operation borrows an instance and releases it
+ * when done. The pool grows to the number of threads that use it at the same time, which
+ * works for both platform threads and large numbers of short lived virtual threads.
+ *
+ * @param <T> The type of the pooled instances
+ */
+final class InstancePool<T> {
+    private final Factory<T> factory;
+    private final ConcurrentLinkedQueue<T> idle = new ConcurrentLinkedQueue<>();
+
+    /**
+     * The InstancePool constructor.
+     *
+     * @param factory Creates new instances when the pool is empty
+     * @throws EncryptionException Throws when the factory fails, so a bad key is noticed right away
+     */
+    InstancePool(Factory<T> factory) throws EncryptionException {
+        this.factory = factory;
+        release(borrow());
+    }
+
+    /**
+     * Take an idle instance or create a new one
+     *
+     * @return The instance, which must be given back with release
+     * @throws EncryptionException Throws when a new instance can not be created
+     */
+    T borrow() throws EncryptionException {
+        T instance = idle.poll();
+        if (instance != null) return instance;
+
+        try {
+            return factory.create();
+        } catch (GeneralSecurityException e) {
+            throw new EncryptionException(e);
+        }
+    }
+
+    /**
+     * Give an instance back to the pool
+     *
+     * @param instance The borrowed instance
+     */
+    void release(T instance) {
+        idle.offer(instance);
+    }
+
+    @FunctionalInterface
+    interface Factory<T> {
+        T create() throws GeneralSecurityException;
+    }
+}
@@ -0,0 +1,93 @@
+package chat.encryption;
+
+import javax.crypto.KeyAgreement;
+import java.security.KeyFactory;
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.PublicKey;
+import java.security.SecureRandom;
+import java.security.spec.X509EncodedKeySpec;
+import java.util.Base64;
+
+/**
+ * One side of an ephemeral X25519 key exchange.
+ *
+ * Both sides generate a new key pair for every connection and send each other the public
+ * key, both then compute the same shared secret. The key pair is thrown away afterwards, so
+ * recorded traffic can't be decrypted later even if the key file leaks.
+ */
+public class KeyExchange {
+    private static final String ALGORITHM = "X25519";
+    private static final int NONCE_LENGTH = 32;
+    private static final SecureRandom RANDOM = new SecureRandom();
+
+    private final KeyPair keyPair;
+
+    /**
+     * The KeyExchange constructor, generates the ephemeral key pair.
+     *
+     * @throws EncryptionException Throws when X25519 is not available
+     */
+    public KeyExchange() throws EncryptionException {
+        try {
+            keyPair = KeyPairGenerator.getInstance(ALGORITHM).generateKeyPair();
+        } catch (Exception e) {
+            throw new EncryptionException("Failed to generate the key pair.", e);
+        }
+    }
+
+    /**
+     * Get the public key to send to the peer
+     *
+     * @return The encoded public key
+     */
+    public String getPublicKey() {
+        return Base64.getEncoder().encodeToString(keyPair.getPublic().getEncoded());
+    }
+
+    /**
+     * Compute the shared secret from the peer's public key
+     *
+     * @param peerPublicKey The encoded public key sent by the peer
+     * @return The shared secret
+     * @throws EncryptionException Throws when the public key is invalid
+     */
+    public byte[] agree(String peerPublicKey) throws EncryptionException {
+        try {
+            X509EncodedKeySpec spec = new X509EncodedKeySpec(Base64.getDecoder().decode(peerPublicKey));
+            PublicKey publicKey = KeyFactory.getInstance(ALGORITHM).generatePublic(spec);
+
+            KeyAgreement agreement = KeyAgreement.getInstance(ALGORITHM);
+            agreement.init(keyPair.getPrivate());
+            agreement.doPhase(publicKey, true);
+            return agreement.generateSecret();
+        } catch (Exception e) {
+            throw new EncryptionException("Failed to agree on a shared secret.", e);
+        }
+    }
+
+    /**
+     * Generate the random value each side adds to the handshake
+     *
+     * @return The encoded nonce
+     */
+    public static String newNonce() {
+        byte[] nonce = new byte[NONCE_LENGTH];
+        RANDOM.nextBytes(nonce);
+        return Base64.getEncoder().encodeToString(nonce);
+    }
+
+    /**
+     * Check if the running JVM provides X25519, it needs Java 11
+     *
+     * @return If key exchanges can be made
+     */
+    public static boolean isAvailable() {
+        try {
+            KeyAgreement.getInstance(ALGORITHM);
+            return true;
+        } catch (Exception e) {
+            return false;
+        }
+    }
+}
@@ -10,13 +10,15 @@ import java.security.NoSuchAlgorithmException;
 
 public class KeyGeneratorMain {
     public static void main(String[] args) throws NoSuchAlgorithmException, IOException {
-        KeyGenerator keyGen = KeyGenerator.getInstance("DES");
+        KeyGenerator keyGen = KeyGenerator.getInstance("AES");
+        keyGen.init(256);
         SecretKey key = keyGen.generateKey();
 
         KeyGenerator macKeyGen = KeyGenerator.getInstance("HmacSHA512");
         SecretKey macKey = macKeyGen.generateKey();
 
-        File file = new File("SECRET_KEY");
+        // Another name, like CLUSTER_KEY, can be given for the key the servers of a cluster share
+        File file = new File(args.length > 0 ? args[0] : "SECRET_KEY");
         file.createNewFile();
         ObjectOutputStream os = new ObjectOutputStream(new FileOutputStream(file));
         os.writeObject(key);
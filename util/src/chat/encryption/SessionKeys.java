@@ -0,0 +1,66 @@
+package chat.encryption;
+
+import java.util.Base64;
+
+/**
+ * The keys of one connection, derived from the secret both sides agreed on in the handshake.
+ *
+ * The nonces of both sides are mixed in, so a resumed session gets fresh keys even though it
+ * starts from the same resumption secret.
+ */
+public final class SessionKeys {
+    private static final int SECRET_LENGTH = 32;
+
+    private final CryptoManager cryptoManager;
+    private final byte[] resumptionSecret;
+
+    private SessionKeys(CryptoManager cryptoManager, byte[] resumptionSecret) {
+        this.cryptoManager = cryptoManager;
+        this.resumptionSecret = resumptionSecret;
+    }
+
+    /**
+     * Get the keys that protect the connection's frames
+     *
+     * @return The session's crypto manager
+     */
+    public CryptoManager getCryptoManager() {
+        return cryptoManager;
+    }
+
+    /**
+     * Get the secret a later connection can resume from
+     *
+     * @return The resumption secret
+     */
+    public byte[] getResumptionSecret() {
+        return resumptionSecret;
+    }
+
+    /**
+     * Derive the session keys
+     *
+     * @param secret The shared secret of the key exchange or the resumption secret of an earlier session
+     * @param clientNonce The encoded nonce the client sent
+     * @param serverNonce The encoded nonce the server sent
+     * @return The session keys
+     * @throws EncryptionException Throws when the nonces can't be decoded or the keys can't be derived
+     */
+    public static SessionKeys derive(byte[] secret, String clientNonce, String serverNonce) throws EncryptionException {
+        byte[] salt;
+        try {
+            byte[] client = Base64.getDecoder().decode(clientNonce);
+            byte[] server = Base64.getDecoder().decode(serverNonce);
+
+            salt = new byte[client.length + server.length];
+            System.arraycopy(client, 0, salt, 0, client.length);
+            System.arraycopy(server, 0, salt, client.length, server.length);
+        } catch (IllegalArgumentException | NullPointerException e) {
+            throw new EncryptionException("Invalid handshake nonce.", e);
+        }
+
+        byte[] prk = Hkdf.extract(salt, secret);
+        CryptoManager cryptoManager = CryptoManager.forSession(Hkdf.expand(prk, "EncryptedChat session", SECRET_LENGTH));
+        return new SessionKeys(cryptoManager, Hkdf.expand(prk, "EncryptedChat resumption", SECRET_LENGTH));
+    }
+}
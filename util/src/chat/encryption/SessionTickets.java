@@ -0,0 +1,78 @@
+package chat.encryption;
+
+import javax.crypto.KeyGenerator;
+import java.nio.ByteBuffer;
+import java.util.Base64;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Issues and redeems session resumption tickets on the server.
+ *
+ * A ticket is the resumption secret and an expiry time sealed with a key only the server
+ * knows, so the server doesn't have to remember anything about past sessions. A client that
+ * presents a valid ticket skips the key exchange. The key is generated when the server starts,
+ * restarting the server invalidates all tickets.
+ */
+public class SessionTickets {
+    private final CryptoManager ticketKeys;
+    private final long lifetimeMillis;
+
+    /**
+     * The SessionTickets constructor.
+     *
+     * @param lifetimeSeconds How long a ticket can be redeemed for
+     * @throws EncryptionException Throws when the ticket key can't be generated
+     */
+    public SessionTickets(long lifetimeSeconds) throws EncryptionException {
+        try {
+            KeyGenerator keyGen = KeyGenerator.getInstance("AES");
+            keyGen.init(256);
+
+            this.ticketKeys = new CryptoManager(keyGen.generateKey(), KeyGenerator.getInstance("HmacSHA512").generateKey());
+        } catch (EncryptionException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new EncryptionException(e);
+        }
+        this.lifetimeMillis = TimeUnit.SECONDS.toMillis(lifetimeSeconds);
+    }
+
+    /**
+     * Create a ticket for the session
+     *
+     * @param resumptionSecret The session's resumption secret
+     * @return The encoded ticket
+     * @throws EncryptionException Throws when sealing the ticket fails
+     */
+    public String issue(byte[] resumptionSecret) throws EncryptionException {
+        ByteBuffer contents = ByteBuffer.allocate(Long.BYTES + resumptionSecret.length);
+        contents.putLong(System.currentTimeMillis() + lifetimeMillis);
+        contents.put(resumptionSecret);
+
+        return Base64.getEncoder().encodeToString(ticketKeys.seal(ticketKeys.getDefaultSuite(), contents.array()));
+    }
+
+    /**
+     * Get the resumption secret from a ticket
+     *
+     * @param ticket The encoded ticket, may be null
+     * @return The resumption secret or null if the ticket is missing, invalid or expired
+     */
+    public byte[] redeem(String ticket) {
+        if (ticket == null) return null;
+
+        try {
+            byte[] contents = ticketKeys.open(Base64.getDecoder().decode(ticket));
+            if (contents == null || contents.length <= Long.BYTES) return null;
+
+            ByteBuffer buffer = ByteBuffer.wrap(contents);
+            if (buffer.getLong() < System.currentTimeMillis()) return null;
+
+            byte[] secret = new byte[buffer.remaining()];
+            buffer.get(secret);
+            return secret;
+        } catch (IllegalArgumentException | EncryptionException e) {
+            return null;
+        }
+    }
+}
@@ -0,0 +1,65 @@
+package chat.encryption;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Remembers the last session ticket of every server a client connected to.
+ *
+ * Sockets that share a cache resume the session of the previous connection to the same
+ * server, which makes reconnecting after a network blip cheap.
+ */
+public class TicketCache {
+    private final Map<String, Ticket> tickets = new ConcurrentHashMap<>();
+
+    /**
+     * Get the ticket for a server
+     *
+     * @param server The host and port of the server
+     * @return The ticket or null if there isn't one
+     */
+    public Ticket get(String server) {
+        return tickets.get(server);
+    }
+
+    /**
+     * Store the ticket for a server, replacing the previous one
+     *
+     * @param server The host and port of the server
+     * @param ticket The encoded ticket
+     * @param resumptionSecret The resumption secret the ticket stands for
+     */
+    public void put(String server, String ticket, byte[] resumptionSecret) {
+        tickets.put(server, new Ticket(ticket, resumptionSecret));
+    }
+
+    /**
+     * Forget the ticket for a server
+     *
+     * @param server The host and port of the server
+     */
+    public void remove(String server) {
+        tickets.remove(server);
+    }
+
+    /**
+     * A ticket along with the secret only the client knows
+     */
+    public static final class Ticket {
+        private final String ticket;
+        private final byte[] resumptionSecret;
+
+        Ticket(String ticket, byte[] resumptionSecret) {
+            this.ticket = ticket;
+            this.resumptionSecret = resumptionSecret;
+        }
+
+        public String getTicket() {
+            return ticket;
+        }
+
+        public byte[] getResumptionSecret() {
+            return resumptionSecret;
+        }
+    }
+}
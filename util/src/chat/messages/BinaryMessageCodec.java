@@ -0,0 +1,214 @@
+package chat.messages;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * The binary codec.
+ *
+ * A compact, length-prefixed format:
+ *
+ * <pre>
+ * byte    VERSION
+ * varint  command id, 0 means the command follows as a string
+ * varint  number of data entries
+ * entries varint key tag (0 means the key follows as a string) followed by the string value
+ * </pre>
+ *
+ * Strings are a varint byte length followed by the UTF-8 bytes. Known commands and data keys
+ * are sent as small ids and decoded back into the shared constants of the message classes.
+ * The tables below may only ever be appended to, changing an existing id breaks older peers.
+ */
+public class BinaryMessageCodec implements MessageCodec {
+    public static final String NAME = "binary";
+
+    /**
+     * The first byte of every encoded message, can't be confused with the '{' of a JSON message
+     */
+    public static final byte VERSION = 1;
+
+    private static final String[] COMMANDS = {
+            null,
+            TextMessage.COMMAND,
+            PingMessage.COMMAND,
+            PongMessage.COMMAND,
+            AuthMessage.COMMAND,
+            HelloMessage.COMMAND,
+            HistoryRequestMessage.COMMAND,
+            HistoryEndMessage.COMMAND,
+            PeerMessage.COMMAND,
+            InterestMessage.COMMAND,
+            RelayMessage.COMMAND,
+    };
+
+    private static final String[] KEYS = {
+            null,
+            TextMessage.DATA_ROOM,
+            TextMessage.DATA_SENDER_ID,
+            TextMessage.DATA_SENDER_NAME,
+            TextMessage.DATA_RAW_TEXT,
+            AuthMessage.DATA_USERNAME,
+            AuthMessage.DATA_PASSWORD,
+            HelloMessage.DATA_CODECS,
+            HelloMessage.DATA_SUITES,
+            HelloMessage.DATA_KEY_SHARE,
+            HelloMessage.DATA_NONCE,
+            HelloMessage.DATA_TICKET,
+            HelloMessage.DATA_RESUMED,
+            TextMessage.DATA_TIMESTAMP,
+            HistoryRequestMessage.DATA_BEFORE,
+            HistoryRequestMessage.DATA_LIMIT,
+            HistoryEndMessage.DATA_COUNT,
+            PeerMessage.DATA_NODE,
+            InterestMessage.DATA_JOINED,
+            InterestMessage.DATA_LEFT,
+            RelayMessage.DATA_BATCH,
+            HelloMessage.DATA_COMPRESSION,
+    };
+
+    private static final Map<String, Integer> COMMAND_IDS = index(COMMANDS);
+    private static final Map<String, Integer> KEY_TAGS = index(KEYS);
+
+    @Override
+    public String getName() {
+        return NAME;
+    }
+
+    @Override
+    public byte[] encode(Message message) {
+        Map<String, String> data = message.getAllData();
+        ByteArrayOutputStream out = new ByteArrayOutputStream(64);
+        out.write(VERSION);
+
+        writeTagged(out, COMMAND_IDS, message.getCommand());
+
+        int entries = 0;
+        for (String value : data.values()) {
+            if (value != null) entries++;
+        }
+        writeVarint(out, entries);
+
+        for (Map.Entry<String, String> entry : data.entrySet()) {
+            if (entry.getValue() == null) continue;
+
+            writeTagged(out, KEY_TAGS, entry.getKey());
+            writeString(out, entry.getValue());
+        }
+
+        return out.toByteArray();
+    }
+
+    @Override
+    public Message decode(byte[] bytes) throws MalformedMessageException {
+        Reader in = new Reader(bytes);
+        if (in.readByte() != VERSION)
+            throw new MalformedMessageException("Unsupported binary message version.");
+
+        String command = in.readTagged(COMMANDS);
+        int entries = in.readVarint();
+
+        // Every entry needs at least two bytes, don't let a bad count allocate a huge map
+        if (entries > bytes.length / 2)
+            throw new MalformedMessageException("Invalid number of data entries.");
+
+        Map<String, String> data = new HashMap<>(entries * 2);
+        for (int i = 0; i < entries; i++) {
+            String key = in.readTagged(KEYS);
+            data.put(key, in.readString());
+        }
+
+        if (in.hasRemaining())
+            throw new MalformedMessageException("Unexpected data after the end of the message.");
+
+        return new Message(command, data);
+    }
+
+    private static void writeTagged(ByteArrayOutputStream out, Map<String, Integer> tags, String value) {
+        Integer tag = tags.get(value);
+        if (tag != null) {
+            writeVarint(out, tag);
+        } else {
+            writeVarint(out, 0);
+            writeString(out, value);
+        }
+    }
+
+    private static void writeString(ByteArrayOutputStream out, String value) {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        writeVarint(out, bytes.length);
+        out.write(bytes, 0, bytes.length);
+    }
+
+    private static void writeVarint(ByteArrayOutputStream out, int value) {
+        while ((value & ~0x7F) != 0) {
+            out.write((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        out.write(value);
+    }
+
+    private static Map<String, Integer> index(String[] table) {
+        Map<String, Integer> index = new HashMap<>();
+        for (int i = 1; i < table.length; i++) {
+            index.put(table[i], i);
+        }
+        return index;
+    }
+
+    /**
+     * Bounds checked reader over an encoded message
+     */
+    private static class Reader {
+        private final byte[] bytes;
+        private int position;
+
+        Reader(byte[] bytes) {
+            this.bytes = bytes;
+        }
+
+        boolean hasRemaining() {
+            return position < bytes.length;
+        }
+
+        byte readByte() throws MalformedMessageException {
+            if (position >= bytes.length)
+                throw new MalformedMessageException("Unexpected end of the message.");
+
+            return bytes[position++];
+        }
+
+        int readVarint() throws MalformedMessageException {
+            int value = 0;
+            for (int shift = 0; shift < 32; shift += 7) {
+                byte b = readByte();
+                value |= (b & 0x7F) << shift;
+                if ((b & 0x80) == 0) {
+                    if (value < 0) break;
+                    return value;
+                }
+            }
+            throw new MalformedMessageException("Invalid varint.");
+        }
+
+        String readString() throws MalformedMessageException {
+            int length = readVarint();
+            if (length > bytes.length - position)
+                throw new MalformedMessageException("Unexpected end of the message.");
+
+            String value = new String(bytes, position, length, StandardCharsets.UTF_8);
+            position += length;
+            return value;
+        }
+
+        String readTagged(String[] table) throws MalformedMessageException {
+            int tag = readVarint();
+            if (tag == 0) return readString();
+            if (tag >= table.length)
+                throw new MalformedMessageException("Unknown tag " + tag + ".");
+
+            return table[tag];
+        }
+    }
+}
@@ -0,0 +1,29 @@
+package chat.messages;
+
+import java.util.HashMap;
+
+/**
+ * The handshake message.
+ *
+ * The connecting side sends the options it supports in order of preference, the server
+ * answers with the options it picked. Both sides also send their half of the key exchange
+ * for the session keys, and the client may offer a ticket to resume an earlier session.
+ * Handled by ThreadedSocket, it never reaches the message listeners.
+ */
+public class HelloMessage extends Message {
+    public static final String COMMAND = "HELLO";
+    public static final String DATA_CODECS = "codecs";
+    public static final String DATA_SUITES = "suites";
+    public static final String DATA_KEY_SHARE = "key_share";
+    public static final String DATA_NONCE = "nonce";
+    public static final String DATA_TICKET = "ticket";
+    public static final String DATA_RESUMED = "resumed";
+    public static final String DATA_COMPRESSION = "compression";
+
+    public HelloMessage(String codecs, String suites) {
+        super(COMMAND, new HashMap<>() {{
+            put(DATA_CODECS, codecs);
+            put(DATA_SUITES, suites);
+        }});
+    }
+}
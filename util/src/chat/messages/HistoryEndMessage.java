@@ -0,0 +1,25 @@
+package chat.messages;
+
+import java.util.HashMap;
+
+/**
+ * Ends a batch of history messages, sent after the recent messages of a room have been
+ * replayed and after every page requested with a HistoryRequestMessage.
+ *
+ * The before timestamp is the one to request the next older page with, it is missing when
+ * there are no older messages.
+ */
+public class HistoryEndMessage extends Message {
+    public static final String COMMAND = "HISTORY_END";
+    public static final String DATA_ROOM = TextMessage.DATA_ROOM;
+    public static final String DATA_BEFORE = HistoryRequestMessage.DATA_BEFORE;
+    public static final String DATA_COUNT = "count";
+
+    public HistoryEndMessage(String room, Long before, int count) {
+        super(COMMAND, new HashMap<>() {{
+            put(DATA_ROOM, room);
+            if (before != null) put(DATA_BEFORE, Long.toString(before));
+            put(DATA_COUNT, Integer.toString(count));
+        }});
+    }
+}
@@ -0,0 +1,24 @@
+package chat.messages;
+
+import java.util.HashMap;
+
+/**
+ * Asks the server for older messages of a room.
+ *
+ * The server answers with up to limit of the latest messages sent to the room before the given
+ * timestamp, oldest first, followed by a HistoryEndMessage.
+ */
+public class HistoryRequestMessage extends Message {
+    public static final String COMMAND = "HISTORY";
+    public static final String DATA_ROOM = TextMessage.DATA_ROOM;
+    public static final String DATA_BEFORE = "before";
+    public static final String DATA_LIMIT = "limit";
+
+    public HistoryRequestMessage(String room, long before, int limit) {
+        super(COMMAND, new HashMap<>() {{
+            put(DATA_ROOM, room);
+            put(DATA_BEFORE, Long.toString(before));
+            put(DATA_LIMIT, Integer.toString(limit));
+        }});
+    }
+}
@@ -0,0 +1,41 @@
+package chat.messages;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+
+/**
+ * Tells a server of the cluster which rooms another server has gained or lost local members
+ * in, so it only relays the messages of rooms someone on the other server is listening to.
+ *
+ * The rooms are separated by line breaks, which room names can't contain. A missing entry
+ * means no rooms, an empty one means the lobby.
+ */
+public class InterestMessage extends Message {
+    public static final String COMMAND = "INTEREST";
+    public static final String DATA_JOINED = "joined";
+    public static final String DATA_LEFT = "left";
+
+    private static final String SEPARATOR = "\n";
+
+    public InterestMessage(Collection<String> joined, Collection<String> left) {
+        super(COMMAND, new HashMap<>() {{
+            if (!joined.isEmpty()) put(DATA_JOINED, String.join(SEPARATOR, joined));
+            if (!left.isEmpty()) put(DATA_LEFT, String.join(SEPARATOR, left));
+        }});
+    }
+
+    /**
+     * Split a list of rooms from an InterestMessage
+     *
+     * @param rooms The value of DATA_JOINED or DATA_LEFT, may be null
+     * @return The rooms
+     */
+    public static List<String> rooms(String rooms) {
+        if (rooms == null) return Collections.emptyList();
+
+        return Arrays.asList(rooms.split(SEPARATOR, -1));
+    }
+}
@@ -0,0 +1,41 @@
+package chat.messages;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonParseException;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * The JSON codec.
+ *
+ * The original wire format, every peer understands it so it is used until the handshake
+ * has picked something better.
+ */
+public class JsonMessageCodec implements MessageCodec {
+    public static final String NAME = "json";
+
+    private final Gson gson = new Gson();
+
+    @Override
+    public String getName() {
+        return NAME;
+    }
+
+    @Override
+    public byte[] encode(Message message) {
+        return gson.toJson(message).getBytes(StandardCharsets.UTF_8);
+    }
+
+    @Override
+    public Message decode(byte[] bytes) throws MalformedMessageException {
+        try {
+            Message message = gson.fromJson(new String(bytes, StandardCharsets.UTF_8), Message.class);
+            if (message == null || message.getCommand() == null)
+                throw new MalformedMessageException("The message has no command.");
+
+            return message;
+        } catch (JsonParseException e) {
+            throw new MalformedMessageException("Failed to parse the message.", e);
+        }
+    }
+}
@@ -0,0 +1,31 @@
+package chat.messages;
+
+/**
+ * Converts a Message to and from the plain text bytes that get encrypted and sent
+ * through the socket.
+ */
+public interface MessageCodec {
+    /**
+     * Get the name used for the codec when negotiating the codec in the handshake
+     *
+     * @return The name of the codec
+     */
+    String getName();
+
+    /**
+     * Encode the message
+     *
+     * @param message The message to encode
+     * @return The encoded message
+     */
+    byte[] encode(Message message);
+
+    /**
+     * Decode a message
+     *
+     * @param bytes The encoded message
+     * @return The message
+     * @throws MalformedMessageException Throws when the bytes are not a valid message for this codec
+     */
+    Message decode(byte[] bytes) throws MalformedMessageException;
+}
@@ -0,0 +1,66 @@
+package chat.messages;
+
+/**
+ * The available message codecs.
+ */
+public final class MessageCodecs {
+    public static final MessageCodec JSON = new JsonMessageCodec();
+    public static final MessageCodec BINARY = new BinaryMessageCodec();
+
+    /**
+     * All codecs in order of preference
+     */
+    private static final MessageCodec[] CODECS = {BINARY, JSON};
+
+    private MessageCodecs() {
+    }
+
+    /**
+     * Get the names of all codecs in order of preference, as sent in the handshake
+     *
+     * @return A comma separated list of codec names
+     */
+    public static String supported() {
+        StringBuilder builder = new StringBuilder();
+        for (MessageCodec codec : CODECS) {
+            if (builder.length() > 0) builder.append(',');
+            builder.append(codec.getName());
+        }
+        return builder.toString();
+    }
+
+    /**
+     * Pick the most preferred codec that is in the given list
+     *
+     * @param names A comma separated list of codec names, may be null
+     * @return The codec or JSON if none of the names are known
+     */
+    public static MessageCodec negotiate(String names) {
+        if (names == null) return JSON;
+
+        for (MessageCodec codec : CODECS) {
+            for (String name : names.split(",")) {
+                if (codec.getName().equalsIgnoreCase(name.trim())) return codec;
+            }
+        }
+        return JSON;
+    }
+
+    /**
+     * Decode a message encoded with any of the codecs
+     *
+     * The codec is detected from the first byte, so messages can still be read while the
+     * handshake is changing codecs. Compressed messages have a first byte of their own and
+     * must be decompressed first, see MessageCompression.
+     *
+     * @param bytes The encoded message
+     * @return The message
+     * @throws MalformedMessageException Throws when the message can't be decoded
+     */
+    public static Message decode(byte[] bytes) throws MalformedMessageException {
+        if (bytes.length > 0 && bytes[0] == BinaryMessageCodec.VERSION)
+            return BINARY.decode(bytes);
+
+        return JSON.decode(bytes);
+    }
+}
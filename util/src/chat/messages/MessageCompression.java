@@ -0,0 +1,143 @@
+package chat.messages;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Compresses encoded messages.
+ *
+ * Used by ThreadedSocket between encoding a message and sealing it into a frame. A compressed
+ * message is the MARKER byte, the length of the encoded message as an int and the raw deflate
+ * stream. The marker can't be confused with the first byte of a JSON or binary message, so
+ * compressed and uncompressed messages can be mixed on one connection.
+ *
+ * Chat messages are too small for deflate to find much to repeat within one message, so both
+ * sides start from a preset dictionary of the commands and data keys of the protocol. The
+ * dictionary is part of the wire format: changing it means changing NAME as well, so peers
+ * with different dictionaries never agree on compression.
+ */
+public final class MessageCompression {
+    /**
+     * The name used for compression in the handshake
+     */
+    public static final String NAME = "deflate-v1";
+
+    /**
+     * The first byte of every compressed message
+     */
+    public static final byte MARKER = 2;
+
+    private static final int HEADER_LENGTH = 5;
+
+    // Deflate finds matches closer to the end of the dictionary with shorter codes, so the
+    // parts of the most common messages come last
+    private static final byte[] DICTIONARY = (
+            "{\"command\":\"HELLO\",\"data\":{\"codecs\":\"binary,json\",\"suites\":\"\",\"key_share\":\"\",\"nonce\":\"\",\"ticket\":\"\",\"resumed\":\"true\"}}"
+            + "{\"command\":\"AUTH\",\"data\":{\"username\":\"\",\"password\":\"\"}}"
+            + "{\"command\":\"PEER\",\"data\":{\"node\":\"\"}}"
+            + "{\"command\":\"INTEREST\",\"data\":{\"joined\":\"\",\"left\":\"\"}}"
+            + "{\"command\":\"RELAY\",\"data\":{\"batch\":\"\",\"count\":\"\"}}"
+            + "{\"command\":\"HISTORY\",\"data\":{\"before\":\"\",\"limit\":\"\"}}"
+            + "{\"command\":\"HISTORY_END\",\"data\":{\"count\":\"\"}}"
+            + "{\"command\":\"PING\",\"data\":{}}{\"command\":\"PONG\",\"data\":{}}"
+            + "{\"command\":\"TEXT\",\"data\":{\"timestamp\":\"\",\"room\":\"\",\"sender_name\":\"\",\"sender_id\":\"\",\"raw_text\":\""
+    ).getBytes(StandardCharsets.UTF_8);
+
+    private static final ConcurrentLinkedQueue<Deflater> DEFLATERS = new ConcurrentLinkedQueue<>();
+    private static final ConcurrentLinkedQueue<Inflater> INFLATERS = new ConcurrentLinkedQueue<>();
+
+    private MessageCompression() {
+    }
+
+    /**
+     * Compress an encoded message if it is large enough and compression makes it smaller
+     *
+     * @param encoded The encoded message
+     * @param threshold The smallest message that is compressed
+     * @return The compressed message, or the encoded message itself if it wasn't compressed
+     */
+    public static byte[] compress(byte[] encoded, int threshold) {
+        if (encoded.length < threshold || encoded.length <= HEADER_LENGTH) return encoded;
+
+        // Anything that doesn't fit in the length of the original isn't worth sending
+        byte[] compressed = new byte[encoded.length];
+        Deflater deflater = borrowDeflater();
+        int length;
+        try {
+            deflater.setDictionary(DICTIONARY);
+            deflater.setInput(encoded);
+            deflater.finish();
+            length = deflater.deflate(compressed, HEADER_LENGTH, compressed.length - HEADER_LENGTH);
+            if (!deflater.finished()) return encoded;
+        } finally {
+            deflater.reset();
+            DEFLATERS.offer(deflater);
+        }
+
+        compressed[0] = MARKER;
+        ByteBuffer.wrap(compressed, 1, 4).putInt(encoded.length);
+
+        byte[] result = new byte[HEADER_LENGTH + length];
+        System.arraycopy(compressed, 0, result, 0, result.length);
+        return result;
+    }
+
+    /**
+     * Check if a message was compressed
+     *
+     * @param bytes The message as it came out of the frame
+     * @return If the message has to be decompressed before it can be decoded
+     */
+    public static boolean isCompressed(byte[] bytes) {
+        return bytes.length > 0 && bytes[0] == MARKER;
+    }
+
+    /**
+     * Decompress a message
+     *
+     * The length is checked before anything is allocated, so a small frame can't claim to
+     * expand to more memory than the connection would accept uncompressed.
+     *
+     * @param compressed The compressed message
+     * @param maxLength The largest encoded message that is accepted
+     * @return The encoded message
+     * @throws MalformedMessageException Throws when the message is too large or not a valid deflate stream
+     */
+    public static byte[] decompress(byte[] compressed, int maxLength) throws MalformedMessageException {
+        if (compressed.length < HEADER_LENGTH) throw new MalformedMessageException("The compressed message is truncated.");
+
+        int length = ByteBuffer.wrap(compressed, 1, 4).getInt();
+        if (length < 0 || length > maxLength)
+            throw new MalformedMessageException("The compressed message expands to " + length + " bytes.");
+
+        byte[] encoded = new byte[length];
+        Inflater inflater = borrowInflater();
+        try {
+            inflater.setDictionary(DICTIONARY);
+            inflater.setInput(compressed, HEADER_LENGTH, compressed.length - HEADER_LENGTH);
+            int inflated = inflater.inflate(encoded);
+            if (inflated != length || !inflater.finished())
+                throw new MalformedMessageException("The compressed message doesn't match its length.");
+        } catch (DataFormatException e) {
+            throw new MalformedMessageException("Failed to decompress the message.", e);
+        } finally {
+            inflater.reset();
+            INFLATERS.offer(inflater);
+        }
+        return encoded;
+    }
+
+    private static Deflater borrowDeflater() {
+        Deflater deflater = DEFLATERS.poll();
+        return deflater != null ? deflater : new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+    }
+
+    private static Inflater borrowInflater() {
+        Inflater inflater = INFLATERS.poll();
+        return inflater != null ? inflater : new Inflater(true);
+    }
+}
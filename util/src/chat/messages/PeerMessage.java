@@ -0,0 +1,21 @@
+package chat.messages;
+
+import java.util.HashMap;
+
+/**
+ * Introduces a server to another server of the cluster, sent by both ends of a peer
+ * connection as soon as it is opened with a challenge, then again with the proof that the
+ * sender holds the cluster key once the other end's challenge has arrived.
+ */
+public class PeerMessage extends Message {
+    public static final String COMMAND = "PEER";
+    public static final String DATA_NODE = "node";
+    public static final String DATA_CHALLENGE = "challenge";
+    public static final String DATA_PROOF = "proof";
+
+    public PeerMessage(String node) {
+        super(COMMAND, new HashMap<>() {{
+            put(DATA_NODE, node);
+        }});
+    }
+}
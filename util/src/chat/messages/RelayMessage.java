@@ -0,0 +1,67 @@
+package chat.messages;
+
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.HashMap;
+import java.util.List;
+
+/**
+ * Carries a batch of messages from one server of the cluster to another in a single frame.
+ *
+ * The messages are encoded with the binary codec, each one prefixed with its length, and the
+ * batch is sent as base64 since message data can only hold strings. Batching saves a frame
+ * header, an encryption and an HMAC per message on busy peer connections.
+ */
+public class RelayMessage extends Message {
+    public static final String COMMAND = "RELAY";
+    public static final String DATA_BATCH = "batch";
+    public static final String DATA_COUNT = HistoryEndMessage.DATA_COUNT;
+
+    public RelayMessage(List<Message> messages) {
+        super(COMMAND, new HashMap<>() {{
+            put(DATA_BATCH, pack(messages));
+            put(DATA_COUNT, Integer.toString(messages.size()));
+        }});
+    }
+
+    private static String pack(List<Message> messages) {
+        List<byte[]> encoded = new ArrayList<>(messages.size());
+        int length = 0;
+        for (Message message : messages) {
+            byte[] bytes = MessageCodecs.BINARY.encode(message);
+            encoded.add(bytes);
+            length += Integer.BYTES + bytes.length;
+        }
+
+        ByteBuffer batch = ByteBuffer.allocate(length);
+        for (byte[] bytes : encoded) batch.putInt(bytes.length).put(bytes);
+        return Base64.getEncoder().encodeToString(batch.array());
+    }
+
+    /**
+     * Get the messages of a batch
+     *
+     * @param relay The RelayMessage
+     * @return The messages in the order they were added to the batch
+     * @throws MalformedMessageException Throws when the batch is not valid
+     */
+    public static List<Message> unpack(Message relay) throws MalformedMessageException {
+        String batch = relay.getData(DATA_BATCH);
+        if (batch == null) throw new MalformedMessageException("The relay message has no batch");
+
+        try {
+            ByteBuffer buffer = ByteBuffer.wrap(Base64.getDecoder().decode(batch));
+            List<Message> messages = new ArrayList<>();
+            while (buffer.hasRemaining()) {
+                byte[] bytes = new byte[buffer.getInt()];
+                buffer.get(bytes);
+                messages.add(MessageCodecs.BINARY.decode(bytes));
+            }
+            return messages;
+        } catch (IllegalArgumentException | BufferUnderflowException | NegativeArraySizeException e) {
+            throw new MalformedMessageException("The relay batch is malformed", e);
+        }
+    }
+}
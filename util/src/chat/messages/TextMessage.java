@@ -8,6 +8,7 @@ public class TextMessage extends Message {
     public static final String DATA_SENDER_ID = "sender_id";
     public static final String DATA_SENDER_NAME = "sender_name";
     public static final String DATA_RAW_TEXT = "raw_text";
+    public static final String DATA_TIMESTAMP = "timestamp";
 
     public TextMessage(String room, String text) {
         super(COMMAND, new HashMap<>() {{
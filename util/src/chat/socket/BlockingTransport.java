@@ -0,0 +1,198 @@
+package chat.socket;
+
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.Socket;
+import java.net.SocketException;
+import java.net.SocketTimeoutException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * The blocking transport.
+ *
+ * Reads frames with a dedicated task that blocks on the socket's input stream, the task
+ * can run on a platform or a virtual thread depending on the executor it is started with.
+ * Outgoing frames are queued and written by a drain task on the same executor, so a slow
+ * peer never blocks the thread that sends to it. The drain task copies the queued frames into
+ * a buffer of flushBytes and writes it with one system call, during a burst it waits up to
+ * flushDelayMicros for more frames before flushing a buffer that isn't full.
+ */
+class BlockingTransport implements Transport, Runnable {
+    private static final int INITIAL_BUFFER_SIZE = 8 * 1024;
+    private static final int MAX_BATCH_FRAMES = 64;
+
+    private final Socket socket;
+    private final DataInputStream is;
+    private final BufferedOutputStream os;
+    private final OutboundQueue queue;
+    private final int flushBytes;
+    private final int maxFrameSize;
+    private final long flushDelayNanos;
+    private final AtomicBoolean draining = new AtomicBoolean();
+    private ThreadedSocket owner;
+    private volatile Executor executor;
+
+    /**
+     * The BlockingTransport constructor.
+     *
+     * @param socket The connected socket
+     * @param options The socket options
+     * @throws IOException Throws when failing to get the io streams
+     */
+    BlockingTransport(Socket socket, SocketOptions options) throws IOException {
+        this.socket = socket;
+        this.is = new DataInputStream(socket.getInputStream());
+        this.maxFrameSize = options.getMaxFrameSize();
+        this.flushBytes = Math.max(Frames.HEADER_LENGTH, options.getFlushBytes());
+        this.flushDelayNanos = TimeUnit.MICROSECONDS.toNanos(options.getFlushDelayMicros());
+        this.os = new BufferedOutputStream(socket.getOutputStream(), flushBytes);
+        this.queue = new OutboundQueue(options);
+    }
+
+    @Override
+    public void start(ThreadedSocket owner, Executor executor) {
+        this.owner = owner;
+        this.executor = executor;
+        executor.execute(this);
+        scheduleDrain();
+    }
+
+    @Override
+    public void write(ByteBuffer frame) throws IOException {
+        if (socket.isClosed()) throw new SocketException("Socket closed");
+
+        queue.offer(frame, true);
+        scheduleDrain();
+    }
+
+    @Override
+    public int getQueuedFrames() {
+        return queue.size();
+    }
+
+    private void scheduleDrain() {
+        if (executor != null && queue.size() > 0 && draining.compareAndSet(false, true))
+            executor.execute(this::drain);
+    }
+
+    /**
+     * Write queued frames until the queue is empty
+     *
+     * The buffer is written whenever it fills up, and once the queue is empty and the oldest
+     * unwritten frame has waited for flushDelayMicros.
+     * Closing the socket on a write error ends the read loop, which notifies the owner.
+     */
+    private void drain() {
+        try {
+            SocketMetrics metrics = SocketMetrics.get();
+            ByteBuffer[] batch = new ByteBuffer[MAX_BATCH_FRAMES];
+            long buffered = 0;
+            long firstBuffered = 0;
+            // Full buffers are written by os.write, the time is added to that of the flush
+            long writeNanos = 0;
+            while (true) {
+                int count = queue.drainTo(batch, flushBytes);
+                if (count == 0) {
+                    long waited = System.nanoTime() - firstBuffered;
+                    if (buffered > 0 && waited < flushDelayNanos && queue.awaitFrame(flushDelayNanos - waited)) continue;
+                    break;
+                }
+
+                long start = System.nanoTime();
+                if (buffered == 0) firstBuffered = start;
+                for (int i = 0; i < count; i++) {
+                    ByteBuffer frame = batch[i];
+                    batch[i] = null;
+                    buffered += frame.remaining();
+                    os.write(frame.array(), frame.arrayOffset() + frame.position(), frame.remaining());
+                    metrics.frameOut();
+                }
+                writeNanos += System.nanoTime() - start;
+                if (buffered >= flushBytes) {
+                    flush(buffered, writeNanos);
+                    buffered = 0;
+                    writeNanos = 0;
+                }
+            }
+            if (buffered > 0) flush(buffered, writeNanos);
+        } catch (IOException e) {
+            queue.clear();
+            try {
+                socket.close();
+            } catch (IOException ignored) {
+            }
+        } finally {
+            draining.set(false);
+        }
+
+        // A frame may have been queued after the last poll but before draining was reset
+        scheduleDrain();
+    }
+
+    private void flush(long bytes, long writeNanos) throws IOException {
+        long start = System.nanoTime();
+        os.flush();
+        SocketMetrics.get().writeSince(start - writeNanos, bytes);
+    }
+
+    @Override
+    public void close() throws IOException {
+        socket.close();
+        queue.clear();
+    }
+
+    /**
+     * The worker that reads frames from the socket and hands them to the owner
+     */
+    @Override
+    public void run() {
+        // Reused for every frame, the owner only reads it during onFrame
+        byte[] buffer = new byte[INITIAL_BUFFER_SIZE];
+        while (!Thread.currentThread().isInterrupted() && socket.isConnected()) {
+            ByteBuffer raw;
+            ByteBuffer hmac;
+            try {
+                int length = is.readInt(); // read length of incoming message
+                int lengthHmac = is.readInt(); // read length of incoming hmac
+                if (!Frames.isAcceptable(length, lengthHmac, maxFrameSize)) {
+                    SocketMetrics.get().oversizedFrame();
+                    System.out.println("Closing a connection that sent a frame of " + ((long) length + lengthHmac) + " bytes.");
+                    break;
+                }
+
+                int frameLength = length + lengthHmac;
+                // Stop reading while over the rate limit, the rest of the frame waits in the socket
+                for (long pause = owner.admitFrame(Frames.HEADER_LENGTH + frameLength); pause > 0; pause = owner.admitFrame(Frames.HEADER_LENGTH + frameLength))
+                    Thread.sleep(pause);
+
+                if (frameLength > buffer.length) buffer = new byte[frameLength];
+
+                is.readFully(buffer, 0, frameLength); // read the message and hmac
+                raw = ByteBuffer.wrap(buffer, 0, length);
+                hmac = ByteBuffer.wrap(buffer, length, lengthHmac);
+            } catch (SocketTimeoutException | EOFException | InterruptedException e) {
+                break;
+            } catch (SocketException e) {
+                // Socket disconnected
+                if (e.getMessage().equals("Connection reset") || e.getMessage().equals("Socket closed"))
+                    break;
+
+                // Other SocketException type
+                e.printStackTrace();
+                break;
+            } catch (IOException e) {
+                e.printStackTrace();
+                break;
+            }
+
+            if (!owner.onFrame(raw, hmac)) break;
+        }
+
+        owner.onClosed();
+    }
+}
@@ -0,0 +1,159 @@
+package chat.socket;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The process-wide pool of direct buffers that frames are read into.
+ *
+ * Buffers come in power of two size classes from MIN_BUFFER_SIZE to MAX_BUFFER_SIZE. Each class
+ * carves its buffers out of slabs, large direct buffers that are allocated once and never
+ * freed, so reading a frame neither allocates nor leaves garbage behind. Once the slabs add up
+ * to the memory limit, or for buffers larger than the largest class, plain heap buffers are
+ * handed out instead and left to the garbage collector.
+ */
+public final class BufferPool {
+    static final int MIN_BUFFER_SIZE = 4 * 1024;
+    static final int MAX_BUFFER_SIZE = 1024 * 1024;
+    private static final int SLAB_SIZE = 1024 * 1024;
+    private static final long MAX_SLAB_BYTES = 64L * 1024 * 1024;
+
+    private static final BufferPool SHARED = new BufferPool(MAX_SLAB_BYTES);
+
+    private final SizeClass[] classes;
+    private final long maxSlabBytes;
+    private final AtomicLong slabBytes = new AtomicLong();
+    private final AtomicInteger inUse = new AtomicInteger();
+
+    BufferPool(long maxSlabBytes) {
+        this.maxSlabBytes = maxSlabBytes;
+        int count = Integer.numberOfTrailingZeros(MAX_BUFFER_SIZE / MIN_BUFFER_SIZE) + 1;
+        this.classes = new SizeClass[count];
+        for (int i = 0; i < count; i++) classes[i] = new SizeClass(MIN_BUFFER_SIZE << i);
+    }
+
+    /**
+     * Get the shared pool
+     *
+     * @return The pool
+     */
+    public static BufferPool get() {
+        return SHARED;
+    }
+
+    /**
+     * Take a buffer with at least the given capacity, cleared
+     *
+     * @param capacity The minimum capacity
+     * @return The buffer, release it once it isn't used anymore
+     */
+    PooledBuffer acquire(int capacity) {
+        inUse.incrementAndGet();
+        SizeClass sizeClass = classFor(capacity);
+        if (sizeClass == null) return new PooledBuffer(ByteBuffer.allocate(capacity), null);
+
+        ByteBuffer buffer = sizeClass.take();
+        return buffer == null ? new PooledBuffer(ByteBuffer.allocate(sizeClass.size), null) : new PooledBuffer(buffer, sizeClass);
+    }
+
+    private SizeClass classFor(int capacity) {
+        if (capacity > MAX_BUFFER_SIZE) return null;
+        if (capacity <= MIN_BUFFER_SIZE) return classes[0];
+
+        // The index of the smallest power of two that fits, counted from MIN_BUFFER_SIZE
+        int bits = 32 - Integer.numberOfLeadingZeros(capacity - 1);
+        return classes[bits - Integer.numberOfTrailingZeros(MIN_BUFFER_SIZE)];
+    }
+
+    /**
+     * Get the memory taken by the slabs
+     *
+     * @return The size of all slabs in bytes
+     */
+    public long getSlabBytes() {
+        return slabBytes.get();
+    }
+
+    /**
+     * Get the number of buffers that have been acquired and not released yet
+     *
+     * @return The buffers in use
+     */
+    public int getBuffersInUse() {
+        return inUse.get();
+    }
+
+    /**
+     * The free buffers of one size.
+     */
+    private final class SizeClass {
+        private final int size;
+        private final ArrayDeque<ByteBuffer> free = new ArrayDeque<>();
+
+        private SizeClass(int size) {
+            this.size = size;
+        }
+
+        private synchronized ByteBuffer take() {
+            ByteBuffer buffer = free.poll();
+            if (buffer != null || !reserveSlab()) return buffer;
+
+            ByteBuffer slab = ByteBuffer.allocateDirect(SLAB_SIZE);
+            for (int offset = 0; offset < SLAB_SIZE; offset += size) {
+                slab.limit(offset + size).position(offset);
+                free.add(slab.slice());
+            }
+            return free.poll();
+        }
+
+        private synchronized void give(ByteBuffer buffer) {
+            buffer.clear();
+            free.push(buffer);
+        }
+
+        private boolean reserveSlab() {
+            long current;
+            do {
+                current = slabBytes.get();
+                if (current + SLAB_SIZE > maxSlabBytes) return false;
+            } while (!slabBytes.compareAndSet(current, current + SLAB_SIZE));
+            return true;
+        }
+    }
+
+    /**
+     * A buffer taken from the pool.
+     *
+     * The buffer has a single holder at a time, it goes back to the pool once the holder
+     * releases it and must not be used after that. Frames that outlive the read are copied
+     * into a buffer of their own rather than shared.
+     */
+    final class PooledBuffer {
+        private final ByteBuffer buffer;
+        private final SizeClass owner;
+        private final AtomicBoolean released = new AtomicBoolean();
+
+        private PooledBuffer(ByteBuffer buffer, SizeClass owner) {
+            this.buffer = buffer;
+            this.owner = owner;
+        }
+
+        ByteBuffer buffer() {
+            return buffer;
+        }
+
+        /**
+         * Give the buffer back to the pool
+         */
+        void release() {
+            if (!released.compareAndSet(false, true))
+                throw new IllegalStateException("The buffer was already released.");
+
+            inUse.decrementAndGet();
+            if (owner != null) owner.give(buffer);
+        }
+    }
+}
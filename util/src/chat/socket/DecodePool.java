@@ -0,0 +1,41 @@
+package chat.socket;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * The process-wide pool that verifies, decrypts and decodes incoming frames.
+ *
+ * One daemon thread per core, shared by every connection that has parallelDecode turned on, so
+ * a few busy connections can use all of the cores while the transports' threads only cut the
+ * stream into frames. The queue is bounded, once it is full the transport's thread decodes the
+ * frame itself, which slows down reading instead of letting frames pile up in memory.
+ */
+final class DecodePool {
+    private static final int THREADS = Runtime.getRuntime().availableProcessors();
+    private static final AtomicInteger COUNTER = new AtomicInteger();
+
+    private static final ThreadPoolExecutor EXECUTOR = new ThreadPoolExecutor(
+            THREADS, THREADS, 0, TimeUnit.MILLISECONDS, new ArrayBlockingQueue<>(THREADS * 256),
+            runnable -> {
+                Thread thread = new Thread(runnable, "frame-decoder-" + COUNTER.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            },
+            new ThreadPoolExecutor.CallerRunsPolicy());
+
+    private DecodePool() {
+    }
+
+    /**
+     * Get the shared pool
+     *
+     * @return The pool
+     */
+    static Executor get() {
+        return EXECUTOR;
+    }
+}
@@ -0,0 +1,112 @@
+package chat.socket;
+
+import java.io.IOException;
+import java.nio.channels.ClosedSelectorException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * A single selector thread.
+ *
+ * Dispatches readiness events to the NioTransport attached to each selection key and runs
+ * tasks submitted from other threads, such as registrations and write requests.
+ *
+ * An exception thrown while handling a key only closes that key's connection and a failed
+ * task is only logged, the loop keeps serving the other connections either way.
+ */
+class EventLoop extends Thread {
+    private final Selector selector;
+    private final Queue<Runnable> tasks = new ConcurrentLinkedQueue<>();
+    private volatile boolean running = true;
+
+    EventLoop(String name) throws IOException {
+        super(name);
+        this.selector = Selector.open();
+    }
+
+    Selector getSelector() {
+        return selector;
+    }
+
+    /**
+     * Run a task on the loop thread
+     *
+     * @param task The task to run
+     */
+    void execute(Runnable task) {
+        tasks.add(task);
+        selector.wakeup();
+    }
+
+    /**
+     * Stop the loop and close every channel registered with it
+     */
+    void shutdown() {
+        running = false;
+        selector.wakeup();
+    }
+
+    @Override
+    public void run() {
+        try {
+            while (running) {
+                selector.select();
+                runTasks();
+
+                Iterator<SelectionKey> iter = selector.selectedKeys().iterator();
+                while (iter.hasNext()) {
+                    SelectionKey key = iter.next();
+                    iter.remove();
+
+                    NioTransport transport = (NioTransport) key.attachment();
+                    try {
+                        if (key.isValid() && key.isReadable()) transport.handleRead();
+                        if (key.isValid() && key.isWritable()) transport.handleWrite();
+                    } catch (RuntimeException e) {
+                        e.printStackTrace();
+                        close(transport);
+                    }
+                }
+            }
+        } catch (IOException | ClosedSelectorException e) {
+            e.printStackTrace();
+        } finally {
+            for (SelectionKey key : new ArrayList<>(selector.keys())) {
+                close((NioTransport) key.attachment());
+            }
+            try {
+                selector.close();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+    }
+
+    /**
+     * Close a connection, even if its disconnect listener throws
+     *
+     * @param transport The connection
+     */
+    private static void close(NioTransport transport) {
+        try {
+            transport.closeNow();
+        } catch (RuntimeException e) {
+            e.printStackTrace();
+        }
+    }
+
+    private void runTasks() {
+        Runnable task;
+        while ((task = tasks.poll()) != null) {
+            try {
+                task.run();
+            } catch (RuntimeException e) {
+                e.printStackTrace();
+            }
+        }
+    }
+}
@@ -0,0 +1,51 @@
+package chat.socket;
+
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * The EventLoopGroup class.
+ *
+ * A small, fixed pool of selector threads shared by every NIO ThreadedSocket. Connections
+ * are assigned to the loops in a round-robin fashion and stay on the same loop for their
+ * whole lifetime, so all of a connection's reads and listener calls happen on one thread.
+ */
+public class EventLoopGroup {
+    private final EventLoop[] loops;
+    private final AtomicInteger next = new AtomicInteger();
+
+    /**
+     * The EventLoopGroup constructor.
+     *
+     * @param threads The number of selector threads to start
+     * @throws IOException Throws when a selector could not be opened
+     */
+    public EventLoopGroup(int threads) throws IOException {
+        if (threads < 1)
+            throw new IllegalArgumentException("An event loop group needs at least one thread.");
+
+        this.loops = new EventLoop[threads];
+        for (int i = 0; i < threads; i++) {
+            loops[i] = new EventLoop("chat-event-loop-" + i);
+            loops[i].start();
+        }
+    }
+
+    /**
+     * Get the loop the next connection should be registered with
+     *
+     * @return An event loop
+     */
+    EventLoop next() {
+        return loops[Math.floorMod(next.getAndIncrement(), loops.length)];
+    }
+
+    /**
+     * Stop all of the event loops, connections still registered with them are closed
+     */
+    public void shutdown() {
+        for (EventLoop loop : loops) {
+            loop.shutdown();
+        }
+    }
+}
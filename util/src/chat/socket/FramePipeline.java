@@ -0,0 +1,170 @@
+package chat.socket;
+
+import chat.encryption.EncryptionException;
+import chat.messages.MalformedMessageException;
+import chat.messages.Message;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * Opens the frames of one connection in parallel and hands the messages over in order.
+ *
+ * The transport's thread copies every frame into a pooled buffer and queues it on the
+ * executor, where it is verified, decrypted and decoded. Frames finish in any order, so they
+ * wait in the order they were read until the frames before them are done. Whichever thread
+ * finishes the oldest frame dispatches it and every finished frame after it, one thread at a
+ * time, so the socket's listener still sees the messages of the connection one by one and in
+ * the order they were sent. Closing the connection queues behind the last frame as well, the
+ * disconnect listener is only called once every message before it was dispatched.
+ */
+final class FramePipeline {
+    private final ThreadedSocket owner;
+    private final Executor executor;
+    // The frames in the order they were read, guarded by itself
+    private final ArrayDeque<Frame> pending = new ArrayDeque<>();
+    private boolean draining;
+    private volatile boolean failed;
+
+    /**
+     * The FramePipeline constructor.
+     *
+     * @param owner The socket the frames belong to
+     * @param executor Opens the frames
+     */
+    FramePipeline(ThreadedSocket owner, Executor executor) {
+        this.owner = owner;
+        this.executor = executor;
+    }
+
+    /**
+     * Queue a frame read by the transport
+     *
+     * @param raw The cipher text, only read during the call
+     * @param hmac The hmac sent along with the cipher text, only read during the call
+     * @return False if an earlier frame failed and the connection should be closed
+     */
+    boolean submit(ByteBuffer raw, ByteBuffer hmac) {
+        if (failed) return false;
+
+        int rawLength = raw.remaining();
+        BufferPool.PooledBuffer copy = BufferPool.get().acquire(rawLength + hmac.remaining());
+        copy.buffer().put(raw).put(hmac).flip();
+
+        Frame frame = new Frame(copy, rawLength);
+        synchronized (pending) {
+            pending.add(frame);
+        }
+        try {
+            executor.execute(frame::open);
+        } catch (RejectedExecutionException e) {
+            // Leaving the frame queued would hold its buffer and every frame after it forever
+            System.out.println("Closing a connection, its frame could not be queued for decoding: " + e.getMessage());
+            frame.reject();
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Queue the end of the connection behind the frames that are still being opened
+     */
+    void close() {
+        Frame end = new Frame(null, 0);
+        end.done = true;
+        synchronized (pending) {
+            pending.add(end);
+        }
+        drain();
+    }
+
+    /**
+     * Dispatch the finished frames at the head of the queue, unless another thread already is
+     */
+    private void drain() {
+        synchronized (pending) {
+            if (draining) return;
+            draining = true;
+        }
+
+        while (true) {
+            Frame frame;
+            synchronized (pending) {
+                frame = pending.peek();
+                if (frame == null || !frame.done) {
+                    draining = false;
+                    return;
+                }
+                pending.poll();
+            }
+
+            if (frame.buffer == null) {
+                owner.closed();
+            } else if (frame.broken && !failed) {
+                fail();
+            } else if (frame.message != null && !failed) {
+                try {
+                    owner.dispatch(frame.message);
+                } catch (RuntimeException e) {
+                    e.printStackTrace();
+                    fail();
+                }
+            }
+        }
+    }
+
+    /**
+     * Drop the remaining frames and close the connection, the transport then closes the pipeline
+     */
+    private void fail() {
+        failed = true;
+        owner.disconnect();
+    }
+
+    /**
+     * A frame waiting to be opened or dispatched.
+     */
+    private final class Frame {
+        private final BufferPool.PooledBuffer buffer;
+        private final int rawLength;
+        private Message message;
+        private boolean broken;
+        private volatile boolean done;
+
+        private Frame(BufferPool.PooledBuffer buffer, int rawLength) {
+            this.buffer = buffer;
+            this.rawLength = rawLength;
+        }
+
+        private void open() {
+            try {
+                if (!failed) {
+                    ByteBuffer frame = buffer.buffer();
+                    ByteBuffer raw = frame.duplicate().limit(rawLength);
+                    ByteBuffer hmac = frame.duplicate().position(rawLength);
+                    message = owner.openFrame(raw, hmac);
+                }
+            } catch (EncryptionException | MalformedMessageException | RuntimeException e) {
+                e.printStackTrace();
+                broken = true;
+            } finally {
+                buffer.release();
+            }
+
+            done = true;
+            drain();
+        }
+
+        /**
+         * Give up on the frame without opening it, which closes the connection once it is dispatched
+         */
+        private void reject() {
+            broken = true;
+            buffer.release();
+            done = true;
+            drain();
+        }
+    }
+}
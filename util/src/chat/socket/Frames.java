@@ -0,0 +1,126 @@
+package chat.socket;
+
+import chat.encryption.CipherSuite;
+import chat.encryption.CryptoManager;
+import chat.encryption.EncryptionException;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * Builds and opens the frames sent through the socket.
+ *
+ * A frame is the length of the cipher text, the length of the hmac, the cipher text and
+ * the hmac. Frames sealed with an AEAD suite carry the authentication tag inside the cipher
+ * text, so their hmac is empty.
+ */
+final class Frames {
+    static final int HEADER_LENGTH = 8;
+
+    private Frames() {
+    }
+
+    /**
+     * Encrypt and authenticate the plain text into a complete frame
+     *
+     * @param cryptoManager The keys to seal the frame with
+     * @param suite The cipher suite to seal the frame with
+     * @param plaintext The encoded message
+     * @return The frame, ready to be written
+     * @throws EncryptionException Throws when encrypting or generating the hmac fails
+     */
+    static ByteBuffer seal(CryptoManager cryptoManager, CipherSuite suite, byte[] plaintext) throws EncryptionException {
+        long start = System.nanoTime();
+        try {
+            return sealFrame(cryptoManager, suite, plaintext);
+        } finally {
+            SocketMetrics.get().cryptoSince(start);
+        }
+    }
+
+    private static ByteBuffer sealFrame(CryptoManager cryptoManager, CipherSuite suite, byte[] plaintext) throws EncryptionException {
+        if (!suite.isAead()) {
+            byte[] bytes = cryptoManager.encrypt(plaintext);
+            byte[] hmac = cryptoManager.generateHmac(bytes);
+
+            ByteBuffer frame = ByteBuffer.allocate(HEADER_LENGTH + bytes.length + hmac.length);
+            frame.putInt(bytes.length);
+            frame.putInt(hmac.length);
+            frame.put(bytes);
+            frame.put(hmac);
+            frame.flip();
+            return frame;
+        }
+
+        // Encrypt straight into the frame, the header is written once the length is known
+        int length = cryptoManager.getEncryptedLength(suite, plaintext.length);
+        ByteBuffer frame = ByteBuffer.allocate(HEADER_LENGTH + length);
+        frame.position(HEADER_LENGTH);
+        int written = cryptoManager.encrypt(suite, ByteBuffer.wrap(plaintext), frame);
+        frame.putInt(0, written);
+        frame.putInt(4, 0);
+        frame.flip();
+        return frame;
+    }
+
+    /**
+     * Verify and decrypt the contents of a frame
+     *
+     * The buffers are only read during the call, so transports can pass views of their read buffer.
+     *
+     * @param cryptoManager The keys the frame was sealed with
+     * @param raw The cipher text
+     * @param hmac The hmac sent with the cipher text, empty for AEAD suites
+     * @return The encoded message or null if the integrity of the data could not be verified
+     * @throws EncryptionException Throws when verifying or decrypting fails
+     */
+    static byte[] open(CryptoManager cryptoManager, ByteBuffer raw, ByteBuffer hmac) throws EncryptionException {
+        long start = System.nanoTime();
+        try {
+            return openFrame(cryptoManager, raw, hmac);
+        } finally {
+            SocketMetrics.get().cryptoSince(start);
+        }
+    }
+
+    private static byte[] openFrame(CryptoManager cryptoManager, ByteBuffer raw, ByteBuffer hmac) throws EncryptionException {
+        if (hmac.hasRemaining()) {
+            byte[] bytes = new byte[raw.remaining()];
+            byte[] expected = new byte[hmac.remaining()];
+            raw.get(bytes);
+            hmac.get(expected);
+
+            if (!cryptoManager.checkIntegrity(bytes, expected)) return null;
+            return cryptoManager.decryptBytes(bytes);
+        }
+
+        byte[] plaintext = new byte[cryptoManager.getDecryptedLength(raw)];
+        int length = cryptoManager.decrypt(raw, ByteBuffer.wrap(plaintext));
+        if (length < 0) return null;
+
+        return length == plaintext.length ? plaintext : Arrays.copyOf(plaintext, length);
+    }
+
+    /**
+     * Check the lengths from a frame header, before anything is allocated for the frame
+     *
+     * @param length The length of the cipher text
+     * @param lengthHmac The length of the hmac
+     * @param maxFrameSize The largest cipher text and hmac the connection accepts together
+     * @return False if the frame is malformed or too large and the connection should be closed
+     */
+    static boolean isAcceptable(int length, int lengthHmac, int maxFrameSize) {
+        return length >= 0 && lengthHmac >= 0 && (long) length + lengthHmac <= maxFrameSize;
+    }
+
+    /**
+     * Check if a frame was sealed with session keys rather than the keys from the key file
+     *
+     * @param raw The cipher text
+     * @param hmac The hmac sent with the cipher text
+     * @return If the frame should be opened with the session keys
+     */
+    static boolean isSession(ByteBuffer raw, ByteBuffer hmac) {
+        return !hmac.hasRemaining() && CryptoManager.isSessionData(raw);
+    }
+}
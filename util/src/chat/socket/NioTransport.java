@@ -0,0 +1,283 @@
+package chat.socket;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+import java.util.Arrays;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * The non-blocking transport.
+ *
+ * Frames are read and written by the EventLoop the channel is registered with, so a
+ * connection never owns a thread of its own. Writes from any thread are queued and
+ * flushed by the loop, which hands all the queued frames, up to flushBytes, to the channel
+ * in a single gathering write. With a flushDelayMicros the flush waits that long after the
+ * first queued frame so the frames of a burst go out together, unless flushBytes are queued
+ * before then.
+ *
+ * A connection over its rate limit isn't read from until its pause is over: OP_READ is
+ * dropped from the key, the frames already read wait in the read buffer and the rest waits
+ * in the socket's receive buffer, so TCP slows the client down.
+ */
+class NioTransport implements Transport {
+    private static final int MAX_BATCH_FRAMES = 64;
+
+    private final SocketChannel channel;
+    private final EventLoop loop;
+    private final OutboundQueue queue;
+    private final AtomicBoolean writeScheduled = new AtomicBoolean();
+    private final AtomicBoolean flushDelayed = new AtomicBoolean();
+    private final AtomicBoolean closed = new AtomicBoolean();
+    private final int flushBytes;
+    private final int maxFrameSize;
+    private final long flushDelayNanos;
+
+    private ThreadedSocket owner;
+    private SelectionKey key;
+    // The frames of the gathering write in progress, only used by the loop thread
+    private final ByteBuffer[] writing = new ByteBuffer[MAX_BATCH_FRAMES];
+    private int writingOffset;
+    private int writingCount;
+    private volatile int writingFrames;
+    // Only held while part of a frame is waiting for the rest, so idle connections hold no buffer
+    private BufferPool.PooledBuffer readBuffer;
+    // Reading is paused for the rate limit, only used by the loop thread
+    private boolean readPaused;
+
+    /**
+     * The NioTransport constructor.
+     *
+     * @param channel The connected channel
+     * @param loop The event loop that will service the channel
+     * @param options The socket options
+     * @throws IOException Throws when the channel can't be switched to non-blocking mode
+     */
+    NioTransport(SocketChannel channel, EventLoop loop, SocketOptions options) throws IOException {
+        this.channel = channel;
+        this.loop = loop;
+        this.queue = new OutboundQueue(options);
+        this.maxFrameSize = options.getMaxFrameSize();
+        this.flushBytes = Math.max(Frames.HEADER_LENGTH, options.getFlushBytes());
+        this.flushDelayNanos = TimeUnit.MICROSECONDS.toNanos(options.getFlushDelayMicros());
+        channel.configureBlocking(false);
+    }
+
+    @Override
+    public void start(ThreadedSocket owner, Executor executor) {
+        this.owner = owner;
+        loop.execute(() -> {
+            try {
+                key = channel.register(loop.getSelector(), SelectionKey.OP_READ, this);
+                if (queue.size() > 0) handleWrite();
+            } catch (ClosedChannelException e) {
+                closeNow();
+            }
+        });
+    }
+
+    @Override
+    public void write(ByteBuffer frame) throws IOException {
+        if (closed.get()) throw new ClosedChannelException();
+
+        // The loop thread must never wait for space, it is the one that makes space
+        queue.offer(frame, Thread.currentThread() != loop);
+        if (flushDelayNanos > 0 && queue.bytes() < flushBytes) {
+            if (!writeScheduled.get() && flushDelayed.compareAndSet(false, true))
+                SharedScheduler.get().schedule(this::delayedFlush, flushDelayNanos, TimeUnit.NANOSECONDS);
+        } else {
+            scheduleWrite();
+        }
+    }
+
+    private void delayedFlush() {
+        flushDelayed.set(false);
+        scheduleWrite();
+    }
+
+    private void scheduleWrite() {
+        if (writeScheduled.compareAndSet(false, true))
+            loop.execute(this::handleWrite);
+    }
+
+    @Override
+    public int getQueuedFrames() {
+        return queue.size() + writingFrames;
+    }
+
+    @Override
+    public void close() {
+        if (!closed.get())
+            loop.execute(this::closeNow);
+    }
+
+    /**
+     * Read whatever is available and hand every complete frame to the owner
+     *
+     * Frames are read into a buffer from the BufferPool, which goes back to the pool as soon as
+     * it holds no partial frame. The owner only reads the frames during onFrame and copies what
+     * it keeps, so the buffer can be compacted or released right after.
+     * Only called from the event loop thread.
+     */
+    void handleRead() {
+        if (readPaused) return;
+
+        if (readBuffer == null) readBuffer = BufferPool.get().acquire(BufferPool.MIN_BUFFER_SIZE);
+        try {
+            if (channel.read(readBuffer.buffer()) < 0) {
+                closeNow();
+                return;
+            }
+        } catch (IOException e) {
+            closeNow();
+            return;
+        }
+
+        processFrames();
+    }
+
+    /**
+     * Hand every complete frame in the read buffer to the owner, until the rate limit pauses reading
+     *
+     * Only called from the event loop thread.
+     */
+    private void processFrames() {
+        ByteBuffer buffer = readBuffer.buffer();
+        buffer.flip();
+        while (buffer.remaining() >= Frames.HEADER_LENGTH) {
+            int start = buffer.position();
+            int length = buffer.getInt(start);
+            int lengthHmac = buffer.getInt(start + 4);
+            if (!Frames.isAcceptable(length, lengthHmac, maxFrameSize)) {
+                SocketMetrics.get().oversizedFrame();
+                System.out.println("Closing a connection that sent a frame of " + ((long) length + lengthHmac) + " bytes.");
+                closeNow();
+                return;
+            }
+            int frameLength = Frames.HEADER_LENGTH + length + lengthHmac;
+
+            if (buffer.remaining() < frameLength) {
+                if (frameLength > buffer.capacity()) {
+                    BufferPool.PooledBuffer larger = BufferPool.get().acquire(frameLength);
+                    larger.buffer().put(buffer);
+                    readBuffer.release();
+                    readBuffer = larger;
+                    return;
+                }
+                break;
+            }
+
+            long pause = owner.admitFrame(frameLength);
+            if (pause > 0) {
+                pauseReading(pause);
+                break;
+            }
+
+            // Hand over views of the read buffer rather than copies
+            ByteBuffer raw = buffer.duplicate();
+            raw.position(start + Frames.HEADER_LENGTH).limit(start + Frames.HEADER_LENGTH + length);
+            ByteBuffer hmac = buffer.duplicate();
+            hmac.position(start + Frames.HEADER_LENGTH + length).limit(start + frameLength);
+            buffer.position(start + frameLength);
+
+            if (!owner.onFrame(raw, hmac)) {
+                closeNow();
+                return;
+            }
+            if (closed.get()) return;
+        }
+
+        if (buffer.hasRemaining()) {
+            buffer.compact();
+        } else {
+            readBuffer.release();
+            readBuffer = null;
+        }
+    }
+
+    private void pauseReading(long pauseMillis) {
+        readPaused = true;
+        key.interestOps(key.interestOps() & ~SelectionKey.OP_READ);
+        SharedScheduler.get().schedule(() -> loop.execute(this::resumeReading), pauseMillis, TimeUnit.MILLISECONDS);
+    }
+
+    private void resumeReading() {
+        if (closed.get()) return;
+
+        readPaused = false;
+        key.interestOps(key.interestOps() | SelectionKey.OP_READ);
+        if (readBuffer != null) processFrames();
+    }
+
+    private int readOps() {
+        return readPaused ? 0 : SelectionKey.OP_READ;
+    }
+
+    /**
+     * Write as many queued frames as the channel accepts, waiting for OP_WRITE if the
+     * socket buffer fills up
+     *
+     * Only called from the event loop thread.
+     */
+    void handleWrite() {
+        writeScheduled.set(false);
+        if (key == null || closed.get()) return;
+
+        SocketMetrics metrics = SocketMetrics.get();
+        try {
+            while (true) {
+                if (writingOffset == writingCount) {
+                    writingOffset = 0;
+                    writingCount = queue.drainTo(writing, flushBytes);
+                    writingFrames = writingCount;
+                    if (writingCount == 0) break;
+                }
+
+                long start = System.nanoTime();
+                long written = channel.write(writing, writingOffset, writingCount - writingOffset);
+                metrics.writeSince(start, written);
+                while (writingOffset < writingCount && !writing[writingOffset].hasRemaining()) {
+                    writing[writingOffset++] = null;
+                    writingFrames--;
+                    metrics.frameOut();
+                }
+                if (writingOffset < writingCount) {
+                    key.interestOps(readOps() | SelectionKey.OP_WRITE);
+                    return;
+                }
+            }
+            key.interestOps(readOps());
+        } catch (IOException e) {
+            closeNow();
+        }
+    }
+
+    /**
+     * Close the channel and notify the owner
+     *
+     * Only called from the event loop thread.
+     */
+    void closeNow() {
+        if (!closed.compareAndSet(false, true)) return;
+
+        if (key != null) key.cancel();
+        try {
+            channel.close();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        queue.clear();
+        if (readBuffer != null) {
+            readBuffer.release();
+            readBuffer = null;
+        }
+        Arrays.fill(writing, null);
+        writingOffset = writingCount = writingFrames = 0;
+
+        if (owner != null) owner.onClosed();
+    }
+}
@@ -0,0 +1,189 @@
+package chat.socket;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * The bounded queue of frames waiting to be written to a connection.
+ *
+ * Any thread may offer frames, a single writer takes them. A frame that has been taken is
+ * owned by the writer, so dropping frames never cuts a partially written frame. The writer
+ * can take several frames at once to write them with a single system call.
+ */
+class OutboundQueue {
+    private final ArrayDeque<ByteBuffer> frames = new ArrayDeque<>();
+    private final int capacity;
+    private final OverflowPolicy policy;
+    private final long blockTimeoutNanos;
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition notFull = lock.newCondition();
+    private final Condition notEmpty = lock.newCondition();
+    private volatile int size;
+    private volatile long bytes;
+
+    OutboundQueue(SocketOptions options) {
+        this.capacity = Math.max(1, options.getOutboundQueueSize());
+        this.policy = options.getOverflowPolicy();
+        this.blockTimeoutNanos = TimeUnit.MILLISECONDS.toNanos(options.getBlockTimeoutMillis());
+    }
+
+    /**
+     * Add a frame to the end of the queue, applying the overflow policy when it is full
+     *
+     * @param frame The frame to write
+     * @param mayBlock If the calling thread may wait for space
+     * @throws SlowConsumerException Throws when the frame was rejected and the connection should be closed
+     */
+    void offer(ByteBuffer frame, boolean mayBlock) throws SlowConsumerException {
+        lock.lock();
+        try {
+            if (frames.size() >= capacity) {
+                switch (policy) {
+                    case DROP_OLDEST:
+                        bytes -= frames.poll().remaining();
+                        break;
+                    case BLOCK:
+                        // Timed out or not allowed to wait, disconnect instead
+                        if (!(mayBlock && awaitSpace()))
+                            throw new SlowConsumerException("The outbound queue is full (" + capacity + " frames).");
+                        break;
+                    default:
+                        throw new SlowConsumerException("The outbound queue is full (" + capacity + " frames).");
+                }
+            }
+
+            frames.add(frame);
+            size = frames.size();
+            bytes += frame.remaining();
+            notEmpty.signal();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Take the next frame to write
+     *
+     * @return The frame or null if the queue is empty
+     */
+    ByteBuffer poll() {
+        lock.lock();
+        try {
+            ByteBuffer frame = frames.poll();
+            size = frames.size();
+            if (frame != null) bytes -= frame.remaining();
+            notFull.signal();
+            return frame;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Take the next frames to write, as many as fit in the array and the byte limit
+     *
+     * The first frame is always taken, even if it is larger than the limit.
+     *
+     * @param batch The array to put the frames in, from index 0
+     * @param maxBytes The maximum number of bytes to take
+     * @return The number of frames taken, 0 if the queue is empty
+     */
+    int drainTo(ByteBuffer[] batch, long maxBytes) {
+        lock.lock();
+        try {
+            int count = 0;
+            long taken = 0;
+            ByteBuffer frame;
+            while (count < batch.length && (frame = frames.peek()) != null) {
+                if (count > 0 && taken + frame.remaining() > maxBytes) break;
+
+                frames.poll();
+                taken += frame.remaining();
+                batch[count++] = frame;
+            }
+            if (count > 0) {
+                size = frames.size();
+                bytes -= taken;
+                notFull.signalAll();
+            }
+            return count;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Wait for a frame to be queued
+     *
+     * @param timeoutNanos The longest to wait
+     * @return False if the queue is still empty
+     */
+    boolean awaitFrame(long timeoutNanos) {
+        lock.lock();
+        try {
+            long remaining = timeoutNanos;
+            while (frames.isEmpty()) {
+                if (remaining <= 0) return false;
+                remaining = notEmpty.awaitNanos(remaining);
+            }
+            return true;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Drop every queued frame and wake up any blocked senders
+     */
+    void clear() {
+        lock.lock();
+        try {
+            frames.clear();
+            size = 0;
+            bytes = 0;
+            notFull.signalAll();
+            notEmpty.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Get the number of frames waiting to be written
+     *
+     * @return The queue depth
+     */
+    int size() {
+        return size;
+    }
+
+    /**
+     * Get the number of bytes waiting to be written
+     *
+     * @return The size of the queued frames
+     */
+    long bytes() {
+        return bytes;
+    }
+
+    private boolean awaitSpace() {
+        long remaining = blockTimeoutNanos;
+        try {
+            while (frames.size() >= capacity) {
+                if (remaining <= 0) return false;
+                remaining = notFull.awaitNanos(remaining);
+            }
+            return true;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+}
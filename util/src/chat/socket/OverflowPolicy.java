@@ -0,0 +1,23 @@
+package chat.socket;
+
+/**
+ * What a socket does when its outbound queue is full.
+ */
+public enum OverflowPolicy {
+    /**
+     * Drop the oldest frame that hasn't started being written yet
+     */
+    DROP_OLDEST,
+
+    /**
+     * Disconnect the slow consumer
+     */
+    DISCONNECT,
+
+    /**
+     * Make the sending thread wait for space, for at most the configured block timeout. Falls
+     * back to disconnecting when the wait times out or when the sender is the thread that would
+     * have to drain the queue.
+     */
+    BLOCK
+}
@@ -0,0 +1,130 @@
+package chat.socket;
+
+import chat.encryption.CipherSuite;
+import chat.encryption.CryptoManager;
+import chat.encryption.EncryptionException;
+import chat.messages.Message;
+import chat.messages.MessageCodec;
+import chat.messages.MessageCompression;
+
+import java.nio.ByteBuffer;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * A message that is about to be sent to many sockets.
+ *
+ * The message is encoded and compressed once per codec and sealed once per suite and set of keys,
+ * sockets that share all of them get the exact same frame. Sending one to N clients that share a CryptoManager costs one
+ * serialization, one encryption and one hmac instead of N of each. Connections with session
+ * keys each have keys of their own, the message is still only serialized once for them.
+ *
+ * The message must not be modified after it has been sent.
+ */
+public class PreparedMessage {
+    private final Message message;
+    private final Map<MessageCodec, byte[]> encoded = new ConcurrentHashMap<>(4);
+    private final Map<MessageCodec, byte[]> compressed = new ConcurrentHashMap<>(4);
+    private final Map<FrameKey, ByteBuffer> frames = new ConcurrentHashMap<>(4);
+
+    /**
+     * The PreparedMessage constructor.
+     *
+     * @param message The message to send
+     */
+    public PreparedMessage(Message message) {
+        this.message = message;
+    }
+
+    public Message getMessage() {
+        return message;
+    }
+
+    /**
+     * Get the frame for a socket using the given codec, compression, suite and keys, building it on first use
+     *
+     * @param codec The socket's codec
+     * @param compressionThreshold The smallest message the socket compresses
+     * @param suite The socket's cipher suite
+     * @param cryptoManager The socket's keys
+     * @return A view of the frame with its own position, ready to be written
+     * @throws EncryptionException Throws when sealing the frame fails
+     */
+    ByteBuffer frame(MessageCodec codec, int compressionThreshold, CipherSuite suite, CryptoManager cryptoManager) throws EncryptionException {
+        byte[] plaintext = encode(codec);
+        boolean compress = plaintext.length >= compressionThreshold;
+        if (compress) plaintext = compress(codec, plaintext);
+
+        // Session keys belong to a single socket, so there is nobody to share the frame with
+        if (cryptoManager.isSession())
+            return Frames.seal(cryptoManager, suite, plaintext);
+
+        FrameKey key = new FrameKey(codec, compress, suite, cryptoManager);
+        ByteBuffer frame = frames.get(key);
+        if (frame == null) {
+
+            // Two threads may seal the same frame at once, either result is fine to send
+            frame = Frames.seal(cryptoManager, suite, plaintext);
+            ByteBuffer existing = frames.putIfAbsent(key, frame);
+            if (existing != null) frame = existing;
+        }
+
+        return frame.duplicate();
+    }
+
+    private byte[] encode(MessageCodec codec) {
+        byte[] plaintext = encoded.get(codec);
+        if (plaintext != null) return plaintext;
+
+        return encoded.computeIfAbsent(codec, c -> {
+            long start = System.nanoTime();
+            byte[] bytes = c.encode(message);
+            SocketMetrics.get().serializationSince(start);
+            return bytes;
+        });
+    }
+
+    private byte[] compress(MessageCodec codec, byte[] plaintext) {
+        byte[] bytes = compressed.get(codec);
+        if (bytes != null) return bytes;
+
+        // The threshold was already checked, every socket that gets here wants it compressed
+        return compressed.computeIfAbsent(codec, c -> {
+            byte[] result = MessageCompression.compress(plaintext, 0);
+            if (result != plaintext) SocketMetrics.get().compressed(plaintext.length, result.length);
+            return result;
+        });
+    }
+
+    /**
+     * Identifies frames by the identity of the codec, suite and keys used to build them, and
+     * whether the message was compressed
+     */
+    private static class FrameKey {
+        private final MessageCodec codec;
+        private final boolean compressed;
+        private final CipherSuite suite;
+        private final CryptoManager cryptoManager;
+
+        FrameKey(MessageCodec codec, boolean compressed, CipherSuite suite, CryptoManager cryptoManager) {
+            this.codec = codec;
+            this.compressed = compressed;
+            this.suite = suite;
+            this.cryptoManager = cryptoManager;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof FrameKey)) return false;
+
+            FrameKey other = (FrameKey) o;
+            return codec == other.codec && compressed == other.compressed && suite == other.suite && cryptoManager == other.cryptoManager;
+        }
+
+        @Override
+        public int hashCode() {
+            int hash = 31 * System.identityHashCode(codec) + Boolean.hashCode(compressed);
+            return 31 * (31 * hash + suite.hashCode()) + System.identityHashCode(cryptoManager);
+        }
+    }
+}
@@ -0,0 +1,84 @@
+package chat.socket;
+
+/**
+ * Limits the frames and bytes a connection may send per second.
+ *
+ * Two token buckets, one counting frames and one counting bytes, that refill at the configured
+ * rates and hold up to burstMillis worth of tokens. A frame is let through as long as both
+ * buckets have tokens left, even if it takes more than is left, so a frame larger than the
+ * bucket still gets through once the bucket is full. Once a bucket runs dry the connection
+ * has to stop reading until it has refilled.
+ *
+ * Clients that keep sending too fast are made to wait longer each time: every pause in a row
+ * doubles, up to maxPauseMillis. A client that stays quiet until its frame bucket is full
+ * again starts over.
+ *
+ * Only used by the thread reading from the connection.
+ */
+final class RateLimiter {
+    private static final int MAX_STRIKES = 16;
+
+    private final double framesPerNano;
+    private final double bytesPerNano;
+    private final double frameCapacity;
+    private final double byteCapacity;
+    private final long maxPauseMillis;
+
+    private double frames;
+    private double bytes;
+    private long refilledAt;
+    private int strikes;
+
+    /**
+     * The RateLimiter constructor.
+     *
+     * @param framesPerSecond The frames per second, 0 for no limit
+     * @param bytesPerSecond The bytes per second, 0 for no limit
+     * @param burstMillis How many milliseconds worth of frames and bytes may be sent at once
+     * @param maxPauseMillis The longest a connection is made to wait
+     */
+    RateLimiter(int framesPerSecond, int bytesPerSecond, long burstMillis, long maxPauseMillis) {
+        this.framesPerNano = framesPerSecond / 1e9;
+        this.bytesPerNano = bytesPerSecond / 1e9;
+        this.frameCapacity = Math.max(1, framesPerSecond * burstMillis / 1000.0);
+        this.byteCapacity = Math.max(1, bytesPerSecond * burstMillis / 1000.0);
+        this.maxPauseMillis = Math.max(1, maxPauseMillis);
+        this.frames = frameCapacity;
+        this.bytes = byteCapacity;
+        this.refilledAt = System.nanoTime();
+    }
+
+    /**
+     * Check if the rates allow a frame, taking its tokens if they do
+     *
+     * @param length The length of the frame, headers included
+     * @return 0 if the frame may be processed, otherwise how many milliseconds reading should
+     *     be paused before asking again
+     */
+    long admit(int length) {
+        refill(System.nanoTime());
+
+        double frameDeficit = framesPerNano > 0 && frames <= 0 ? (1 - frames) / framesPerNano : 0;
+        double byteDeficit = bytesPerNano > 0 && bytes <= 0 ? (1 - bytes) / bytesPerNano : 0;
+        if (frameDeficit == 0 && byteDeficit == 0) {
+            if (framesPerNano > 0) frames--;
+            if (bytesPerNano > 0) bytes -= length;
+            return 0;
+        }
+
+        if (strikes < MAX_STRIKES) strikes++;
+        long waitMillis = (long) Math.ceil(Math.max(frameDeficit, byteDeficit) / 1e6);
+        long pause = Math.max(1, waitMillis) << (strikes - 1);
+        return pause > 0 && pause < maxPauseMillis ? pause : maxPauseMillis;
+    }
+
+    private void refill(long now) {
+        long elapsed = now - refilledAt;
+        refilledAt = now;
+        if (framesPerNano > 0) frames = Math.min(frameCapacity, frames + elapsed * framesPerNano);
+        if (bytesPerNano > 0) bytes = Math.min(byteCapacity, bytes + elapsed * bytesPerNano);
+
+        boolean rested = (framesPerNano == 0 || frames >= frameCapacity) && (bytesPerNano == 0 || bytes >= byteCapacity);
+        if (rested) strikes = 0;
+    }
+}
@@ -0,0 +1,36 @@
+package chat.socket;
+
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+
+/**
+ * The process-wide scheduler.
+ *
+ * A single daemon thread that runs the periodic work of every connection, such as keepalive
+ * pings and idle timeouts, so the number of timer threads doesn't grow with the number of
+ * connections. Tasks must be short and must not block.
+ */
+public final class SharedScheduler {
+    private static final ScheduledThreadPoolExecutor SCHEDULER = new ScheduledThreadPoolExecutor(1, runnable -> {
+        Thread thread = new Thread(runnable, "chat-scheduler");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    static {
+        // Connections cancel their tasks when they disconnect, don't keep them queued until they are due
+        SCHEDULER.setRemoveOnCancelPolicy(true);
+    }
+
+    private SharedScheduler() {
+    }
+
+    /**
+     * Get the shared scheduler
+     *
+     * @return The scheduler
+     */
+    public static ScheduledExecutorService get() {
+        return SCHEDULER;
+    }
+}
@@ -0,0 +1,14 @@
+package chat.socket;
+
+import java.io.IOException;
+
+/**
+ * Thrown by a transport when a frame can't be queued because the peer isn't reading fast enough.
+ */
+class SlowConsumerException extends IOException {
+    private static final long serialVersionUID = 1L;
+
+    SlowConsumerException(String message) {
+        super(message);
+    }
+}
@@ -0,0 +1,204 @@
+package chat.socket;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * The process-wide socket counters.
+ *
+ * Every ThreadedSocket adds to the same counters: frames and bytes in each direction, the time
+ * spent encrypting and decrypting, encoding and decoding, and writing to the network, and the
+ * number of frames that failed their integrity check. The counters are LongAdders, so sockets
+ * on different threads don't contend on them and they are cheap enough to leave on.
+ *
+ * The counters only ever grow, readers take the difference between two reads to get a rate.
+ */
+public final class SocketMetrics {
+    private static final SocketMetrics INSTANCE = new SocketMetrics();
+
+    private final LongAdder framesIn = new LongAdder();
+    private final LongAdder framesOut = new LongAdder();
+    private final LongAdder bytesIn = new LongAdder();
+    private final LongAdder bytesOut = new LongAdder();
+    private final LongAdder cryptoNanos = new LongAdder();
+    private final LongAdder cryptoOperations = new LongAdder();
+    private final LongAdder serializationNanos = new LongAdder();
+    private final LongAdder serializationOperations = new LongAdder();
+    private final LongAdder writeNanos = new LongAdder();
+    private final LongAdder writeOperations = new LongAdder();
+    private final LongAdder integrityFailures = new LongAdder();
+    private final LongAdder slowConsumers = new LongAdder();
+    private final LongAdder oversizedFrames = new LongAdder();
+    private final LongAdder compressedFrames = new LongAdder();
+    private final LongAdder compressionSavedBytes = new LongAdder();
+    private final LongAdder readPauses = new LongAdder();
+    private final LongAdder readPauseMillis = new LongAdder();
+
+    private SocketMetrics() {
+    }
+
+    /**
+     * Get the counters shared by all sockets
+     *
+     * @return The counters
+     */
+    public static SocketMetrics get() {
+        return INSTANCE;
+    }
+
+    void frameIn(int bytes) {
+        framesIn.increment();
+        bytesIn.add(bytes);
+    }
+
+    void frameOut() {
+        framesOut.increment();
+    }
+
+    void cryptoSince(long startNanos) {
+        cryptoNanos.add(System.nanoTime() - startNanos);
+        cryptoOperations.increment();
+    }
+
+    void serializationSince(long startNanos) {
+        serializationNanos.add(System.nanoTime() - startNanos);
+        serializationOperations.increment();
+    }
+
+    void writeSince(long startNanos, long bytes) {
+        writeNanos.add(System.nanoTime() - startNanos);
+        writeOperations.increment();
+        bytesOut.add(bytes);
+    }
+
+    void integrityFailure() {
+        integrityFailures.increment();
+    }
+
+    void oversizedFrame() {
+        oversizedFrames.increment();
+    }
+
+    void compressed(int before, int after) {
+        compressedFrames.increment();
+        compressionSavedBytes.add(before - after);
+    }
+
+    void readPaused(long millis) {
+        readPauses.increment();
+        readPauseMillis.add(millis);
+    }
+
+    void slowConsumer() {
+        slowConsumers.increment();
+    }
+
+    /**
+     * @return The number of frames read from the network
+     */
+    public long getFramesIn() {
+        return framesIn.sum();
+    }
+
+    /**
+     * @return The number of frames completely written to the network
+     */
+    public long getFramesOut() {
+        return framesOut.sum();
+    }
+
+    /**
+     * @return The number of bytes read from the network, including the frame headers
+     */
+    public long getBytesIn() {
+        return bytesIn.sum();
+    }
+
+    /**
+     * @return The number of bytes written to the network
+     */
+    public long getBytesOut() {
+        return bytesOut.sum();
+    }
+
+    /**
+     * @return The time spent sealing and opening frames in nanoseconds
+     */
+    public long getCryptoNanos() {
+        return cryptoNanos.sum();
+    }
+
+    public long getCryptoOperations() {
+        return cryptoOperations.sum();
+    }
+
+    /**
+     * @return The time spent encoding and decoding messages in nanoseconds
+     */
+    public long getSerializationNanos() {
+        return serializationNanos.sum();
+    }
+
+    public long getSerializationOperations() {
+        return serializationOperations.sum();
+    }
+
+    /**
+     * @return The time spent in socket writes in nanoseconds
+     */
+    public long getWriteNanos() {
+        return writeNanos.sum();
+    }
+
+    public long getWriteOperations() {
+        return writeOperations.sum();
+    }
+
+    /**
+     * @return The number of frames that failed the HMAC or AEAD tag check
+     */
+    public long getIntegrityFailures() {
+        return integrityFailures.sum();
+    }
+
+    /**
+     * @return The number of connections closed because their outbound queue was full
+     */
+    public long getSlowConsumers() {
+        return slowConsumers.sum();
+    }
+
+    /**
+     * @return The number of connections closed because they announced a frame over the maximum frame size
+     */
+    public long getOversizedFrames() {
+        return oversizedFrames.sum();
+    }
+
+    /**
+     * @return The number of messages that were compressed before they were sealed
+     */
+    public long getCompressedFrames() {
+        return compressedFrames.sum();
+    }
+
+    /**
+     * @return The number of bytes compression took off the compressed messages
+     */
+    public long getCompressionSavedBytes() {
+        return compressionSavedBytes.sum();
+    }
+
+    /**
+     * @return The number of times reading from a connection was paused because it went over its rate limit
+     */
+    public long getReadPauses() {
+        return readPauses.sum();
+    }
+
+    /**
+     * @return The milliseconds connections were paused for going over their rate limit, added up
+     */
+    public long getReadPauseMillis() {
+        return readPauseMillis.sum();
+    }
+}
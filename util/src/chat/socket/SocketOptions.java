@@ -0,0 +1,127 @@
+package chat.socket;
+
+/**
+ * The tunable settings of a ThreadedSocket.
+ *
+ * Loaded from the socket section of the configuration file, every setting has a default so
+ * the section can be left out.
+ */
+public class SocketOptions {
+    private int outboundQueueSize = 1024;
+    private OverflowPolicy overflowPolicy = OverflowPolicy.DISCONNECT;
+    private long blockTimeoutMillis = 1000;
+    private long flushDelayMicros = 0;
+    private int flushBytes = 64 * 1024;
+    private int maxFrameSize = 1024 * 1024;
+    private boolean compression = true;
+    private int compressionThreshold = 64;
+    private boolean parallelDecode = false;
+    private int maxFramesPerSecond = 0;
+    private int maxBytesPerSecond = 0;
+    private long rateLimitBurstMillis = 1000;
+    private long maxReadPauseMillis = 5000;
+
+    public int getOutboundQueueSize() {
+        return outboundQueueSize;
+    }
+
+    public void setOutboundQueueSize(int outboundQueueSize) {
+        this.outboundQueueSize = outboundQueueSize;
+    }
+
+    public OverflowPolicy getOverflowPolicy() {
+        return overflowPolicy;
+    }
+
+    public void setOverflowPolicy(OverflowPolicy overflowPolicy) {
+        this.overflowPolicy = overflowPolicy;
+    }
+
+    public long getBlockTimeoutMillis() {
+        return blockTimeoutMillis;
+    }
+
+    public void setBlockTimeoutMillis(long blockTimeoutMillis) {
+        this.blockTimeoutMillis = blockTimeoutMillis;
+    }
+
+    public long getFlushDelayMicros() {
+        return flushDelayMicros;
+    }
+
+    public void setFlushDelayMicros(long flushDelayMicros) {
+        this.flushDelayMicros = flushDelayMicros;
+    }
+
+    public int getFlushBytes() {
+        return flushBytes;
+    }
+
+    public void setFlushBytes(int flushBytes) {
+        this.flushBytes = flushBytes;
+    }
+
+    public int getMaxFrameSize() {
+        return maxFrameSize;
+    }
+
+    public void setMaxFrameSize(int maxFrameSize) {
+        this.maxFrameSize = maxFrameSize;
+    }
+
+    public boolean isCompression() {
+        return compression;
+    }
+
+    public void setCompression(boolean compression) {
+        this.compression = compression;
+    }
+
+    public int getCompressionThreshold() {
+        return compressionThreshold;
+    }
+
+    public void setCompressionThreshold(int compressionThreshold) {
+        this.compressionThreshold = compressionThreshold;
+    }
+
+    public boolean isParallelDecode() {
+        return parallelDecode;
+    }
+
+    public void setParallelDecode(boolean parallelDecode) {
+        this.parallelDecode = parallelDecode;
+    }
+
+    public int getMaxFramesPerSecond() {
+        return maxFramesPerSecond;
+    }
+
+    public void setMaxFramesPerSecond(int maxFramesPerSecond) {
+        this.maxFramesPerSecond = maxFramesPerSecond;
+    }
+
+    public int getMaxBytesPerSecond() {
+        return maxBytesPerSecond;
+    }
+
+    public void setMaxBytesPerSecond(int maxBytesPerSecond) {
+        this.maxBytesPerSecond = maxBytesPerSecond;
+    }
+
+    public long getRateLimitBurstMillis() {
+        return rateLimitBurstMillis;
+    }
+
+    public void setRateLimitBurstMillis(long rateLimitBurstMillis) {
+        this.rateLimitBurstMillis = rateLimitBurstMillis;
+    }
+
+    public long getMaxReadPauseMillis() {
+        return maxReadPauseMillis;
+    }
+
+    public void setMaxReadPauseMillis(long maxReadPauseMillis) {
+        this.maxReadPauseMillis = maxReadPauseMillis;
+    }
+}
@@ -0,0 +1,58 @@
+package chat.socket;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * The kind of threads blocking ThreadedSocket read loops run on.
+ */
+public enum ThreadMode {
+    /**
+     * One platform (OS) thread per connection
+     */
+    PLATFORM,
+
+    /**
+     * One virtual thread per connection, requires a Java 21 or newer runtime
+     */
+    VIRTUAL;
+
+    /**
+     * Check if the running JVM can provide this kind of thread
+     *
+     * @return If an executor can be created for this mode
+     */
+    public boolean isSupported() {
+        return this == PLATFORM || virtualExecutorFactory() != null;
+    }
+
+    /**
+     * Create an executor that starts every submitted read loop on its own thread of this kind
+     *
+     * @return The executor
+     * @throws UnsupportedOperationException Throws when the JVM does not support this mode
+     */
+    public ExecutorService newExecutor() {
+        if (this == PLATFORM) return Executors.newCachedThreadPool();
+
+        // Looked up reflectively so the project still builds for older language levels
+        Method factory = virtualExecutorFactory();
+        if (factory == null)
+            throw new UnsupportedOperationException("Virtual threads require Java 21 or newer.");
+
+        try {
+            return (ExecutorService) factory.invoke(null);
+        } catch (ReflectiveOperationException e) {
+            throw new UnsupportedOperationException("Failed to create a virtual thread executor.", e);
+        }
+    }
+
+    private static Method virtualExecutorFactory() {
+        try {
+            return Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+        } catch (NoSuchMethodException e) {
+            return null;
+        }
+    }
+}
@@ -1,25 +1,34 @@
 package chat.socket;
 
+import chat.encryption.CipherSuite;
 import chat.encryption.CryptoManager;
 import chat.encryption.EncryptionException;
+import chat.encryption.KeyExchange;
+import chat.encryption.SessionKeys;
+import chat.encryption.SessionTickets;
+import chat.encryption.TicketCache;
+import chat.messages.HelloMessage;
+import chat.messages.MalformedMessageException;
 import chat.messages.Message;
+import chat.messages.MessageCodec;
+import chat.messages.MessageCodecs;
+import chat.messages.MessageCompression;
 import chat.messages.PingMessage;
+import chat.messages.PongMessage;
 import chat.messages.TextMessage;
-import com.google.gson.Gson;
 
-import javax.crypto.CipherOutputStream;
-import java.io.DataInputStream;
-import java.io.DataOutputStream;
-import java.io.EOFException;
 import java.io.IOException;
+import java.net.InetSocketAddress;
 import java.net.Socket;
 import java.net.SocketException;
-import java.net.SocketTimeoutException;
-import java.util.Arrays;
-import java.util.Base64;
-import java.util.Timer;
-import java.util.TimerTask;
-import java.util.concurrent.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
 
 /**
  * The ThreadedSocket class.
@@ -27,22 +36,50 @@ import java.util.concurrent.*;
  * Prevents the duplication of code by handling all of the aspects of communication
  * for both the client and server.
  *
- * - Encrypts and decrypts the data
- * - Converts the raw JSON to and from a Message instance
- * - Handles reading from the socket
+ * - Encrypts and decrypts the data, with keys of its own once the handshake has agreed on them
+ * - Converts the encoded bytes to and from a Message instance, with the codec picked in the handshake
+ * - Compresses larger messages before encrypting them, if both sides agreed to in the handshake
+ * - Handles reading from the socket, either with its own thread or through a shared EventLoopGroup
+ * - Optionally opens the frames on the shared DecodePool, still handing the messages over in order
+ * - Holds back connections that send more frames or bytes per second than allowed, before decrypting anything
+ * - Pings the peer from the SharedScheduler and closes the connection if the ping goes unanswered
  */
-public class ThreadedSocket extends Thread {
-    private final Socket socket;
-    private DataInputStream is;
-    private DataOutputStream os;
+public class ThreadedSocket {
+    private static final long PING_DELAY = 10;
+    private static final long PING_INTERVAL = 30;
+    private static final Executor DEFAULT_EXECUTOR = ThreadMode.PLATFORM.newExecutor();
+    private static final int NO_COMPRESSION = Integer.MAX_VALUE;
 
-    private CryptoManager cryptoManager;
+    private final Transport transport;
+    private final SocketOptions options;
+
+    private final CryptoManager cryptoManager;
+    private volatile CryptoManager sendCryptoManager;
+    private volatile CryptoManager sessionCryptoManager;
+    private SessionTickets sessionTickets;
+    private TicketCache ticketCache;
 
     private OnMessageListener onMessageListener;
     private OnDisconnectListener onDisconnectListener;
 
-    private Gson gson;
-    private Timer timer;
+    private final boolean initiator;
+    private final String server;
+    private KeyExchange keyExchange;
+    private HelloMessage offer;
+    private TicketCache.Ticket offeredTicket;
+    private volatile boolean resumed;
+    private volatile MessageCodec codec = MessageCodecs.JSON;
+    private volatile CipherSuite suite;
+    private volatile int compressionThreshold = NO_COMPRESSION;
+    private volatile boolean handshakeDone;
+    // Messages the client sends while it waits for the session keys, guarded by itself
+    private final List<Runnable> held = new ArrayList<>();
+    private boolean holding;
+    private final FramePipeline pipeline;
+    private final RateLimiter rateLimiter;
+    private ScheduledFuture<?> keepalive;
+    private volatile long lastReceived;
+    private volatile long pingSentAt;
 
     /**
      * The ThreadedSocket constructor.
@@ -55,7 +92,53 @@ public class ThreadedSocket extends Thread {
      * @throws IOException Throws when failing to get the io streams
      */
     public ThreadedSocket(String host, int port, CryptoManager cryptoManager) throws IOException {
-        this(new Socket(host, port), cryptoManager);
+        this(host, port, cryptoManager, new SocketOptions());
+    }
+
+    /**
+     * The ThreadedSocket constructor.
+     *
+     * Used in the client to create a socket from a host and port
+     *
+     * @param host The hostname of the server
+     * @param port The port the server is listening on
+     * @param cryptoManager The cryptography manager instance
+     * @param options The socket options
+     * @throws IOException Throws when failing to get the io streams
+     */
+    public ThreadedSocket(String host, int port, CryptoManager cryptoManager, SocketOptions options) throws IOException {
+        this(new BlockingTransport(new Socket(host, port), options), cryptoManager, host + ":" + port, options);
+    }
+
+    /**
+     * The ThreadedSocket constructor.
+     *
+     * Used in the client to create a non-blocking socket from a host and port
+     *
+     * @param host The hostname of the server
+     * @param port The port the server is listening on
+     * @param eventLoopGroup The event loops that will service the connection
+     * @param cryptoManager The cryptography manager instance
+     * @throws IOException Throws when failing to connect to the server
+     */
+    public ThreadedSocket(String host, int port, EventLoopGroup eventLoopGroup, CryptoManager cryptoManager) throws IOException {
+        this(host, port, eventLoopGroup, cryptoManager, new SocketOptions());
+    }
+
+    /**
+     * The ThreadedSocket constructor.
+     *
+     * Used in the client to create a non-blocking socket from a host and port
+     *
+     * @param host The hostname of the server
+     * @param port The port the server is listening on
+     * @param eventLoopGroup The event loops that will service the connection
+     * @param cryptoManager The cryptography manager instance
+     * @param options The socket options
+     * @throws IOException Throws when failing to connect to the server
+     */
+    public ThreadedSocket(String host, int port, EventLoopGroup eventLoopGroup, CryptoManager cryptoManager, SocketOptions options) throws IOException {
+        this(new NioTransport(SocketChannel.open(new InetSocketAddress(host, port)), eventLoopGroup.next(), options), cryptoManager, host + ":" + port, options);
     }
 
     /**
@@ -66,20 +149,81 @@ public class ThreadedSocket extends Thread {
      * @throws IOException Throws when failing to get the io streams
      */
     public ThreadedSocket(Socket socket, CryptoManager cryptoManager) throws IOException {
-        this.socket = socket;
-        this.is = new DataInputStream(socket.getInputStream());
-        this.os = new DataOutputStream(socket.getOutputStream());
-        this.cryptoManager = cryptoManager;
-        this.gson = new Gson();
+        this(socket, cryptoManager, new SocketOptions());
+    }
 
-        // Send a PING message periodically to verify socket is still connected
-        timer = new Timer();
-        timer.scheduleAtFixedRate(new TimerTask() {
-            @Override
-            public void run() {
-                sendMessage(new PingMessage());
-            }
-        }, 10 * 1000, 30 * 1000);
+    /**
+     * The ThreadedSocket constructor.
+     *
+     * @param socket The socket to manage
+     * @param cryptoManager The cryptography manager instance
+     * @param options The socket options
+     * @throws IOException Throws when failing to get the io streams
+     */
+    public ThreadedSocket(Socket socket, CryptoManager cryptoManager, SocketOptions options) throws IOException {
+        this(new BlockingTransport(socket, options), cryptoManager, null, options);
+    }
+
+    /**
+     * The ThreadedSocket constructor.
+     *
+     * @param channel The connected channel to manage
+     * @param eventLoopGroup The event loops that will service the connection
+     * @param cryptoManager The cryptography manager instance
+     * @throws IOException Throws when the channel can't be switched to non-blocking mode
+     */
+    public ThreadedSocket(SocketChannel channel, EventLoopGroup eventLoopGroup, CryptoManager cryptoManager) throws IOException {
+        this(channel, eventLoopGroup, cryptoManager, new SocketOptions());
+    }
+
+    /**
+     * The ThreadedSocket constructor.
+     *
+     * @param channel The connected channel to manage
+     * @param eventLoopGroup The event loops that will service the connection
+     * @param cryptoManager The cryptography manager instance
+     * @param options The socket options
+     * @throws IOException Throws when the channel can't be switched to non-blocking mode
+     */
+    public ThreadedSocket(SocketChannel channel, EventLoopGroup eventLoopGroup, CryptoManager cryptoManager, SocketOptions options) throws IOException {
+        this(new NioTransport(channel, eventLoopGroup.next(), options), cryptoManager, null, options);
+    }
+
+    /**
+     * The ThreadedSocket constructor.
+     *
+     * Package-private so that the benchmarks can run sockets over an in-memory transport.
+     *
+     * @param transport The transport that moves the frames
+     * @param cryptoManager The cryptography manager instance
+     * @param server The host and port of the server if this side opened the connection and should
+     *     start the handshake, null otherwise
+     */
+    ThreadedSocket(Transport transport, CryptoManager cryptoManager, String server) {
+        this(transport, cryptoManager, server, new SocketOptions());
+    }
+
+    /**
+     * The ThreadedSocket constructor.
+     *
+     * @param transport The transport that moves the frames
+     * @param cryptoManager The cryptography manager instance
+     * @param server The host and port of the server if this side opened the connection and should
+     *     start the handshake, null otherwise
+     * @param options The socket options, the transport was created with the same ones
+     */
+    private ThreadedSocket(Transport transport, CryptoManager cryptoManager, String server, SocketOptions options) {
+        this.transport = transport;
+        this.options = options;
+        this.pipeline = options.isParallelDecode() ? new FramePipeline(this, DecodePool.get()) : null;
+        this.rateLimiter = options.getMaxFramesPerSecond() > 0 || options.getMaxBytesPerSecond() > 0
+                ? new RateLimiter(options.getMaxFramesPerSecond(), options.getMaxBytesPerSecond(), options.getRateLimitBurstMillis(), options.getMaxReadPauseMillis())
+                : null;
+        this.cryptoManager = cryptoManager;
+        this.sendCryptoManager = cryptoManager;
+        this.server = server;
+        this.initiator = server != null;
+        this.suite = cryptoManager.getDefaultSuite();
     }
 
     /**
@@ -100,6 +244,323 @@ public class ThreadedSocket extends Thread {
         this.onDisconnectListener = onDisconnectListener;
     }
 
+    /**
+     * Start receiving messages
+     *
+     * The listeners should be set before calling this method. A blocking socket runs its
+     * read loop and writer on a shared pool of platform threads.
+     */
+    public void start() {
+        start(DEFAULT_EXECUTOR);
+    }
+
+    /**
+     * Start receiving messages
+     *
+     * The listeners should be set before calling this method.
+     *
+     * @param executor Runs the read loop and writer of a blocking socket, ignored by non-blocking sockets
+     *     since they are serviced by their event loop
+     * @see ThreadMode#newExecutor()
+     */
+    public void start(Executor executor) {
+        // Send a PING message periodically to verify socket is still connected
+        lastReceived = System.nanoTime();
+        keepalive = SharedScheduler.get().scheduleAtFixedRate(this::keepalive, PING_DELAY, PING_INTERVAL, TimeUnit.SECONDS);
+
+        // Offer the supported codecs and suites, everything is sent as JSON with the default
+        // suite and the keys from the key file until the server answers. If session keys were
+        // offered the other messages wait for them, nothing but the offer goes out with the key file.
+        if (initiator) {
+            offer = createOffer();
+            holding = keyExchange != null;
+        }
+
+        transport.start(this, executor);
+
+        if (initiator) send(offer, onDisconnectListener);
+    }
+
+    /**
+     * Set the issuer of session tickets, used by the server to let clients resume sessions
+     *
+     * Must be called before start.
+     *
+     * @param sessionTickets The ticket issuer
+     */
+    public void setSessionTickets(SessionTickets sessionTickets) {
+        this.sessionTickets = sessionTickets;
+    }
+
+    /**
+     * Set the cache of session tickets, used by the client to resume the session of an earlier
+     * connection to the same server
+     *
+     * Must be called before start.
+     *
+     * @param ticketCache The ticket cache
+     */
+    public void setTicketCache(TicketCache ticketCache) {
+        this.ticketCache = ticketCache;
+    }
+
+    /**
+     * Check if the connection is protected by its own session keys
+     *
+     * @return False until the handshake is done, or if the peer doesn't support session keys
+     */
+    public boolean hasSessionKeys() {
+        return sessionCryptoManager != null;
+    }
+
+    /**
+     * Check if the handshake agreed on compressing the messages sent through this socket
+     *
+     * @return False until the handshake is done, or if either side has compression turned off
+     */
+    public boolean isCompressed() {
+        return compressionThreshold != NO_COMPRESSION;
+    }
+
+    /**
+     * Check if the session keys were derived from a ticket instead of a full key exchange
+     *
+     * @return If the session was resumed
+     */
+    public boolean isResumed() {
+        return resumed;
+    }
+
+    /**
+     * Create the client's handshake message
+     *
+     * Session keys need an AEAD suite, a legacy key file only gets the codec and suite negotiation.
+     *
+     * @return The handshake message
+     */
+    private HelloMessage createOffer() {
+        HelloMessage hello = new HelloMessage(MessageCodecs.supported(), cryptoManager.getSupportedSuiteNames());
+        if (options.isCompression()) hello.putData(HelloMessage.DATA_COMPRESSION, MessageCompression.NAME);
+        if (!cryptoManager.getDefaultSuite().isAead() || !KeyExchange.isAvailable()) return hello;
+
+        try {
+            keyExchange = new KeyExchange();
+            hello.putData(HelloMessage.DATA_KEY_SHARE, keyExchange.getPublicKey());
+            hello.putData(HelloMessage.DATA_NONCE, KeyExchange.newNonce());
+
+            offeredTicket = ticketCache == null ? null : ticketCache.get(server);
+            if (offeredTicket != null)
+                hello.putData(HelloMessage.DATA_TICKET, offeredTicket.getTicket());
+        } catch (EncryptionException e) {
+            e.printStackTrace();
+            keyExchange = null;
+        }
+        return hello;
+    }
+
+    /**
+     * Handle the handshake message from the peer
+     *
+     * The server picks the codec and cipher suite from the ones the client offered and answers
+     * with its choice, the client switches to the ones in the answer. Incoming messages are
+     * opened and decoded with whatever suite and codec they were sealed and encoded with, so
+     * the switch doesn't need to be atomic. A peer that offers no suites keeps the default one.
+     *
+     * Compression is only used if both sides offer it, messages larger than the threshold are
+     * compressed from then on. Compressed messages are marked, so they are detected like the codec.
+     *
+     * Both sides then switch to the session keys for the messages they send. Frames sealed with
+     * session keys are marked, the server's answer is the last frame either side accepts with the
+     * keys from the key file. If the client offered session keys and none came out of the
+     * handshake it fails, rather than letting someone with the key file strip the offer.
+     *
+     * @param hello The handshake message
+     */
+    private void onHello(Message hello) {
+        MessageCodec negotiatedCodec = MessageCodecs.negotiate(hello.getData(HelloMessage.DATA_CODECS));
+        CipherSuite negotiatedSuite = cryptoManager.negotiate(hello.getData(HelloMessage.DATA_SUITES));
+        if (negotiatedSuite == null) negotiatedSuite = suite;
+        boolean compress = options.isCompression() && MessageCompression.NAME.equals(hello.getData(HelloMessage.DATA_COMPRESSION));
+
+        SessionKeys sessionKeys;
+        if (initiator) {
+            boolean offered = keyExchange != null;
+            try {
+                sessionKeys = completeSession(hello);
+            } catch (EncryptionException e) {
+                e.printStackTrace();
+                sessionKeys = null;
+            }
+            keyExchange = null;
+            offer = null;
+            if (offered && sessionKeys == null) {
+                failHandshake("the server did not agree on session keys");
+                return;
+            }
+        } else {
+            HelloMessage answer = new HelloMessage(negotiatedCodec.getName(), negotiatedSuite.getSuiteName());
+            if (compress) answer.putData(HelloMessage.DATA_COMPRESSION, MessageCompression.NAME);
+            try {
+                sessionKeys = acceptSession(hello, answer);
+            } catch (EncryptionException e) {
+                failHandshake("the client's key share is invalid: " + e.getMessage());
+                return;
+            }
+
+            // The answer still goes out with the keys from the key file, the client can't open
+            // anything sealed with the session keys before it has seen it
+            sendMessage(answer);
+        }
+
+        codec = negotiatedCodec;
+        suite = negotiatedSuite;
+        if (compress) compressionThreshold = options.getCompressionThreshold();
+        if (sessionKeys != null) {
+            sessionCryptoManager = sessionKeys.getCryptoManager();
+            sendCryptoManager = sessionCryptoManager;
+        }
+        handshakeDone = true;
+        release();
+    }
+
+    /**
+     * Close the connection over a handshake that went wrong, dropping the messages held for it
+     *
+     * @param reason What went wrong
+     */
+    private void failHandshake(String reason) {
+        System.out.println("Security Error: closing the connection, " + reason + ".");
+        synchronized (held) {
+            holding = false;
+            held.clear();
+        }
+        disconnect();
+    }
+
+    /**
+     * Hold a message back until the session keys are agreed on
+     *
+     * @param send Sends the message
+     * @return False if nothing is held back anymore and the message should be sent right away
+     */
+    private boolean hold(Runnable send) {
+        synchronized (held) {
+            if (!holding) return false;
+
+            held.add(send);
+            return true;
+        }
+    }
+
+    /**
+     * Send the messages held back during the handshake, before any message sent after it
+     */
+    private void release() {
+        synchronized (held) {
+            if (!holding) return;
+
+            holding = false;
+            for (Runnable send : held) send.run();
+            held.clear();
+        }
+    }
+
+    /**
+     * Derive the session keys on the server, from the ticket the client offered or a new key exchange
+     *
+     * @param hello The client's handshake message
+     * @param answer The server's handshake message, the server's half of the handshake is added to it
+     * @return The session keys or null if the client doesn't support session keys
+     * @throws EncryptionException Throws when the client's half of the key exchange is invalid
+     */
+    private SessionKeys acceptSession(Message hello, HelloMessage answer) throws EncryptionException {
+        String keyShare = hello.getData(HelloMessage.DATA_KEY_SHARE);
+        String clientNonce = hello.getData(HelloMessage.DATA_NONCE);
+        if (keyShare == null || clientNonce == null) return null;
+        if (!cryptoManager.getDefaultSuite().isAead() || !KeyExchange.isAvailable()) return null;
+
+        String serverNonce = KeyExchange.newNonce();
+        byte[] secret = sessionTickets == null ? null : sessionTickets.redeem(hello.getData(HelloMessage.DATA_TICKET));
+        if (secret != null) {
+            answer.putData(HelloMessage.DATA_RESUMED, "true");
+            resumed = true;
+        } else {
+            KeyExchange exchange = new KeyExchange();
+            secret = exchange.agree(keyShare);
+            answer.putData(HelloMessage.DATA_KEY_SHARE, exchange.getPublicKey());
+        }
+
+        SessionKeys sessionKeys = SessionKeys.derive(secret, clientNonce, serverNonce);
+        answer.putData(HelloMessage.DATA_NONCE, serverNonce);
+        if (sessionTickets != null)
+            answer.putData(HelloMessage.DATA_TICKET, sessionTickets.issue(sessionKeys.getResumptionSecret()));
+        return sessionKeys;
+    }
+
+    /**
+     * Derive the session keys on the client from the server's answer
+     *
+     * @param answer The server's handshake message
+     * @return The session keys or null if the server doesn't support session keys
+     * @throws EncryptionException Throws when the server's half of the key exchange is invalid
+     */
+    private SessionKeys completeSession(Message answer) throws EncryptionException {
+        String serverNonce = answer.getData(HelloMessage.DATA_NONCE);
+        if (keyExchange == null || serverNonce == null) return null;
+
+        byte[] secret;
+        if (answer.getData(HelloMessage.DATA_RESUMED) != null && offeredTicket != null) {
+            secret = offeredTicket.getResumptionSecret();
+            resumed = true;
+        } else {
+            String keyShare = answer.getData(HelloMessage.DATA_KEY_SHARE);
+            if (keyShare == null) return null;
+
+            secret = keyExchange.agree(keyShare);
+        }
+
+        SessionKeys sessionKeys = SessionKeys.derive(secret, offer.getData(HelloMessage.DATA_NONCE), serverNonce);
+        if (ticketCache != null) {
+            String ticket = answer.getData(HelloMessage.DATA_TICKET);
+            if (ticket != null) {
+                ticketCache.put(server, ticket, sessionKeys.getResumptionSecret());
+            } else {
+                ticketCache.remove(server);
+            }
+        }
+        return sessionKeys;
+    }
+
+    /**
+     * Close the connection if nothing has been received since the last ping, otherwise send a new ping
+     *
+     * Runs on the shared scheduler thread.
+     */
+    private void keepalive() {
+        if (pingSentAt != 0 && lastReceived - pingSentAt < 0) {
+            System.out.println("Closing connection as the last ping was not answered.");
+            disconnect();
+            return;
+        }
+
+        // Frames are still waiting to be written, so the connection isn't idle and the
+        // scheduler thread shouldn't wait for space in the queue
+        if (transport.getQueuedFrames() > 0) return;
+
+        pingSentAt = System.nanoTime();
+        sendMessage(new PingMessage());
+    }
+
+    /**
+     * Get the number of frames waiting to be written to this socket
+     *
+     * A depth that keeps growing means the peer isn't reading as fast as we are sending.
+     *
+     * @return The outbound queue depth
+     */
+    public int getOutboundQueueDepth() {
+        return transport.getQueuedFrames();
+    }
 
     /**
      * Send a message and notifies the specified listener rather than the object's set listener
@@ -107,17 +568,71 @@ public class ThreadedSocket extends Thread {
      * @param message The message to send through the socket
      * @param listener An OnDisconnectListener
      */
-    public synchronized void sendMessage(Message message, OnDisconnectListener listener) {
+    public void sendMessage(Message message, OnDisconnectListener listener) {
+        if (!hold(() -> send(message, listener))) send(message, listener);
+    }
+
+    private void send(Message message, OnDisconnectListener listener) {
+        try {
+            long start = System.nanoTime();
+            byte[] encoded = codec.encode(message);
+            byte[] plaintext = MessageCompression.compress(encoded, compressionThreshold);
+            SocketMetrics.get().serializationSince(start);
+            if (plaintext != encoded) SocketMetrics.get().compressed(encoded.length, plaintext.length);
+
+            writeFrame(Frames.seal(sendCryptoManager, suite, plaintext), listener);
+        } catch (EncryptionException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Send a message that is shared with other sockets and notifies the specified listener
+     * rather than the object's set listener
+     *
+     * The frame is only built if no other socket with the same codec, compression, suite and keys built it already.
+     *
+     * @param message The message to send through the socket
+     * @param listener An OnDisconnectListener
+     */
+    public void sendMessage(PreparedMessage message, OnDisconnectListener listener) {
+        if (!hold(() -> send(message, listener))) send(message, listener);
+    }
+
+    private void send(PreparedMessage message, OnDisconnectListener listener) {
         try {
-            String json = gson.toJson(message);
-            byte[] bytes = cryptoManager.encrypt(json);
-            byte[] hmac = cryptoManager.generateHmac(bytes);
-
-            this.os.writeInt(bytes.length);
-            this.os.writeInt(hmac.length);
-            this.os.write(bytes);
-            this.os.write(hmac);
-            this.os.flush();
+            writeFrame(message.frame(codec, compressionThreshold, suite, sendCryptoManager), listener);
+        } catch (EncryptionException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Send a message that is shared with other sockets
+     *
+     * @see ThreadedSocket#sendMessage(PreparedMessage, OnDisconnectListener)
+     * @param message The message to send
+     */
+    public void sendMessage(PreparedMessage message) {
+        this.sendMessage(message, this.onDisconnectListener);
+    }
+
+    /**
+     * Queue a frame on the transport
+     *
+     * The frame is written by the transport's writer, so only a closed connection or a full
+     * outbound queue are reported here.
+     *
+     * @param frame The frame to write
+     * @param listener The listener to notify if the socket turns out to be closed
+     */
+    private void writeFrame(ByteBuffer frame, OnDisconnectListener listener) {
+        try {
+            transport.write(frame);
+        } catch (SlowConsumerException e) {
+            SocketMetrics.get().slowConsumer();
+            System.out.println("Disconnecting a slow consumer: " + e.getMessage());
+            this.disconnect();
         } catch (SocketException e) {
             if (e.getMessage().equals("Connection reset by peer: socket write error") || e.getMessage().equals("Socket closed")) {
                 this.disconnect();
@@ -125,7 +640,9 @@ public class ThreadedSocket extends Thread {
             } else {
                 e.printStackTrace();
             }
-        } catch (EncryptionException | IOException e) {
+        } catch (ClosedChannelException e) {
+            // The event loop already closed the channel and notified the listener
+        } catch (IOException e) {
             e.printStackTrace();
         }
     }
@@ -155,52 +672,136 @@ public class ThreadedSocket extends Thread {
     }
 
     /**
-     * The thread worker that reads messages from the socket and sends it to the onMessageListener
+     * Check a frame against the connection's rate limits, called by the transport as soon as
+     * it has read the frame's header and before anything is done with the frame
+     *
+     * A connection over its limits isn't closed, the transport stops reading from it for the
+     * returned time and asks again. The client's writes then back up until it slows down.
+     *
+     * @param length The length of the frame, headers included
+     * @return 0 if the frame may be read and processed, otherwise the milliseconds to pause reading
      */
-    @Override
-    public void run() {
-        while (!this.isInterrupted() && socket.isConnected()) {
-            byte[] raw;
-            byte[] hmac;
-            try {
-                int length = is.readInt(); // read length of incoming message
-                int lengthHmac = is.readInt(); // read length of incoming hmac
-
-                raw = new byte[length];
-                is.readFully(raw, 0, raw.length); // read the message
-
-                hmac = new byte[lengthHmac];
-                is.readFully(hmac, 0, hmac.length); // read the message
-            } catch (SocketTimeoutException | EOFException | NullPointerException e) {
-                break;
-            } catch (SocketException e) {
-                // Socket disconnected
-                if (e.getMessage().equals("Connection reset") || e.getMessage().equals("Socket closed"))
-                    break;
-
-                // Other SocketException type
-                e.printStackTrace();
-                break;
-            } catch (IOException e) {
-                e.printStackTrace();
-                break;
-            }
+    long admitFrame(int length) {
+        if (rateLimiter == null) return 0;
 
-            Message msg;
-            try {
-                if (!cryptoManager.checkIntegrity(raw, hmac)) {
-                    System.out.println("Security Error: could not verify the integrity of the data.");
-                    continue;
+        long pause = rateLimiter.admit(length);
+        if (pause > 0) SocketMetrics.get().readPaused(pause);
+        return pause;
+    }
+
+    /**
+     * Verify, decrypt and dispatch a frame read by the transport
+     *
+     * The buffers are only valid during the call. With parallelDecode the frame is handed to
+     * the DecodePool once the handshake is done, until then the keys and codec may change with
+     * every message so frames are opened one by one on the transport's thread.
+     *
+     * @param raw The cipher text
+     * @param hmac The HMAC sent along with the cipher text
+     * @return False if the connection should be closed
+     */
+    boolean onFrame(ByteBuffer raw, ByteBuffer hmac) {
+        SocketMetrics.get().frameIn(Frames.HEADER_LENGTH + raw.remaining() + hmac.remaining());
+        if (pipeline != null && handshakeDone) return pipeline.submit(raw, hmac);
+
+        Message msg;
+        try {
+            msg = openFrame(raw, hmac);
+        } catch (EncryptionException | MalformedMessageException e) {
+            e.printStackTrace();
+            return false;
+        }
+        if (msg != null) dispatch(msg);
+        return true;
+    }
+
+    /**
+     * Verify, decrypt and decode a frame
+     *
+     * Safe to call from several threads at once once the handshake is done. Once there are
+     * session keys only frames sealed with them are accepted, anything else closes the connection.
+     *
+     * @param raw The cipher text
+     * @param hmac The HMAC sent along with the cipher text
+     * @return The message, or null if the integrity of the frame could not be verified
+     * @throws EncryptionException Throws when decrypting the frame fails
+     * @throws MalformedMessageException Throws when the message can't be decoded
+     */
+    Message openFrame(ByteBuffer raw, ByteBuffer hmac) throws EncryptionException, MalformedMessageException {
+        SocketMetrics metrics = SocketMetrics.get();
+        CryptoManager session = sessionCryptoManager;
+        if (session != null && !Frames.isSession(raw, hmac)) {
+            // Everyone has the key file, a frame sealed with it could come from anyone
+            metrics.integrityFailure();
+            System.out.println("Security Error: closing the connection, a frame was sealed with the key file after the handshake.");
+            disconnect();
+            return null;
+        }
+
+        CryptoManager keys = session != null ? session : cryptoManager;
+        byte[] plaintext = Frames.open(keys, raw, hmac);
+        if (plaintext == null) {
+            metrics.integrityFailure();
+            System.out.println("Security Error: could not verify the integrity of the data.");
+            return null;
+        }
+
+        long start = System.nanoTime();
+        if (MessageCompression.isCompressed(plaintext))
+            plaintext = MessageCompression.decompress(plaintext, options.getMaxFrameSize());
+        Message msg = MessageCodecs.decode(plaintext);
+        metrics.serializationSince(start);
+        return msg;
+    }
+
+    /**
+     * Handle a message in the order it was received
+     *
+     * Never called for two messages of the same connection at once.
+     *
+     * @param msg The message
+     */
+    void dispatch(Message msg) {
+        lastReceived = System.nanoTime();
+
+        // Keepalive and handshake messages are handled here and never reach the listener
+        switch (msg.getCommand()) {
+            case PingMessage.COMMAND:
+                sendMessage(new PongMessage());
+                return;
+            case PongMessage.COMMAND:
+                return;
+            case HelloMessage.COMMAND:
+                if (handshakeDone) {
+                    // Frames in the pipeline are still being opened with the keys it would replace
+                    System.out.println("Security Error: closing the connection, the handshake was sent again.");
+                    disconnect();
+                    return;
                 }
+                onHello(msg);
+                return;
+        }
 
-                msg = gson.fromJson(cryptoManager.decrypt(raw), Message.class);
-            } catch (EncryptionException e) {
-                e.printStackTrace();
-                break;
-            }
-            this.onMessageListener.onMessage(msg, this);
+        this.onMessageListener.onMessage(msg, this);
+    }
+
+    /**
+     * Called by the transport once the connection has gone away
+     *
+     * Messages still in the pipeline are dispatched before the disconnect listener is called.
+     */
+    void onClosed() {
+        if (pipeline != null) {
+            pipeline.close();
+        } else {
+            closed();
         }
+    }
 
+    /**
+     * Called once the connection has gone away and every message it received was dispatched
+     */
+    void closed() {
         this.disconnect();
         this.onDisconnectListener.onDisconnect(this);
     }
@@ -210,10 +811,8 @@ public class ThreadedSocket extends Thread {
      */
     public void disconnect() {
         try {
-            this.socket.close();
-            this.is = null;
-            this.os = null;
-            this.timer.cancel();
+            this.transport.close();
+            if (this.keepalive != null) this.keepalive.cancel(false);
         } catch (IOException e) {
             e.printStackTrace();
         }
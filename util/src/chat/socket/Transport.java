@@ -0,0 +1,45 @@
+package chat.socket;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.Executor;
+
+/**
+ * The Transport interface.
+ *
+ * Moves already encoded frames between a ThreadedSocket and the network. A transport
+ * delivers every frame it reads to ThreadedSocket#onFrame and calls ThreadedSocket#onClosed
+ * exactly once when the connection goes away.
+ */
+interface Transport {
+    /**
+     * Start reading frames for the given socket
+     *
+     * @param owner The socket that receives the frames
+     * @param executor Runs the read loop of transports that need a thread of their own
+     */
+    void start(ThreadedSocket owner, Executor executor);
+
+    /**
+     * Queue a complete frame (length headers, payload and hmac) to be written
+     *
+     * @param frame The frame, positioned at its first byte
+     * @throws SlowConsumerException Throws when the outbound queue is full and the connection should be closed
+     * @throws IOException Throws when the frame could not be queued
+     */
+    void write(ByteBuffer frame) throws IOException;
+
+    /**
+     * Get the number of frames waiting to be written
+     *
+     * @return The outbound queue depth
+     */
+    int getQueuedFrames();
+
+    /**
+     * Close the underlying connection
+     *
+     * @throws IOException Throws when failing to close the connection
+     */
+    void close() throws IOException;
+}
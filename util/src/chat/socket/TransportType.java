@@ -0,0 +1,16 @@
+package chat.socket;
+
+/**
+ * The kind of transport a ThreadedSocket runs on.
+ */
+public enum TransportType {
+    /**
+     * One blocking reader thread per connection
+     */
+    BLOCKING,
+
+    /**
+     * Non-blocking channels multiplexed over a shared EventLoopGroup
+     */
+    NIO
+}
@@ -0,0 +1,102 @@
+package chat.encryption;
+
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.TestInstance;
+
+import javax.crypto.KeyGenerator;
+import javax.crypto.SecretKey;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+@TestInstance(TestInstance.Lifecycle.PER_CLASS)
+class CipherSuiteTest {
+    private CryptoManager cryptoManager;
+
+    @BeforeAll
+    void setup() throws EncryptionException, NoSuchAlgorithmException {
+        KeyGenerator keyGen = KeyGenerator.getInstance("AES");
+        keyGen.init(256);
+        SecretKey key = keyGen.generateKey();
+
+        KeyGenerator macKeyGen = KeyGenerator.getInstance("HmacSHA512");
+        SecretKey macKey = macKeyGen.generateKey();
+
+        this.cryptoManager = new CryptoManager(key, macKey);
+    }
+
+    @Test
+    void aesGcmShouldBeTheDefault() {
+        assertEquals(CipherSuite.AES_GCM, cryptoManager.getDefaultSuite());
+        assertFalse(cryptoManager.getSupportedSuites().contains(CipherSuite.DES_HMAC_SHA512));
+    }
+
+    @Test
+    void openedShouldEqualSource() throws EncryptionException {
+        byte[] plaintext = "gndsjogpnopugwgjeriopgh".getBytes(StandardCharsets.UTF_8);
+
+        for (CipherSuite suite : cryptoManager.getSupportedSuites()) {
+            byte[] sealed = cryptoManager.seal(suite, plaintext);
+
+            assertEquals(suite.getId(), sealed[0]);
+            assertArrayEquals(plaintext, cryptoManager.open(sealed));
+        }
+    }
+
+    @Test
+    void openTamperedData() throws EncryptionException {
+        byte[] plaintext = "gndsjogpnopugwgjeriopgh".getBytes(StandardCharsets.UTF_8);
+
+        for (CipherSuite suite : cryptoManager.getSupportedSuites()) {
+            byte[] sealed = cryptoManager.seal(suite, plaintext);
+            sealed[sealed.length - 1] ^= 1;
+
+            assertNull(cryptoManager.open(sealed));
+        }
+    }
+
+    @Test
+    void openedBufferShouldEqualSource() throws EncryptionException {
+        byte[] plaintext = "gndsjogpnopugwgjeriopgh".getBytes(StandardCharsets.UTF_8);
+
+        for (CipherSuite suite : cryptoManager.getSupportedSuites()) {
+            ByteBuffer sealed = ByteBuffer.allocateDirect(cryptoManager.getEncryptedLength(suite, plaintext.length));
+            assertEquals(sealed.capacity(), cryptoManager.encrypt(suite, ByteBuffer.wrap(plaintext), sealed));
+            sealed.flip();
+
+            ByteBuffer opened = ByteBuffer.allocateDirect(cryptoManager.getDecryptedLength(sealed));
+            assertEquals(plaintext.length, cryptoManager.decrypt(sealed, opened));
+            opened.flip();
+
+            assertEquals(ByteBuffer.wrap(plaintext), opened);
+        }
+    }
+
+    @Test
+    void sealingTwiceShouldUseDifferentNonces() throws EncryptionException {
+        byte[] plaintext = "gndsjogpnopugwgjeriopgh".getBytes(StandardCharsets.UTF_8);
+
+        assertFalse(Arrays.equals(
+                cryptoManager.seal(CipherSuite.AES_GCM, plaintext),
+                cryptoManager.seal(CipherSuite.AES_GCM, plaintext)));
+    }
+
+    @Test
+    void negotiateShouldPickTheMostPreferredCommonSuite() {
+        assertEquals(CipherSuite.AES_GCM, cryptoManager.negotiate("chacha20-poly1305,aes-gcm"));
+        assertNull(cryptoManager.negotiate("des-hmac-sha512"));
+        assertNull(cryptoManager.negotiate(null));
+    }
+
+    @Test
+    void derivedKeysShouldBeDeterministicAndDistinct() throws EncryptionException {
+        byte[] prk = Hkdf.extract(null, new byte[32]);
+
+        assertArrayEquals(Hkdf.expand(prk, "a", 32), Hkdf.expand(prk, "a", 32));
+        assertFalse(Arrays.equals(Hkdf.expand(prk, "a", 32), Hkdf.expand(prk, "b", 32)));
+    }
+}
@@ -7,7 +7,11 @@ import org.junit.jupiter.api.TestInstance;
 import javax.crypto.KeyGenerator;
 import javax.crypto.SecretKey;
 
+import java.nio.ByteBuffer;
 import java.security.NoSuchAlgorithmException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import static org.junit.jupiter.api.Assertions.*;
 
@@ -54,4 +58,45 @@ class CryptoManagerTest {
 
         assertFalse(cryptoManager.checkIntegrity(encrypted2, hmac));
     }
+
+    @Test
+    void decryptedBufferShouldEqualSource() throws EncryptionException {
+        byte[] plaintext = "gndsjogpnopugwgjeriopgh".getBytes();
+        ByteBuffer encrypted = ByteBuffer.allocate(cryptoManager.getEncryptedLength(CipherSuite.DES_HMAC_SHA512, plaintext.length));
+        cryptoManager.encrypt(ByteBuffer.wrap(plaintext), encrypted);
+        encrypted.flip();
+
+        ByteBuffer decrypted = ByteBuffer.allocate(cryptoManager.getDecryptedLength(encrypted));
+        cryptoManager.decrypt(encrypted, decrypted);
+        decrypted.flip();
+
+        assertEquals(ByteBuffer.wrap(plaintext), decrypted);
+    }
+
+    @Test
+    void concurrentUseShouldNotCorruptData() throws InterruptedException {
+        int threads = 8;
+        AtomicInteger failures = new AtomicInteger();
+        CountDownLatch done = new CountDownLatch(threads);
+        for (int i = 0; i < threads; i++) {
+            String plaintext = "message from thread " + i;
+            new Thread(() -> {
+                try {
+                    for (int j = 0; j < 2000; j++) {
+                        byte[] encrypted = cryptoManager.encrypt(plaintext);
+                        byte[] hmac = cryptoManager.generateHmac(encrypted);
+                        if (!cryptoManager.checkIntegrity(encrypted, hmac) || !plaintext.equals(cryptoManager.decrypt(encrypted)))
+                            failures.incrementAndGet();
+                    }
+                } catch (EncryptionException e) {
+                    failures.incrementAndGet();
+                } finally {
+                    done.countDown();
+                }
+            }).start();
+        }
+
+        assertTrue(done.await(30, TimeUnit.SECONDS));
+        assertEquals(0, failures.get());
+    }
 }
@@ -0,0 +1,77 @@
+package chat.encryption;
+
+import org.junit.jupiter.api.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class SessionKeysTest {
+    private static final byte[] PLAINTEXT = "gndsjogpnopugwgjeriopgh".getBytes(StandardCharsets.UTF_8);
+
+    @Test
+    void bothSidesShouldAgreeOnTheSecret() throws EncryptionException {
+        KeyExchange client = new KeyExchange();
+        KeyExchange server = new KeyExchange();
+
+        assertArrayEquals(client.agree(server.getPublicKey()), server.agree(client.getPublicKey()));
+    }
+
+    @Test
+    void bothSidesShouldDeriveTheSameKeys() throws EncryptionException {
+        byte[] secret = new KeyExchange().agree(new KeyExchange().getPublicKey());
+        String clientNonce = KeyExchange.newNonce();
+        String serverNonce = KeyExchange.newNonce();
+
+        SessionKeys client = SessionKeys.derive(secret, clientNonce, serverNonce);
+        SessionKeys server = SessionKeys.derive(secret, clientNonce, serverNonce);
+
+        assertArrayEquals(client.getResumptionSecret(), server.getResumptionSecret());
+        assertArrayEquals(PLAINTEXT, server.getCryptoManager().open(client.getCryptoManager().seal(CipherSuite.AES_GCM, PLAINTEXT)));
+    }
+
+    @Test
+    void resumedSessionShouldGetFreshKeys() throws EncryptionException {
+        byte[] secret = new byte[32];
+        SessionKeys first = SessionKeys.derive(secret, KeyExchange.newNonce(), KeyExchange.newNonce());
+        SessionKeys second = SessionKeys.derive(secret, KeyExchange.newNonce(), KeyExchange.newNonce());
+
+        assertNull(second.getCryptoManager().open(first.getCryptoManager().seal(CipherSuite.AES_GCM, PLAINTEXT)));
+    }
+
+    @Test
+    void sessionDataShouldBeMarked() throws EncryptionException {
+        CryptoManager session = CryptoManager.forSession(new byte[32]);
+        byte[] sealed = session.seal(CipherSuite.AES_GCM, PLAINTEXT);
+
+        assertTrue(session.isSession());
+        assertTrue(CryptoManager.isSessionData(ByteBuffer.wrap(sealed)));
+    }
+
+    @Test
+    void ticketShouldRedeemToTheSecret() throws EncryptionException {
+        SessionTickets tickets = new SessionTickets(60);
+        byte[] secret = new byte[32];
+        secret[0] = 42;
+
+        assertArrayEquals(secret, tickets.redeem(tickets.issue(secret)));
+    }
+
+    @Test
+    void invalidTicketsShouldNotRedeem() throws EncryptionException {
+        SessionTickets tickets = new SessionTickets(60);
+        String ticket = tickets.issue(new byte[32]);
+
+        assertNull(tickets.redeem(null));
+        assertNull(tickets.redeem("not a ticket"));
+        assertNull(new SessionTickets(60).redeem(ticket));
+    }
+
+    @Test
+    void expiredTicketShouldNotRedeem() throws EncryptionException {
+        SessionTickets tickets = new SessionTickets(-1);
+
+        assertNull(tickets.redeem(tickets.issue(new byte[32])));
+    }
+}
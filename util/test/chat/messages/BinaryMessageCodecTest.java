@@ -0,0 +1,102 @@
+package chat.messages;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class BinaryMessageCodecTest {
+    private final MessageCodec codec = MessageCodecs.BINARY;
+
+    @Test
+    void decodedShouldEqualSource() throws MalformedMessageException {
+        Message message = TextMessage.make("lobby", "h\u00e9llo w\u00f6rld");
+        message.putData(TextMessage.DATA_SENDER_ID, "5b1f2c3e");
+        message.putData(TextMessage.DATA_SENDER_NAME, "evan");
+
+        Message decoded = codec.decode(codec.encode(message));
+
+        assertEquals(TextMessage.COMMAND, decoded.getCommand());
+        assertEquals(message.getAllData(), decoded.getAllData());
+    }
+
+    @Test
+    void knownKeysShouldDecodeToTheSharedConstants() throws MalformedMessageException {
+        Message decoded = codec.decode(codec.encode(TextMessage.make("hi")));
+
+        assertSame(TextMessage.COMMAND, decoded.getCommand());
+        for (String key : decoded.getAllData().keySet()) {
+            assertTrue(key == TextMessage.DATA_ROOM || key == TextMessage.DATA_RAW_TEXT);
+        }
+    }
+
+    @Test
+    void unknownCommandsAndKeysShouldBeSentAsStrings() throws MalformedMessageException {
+        Message message = new Message("CUSTOM", new HashMap<>());
+        message.putData("custom_key", "value");
+
+        Message decoded = codec.decode(codec.encode(message));
+
+        assertEquals("CUSTOM", decoded.getCommand());
+        assertEquals("value", decoded.getData("custom_key"));
+    }
+
+    @Test
+    void knownTagsShouldBeSmallerThanJson() {
+        Message message = TextMessage.make("lobby", "hello");
+
+        assertTrue(codec.encode(message).length < MessageCodecs.JSON.encode(message).length);
+    }
+
+    @Test
+    void truncatedMessageShouldBeRejected() {
+        byte[] encoded = codec.encode(TextMessage.make("lobby", "hello"));
+        byte[] truncated = new byte[encoded.length - 2];
+        System.arraycopy(encoded, 0, truncated, 0, truncated.length);
+
+        assertThrows(MalformedMessageException.class, () -> codec.decode(truncated));
+    }
+
+    @Test
+    void decodeShouldDetectTheCodec() throws MalformedMessageException {
+        Message message = TextMessage.make("hello");
+
+        assertEquals("hello", MessageCodecs.decode(MessageCodecs.JSON.encode(message)).getData(TextMessage.DATA_RAW_TEXT));
+        assertEquals("hello", MessageCodecs.decode(MessageCodecs.BINARY.encode(message)).getData(TextMessage.DATA_RAW_TEXT));
+    }
+
+    @Test
+    void negotiateShouldFallBackToJson() {
+        assertSame(MessageCodecs.BINARY, MessageCodecs.negotiate("json,binary"));
+        assertSame(MessageCodecs.JSON, MessageCodecs.negotiate("json"));
+        assertSame(MessageCodecs.JSON, MessageCodecs.negotiate("protobuf"));
+        assertSame(MessageCodecs.JSON, MessageCodecs.negotiate(null));
+    }
+
+    @Test
+    void relayBatchShouldKeepItsMessagesInOrder() throws MalformedMessageException {
+        List<Message> batch = Arrays.asList(TextMessage.make("dev", "first"), TextMessage.make("", "second"), new PingMessage());
+
+        Message decoded = codec.decode(codec.encode(new RelayMessage(batch)));
+        List<Message> messages = RelayMessage.unpack(decoded);
+
+        assertEquals("3", decoded.getData(RelayMessage.DATA_COUNT));
+        assertEquals(batch.size(), messages.size());
+        for (int i = 0; i < batch.size(); i++) {
+            assertEquals(batch.get(i).getCommand(), messages.get(i).getCommand());
+            assertEquals(batch.get(i).getAllData(), messages.get(i).getAllData());
+        }
+    }
+
+    @Test
+    void interestShouldTellTheLobbyFromNoRooms() {
+        Message lobby = new InterestMessage(Collections.singleton(""), Collections.emptySet());
+
+        assertEquals(Collections.singletonList(""), InterestMessage.rooms(lobby.getData(InterestMessage.DATA_JOINED)));
+        assertTrue(InterestMessage.rooms(lobby.getData(InterestMessage.DATA_LEFT)).isEmpty());
+    }
+}
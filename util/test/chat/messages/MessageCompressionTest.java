@@ -0,0 +1,57 @@
+package chat.messages;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class MessageCompressionTest {
+    @Test
+    void smallMessagesShouldCompressWithTheDictionary() throws MalformedMessageException {
+        TextMessage message = TextMessage.make("general", "hi there");
+        message.putData(TextMessage.DATA_SENDER_NAME, "alice");
+        byte[] encoded = MessageCodecs.JSON.encode(message);
+
+        byte[] compressed = MessageCompression.compress(encoded, 0);
+        assertTrue(MessageCompression.isCompressed(compressed));
+        assertTrue(compressed.length < encoded.length / 2, compressed.length + " of " + encoded.length + " bytes");
+
+        byte[] decompressed = MessageCompression.decompress(compressed, encoded.length);
+        assertArrayEquals(encoded, decompressed);
+        assertEquals("hi there", MessageCodecs.decode(decompressed).getData(TextMessage.DATA_RAW_TEXT));
+    }
+
+    @Test
+    void messagesBelowTheThresholdShouldBeLeftAlone() {
+        byte[] encoded = MessageCodecs.BINARY.encode(TextMessage.make("hi"));
+        assertSame(encoded, MessageCompression.compress(encoded, encoded.length + 1));
+        assertFalse(MessageCompression.isCompressed(encoded));
+    }
+
+    @Test
+    void messagesThatDoNotShrinkShouldBeLeftAlone() {
+        byte[] noise = new byte[512];
+        new Random(1).nextBytes(noise);
+        noise[0] = '{';
+        assertSame(noise, MessageCompression.compress(noise, 0));
+    }
+
+    @Test
+    void decompressingShouldRejectMessagesOverTheLimit() {
+        byte[] encoded = MessageCodecs.JSON.encode(TextMessage.make("x".repeat(10000)));
+        byte[] compressed = MessageCompression.compress(encoded, 0);
+
+        assertThrows(MalformedMessageException.class, () -> MessageCompression.decompress(compressed, encoded.length - 1));
+    }
+
+    @Test
+    void decompressingShouldRejectCorruptMessages() {
+        byte[] compressed = MessageCompression.compress(MessageCodecs.JSON.encode(TextMessage.make("x".repeat(100))), 0);
+        compressed[compressed.length / 2] ^= 0x55;
+        compressed[compressed.length / 2 + 1] ^= 0x55;
+
+        assertThrows(MalformedMessageException.class, () -> MessageCompression.decompress(compressed, 1024));
+        assertThrows(MalformedMessageException.class, () -> MessageCompression.decompress(new byte[]{MessageCompression.MARKER, 0}, 1024));
+    }
+}
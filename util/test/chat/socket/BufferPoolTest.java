@@ -0,0 +1,59 @@
+package chat.socket;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class BufferPoolTest {
+    @Test
+    void buffersShouldBeDirectAndSizedToTheirClass() {
+        BufferPool pool = new BufferPool(4L * 1024 * 1024);
+
+        BufferPool.PooledBuffer small = pool.acquire(100);
+        BufferPool.PooledBuffer medium = pool.acquire(BufferPool.MIN_BUFFER_SIZE + 1);
+        assertTrue(small.buffer().isDirect());
+        assertEquals(BufferPool.MIN_BUFFER_SIZE, small.buffer().capacity());
+        assertEquals(BufferPool.MIN_BUFFER_SIZE * 2, medium.buffer().capacity());
+        assertEquals(2, pool.getBuffersInUse());
+
+        small.release();
+        medium.release();
+        assertEquals(0, pool.getBuffersInUse());
+    }
+
+    @Test
+    void releasedBuffersShouldBeReused() {
+        BufferPool pool = new BufferPool(4L * 1024 * 1024);
+        BufferPool.PooledBuffer first = pool.acquire(100);
+        first.buffer().put((byte) 1);
+        first.release();
+
+        BufferPool.PooledBuffer second = pool.acquire(100);
+        assertSame(first.buffer(), second.buffer());
+        assertEquals(0, second.buffer().position());
+        assertEquals(1024 * 1024, pool.getSlabBytes());
+    }
+
+    @Test
+    void bufferShouldOnlyBeReleasedOnce() {
+        BufferPool pool = new BufferPool(4L * 1024 * 1024);
+        BufferPool.PooledBuffer buffer = pool.acquire(100);
+        assertEquals(1, pool.getBuffersInUse());
+
+        buffer.release();
+        assertEquals(0, pool.getBuffersInUse());
+        assertThrows(IllegalStateException.class, buffer::release);
+        assertEquals(0, pool.getBuffersInUse());
+    }
+
+    @Test
+    void shouldFallBackToTheHeapWhenTheSlabsAreUsedUp() {
+        BufferPool pool = new BufferPool(1024 * 1024);
+        BufferPool.PooledBuffer large = pool.acquire(BufferPool.MAX_BUFFER_SIZE);
+        assertTrue(large.buffer().isDirect());
+
+        assertFalse(pool.acquire(BufferPool.MAX_BUFFER_SIZE).buffer().isDirect());
+        assertFalse(pool.acquire(BufferPool.MAX_BUFFER_SIZE + 1).buffer().isDirect());
+        assertEquals(1024 * 1024, pool.getSlabBytes());
+    }
+}
@@ -0,0 +1,88 @@
+package chat.socket;
+
+import chat.encryption.CryptoManager;
+import chat.messages.TextMessage;
+import org.junit.jupiter.api.Test;
+
+import javax.crypto.KeyGenerator;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.channels.ServerSocketChannel;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class EventLoopTest {
+    @Test
+    void failingTaskShouldNotStopTheLoop() throws Exception {
+        EventLoop loop = new EventLoop("event-loop-test");
+        loop.setDaemon(true);
+        loop.start();
+        try {
+            CountDownLatch ran = new CountDownLatch(1);
+            loop.execute(() -> {
+                throw new IllegalStateException("task failed on purpose");
+            });
+            loop.execute(ran::countDown);
+            assertTrue(ran.await(5, TimeUnit.SECONDS));
+        } finally {
+            loop.shutdown();
+        }
+    }
+
+    @Test
+    void failingListenerShouldOnlyCloseItsConnection() throws Exception {
+        KeyGenerator keyGen = KeyGenerator.getInstance("AES");
+        keyGen.init(256);
+        CryptoManager cryptoManager = new CryptoManager(keyGen.generateKey(), KeyGenerator.getInstance("HmacSHA512").generateKey());
+        EventLoopGroup group = new EventLoopGroup(1);
+        try (ServerSocketChannel server = ServerSocketChannel.open()) {
+            server.bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+            int port = ((InetSocketAddress) server.getLocalAddress()).getPort();
+            // Echoes every message, but throws on "boom"
+            Thread acceptor = new Thread(() -> {
+                try {
+                    while (server.isOpen()) {
+                        ThreadedSocket socket = new ThreadedSocket(server.accept(), group, cryptoManager);
+                        socket.setOnMessageListener((message, s) -> {
+                            if ("boom".equals(message.getData(TextMessage.DATA_RAW_TEXT)))
+                                throw new IllegalStateException("listener failed on purpose");
+                            s.sendMessage(message);
+                        });
+                        socket.setOnDisconnectListener(s -> { });
+                        socket.start();
+                    }
+                } catch (Exception ignored) {
+                }
+            });
+            acceptor.setDaemon(true);
+            acceptor.start();
+
+            CountDownLatch failedClosed = new CountDownLatch(1);
+            ThreadedSocket failing = new ThreadedSocket(InetAddress.getLoopbackAddress().getHostAddress(), port, cryptoManager);
+            failing.setOnMessageListener((message, s) -> { });
+            failing.setOnDisconnectListener(s -> failedClosed.countDown());
+            failing.start();
+
+            BlockingQueue<String> echoed = new LinkedBlockingQueue<>();
+            ThreadedSocket healthy = new ThreadedSocket(InetAddress.getLoopbackAddress().getHostAddress(), port, cryptoManager);
+            healthy.setOnMessageListener((message, s) -> echoed.add(message.getData(TextMessage.DATA_RAW_TEXT)));
+            healthy.setOnDisconnectListener(s -> { });
+            healthy.start();
+            healthy.sendMessage("before");
+            assertEquals("before", echoed.poll(5, TimeUnit.SECONDS));
+
+            failing.sendMessage("boom");
+            assertTrue(failedClosed.await(5, TimeUnit.SECONDS));
+
+            healthy.sendMessage("after");
+            assertEquals("after", echoed.poll(5, TimeUnit.SECONDS));
+            healthy.disconnect();
+        } finally {
+            group.shutdown();
+        }
+    }
+}
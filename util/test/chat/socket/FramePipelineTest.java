@@ -0,0 +1,175 @@
+package chat.socket;
+
+import chat.encryption.CryptoManager;
+import chat.encryption.EncryptionException;
+import chat.messages.MessageCodecs;
+import chat.messages.TextMessage;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import javax.crypto.KeyGenerator;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class FramePipelineTest {
+    private CryptoManager cryptoManager;
+    private final List<Runnable> tasks = new ArrayList<>();
+    private final List<String> dispatched = Collections.synchronizedList(new ArrayList<>());
+    private final AtomicBoolean transportClosed = new AtomicBoolean();
+    private ThreadedSocket owner;
+    private FramePipeline pipeline;
+
+    /**
+     * A transport that only records being closed, the test feeds the frames to the pipeline itself
+     */
+    private final class StubTransport implements Transport {
+        @Override
+        public void start(ThreadedSocket owner, Executor executor) {
+        }
+
+        @Override
+        public void write(ByteBuffer frame) {
+        }
+
+        @Override
+        public int getQueuedFrames() {
+            return 0;
+        }
+
+        @Override
+        public void close() {
+            transportClosed.set(true);
+        }
+    }
+
+    @BeforeEach
+    void setup() throws EncryptionException, NoSuchAlgorithmException {
+        KeyGenerator keyGen = KeyGenerator.getInstance("AES");
+        keyGen.init(256);
+        this.cryptoManager = new CryptoManager(keyGen.generateKey(), KeyGenerator.getInstance("HmacSHA512").generateKey());
+
+        owner = new ThreadedSocket(new StubTransport(), cryptoManager, null);
+        owner.setOnMessageListener((message, s) -> dispatched.add(message.getData(TextMessage.DATA_RAW_TEXT)));
+        owner.setOnDisconnectListener(s -> dispatched.add("disconnected"));
+        // Holds the frames back so the test decides the order they are opened in
+        pipeline = new FramePipeline(owner, tasks::add);
+    }
+
+    private void submit(String text) throws EncryptionException {
+        submit(MessageCodecs.BINARY.encode(TextMessage.make(text)));
+    }
+
+    private void submit(byte[] plaintext) throws EncryptionException {
+        ByteBuffer frame = Frames.seal(cryptoManager, cryptoManager.getDefaultSuite(), plaintext);
+        int length = frame.getInt();
+        int lengthHmac = frame.getInt();
+        ByteBuffer raw = frame.slice().limit(length);
+        ByteBuffer hmac = frame.position(Frames.HEADER_LENGTH + length).slice().limit(lengthHmac);
+        assertTrue(pipeline.submit(raw, hmac));
+    }
+
+    private void runInReverse() {
+        for (int i = tasks.size() - 1; i >= 0; i--) tasks.get(i).run();
+        tasks.clear();
+    }
+
+    @Test
+    void messagesShouldBeDispatchedInTheOrderTheyWereRead() throws EncryptionException {
+        int buffers = BufferPool.get().getBuffersInUse();
+        for (int i = 0; i < 5; i++) submit("message " + i);
+        runInReverse();
+
+        assertEquals(List.of("message 0", "message 1", "message 2", "message 3", "message 4"), dispatched);
+        assertEquals(buffers, BufferPool.get().getBuffersInUse());
+    }
+
+    @Test
+    void closingShouldWaitForTheFramesBeforeIt() throws EncryptionException {
+        submit("first");
+        submit("second");
+        pipeline.close();
+        assertTrue(dispatched.isEmpty());
+
+        runInReverse();
+        assertEquals(List.of("first", "second", "disconnected"), dispatched);
+    }
+
+    @Test
+    void aBrokenFrameShouldDropTheFramesAfterIt() throws EncryptionException {
+        submit("first");
+        submit("{not a message".getBytes(StandardCharsets.UTF_8));
+        submit("third");
+        runInReverse();
+
+        assertEquals(List.of("first"), dispatched);
+        assertTrue(transportClosed.get());
+        assertFalse(pipeline.submit(ByteBuffer.allocate(16), ByteBuffer.allocate(0)));
+    }
+
+    @Test
+    void aRejectedFrameShouldReleaseItsBufferAndCloseTheConnection() throws EncryptionException {
+        int buffers = BufferPool.get().getBuffersInUse();
+        pipeline = new FramePipeline(owner, task -> {
+            throw new RejectedExecutionException("full");
+        });
+        ByteBuffer frame = Frames.seal(cryptoManager, cryptoManager.getDefaultSuite(), MessageCodecs.BINARY.encode(TextMessage.make("rejected")));
+        int length = frame.getInt();
+        frame.getInt();
+        assertFalse(pipeline.submit(frame.slice().limit(length), frame.position(Frames.HEADER_LENGTH + length).slice()));
+
+        assertTrue(dispatched.isEmpty());
+        assertTrue(transportClosed.get());
+        assertEquals(buffers, BufferPool.get().getBuffersInUse());
+        assertFalse(pipeline.submit(ByteBuffer.allocate(16), ByteBuffer.allocate(0)));
+    }
+
+    @Test
+    void connectionsShouldKeepTheirOrderOnTheDecodePool() throws IOException, InterruptedException {
+        int count = 2000;
+        BlockingQueue<String> received = new LinkedBlockingQueue<>();
+        CountDownLatch disconnected = new CountDownLatch(1);
+        SocketOptions options = new SocketOptions();
+        options.setParallelDecode(true);
+        options.setOutboundQueueSize(count * 2);
+
+        try (ServerSocket server = new ServerSocket(0, 1, InetAddress.getLoopbackAddress())) {
+            Thread acceptor = new Thread(() -> {
+                try {
+                    ThreadedSocket socket = new ThreadedSocket(server.accept(), cryptoManager, options);
+                    socket.setOnMessageListener((message, s) -> received.add(message.getData(TextMessage.DATA_RAW_TEXT)));
+                    socket.setOnDisconnectListener(s -> disconnected.countDown());
+                    socket.start();
+                } catch (IOException ignored) {
+                }
+            });
+            acceptor.start();
+
+            ThreadedSocket client = new ThreadedSocket(server.getInetAddress().getHostAddress(), server.getLocalPort(), cryptoManager, options);
+            client.setOnMessageListener((message, s) -> { });
+            client.setOnDisconnectListener(s -> { });
+            client.start();
+
+            for (int i = 0; i < count; i++) client.sendMessage("message " + i);
+            for (int i = 0; i < count; i++) assertEquals("message " + i, received.poll(5, TimeUnit.SECONDS));
+
+            client.disconnect();
+            assertTrue(disconnected.await(5, TimeUnit.SECONDS));
+        }
+    }
+}
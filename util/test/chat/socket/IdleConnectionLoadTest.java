@@ -0,0 +1,135 @@
+package chat.socket;
+
+import chat.encryption.CryptoManager;
+import chat.encryption.EncryptionException;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.TestInstance;
+
+import javax.crypto.KeyGenerator;
+import javax.crypto.SecretKey;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.channels.ServerSocketChannel;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+/**
+ * Opens a number of idle connections on loopback for each way of running ThreadedSocket and
+ * reports how many threads and how much heap they cost.
+ *
+ * The number of connections can be raised with -Dchat.loadtest.connections=N, make sure the
+ * open file limit allows two descriptors per connection.
+ */
+@TestInstance(TestInstance.Lifecycle.PER_CLASS)
+class IdleConnectionLoadTest {
+    private static final int CONNECTIONS = Integer.getInteger("chat.loadtest.connections", 200);
+
+    private CryptoManager cryptoManager;
+
+    private interface Acceptor {
+        ThreadedSocket accept() throws IOException;
+    }
+
+    @BeforeAll
+    void setup() throws EncryptionException, NoSuchAlgorithmException {
+        SecretKey key = KeyGenerator.getInstance("AES").generateKey();
+        SecretKey macKey = KeyGenerator.getInstance("HmacSHA512").generateKey();
+
+        this.cryptoManager = new CryptoManager(key, macKey);
+    }
+
+    @Test
+    void holdIdleConnectionsOnPlatformThreads() throws IOException {
+        ExecutorService executor = ThreadMode.PLATFORM.newExecutor();
+        try (ServerSocket server = new ServerSocket(0, CONNECTIONS, InetAddress.getLoopbackAddress())) {
+            holdIdleConnections("platform threads", server.getLocalPort(), () -> {
+                ThreadedSocket socket = new ThreadedSocket(server.accept(), cryptoManager);
+                socket.start(executor);
+                return socket;
+            });
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    void holdIdleConnectionsOnVirtualThreads() throws IOException {
+        assumeTrue(ThreadMode.VIRTUAL.isSupported(), "Virtual threads are not supported by this JVM");
+
+        ExecutorService executor = ThreadMode.VIRTUAL.newExecutor();
+        try (ServerSocket server = new ServerSocket(0, CONNECTIONS, InetAddress.getLoopbackAddress())) {
+            holdIdleConnections("virtual threads", server.getLocalPort(), () -> {
+                ThreadedSocket socket = new ThreadedSocket(server.accept(), cryptoManager);
+                socket.start(executor);
+                return socket;
+            });
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    void holdIdleConnectionsOnEventLoops() throws IOException {
+        EventLoopGroup group = new EventLoopGroup(2);
+        try (ServerSocketChannel server = ServerSocketChannel.open()) {
+            server.bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), CONNECTIONS);
+            holdIdleConnections("nio event loops", server.socket().getLocalPort(), () -> {
+                ThreadedSocket socket = new ThreadedSocket(server.accept(), group, cryptoManager);
+                socket.start();
+                return socket;
+            });
+        } finally {
+            group.shutdown();
+        }
+    }
+
+    private void holdIdleConnections(String mode, int port, Acceptor acceptor) throws IOException {
+        int threadsBefore = ManagementFactory.getThreadMXBean().getThreadCount();
+        long heapBefore = usedHeap();
+
+        AtomicInteger disconnected = new AtomicInteger();
+        List<Socket> clients = new ArrayList<>(CONNECTIONS);
+        List<ThreadedSocket> accepted = new ArrayList<>(CONNECTIONS);
+        try {
+            for (int i = 0; i < CONNECTIONS; i++) {
+                clients.add(new Socket(InetAddress.getLoopbackAddress(), port));
+
+                ThreadedSocket socket = acceptor.accept();
+                socket.setOnDisconnectListener(s -> disconnected.incrementAndGet());
+                accepted.add(socket);
+            }
+
+            int threads = ManagementFactory.getThreadMXBean().getThreadCount() - threadsBefore;
+            long heap = usedHeap() - heapBefore;
+            System.out.println(String.format("[%s] %d idle connections: %d extra threads, %d KiB extra heap",
+                    mode, accepted.size(), threads, heap / 1024));
+
+            assertEquals(CONNECTIONS, accepted.size());
+            assertEquals(0, disconnected.get());
+        } finally {
+            for (Socket client : clients) {
+                client.close();
+            }
+            for (ThreadedSocket socket : accepted) {
+                socket.disconnect();
+            }
+        }
+    }
+
+    private static long usedHeap() {
+        System.gc();
+        Runtime runtime = Runtime.getRuntime();
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+}
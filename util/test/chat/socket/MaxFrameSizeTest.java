@@ -0,0 +1,89 @@
+package chat.socket;
+
+import chat.encryption.CryptoManager;
+import chat.encryption.EncryptionException;
+import org.junit.jupiter.api.Test;
+
+import javax.crypto.KeyGenerator;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.channels.ServerSocketChannel;
+import java.security.NoSuchAlgorithmException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class MaxFrameSizeTest {
+    private static CryptoManager cryptoManager() throws EncryptionException, NoSuchAlgorithmException {
+        KeyGenerator keyGen = KeyGenerator.getInstance("AES");
+        keyGen.init(256);
+        return new CryptoManager(keyGen.generateKey(), KeyGenerator.getInstance("HmacSHA512").generateKey());
+    }
+
+    /**
+     * Announce a frame of 2 GB, which should close the connection without reading or allocating it
+     */
+    private static void sendOversizedHeader(int port) throws IOException {
+        try (Socket socket = new Socket(InetAddress.getLoopbackAddress(), port)) {
+            DataOutputStream out = new DataOutputStream(socket.getOutputStream());
+            out.writeInt(Integer.MAX_VALUE);
+            out.writeInt(64);
+            out.flush();
+            assertEquals(-1, socket.getInputStream().read(), "the connection should have been closed");
+        }
+    }
+
+    @Test
+    void blockingTransportShouldRejectOversizedFrames() throws Exception {
+        long before = SocketMetrics.get().getOversizedFrames();
+        CountDownLatch closed = new CountDownLatch(1);
+        try (ServerSocket server = new ServerSocket(0, 1, InetAddress.getLoopbackAddress())) {
+            Thread acceptor = new Thread(() -> {
+                try {
+                    ThreadedSocket socket = new ThreadedSocket(server.accept(), cryptoManager());
+                    socket.setOnMessageListener((message, s) -> { });
+                    socket.setOnDisconnectListener(s -> closed.countDown());
+                    socket.start();
+                } catch (Exception ignored) {
+                }
+            });
+            acceptor.start();
+
+            sendOversizedHeader(server.getLocalPort());
+            assertTrue(closed.await(5, TimeUnit.SECONDS));
+        }
+        assertEquals(before + 1, SocketMetrics.get().getOversizedFrames());
+    }
+
+    @Test
+    void nioTransportShouldRejectOversizedFrames() throws Exception {
+        long before = SocketMetrics.get().getOversizedFrames();
+        CountDownLatch closed = new CountDownLatch(1);
+        EventLoopGroup group = new EventLoopGroup(1);
+        try (ServerSocketChannel server = ServerSocketChannel.open()) {
+            server.bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+            Thread acceptor = new Thread(() -> {
+                try {
+                    ThreadedSocket socket = new ThreadedSocket(server.accept(), group, cryptoManager());
+                    socket.setOnMessageListener((message, s) -> { });
+                    socket.setOnDisconnectListener(s -> closed.countDown());
+                    socket.start();
+                } catch (Exception ignored) {
+                }
+            });
+            acceptor.start();
+
+            sendOversizedHeader(server.socket().getLocalPort());
+            assertTrue(closed.await(5, TimeUnit.SECONDS));
+        } finally {
+            group.shutdown();
+        }
+        assertEquals(before + 1, SocketMetrics.get().getOversizedFrames());
+        assertEquals(0, BufferPool.get().getBuffersInUse());
+    }
+}
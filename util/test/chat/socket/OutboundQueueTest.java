@@ -0,0 +1,113 @@
+package chat.socket;
+
+import org.junit.jupiter.api.Test;
+
+import java.nio.ByteBuffer;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class OutboundQueueTest {
+    private static OutboundQueue queue(OverflowPolicy policy) {
+        SocketOptions options = new SocketOptions();
+        options.setOutboundQueueSize(2);
+        options.setOverflowPolicy(policy);
+        options.setBlockTimeoutMillis(50);
+        return new OutboundQueue(options);
+    }
+
+    private static ByteBuffer frame(int id) {
+        return ByteBuffer.allocate(4).putInt(id).flip();
+    }
+
+    @Test
+    void dropOldestShouldKeepTheNewestFrames() throws SlowConsumerException {
+        OutboundQueue queue = queue(OverflowPolicy.DROP_OLDEST);
+        queue.offer(frame(1), true);
+        queue.offer(frame(2), true);
+        queue.offer(frame(3), true);
+
+        assertEquals(2, queue.size());
+        assertEquals(2, queue.poll().getInt(0));
+        assertEquals(3, queue.poll().getInt(0));
+        assertNull(queue.poll());
+    }
+
+    @Test
+    void disconnectShouldRejectFramesWhenFull() throws SlowConsumerException {
+        OutboundQueue queue = queue(OverflowPolicy.DISCONNECT);
+        queue.offer(frame(1), true);
+        queue.offer(frame(2), true);
+
+        assertThrows(SlowConsumerException.class, () -> queue.offer(frame(3), true));
+        assertEquals(2, queue.size());
+    }
+
+    @Test
+    void blockShouldWaitForTheWriter() throws Exception {
+        OutboundQueue queue = queue(OverflowPolicy.BLOCK);
+        queue.offer(frame(1), true);
+        queue.offer(frame(2), true);
+
+        Thread writer = new Thread(() -> {
+            try {
+                Thread.sleep(10);
+            } catch (InterruptedException ignored) {
+            }
+            queue.poll();
+        });
+        writer.start();
+        queue.offer(frame(3), true);
+        writer.join();
+
+        assertEquals(2, queue.size());
+    }
+
+    @Test
+    void blockShouldGiveUpAfterTheTimeout() throws SlowConsumerException {
+        OutboundQueue queue = queue(OverflowPolicy.BLOCK);
+        queue.offer(frame(1), true);
+        queue.offer(frame(2), true);
+
+        assertThrows(SlowConsumerException.class, () -> queue.offer(frame(3), true));
+        assertThrows(SlowConsumerException.class, () -> queue.offer(frame(3), false));
+    }
+
+    @Test
+    void drainToShouldStopAtTheByteLimit() throws SlowConsumerException {
+        SocketOptions options = new SocketOptions();
+        options.setOutboundQueueSize(10);
+        OutboundQueue queue = new OutboundQueue(options);
+        for (int i = 1; i <= 5; i++) queue.offer(frame(i), true);
+        assertEquals(20, queue.bytes());
+
+        ByteBuffer[] batch = new ByteBuffer[10];
+        assertEquals(3, queue.drainTo(batch, 12));
+        assertEquals(3, batch[2].getInt(0));
+        assertEquals(2, queue.size());
+        assertEquals(8, queue.bytes());
+
+        // The first frame is always taken, even if it is larger than the limit
+        assertEquals(1, queue.drainTo(batch, 1));
+        assertEquals(4, batch[0].getInt(0));
+        assertEquals(1, queue.drainTo(batch, 100));
+        assertEquals(0, queue.drainTo(batch, 100));
+        assertEquals(0, queue.bytes());
+    }
+
+    @Test
+    void awaitFrameShouldWakeUpWhenAFrameIsQueued() throws InterruptedException {
+        OutboundQueue queue = queue(OverflowPolicy.DISCONNECT);
+        assertFalse(queue.awaitFrame(1_000_000));
+
+        Thread sender = new Thread(() -> {
+            try {
+                Thread.sleep(20);
+                queue.offer(frame(1), true);
+            } catch (InterruptedException | SlowConsumerException ignored) {
+            }
+        });
+        sender.start();
+        assertTrue(queue.awaitFrame(5_000_000_000L));
+        sender.join();
+    }
+}
@@ -0,0 +1,75 @@
+package chat.socket;
+
+import chat.encryption.CipherSuite;
+import chat.encryption.CryptoManager;
+import chat.encryption.EncryptionException;
+import chat.messages.MalformedMessageException;
+import chat.messages.MessageCodecs;
+import chat.messages.TextMessage;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.TestInstance;
+
+import javax.crypto.KeyGenerator;
+import javax.crypto.SecretKey;
+import java.nio.ByteBuffer;
+import java.security.NoSuchAlgorithmException;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+@TestInstance(TestInstance.Lifecycle.PER_CLASS)
+class PreparedMessageTest {
+    private CryptoManager cryptoManager;
+
+    @BeforeAll
+    void setup() throws EncryptionException, NoSuchAlgorithmException {
+        SecretKey key = KeyGenerator.getInstance("AES").generateKey();
+        SecretKey macKey = KeyGenerator.getInstance("HmacSHA512").generateKey();
+
+        this.cryptoManager = new CryptoManager(key, macKey);
+    }
+
+    @Test
+    void socketsWithTheSameKeysShouldShareTheFrame() throws EncryptionException {
+        PreparedMessage message = new PreparedMessage(TextMessage.make("hello"));
+
+        ByteBuffer first = message.frame(MessageCodecs.BINARY, Integer.MAX_VALUE, CipherSuite.AES_GCM, cryptoManager);
+        first.position(first.limit()); // written by the first socket
+        ByteBuffer second = message.frame(MessageCodecs.BINARY, Integer.MAX_VALUE, CipherSuite.AES_GCM, cryptoManager);
+
+        assertEquals(0, second.position());
+        assertSame(first.array(), second.array());
+    }
+
+    @Test
+    void socketsWithDifferentCodecsShouldGetTheirOwnFrame() throws EncryptionException {
+        PreparedMessage message = new PreparedMessage(TextMessage.make("hello"));
+
+        ByteBuffer binary = message.frame(MessageCodecs.BINARY, Integer.MAX_VALUE, CipherSuite.AES_GCM, cryptoManager);
+        ByteBuffer json = message.frame(MessageCodecs.JSON, Integer.MAX_VALUE, CipherSuite.AES_GCM, cryptoManager);
+
+        assertNotSame(binary.array(), json.array());
+    }
+
+    @Test
+    void aeadFramesShouldNotCarryAnHmac() throws EncryptionException {
+        ByteBuffer frame = new PreparedMessage(TextMessage.make("hello")).frame(MessageCodecs.BINARY, Integer.MAX_VALUE, CipherSuite.AES_GCM, cryptoManager);
+
+        frame.getInt();
+        assertEquals(0, frame.getInt());
+    }
+
+    @Test
+    void frameShouldOpenToTheMessage() throws EncryptionException, MalformedMessageException {
+        ByteBuffer frame = new PreparedMessage(TextMessage.make("hello")).frame(MessageCodecs.BINARY, Integer.MAX_VALUE, CipherSuite.AES_GCM, cryptoManager);
+
+        int length = frame.getInt();
+        int lengthHmac = frame.getInt();
+        ByteBuffer raw = frame.slice().limit(length);
+        ByteBuffer hmac = frame.position(Frames.HEADER_LENGTH + length).slice().limit(lengthHmac);
+
+        byte[] plaintext = Frames.open(cryptoManager, raw, hmac);
+        assertNotNull(plaintext);
+        assertEquals("hello", MessageCodecs.decode(plaintext).getData(TextMessage.DATA_RAW_TEXT));
+    }
+}
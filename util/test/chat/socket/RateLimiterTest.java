@@ -0,0 +1,152 @@
+package chat.socket;
+
+import chat.encryption.CryptoManager;
+import chat.encryption.EncryptionException;
+import chat.messages.TextMessage;
+import org.junit.jupiter.api.Test;
+
+import javax.crypto.KeyGenerator;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.nio.channels.ServerSocketChannel;
+import java.security.NoSuchAlgorithmException;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class RateLimiterTest {
+    private static final int FLOOD = 30;
+
+    @Test
+    void burstShouldBeAdmittedBeforePausing() {
+        RateLimiter limiter = new RateLimiter(10, 0, 1000, 5000);
+        for (int i = 0; i < 10; i++) assertEquals(0, limiter.admit(100));
+
+        // The last frame may just make it in on what refilled in the meantime
+        limiter.admit(100);
+        long pause = limiter.admit(100);
+        assertTrue(pause > 0 && pause <= 200, "paused for " + pause + "ms");
+    }
+
+    @Test
+    void pausesInARowShouldGrowUpToTheLimit() {
+        RateLimiter limiter = new RateLimiter(10, 0, 1000, 1000);
+        for (int i = 0; i < 10; i++) limiter.admit(100);
+
+        long first = limiter.admit(100);
+        long second = limiter.admit(100);
+        long third = limiter.admit(100);
+        assertTrue(second > first && third > second, first + ", " + second + ", " + third);
+        for (int i = 0; i < 10; i++) limiter.admit(100);
+        assertEquals(1000, limiter.admit(100));
+    }
+
+    @Test
+    void frameLargerThanTheBucketShouldPassOnceItIsFull() {
+        RateLimiter limiter = new RateLimiter(0, 1000, 1000, 5000);
+        assertEquals(0, limiter.admit(100_000));
+        assertTrue(limiter.admit(1) > 0);
+    }
+
+    @Test
+    void restingShouldResetThePauses() throws InterruptedException {
+        RateLimiter limiter = new RateLimiter(1000, 0, 10, 5000);
+        for (int i = 0; i < 10; i++) limiter.admit(100);
+        for (int i = 0; i < 4; i++) limiter.admit(100);
+        assertTrue(limiter.admit(100) >= 16);
+
+        Thread.sleep(50);
+        for (int i = 0; i < 11; i++) limiter.admit(100);
+        assertTrue(limiter.admit(100) <= 4);
+    }
+
+    @Test
+    void blockingTransportShouldSlowDownAFloodingClient() throws Exception {
+        CryptoManager cryptoManager = cryptoManager();
+        CountDownLatch closed = new CountDownLatch(1);
+        try (ServerSocket server = new ServerSocket(0, 1, InetAddress.getLoopbackAddress())) {
+            Thread acceptor = new Thread(() -> {
+                try {
+                    ThreadedSocket socket = new ThreadedSocket(server.accept(), cryptoManager, limitedOptions());
+                    echo(socket, closed);
+                } catch (IOException ignored) {
+                }
+            });
+            acceptor.start();
+
+            flood(cryptoManager, server.getLocalPort(), closed);
+        }
+    }
+
+    @Test
+    void nioTransportShouldSlowDownAFloodingClient() throws Exception {
+        CryptoManager cryptoManager = cryptoManager();
+        CountDownLatch closed = new CountDownLatch(1);
+        EventLoopGroup group = new EventLoopGroup(1);
+        try (ServerSocketChannel server = ServerSocketChannel.open()) {
+            server.bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+            Thread acceptor = new Thread(() -> {
+                try {
+                    ThreadedSocket socket = new ThreadedSocket(server.accept(), group, cryptoManager, limitedOptions());
+                    echo(socket, closed);
+                } catch (IOException ignored) {
+                }
+            });
+            acceptor.start();
+
+            flood(cryptoManager, ((InetSocketAddress) server.getLocalAddress()).getPort(), closed);
+        } finally {
+            group.shutdown();
+        }
+    }
+
+    private static CryptoManager cryptoManager() throws EncryptionException, NoSuchAlgorithmException {
+        KeyGenerator keyGen = KeyGenerator.getInstance("AES");
+        keyGen.init(256);
+        return new CryptoManager(keyGen.generateKey(), KeyGenerator.getInstance("HmacSHA512").generateKey());
+    }
+
+    /**
+     * 20 frames per second with a burst of 5, paused for at most 200ms at a time
+     */
+    private static SocketOptions limitedOptions() {
+        SocketOptions options = new SocketOptions();
+        options.setMaxFramesPerSecond(20);
+        options.setRateLimitBurstMillis(250);
+        options.setMaxReadPauseMillis(200);
+        return options;
+    }
+
+    private static void echo(ThreadedSocket socket, CountDownLatch closed) {
+        socket.setOnMessageListener((message, s) -> s.sendMessage(message));
+        socket.setOnDisconnectListener(s -> closed.countDown());
+        socket.start();
+    }
+
+    /**
+     * Send far more than the limit at once, every message should still be echoed, just later
+     */
+    private static void flood(CryptoManager cryptoManager, int port, CountDownLatch closed) throws IOException, InterruptedException {
+        long pauses = SocketMetrics.get().getReadPauses();
+        BlockingQueue<String> echoed = new LinkedBlockingQueue<>();
+        ThreadedSocket client = new ThreadedSocket(InetAddress.getLoopbackAddress().getHostAddress(), port, cryptoManager);
+        client.setOnMessageListener((message, s) -> echoed.add(message.getData(TextMessage.DATA_RAW_TEXT)));
+        client.setOnDisconnectListener(s -> { });
+        client.start();
+
+        long start = System.nanoTime();
+        for (int i = 0; i < FLOOD; i++) client.sendMessage("message " + i);
+        for (int i = 0; i < FLOOD; i++) assertEquals("message " + i, echoed.poll(10, TimeUnit.SECONDS));
+        long elapsedMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+
+        assertEquals(1, closed.getCount(), "the client should not have been disconnected");
+        assertTrue(elapsedMillis >= 500, "took " + elapsedMillis + "ms");
+        assertTrue(SocketMetrics.get().getReadPauses() > pauses);
+        client.disconnect();
+    }
+}
@@ -0,0 +1,141 @@
+package chat.socket;
+
+import chat.encryption.CryptoManager;
+import chat.encryption.EncryptionException;
+import chat.messages.HelloMessage;
+import chat.messages.MessageCodecs;
+import chat.messages.TextMessage;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import javax.crypto.KeyGenerator;
+import java.nio.ByteBuffer;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Executor;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class SessionEnforcementTest {
+    private CryptoManager cryptoManager;
+    private final List<String> received = Collections.synchronizedList(new ArrayList<>());
+
+    /**
+     * A transport that keeps the frames written to it, the test delivers them to the other side itself
+     */
+    private static final class StubTransport implements Transport {
+        final List<ByteBuffer> written = Collections.synchronizedList(new ArrayList<>());
+        volatile boolean closed;
+
+        @Override
+        public void start(ThreadedSocket owner, Executor executor) {
+        }
+
+        @Override
+        public void write(ByteBuffer frame) {
+            ByteBuffer copy = ByteBuffer.allocate(frame.remaining());
+            copy.put(frame.duplicate()).flip();
+            written.add(copy);
+        }
+
+        @Override
+        public int getQueuedFrames() {
+            return 0;
+        }
+
+        @Override
+        public void close() {
+            closed = true;
+        }
+    }
+
+    @BeforeEach
+    void setup() throws EncryptionException, NoSuchAlgorithmException {
+        KeyGenerator keyGen = KeyGenerator.getInstance("AES");
+        keyGen.init(256);
+        this.cryptoManager = new CryptoManager(keyGen.generateKey(), KeyGenerator.getInstance("HmacSHA512").generateKey());
+    }
+
+    private ThreadedSocket socket(StubTransport transport, String server) {
+        ThreadedSocket socket = new ThreadedSocket(transport, cryptoManager, server);
+        socket.setOnMessageListener((message, s) -> received.add(message.getData(TextMessage.DATA_RAW_TEXT)));
+        socket.setOnDisconnectListener(s -> { });
+        socket.start();
+        return socket;
+    }
+
+    private static boolean deliver(ByteBuffer frame, ThreadedSocket to) {
+        ByteBuffer copy = frame.duplicate();
+        int length = copy.getInt();
+        int lengthHmac = copy.getInt();
+        ByteBuffer raw = copy.slice().limit(length);
+        ByteBuffer hmac = copy.position(Frames.HEADER_LENGTH + length).slice().limit(lengthHmac);
+        return to.onFrame(raw, hmac);
+    }
+
+    private ByteBuffer sealedWithKeyFile(String text) throws EncryptionException {
+        return Frames.seal(cryptoManager, cryptoManager.getDefaultSuite(), MessageCodecs.JSON.encode(TextMessage.make(text)));
+    }
+
+    @Test
+    void messagesShouldWaitForTheSessionKeys() {
+        StubTransport clientTransport = new StubTransport(), serverTransport = new StubTransport();
+        ThreadedSocket client = socket(clientTransport, "test:1");
+        ThreadedSocket server = socket(serverTransport, null);
+
+        client.sendMessage("early");
+        assertEquals(1, clientTransport.written.size(), "only the offer should have been sent");
+
+        deliver(clientTransport.written.get(0), server);
+        deliver(serverTransport.written.get(0), client);
+        assertTrue(client.hasSessionKeys());
+        assertEquals(2, clientTransport.written.size());
+
+        assertTrue(deliver(clientTransport.written.get(1), server));
+        assertEquals(List.of("early"), received);
+        assertFalse(serverTransport.closed);
+    }
+
+    @Test
+    void framesSealedWithTheKeyFileShouldBeRefusedAfterTheHandshake() throws EncryptionException {
+        StubTransport clientTransport = new StubTransport(), serverTransport = new StubTransport();
+        ThreadedSocket client = socket(clientTransport, "test:1");
+        ThreadedSocket server = socket(serverTransport, null);
+        deliver(clientTransport.written.get(0), server);
+        deliver(serverTransport.written.get(0), client);
+
+        deliver(sealedWithKeyFile("injected"), server);
+        assertTrue(received.isEmpty());
+        assertTrue(serverTransport.closed);
+    }
+
+    @Test
+    void aSecondHandshakeShouldCloseTheConnection() {
+        StubTransport clientTransport = new StubTransport(), serverTransport = new StubTransport();
+        ThreadedSocket client = socket(clientTransport, "test:1");
+        ThreadedSocket server = socket(serverTransport, null);
+        deliver(clientTransport.written.get(0), server);
+        deliver(serverTransport.written.get(0), client);
+
+        client.sendMessage(new HelloMessage(MessageCodecs.supported(), cryptoManager.getSupportedSuiteNames()));
+        deliver(clientTransport.written.get(clientTransport.written.size() - 1), server);
+        assertTrue(serverTransport.closed);
+    }
+
+    @Test
+    void anAnswerWithoutSessionKeysShouldFailTheHandshake() throws EncryptionException {
+        StubTransport clientTransport = new StubTransport();
+        ThreadedSocket client = socket(clientTransport, "test:1");
+        client.sendMessage("held");
+
+        // As if someone with the key file stripped the key share from the offer
+        HelloMessage answer = new HelloMessage(MessageCodecs.JSON.getName(), cryptoManager.getDefaultSuite().getSuiteName());
+        deliver(Frames.seal(cryptoManager, cryptoManager.getDefaultSuite(), MessageCodecs.JSON.encode(answer)), client);
+
+        assertTrue(clientTransport.closed);
+        assertFalse(client.hasSessionKeys());
+        assertEquals(1, clientTransport.written.size(), "the held message should not go out with the key file");
+    }
+}
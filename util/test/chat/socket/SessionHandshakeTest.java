@@ -0,0 +1,146 @@
+package chat.socket;
+
+import chat.encryption.CryptoManager;
+import chat.encryption.EncryptionException;
+import chat.encryption.SessionTickets;
+import chat.encryption.TicketCache;
+import chat.messages.TextMessage;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.TestInstance;
+
+import javax.crypto.KeyGenerator;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.security.NoSuchAlgorithmException;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+@TestInstance(TestInstance.Lifecycle.PER_CLASS)
+class SessionHandshakeTest {
+    private CryptoManager cryptoManager;
+    private SessionTickets sessionTickets;
+    private ServerSocket server;
+    private final BlockingQueue<ThreadedSocket> accepted = new LinkedBlockingQueue<>();
+    private final BlockingQueue<String> echoed = new LinkedBlockingQueue<>();
+
+    @BeforeAll
+    void setup() throws EncryptionException, NoSuchAlgorithmException, IOException {
+        KeyGenerator keyGen = KeyGenerator.getInstance("AES");
+        keyGen.init(256);
+        this.cryptoManager = new CryptoManager(keyGen.generateKey(), KeyGenerator.getInstance("HmacSHA512").generateKey());
+        this.sessionTickets = new SessionTickets(60);
+
+        // Echoes every text message back to the client
+        this.server = new ServerSocket(0, 10, InetAddress.getLoopbackAddress());
+        Thread acceptor = new Thread(() -> {
+            try {
+                while (!server.isClosed()) {
+                    ThreadedSocket socket = new ThreadedSocket(server.accept(), cryptoManager);
+                    socket.setSessionTickets(sessionTickets);
+                    socket.setOnMessageListener((message, s) -> s.sendMessage(message));
+                    socket.setOnDisconnectListener(s -> { });
+                    socket.start();
+                    accepted.add(socket);
+                }
+            } catch (IOException ignored) {
+            }
+        });
+        acceptor.setDaemon(true);
+        acceptor.start();
+    }
+
+    @AfterAll
+    void tearDown() throws IOException {
+        server.close();
+    }
+
+    @Test
+    void connectionsShouldGetSessionKeys() throws IOException, InterruptedException {
+        ThreadedSocket client = connect(null);
+        ThreadedSocket peer = accepted.poll(5, TimeUnit.SECONDS);
+
+        assertNotNull(peer);
+        assertTrue(client.hasSessionKeys());
+        assertTrue(peer.hasSessionKeys());
+        assertFalse(client.isResumed());
+
+        client.disconnect();
+    }
+
+    @Test
+    void reconnectShouldResumeTheSession() throws IOException, InterruptedException {
+        TicketCache ticketCache = new TicketCache();
+
+        ThreadedSocket first = connect(ticketCache);
+        assertFalse(first.isResumed());
+        first.disconnect();
+
+        ThreadedSocket second = connect(ticketCache);
+        assertTrue(second.hasSessionKeys());
+        assertTrue(second.isResumed());
+        second.disconnect();
+    }
+
+    @Test
+    void bothSidesShouldCompressOnceNegotiated() throws IOException, InterruptedException {
+        long compressed = SocketMetrics.get().getCompressedFrames();
+        ThreadedSocket client = connect(null, new SocketOptions());
+        ThreadedSocket peer = accepted.poll(5, TimeUnit.SECONDS);
+
+        assertNotNull(peer);
+        assertTrue(client.isCompressed());
+        assertTrue(peer.isCompressed());
+
+        // Sent and echoed back compressed
+        String text = "the quick brown fox jumps over the lazy dog ".repeat(20);
+        assertEquals(text, roundTrip(client, text));
+        assertTrue(SocketMetrics.get().getCompressedFrames() >= compressed + 2);
+        client.disconnect();
+    }
+
+    @Test
+    void compressionShouldBeOffIfTheClientDoesNotOfferIt() throws IOException, InterruptedException {
+        SocketOptions options = new SocketOptions();
+        options.setCompression(false);
+        ThreadedSocket client = connect(null, options);
+        ThreadedSocket peer = accepted.poll(5, TimeUnit.SECONDS);
+
+        assertNotNull(peer);
+        assertFalse(client.isCompressed());
+        assertFalse(peer.isCompressed());
+        client.disconnect();
+    }
+
+    private ThreadedSocket connect(TicketCache ticketCache) throws IOException, InterruptedException {
+        return connect(ticketCache, new SocketOptions());
+    }
+
+    /**
+     * Connect to the echo server and wait for a message to make the round trip
+     *
+     * The handshake answer is sent before the echo, so the handshake is done once it arrives.
+     */
+    private ThreadedSocket connect(TicketCache ticketCache, SocketOptions options) throws IOException, InterruptedException {
+        // Earlier connections have been accepted before their echo came back
+        accepted.clear();
+        ThreadedSocket client = new ThreadedSocket(server.getInetAddress().getHostAddress(), server.getLocalPort(), cryptoManager, options);
+        client.setTicketCache(ticketCache);
+        client.setOnMessageListener((message, s) -> echoed.add(message.getData(TextMessage.DATA_RAW_TEXT)));
+        client.setOnDisconnectListener(s -> { });
+        client.start();
+
+        assertEquals("hello", roundTrip(client, "hello"));
+        return client;
+    }
+
+    private String roundTrip(ThreadedSocket client, String text) throws InterruptedException {
+        client.sendMessage(text);
+        return echoed.poll(5, TimeUnit.SECONDS);
+    }
+}
@@ -0,0 +1,102 @@
+package chat.socket;
+
+import chat.encryption.CryptoManager;
+import chat.encryption.EncryptionException;
+import chat.messages.TextMessage;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.TestInstance;
+
+import javax.crypto.KeyGenerator;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.security.NoSuchAlgorithmException;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+@TestInstance(TestInstance.Lifecycle.PER_CLASS)
+class WriteCoalescingTest {
+    private static final int MESSAGES = 500;
+
+    private CryptoManager cryptoManager;
+    private ServerSocket server;
+    private final BlockingQueue<String> received = new LinkedBlockingQueue<>();
+
+    @BeforeAll
+    void setup() throws EncryptionException, NoSuchAlgorithmException, IOException {
+        KeyGenerator keyGen = KeyGenerator.getInstance("AES");
+        keyGen.init(256);
+        this.cryptoManager = new CryptoManager(keyGen.generateKey(), KeyGenerator.getInstance("HmacSHA512").generateKey());
+
+        this.server = new ServerSocket(0, 10, InetAddress.getLoopbackAddress());
+        Thread acceptor = new Thread(() -> {
+            try {
+                while (!server.isClosed()) {
+                    ThreadedSocket socket = new ThreadedSocket(server.accept(), cryptoManager);
+                    socket.setOnMessageListener((message, s) -> received.add(message.getData(TextMessage.DATA_RAW_TEXT)));
+                    socket.setOnDisconnectListener(s -> { });
+                    socket.start();
+                }
+            } catch (IOException ignored) {
+            }
+        });
+        acceptor.setDaemon(true);
+        acceptor.start();
+    }
+
+    @AfterAll
+    void tearDown() throws IOException {
+        server.close();
+    }
+
+    private static SocketOptions options() {
+        SocketOptions options = new SocketOptions();
+        options.setOutboundQueueSize(MESSAGES * 2);
+        options.setFlushDelayMicros(2000);
+        options.setFlushBytes(16 * 1024);
+        return options;
+    }
+
+    private void sendBurst(ThreadedSocket client) throws InterruptedException {
+        received.clear();
+        SocketMetrics metrics = SocketMetrics.get();
+        long writes = metrics.getWriteOperations();
+        long frames = metrics.getFramesOut();
+
+        for (int i = 0; i < MESSAGES; i++) client.sendMessage("message " + i);
+        for (int i = 0; i < MESSAGES; i++) assertEquals("message " + i, received.poll(5, TimeUnit.SECONDS));
+
+        // The burst, and the handshake, should go out in far fewer writes than frames
+        assertTrue(metrics.getFramesOut() - frames >= MESSAGES);
+        assertTrue(metrics.getWriteOperations() - writes < MESSAGES / 4,
+                (metrics.getWriteOperations() - writes) + " writes for " + (metrics.getFramesOut() - frames) + " frames");
+        client.disconnect();
+    }
+
+    @Test
+    void blockingBurstShouldBeCoalesced() throws IOException, InterruptedException {
+        ThreadedSocket client = new ThreadedSocket(server.getInetAddress().getHostAddress(), server.getLocalPort(), cryptoManager, options());
+        client.setOnMessageListener((message, s) -> { });
+        client.setOnDisconnectListener(s -> { });
+        client.start();
+
+        sendBurst(client);
+    }
+
+    @Test
+    void nioBurstShouldBeCoalesced() throws IOException, InterruptedException {
+        EventLoopGroup group = new EventLoopGroup(1);
+        ThreadedSocket client = new ThreadedSocket(server.getInetAddress().getHostAddress(), server.getLocalPort(), group, cryptoManager, options());
+        client.setOnMessageListener((message, s) -> { });
+        client.setOnDisconnectListener(s -> { });
+        client.start();
+
+        sendBurst(client);
+        group.shutdown();
+    }
+}